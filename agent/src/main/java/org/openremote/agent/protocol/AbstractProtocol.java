@@ -24,7 +24,8 @@ import org.apache.camel.builder.RouteBuilder;
 import org.openremote.agent.protocol.filter.MessageFilter;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
-import org.openremote.container.concurrent.GlobalLock;
+import org.openremote.container.concurrent.ScopedLock;
+import org.openremote.container.concurrent.StripedLock;
 import org.openremote.container.message.MessageBrokerContext;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.message.MessageBrokerSetupService;
@@ -45,24 +46,23 @@ import org.openremote.model.value.Values;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 
 /**
  * Thread-safe base implementation for protocols.
  * <p>
- * Subclasses should use the {@link GlobalLock#withLock} and {@link GlobalLock#withLockReturning} methods
- * to guard critical sections when modifying shared state:
+ * Subclasses should use the {@link #withLock} and {@link #withLockReturning} methods to guard critical sections
+ * when modifying shared state, these obtain the {@link ScopedLock} of this protocol instance:
  * <blockquote><pre>{@code
- * withLock(getProtocolName(), () -> {
+ * withLock("myCriticalSection", () -> {
  *     // Critical section
  * });
  * }</pre></blockquote>
  * <blockquote><pre>{@code
- * return withLockReturning(() -> {
+ * return withLockReturning("myCriticalSection", () -> {
  *     // Critical section
  *     return ...;
  * });
@@ -70,7 +70,12 @@ import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
  * <p>
  * All <code>abstract</code> methods are always called within lock scope. An implementation can rely on this lock
  * and safely modify internal, protocol-specific shared state. However, if a protocol implementation schedules
- * an asynchronous task, this task must obtain the lock to call any protocol operations.
+ * an asynchronous task, this task must obtain the lock to call any protocol operations. The lock only guards the
+ * state of this protocol, other protocols and the rest of the system are not blocked while it is held.
+ * <p>
+ * The callbacks {@link #updateLinkedAttribute} and {@link #updateStatus} only take the read lock of this protocol
+ * and the lock of the protocol configuration they update, so a slow update of one protocol configuration doesn't
+ * block updates of other protocol configurations of the same protocol.
  */
 public abstract class AbstractProtocol implements Protocol {
 
@@ -78,7 +83,7 @@ public abstract class AbstractProtocol implements Protocol {
 
         final AssetAttribute protocolConfiguration;
         final Consumer<ConnectionStatus> connectionStatusConsumer;
-        ConnectionStatus currentConnectionStatus;
+        volatile ConnectionStatus currentConnectionStatus;
 
         protected LinkedProtocolInfo(
             AssetAttribute protocolConfiguration,
@@ -112,6 +117,9 @@ public abstract class AbstractProtocol implements Protocol {
     protected final Map<AttributeRef, AssetAttribute> linkedAttributes = new HashMap<>();
     protected final Map<AttributeRef, LinkedProtocolInfo> linkedProtocolConfigurations = new HashMap<>();
     protected final Map<AttributeRef, List<MessageFilter>> linkedAttributeFilters = new HashMap<>();
+    protected final ScopedLock lock = new ScopedLock(getClass().getSimpleName());
+    // Protocol configuration ref -> lock serializing the updates of that protocol configuration
+    protected final StripedLock configurationLocks = new StripedLock(getClass().getSimpleName() + "Configuration");
     protected static final List<MetaItemDescriptor> attributeMetaItemDescriptors;
     protected MessageBrokerContext messageBrokerContext;
     protected ProducerTemplate producerTemplate;
@@ -153,7 +161,7 @@ public abstract class AbstractProtocol implements Protocol {
         this.messageBrokerContext = container.getService(MessageBrokerSetupService.class).getContext();
         this.producerTemplate = container.getService(MessageBrokerService.class).getProducerTemplate();
 
-        withLock(getProtocolName() + "::start", () -> {
+        withLock("start", () -> {
             try {
                 messageBrokerContext.addRoutes(new RouteBuilder() {
                     @Override
@@ -179,7 +187,7 @@ public abstract class AbstractProtocol implements Protocol {
 
     @Override
     final public void stop(Container container) {
-        withLock(getProtocolName() + "::stop", () -> {
+        withLock("stop", () -> {
             linkedAttributes.clear();
             try {
                 messageBrokerContext.stopRoute("Actuator-" + getProtocolName(), 1, TimeUnit.MILLISECONDS);
@@ -195,7 +203,7 @@ public abstract class AbstractProtocol implements Protocol {
 
     @Override
     final public void linkProtocolConfiguration(AssetAttribute protocolConfiguration, Consumer<ConnectionStatus> statusConsumer) {
-        withLock(getProtocolName() + "::linkProtocolConfiguration", () -> {
+        withLock("linkProtocolConfiguration", () -> {
             LOG.finer("Linking protocol configuration to protocol '" + getProtocolName() + "': " + protocolConfiguration);
             linkedProtocolConfigurations.put(
                 protocolConfiguration.getReferenceOrThrow(),
@@ -207,7 +215,7 @@ public abstract class AbstractProtocol implements Protocol {
 
     @Override
     final public void unlinkProtocolConfiguration(AssetAttribute protocolConfiguration) {
-        withLock(getProtocolName() + "::unlinkProtocolConfiguration", () -> {
+        withLock("unlinkProtocolConfiguration", () -> {
             LOG.finer("Unlinking protocol configuration from protocol '" + getProtocolName() + "': " + protocolConfiguration);
             doUnlinkProtocolConfiguration(protocolConfiguration);
             linkedProtocolConfigurations.remove(protocolConfiguration.getReferenceOrThrow());
@@ -216,7 +224,7 @@ public abstract class AbstractProtocol implements Protocol {
 
     @Override
     final public void linkAttributes(Collection<AssetAttribute> attributes, AssetAttribute protocolConfiguration) {
-        withLock(getProtocolName() + "::linkAttributes", () -> {
+        withLock("linkAttributes", () -> {
             attributes.forEach(attribute -> {
                 LOG.fine("Linking attribute to '" + getProtocolName() + "': " + attribute);
                 AttributeRef attributeRef = attribute.getReferenceOrThrow();
@@ -242,7 +250,7 @@ public abstract class AbstractProtocol implements Protocol {
 
     @Override
     final public void unlinkAttributes(Collection<AssetAttribute> attributes, AssetAttribute protocolConfiguration) throws Exception {
-        withLock(getProtocolName() + "::unlinkAttributes", () ->
+        withLock("unlinkAttributes", () ->
             attributes.forEach(attribute -> {
                 LOG.fine("Unlinking attribute on '" + getProtocolName() + "': " + attribute);
                 AttributeRef attributeRef = attribute.getReferenceOrThrow();
@@ -257,7 +265,7 @@ public abstract class AbstractProtocol implements Protocol {
      * Gets a linked attribute by its attribute ref
      */
     protected AssetAttribute getLinkedAttribute(AttributeRef attributeRef) {
-        return withLockReturning(getProtocolName() + "::getLinkedAttribute", () -> linkedAttributes.get(attributeRef));
+        return withReadLockReturning("getLinkedAttribute", () -> linkedAttributes.get(attributeRef));
     }
 
     /**
@@ -269,7 +277,7 @@ public abstract class AbstractProtocol implements Protocol {
     }
 
     protected AssetAttribute getLinkedProtocolConfiguration(AttributeRef protocolConfigurationRef) {
-        return withLockReturning(getProtocolName() + "::getLinkedProtocolConfigurations", () -> {
+        return withReadLockReturning("getLinkedProtocolConfiguration", () -> {
             LinkedProtocolInfo linkedProtocolInfo = linkedProtocolConfigurations.get(protocolConfigurationRef);
             // Don't bother with null check if someone calls here with an attribute not linked to this protocol
             // then they're doing something wrong so fail hard and fast
@@ -279,7 +287,7 @@ public abstract class AbstractProtocol implements Protocol {
 
     final protected void processLinkedAttributeWrite(AttributeEvent event) {
         LOG.finest("Processing linked attribute write on " + getProtocolName() + ": " + event);
-        withLock(getProtocolName() + "::processLinkedAttributeWrite", () -> {
+        withLock("processLinkedAttributeWrite", () -> {
             AssetAttribute attribute = linkedAttributes.get(event.getAttributeRef());
             if (attribute == null) {
                 LOG.warning("Attribute doesn't exist on this protocol: " + event.getAttributeRef());
@@ -304,7 +312,7 @@ public abstract class AbstractProtocol implements Protocol {
      * publish new sensor values, which performs additional verification and uses a different messaging queue.
      */
     final protected void sendAttributeEvent(AttributeEvent event) {
-        withLock(getProtocolName() + "::sendAttributeEvent", () -> {
+        withLock("sendAttributeEvent", () -> {
             // Don't allow updating linked attributes with this mechanism as it could cause an infinite loop
             if (linkedAttributes.containsKey(event.getAttributeRef())) {
                 LOG.warning("Cannot update an attribute linked to the same protocol; use updateLinkedAttribute for that: " + event);
@@ -319,89 +327,97 @@ public abstract class AbstractProtocol implements Protocol {
      * {@link MessageFilter}s that have been set for the {@link Attribute} against the {@link AttributeState#getValue}
      * before sending on the sensor queue.
      */
-    @SuppressWarnings("unchecked")
     final protected void updateLinkedAttribute(final AttributeState finalState, long timestamp) {
-        withLock(getProtocolName() + "::updateLinkedAttribute", () -> {
-            AttributeState state = finalState;
-            AssetAttribute attribute = linkedAttributes.get(state.getAttributeRef());
+        withReadLock("updateLinkedAttribute", () -> {
+            AssetAttribute attribute = linkedAttributes.get(finalState.getAttributeRef());
 
             if (attribute == null) {
-                LOG.severe("Update linked attribute called for un-linked attribute: " + state);
+                LOG.severe("Update linked attribute called for un-linked attribute: " + finalState);
                 return;
             }
 
-            if (state.getValue().isPresent()) {
-                List<MessageFilter> filters;
-                Value value = state.getValue().get();
+            AttributeRef protocolConfigurationRef = AgentLink.getAgentLink(attribute).orElse(null);
+            withConfigurationLock(protocolConfigurationRef, "updateLinkedAttribute", () ->
+                doUpdateLinkedAttribute(attribute, finalState, timestamp)
+            );
+        });
+    }
 
-                filters = linkedAttributeFilters.get(state.getAttributeRef());
+    @SuppressWarnings("unchecked")
+    private void doUpdateLinkedAttribute(AssetAttribute attribute, AttributeState finalState, long timestamp) {
+        AttributeState state = finalState;
 
-                if (filters != null) {
-                    LOG.fine("Applying message filters to sensor value...");
+        if (state.getValue().isPresent()) {
+            List<MessageFilter> filters;
+            Value value = state.getValue().get();
 
-                    for (MessageFilter filter : filters) {
-                        boolean filterOk = filter.getMessageType() == value.getType().getModelType();
+            filters = linkedAttributeFilters.get(state.getAttributeRef());
 
-                        if (!filterOk) {
-                            // Try and convert the value
-                            ValueType filterValueType = ValueType.fromModelType(filter.getMessageType());
-                            if (filterValueType == null) {
-                                LOG.fine("Message filter type unknown: " + filter.getMessageType().getName());
-                                value = null;
+            if (filters != null) {
+                LOG.fine("Applying message filters to sensor value...");
+
+                for (MessageFilter filter : filters) {
+                    boolean filterOk = filter.getMessageType() == value.getType().getModelType();
+
+                    if (!filterOk) {
+                        // Try and convert the value
+                        ValueType filterValueType = ValueType.fromModelType(filter.getMessageType());
+                        if (filterValueType == null) {
+                            LOG.fine("Message filter type unknown: " + filter.getMessageType().getName());
+                            value = null;
+                        } else {
+                            Optional<Value> val = Values.convert(value, filterValueType);
+                            if (!val.isPresent()) {
+                                LOG.fine("Message filter type '" + filter.getMessageType().getName()
+                                             + "' is not compatible with actual message type '" + value.getType().getModelType().getName()
+                                             + "': " + filter.getClass().getName());
                             } else {
-                                Optional<Value> val = Values.convert(value, filterValueType);
-                                if (!val.isPresent()) {
-                                    LOG.fine("Message filter type '" + filter.getMessageType().getName()
-                                                 + "' is not compatible with actual message type '" + value.getType().getModelType().getName()
-                                                 + "': " + filter.getClass().getName());
-                                } else {
-                                    filterOk = true;
-                                }
-                                value = val.orElse(null);
+                                filterOk = true;
                             }
+                            value = val.orElse(null);
                         }
+                    }
 
-                        if (filterOk) {
-                            try {
-                                LOG.finest("Applying message filter: " + filter.getClass().getName());
-                                value = filter.process(value);
-                            } catch (Exception e) {
-                                LOG.log(
-                                    Level.SEVERE,
-                                    "Message filter threw and exception during processing of message: "
-                                        + filter.getClass().getName(),
-                                    e);
-                                value = null;
-                            }
+                    if (filterOk) {
+                        try {
+                            LOG.finest("Applying message filter: " + filter.getClass().getName());
+                            value = filter.process(value);
+                        } catch (Exception e) {
+                            LOG.log(
+                                Level.SEVERE,
+                                "Message filter threw and exception during processing of message: "
+                                    + filter.getClass().getName(),
+                                e);
+                            value = null;
                         }
+                    }
 
-                        if (value == null) {
-                            break;
-                        }
+                    if (value == null) {
+                        break;
                     }
                 }
+            }
 
-                // Do basic value conversion
-                Optional<ValueType> attributeValueType = attribute.getType().map(AttributeValueType::getValueType);
-
-                if (value != null && attributeValueType.isPresent()) {
-                    if (attributeValueType.get() != value.getType()) {
-                        LOG.fine("Converting value: " + value.getType() + " -> " + attributeValueType.get());
-                        Optional<Value> convertedValue = Values.convert(value, attributeValueType.get());
-                        if (!convertedValue.isPresent()) {
-                            LOG.warning("Failed to convert value: " + value.getType() + " -> " + attributeValueType.get());
-                        } else {
-                            value = convertedValue.get();
-                        }
+            // Do basic value conversion
+            Optional<ValueType> attributeValueType = attribute.getType().map(AttributeValueType::getValueType);
+
+            if (value != null && attributeValueType.isPresent()) {
+                if (attributeValueType.get() != value.getType()) {
+                    LOG.fine("Converting value: " + value.getType() + " -> " + attributeValueType.get());
+                    Optional<Value> convertedValue = Values.convert(value, attributeValueType.get());
+                    if (!convertedValue.isPresent()) {
+                        LOG.warning("Failed to convert value: " + value.getType() + " -> " + attributeValueType.get());
+                    } else {
+                        value = convertedValue.get();
                     }
                 }
-
-                state = new AttributeState(state.getAttributeRef(), value);
             }
-            AttributeEvent attributeEvent = new AttributeEvent(state, timestamp);
-            LOG.fine("Sending on sensor queue: " + attributeEvent);
-            producerTemplate.sendBodyAndHeader(SENSOR_QUEUE, attributeEvent, Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, getProtocolName());
-        });
+
+            state = new AttributeState(state.getAttributeRef(), value);
+        }
+        AttributeEvent attributeEvent = new AttributeEvent(state, timestamp);
+        LOG.fine("Sending on sensor queue: " + attributeEvent);
+        producerTemplate.sendBodyAndHeader(SENSOR_QUEUE, attributeEvent, Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, getProtocolName());
     }
 
     /**
@@ -418,7 +434,7 @@ public abstract class AbstractProtocol implements Protocol {
      * the consumer to perform the modification.
      */
     final protected void updateLinkedProtocolConfiguration(AssetAttribute protocolConfiguration, Consumer<AssetAttribute> protocolUpdater) {
-        withLock(getProtocolName() + "::updateLinkedProtocolConfiguration", () -> {
+        withLock("updateLinkedProtocolConfiguration", () -> {
             // Clone the protocol configuration rather than modify this one
             AssetAttribute modifiedProtocolConfiguration = protocolConfiguration.deepCopy();
             protocolUpdater.accept(modifiedProtocolConfiguration);
@@ -430,12 +446,14 @@ public abstract class AbstractProtocol implements Protocol {
      * Update the runtime status of a protocol configuration by its attribute ref
      */
     final protected void updateStatus(AttributeRef protocolRef, ConnectionStatus connectionStatus) {
-        withLock(getProtocolName() + "::updateStatus", () -> {
+        withReadLock("updateStatus", () -> {
             LinkedProtocolInfo protocolInfo = linkedProtocolConfigurations.get(protocolRef);
             if (protocolInfo != null) {
-                LOG.fine("Updating protocol status to '" + connectionStatus + "': " + protocolRef);
-                protocolInfo.getConnectionStatusConsumer().accept(connectionStatus);
-                protocolInfo.setCurrentConnectionStatus(connectionStatus);
+                withConfigurationLock(protocolRef, "updateStatus", () -> {
+                    LOG.fine("Updating protocol status to '" + connectionStatus + "': " + protocolRef);
+                    protocolInfo.getConnectionStatusConsumer().accept(connectionStatus);
+                    protocolInfo.setCurrentConnectionStatus(connectionStatus);
+                });
             }
         });
     }
@@ -444,12 +462,48 @@ public abstract class AbstractProtocol implements Protocol {
      * Gets the current runtime status of a protocol configuration.
      */
     final protected ConnectionStatus getStatus(AssetAttribute protocolConfiguration) {
-        return withLockReturning(getProtocolName() + "::getStatus", () -> {
+        return withReadLockReturning("getStatus", () -> {
             LinkedProtocolInfo linkedProtocolInfo = linkedProtocolConfigurations.get(protocolConfiguration.getReferenceOrThrow());
             return linkedProtocolInfo.getCurrentConnectionStatus();
         });
     }
 
+    /**
+     * Obtain the exclusive lock of this protocol, see {@link ScopedLock#withLock}.
+     */
+    protected void withLock(String site, Runnable runnable) {
+        lock.withLock(site, runnable);
+    }
+
+    /**
+     * Obtain the exclusive lock of this protocol, see {@link ScopedLock#withLockReturning}.
+     */
+    protected <R> R withLockReturning(String site, Supplier<R> supplier) {
+        return lock.withLockReturning(site, supplier);
+    }
+
+    /**
+     * Obtain the shared read lock of this protocol, see {@link ScopedLock#withReadLock}.
+     */
+    protected void withReadLock(String site, Runnable runnable) {
+        lock.withReadLock(site, runnable);
+    }
+
+    /**
+     * Obtain the exclusive lock of a protocol configuration, callers must hold the lock or read lock of this
+     * protocol first and must not acquire the lock of another protocol configuration while holding it.
+     */
+    protected void withConfigurationLock(AttributeRef protocolConfigurationRef, String site, Runnable runnable) {
+        configurationLocks.get(protocolConfigurationRef).withLock(site, runnable);
+    }
+
+    /**
+     * Obtain the shared read lock of this protocol, see {@link ScopedLock#withReadLockReturning}.
+     */
+    protected <R> R withReadLockReturning(String site, Supplier<R> supplier) {
+        return lock.withReadLockReturning(site, supplier);
+    }
+
     @Override
     final public ProtocolDescriptor getProtocolDescriptor() {
         return new ProtocolDescriptor(
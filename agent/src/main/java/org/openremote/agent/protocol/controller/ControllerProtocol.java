@@ -45,8 +45,6 @@ import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.model.Constants.PROTOCOL_NAMESPACE;
 import static org.openremote.model.util.TextUtil.*;
 
@@ -353,7 +351,7 @@ public class ControllerProtocol extends AbstractProtocol {
     }
 
     private void executeInitialStatus(AttributeRef attributeRef, String deviceName, String sensorName, AttributeRef controllerRef, Consumer<Response> responseConsumer) {
-        withLock(getProtocolName() + "::executeInitialStatus::" + attributeRef, () -> {
+        withLock("executeInitialStatus", () -> {
             LOG.info("### Initial status check for " + attributeRef.getAttributeName() + " [" + deviceName + "," + sensorName + "] ...");
 
             HttpClientProtocol.HttpClientRequest checkRequest = RequestBuilder.buildStatusRequest(deviceName, Arrays.asList(sensorName), this.controllersTargetMap.get(controllerRef));
@@ -413,7 +411,7 @@ public class ControllerProtocol extends AbstractProtocol {
      * @return {@link ScheduledFuture} task to keep a track on
      */
     private ScheduledFuture computePollingTask(PollingKey pollingKey) {
-        return withLockReturning(getProtocolName() + "::computePollingTask::" + pollingKey.getControllerAgentRef() + "::" + pollingKey.getDeviceName(), () -> {
+        return withLockReturning("computePollingTask", () -> {
             List<String> sensorNameList = this.controllersMap.get(pollingKey.getControllerAgentRef()).collectSensorNameLinkedToDeviceName(pollingKey.getDeviceName());
 
             if (sensorNameList.isEmpty()) {
@@ -633,7 +631,7 @@ public class ControllerProtocol extends AbstractProtocol {
      * @param responseConsumer
      */
     private void executeHeartbeat(AttributeRef protocolRef, Consumer<Response> responseConsumer) {
-        withLock(getProtocolName() + "::executeHeartbeat", () -> {
+        withLock("executeHeartbeat", () -> {
             LOG.info("### Heartbeat check on " + protocolRef.getAttributeName() + "...");
 
             HttpClientProtocol.HttpClientRequest checkRequest = RequestBuilder.buildCheckRequest(this.controllersTargetMap.get(protocolRef));
@@ -57,7 +57,6 @@ import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.model.Constants.PROTOCOL_NAMESPACE;
 import static org.openremote.model.util.TextUtil.*;
 
@@ -1350,7 +1349,7 @@ public class HttpClientProtocol extends AbstractProtocol {
     }
 
     protected void cancelPolling(AttributeRef attributeRef) {
-        withLock(getProtocolName() + "::cancelPolling", () -> {
+        withLock("cancelPolling", () -> {
             ScheduledFuture pingPoll = pollingMap.remove(attributeRef);
             if (pingPoll != null) {
                 pingPoll.cancel(false);
@@ -38,8 +38,6 @@ import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.model.Constants.PROTOCOL_NAMESPACE;
 import static org.openremote.model.asset.AssetMeta.RANGE_MAX;
 import static org.openremote.model.asset.AssetMeta.RANGE_MIN;
@@ -318,7 +316,7 @@ public class SimulatorProtocol extends AbstractProtocol {
      * Call this to simulate a sensor update after the specified delay (it uses the last value supplied from send to actuator).
      */
     public void updateSensor(AttributeRef attributeRef, int updateSensorDelayMilliseconds) {
-        withLock(getProtocolName() + "::updateSensor", () -> {
+        withLock("updateSensor", () -> {
             AttributeRef instanceRef = attributeInstanceMap.get(attributeRef);
 
             if (instanceRef == null) {
@@ -373,7 +371,7 @@ public class SimulatorProtocol extends AbstractProtocol {
      * Call this to simulate a send to actuator.
      */
     public boolean putValue(AttributeState attributeState) {
-        Boolean result = withLockReturning(getProtocolName() + "::putValue", () -> {
+        Boolean result = withLockReturning("putValue", () -> {
             AttributeRef attributeRef = attributeState.getAttributeRef();
             AttributeRef instanceRef = attributeInstanceMap.get(attributeRef);
 
@@ -431,7 +429,7 @@ public class SimulatorProtocol extends AbstractProtocol {
      * Call this to get the current value of an attribute.
      */
     public Optional<Value> getValue(AttributeRef attributeRef) {
-        return withLockReturning(getProtocolName() + "::getValue", () -> {
+        return withReadLockReturning("getValue", () -> {
             SimulatorElement element = elements.get(attributeRef);
             return element != null ? element.getValue() : Optional.empty();
         });
@@ -455,7 +453,7 @@ public class SimulatorProtocol extends AbstractProtocol {
      * Read a state snapshot.
      */
     public Optional<SimulatorState> getSimulatorState(AttributeRef protocolConfigurationRef) {
-        return withLockReturning(getProtocolName() + "::getSimulatorState", () -> {
+        return withReadLockReturning("getSimulatorState", () -> {
             LOG.info("Getting simulator state for protocol configuration: " + protocolConfigurationRef);
             if (!instances.containsKey(protocolConfigurationRef))
                 return Optional.empty();
@@ -474,7 +472,7 @@ public class SimulatorProtocol extends AbstractProtocol {
      * Write a state snapshot.
      */
     public void updateSimulatorState(SimulatorState simulatorState) {
-        withLock(getProtocolName() + "::updateSimulatorState", () -> {
+        withLock("updateSimulatorState", () -> {
             AttributeRef protocolConfigurationRef = simulatorState.getProtocolConfigurationRef();
             if (!instances.containsKey(protocolConfigurationRef)) {
                 LOG.info("Ignoring simulator update, no instance for protocol configuration: " + protocolConfigurationRef);
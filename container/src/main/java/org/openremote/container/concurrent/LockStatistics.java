@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Acquisition counts and wait/hold time histograms of a lock site, see {@link ScopedLock}.
+ */
+public class LockStatistics {
+
+    /**
+     * Upper bounds of the histogram buckets, the last bucket counts everything above the last bound.
+     */
+    public static final long[] BUCKET_BOUNDS_MILLIS = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000};
+
+    protected final String site;
+    protected final LongAdder acquisitions = new LongAdder();
+    protected final LongAdder contentions = new LongAdder();
+    protected final LongAdder timeouts = new LongAdder();
+    protected final AtomicLong maxWaitMillis = new AtomicLong();
+    protected final AtomicLong maxHoldMillis = new AtomicLong();
+    protected final AtomicLongArray waitHistogram = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+    protected final AtomicLongArray holdHistogram = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+
+    public LockStatistics(String site) {
+        this.site = site;
+    }
+
+    public String getSite() {
+        return site;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /**
+     * @return The number of acquisitions that had to wait for another thread to release the lock.
+     */
+    public long getContentions() {
+        return contentions.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis.get();
+    }
+
+    public long getMaxHoldMillis() {
+        return maxHoldMillis.get();
+    }
+
+    public long[] getWaitHistogram() {
+        return toArray(waitHistogram);
+    }
+
+    public long[] getHoldHistogram() {
+        return toArray(holdHistogram);
+    }
+
+    protected void record(boolean contended, long waitNanos, long holdNanos) {
+        acquisitions.increment();
+        if (contended) {
+            contentions.increment();
+        }
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        long holdMillis = TimeUnit.NANOSECONDS.toMillis(holdNanos);
+        waitHistogram.incrementAndGet(getBucket(waitMillis));
+        holdHistogram.incrementAndGet(getBucket(holdMillis));
+        maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+        maxHoldMillis.accumulateAndGet(holdMillis, Math::max);
+    }
+
+    protected void recordTimeout() {
+        timeouts.increment();
+    }
+
+    protected static int getBucket(long millis) {
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            if (millis < BUCKET_BOUNDS_MILLIS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MILLIS.length;
+    }
+
+    protected static long[] toArray(AtomicLongArray histogram) {
+        long[] result = new long[histogram.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = histogram.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "site='" + site + '\'' +
+            ", acquisitions=" + getAcquisitions() +
+            ", contentions=" + getContentions() +
+            ", timeouts=" + getTimeouts() +
+            ", maxWaitMillis=" + getMaxWaitMillis() +
+            ", maxHoldMillis=" + getMaxHoldMillis() +
+            '}';
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.concurrent;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.FINEST;
+
+/**
+ * A reentrant read/write lock guarding the shared state of a scope, such as a service, a protocol instance or an
+ * asset. Use convenience methods {@link #withLock} and {@link #withLockReturning} for exclusive access, and
+ * {@link #withReadLock} and {@link #withReadLockReturning} for read-only access that doesn't serialize other
+ * readers.
+ * <p>
+ * Each call names its lock site, a constant string that identifies the critical section. Contention, wait and hold
+ * times are recorded per scope and site, see {@link #getStatistics()}. At most {@link #MAX_STATISTICS_SITES} sites
+ * are recorded separately, further sites share the statistics of {@link #OTHER_SITES}. A thread holding the read lock can not acquire the write
+ * lock of the same scope, this fails immediately instead of waiting for the timeout.
+ * <p>
+ * To avoid deadlocks, never call into another scope while holding a lock if that scope can call back into this
+ * scope while holding its own lock.
+ */
+public class ScopedLock {
+
+    private static final Logger LOG = Logger.getLogger(ScopedLock.class.getName());
+
+    /**
+     * At least getOwner() is protected and not private...
+     */
+    static class OwnerAwareReadWriteLock extends ReentrantReadWriteLock {
+
+        public OwnerAwareReadWriteLock() {
+            super(true);
+        }
+
+        Thread owner() {
+            return super.getOwner();
+        }
+    }
+
+    /**
+     * Scopes and sites should be constants, this only guards against unbounded growth if they are not.
+     */
+    public static final int MAX_STATISTICS_SITES = 1000;
+    public static final String OTHER_SITES = "*::*";
+
+    static protected final Map<String, LockStatistics> statistics = new ConcurrentHashMap<>();
+
+    protected final String scope;
+    protected final OwnerAwareReadWriteLock lock = new OwnerAwareReadWriteLock();
+    protected volatile String writeOwnerSite;
+
+    public ScopedLock(String scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * @return Defaults to 30 seconds.
+     */
+    static public int getLockTimeoutMillis() {
+        return 30000;
+    }
+
+    /**
+     * @return The statistics of all lock sites that have been used so far.
+     */
+    static public Collection<LockStatistics> getStatistics() {
+        return Collections.unmodifiableCollection(statistics.values());
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return lock.isWriteLockedByCurrentThread();
+    }
+
+    /**
+     * Obtain the exclusive lock within {@link #getLockTimeoutMillis()} or throw {@link IllegalStateException}.
+     *
+     * @param site     The constant name of the critical section, used in statistics and log messages.
+     * @param runnable The guarded code to execute while holding the lock.
+     */
+    public void withLock(String site, Runnable runnable) {
+        withLockReturning(site, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Obtain the exclusive lock within {@link #getLockTimeoutMillis()} or throw {@link IllegalStateException}.
+     *
+     * @param site     The constant name of the critical section, used in statistics and log messages.
+     * @param supplier The guarded code to execute while holding the lock.
+     */
+    public <R> R withLockReturning(String site, Supplier<R> supplier) {
+        if (lock.getReadHoldCount() > 0 && !lock.isWriteLockedByCurrentThread()) {
+            throw new IllegalStateException(
+                "Can't acquire write lock while holding read lock of scope '" + scope + "': " + site
+            );
+        }
+        return execute(lock.writeLock(), true, site, supplier);
+    }
+
+    /**
+     * Obtain the shared read lock within {@link #getLockTimeoutMillis()} or throw {@link IllegalStateException}.
+     *
+     * @param site     The constant name of the critical section, used in statistics and log messages.
+     * @param runnable The guarded code to execute while holding the lock, must not modify shared state.
+     */
+    public void withReadLock(String site, Runnable runnable) {
+        withReadLockReturning(site, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Obtain the shared read lock within {@link #getLockTimeoutMillis()} or throw {@link IllegalStateException}.
+     *
+     * @param site     The constant name of the critical section, used in statistics and log messages.
+     * @param supplier The guarded code to execute while holding the lock, must not modify shared state.
+     */
+    public <R> R withReadLockReturning(String site, Supplier<R> supplier) {
+        return execute(lock.readLock(), false, site, supplier);
+    }
+
+    protected <R> R execute(Lock targetLock, boolean write, String site, Supplier<R> supplier) {
+        LockStatistics siteStatistics = getSiteStatistics(scope + "::" + site);
+        long waitStart = System.nanoTime();
+        try {
+            boolean contended = false;
+            boolean acquired = targetLock.tryLock();
+            if (!acquired) {
+                contended = true;
+                acquired = targetLock.tryLock(getLockTimeoutMillis(), TimeUnit.MILLISECONDS);
+            }
+            if (!acquired) {
+                siteStatistics.recordTimeout();
+                throw new IllegalStateException(
+                    "Could not acquire " + (write ? "write" : "read") + " lock of scope '" + scope
+                        + "' owned by " + owner() + " after waiting " + getLockTimeoutMillis() + "ms: " + site
+                );
+            }
+            long holdStart = System.nanoTime();
+            String previousOwnerSite = writeOwnerSite;
+            if (write) {
+                writeOwnerSite = site;
+            }
+            LOG.finest("+ Acquired " + (write ? "write" : "read") + " lock of scope '" + scope + "': " + site);
+            try {
+                return supplier.get();
+            } finally {
+                LOG.finest("- Releasing " + (write ? "write" : "read") + " lock of scope '" + scope + "': " + site);
+                if (write) {
+                    writeOwnerSite = previousOwnerSite;
+                }
+                targetLock.unlock();
+                siteStatistics.record(contended, holdStart - waitStart, System.nanoTime() - holdStart);
+            }
+        } catch (InterruptedException ex) {
+            LOG.log(FINEST, "Interrupted while waiting for lock of scope '" + scope + "': " + site);
+            return null;
+        }
+    }
+
+    static protected LockStatistics getSiteStatistics(String key) {
+        LockStatistics siteStatistics = statistics.get(key);
+        if (siteStatistics != null) {
+            return siteStatistics;
+        }
+        // Concurrent first uses of new sites can exceed the limit by the number of threads, that's fine
+        return statistics.computeIfAbsent(
+            statistics.size() < MAX_STATISTICS_SITES ? key : OTHER_SITES, LockStatistics::new
+        );
+    }
+
+    protected String owner() {
+        Thread lockOwner = lock.owner();
+        String site = writeOwnerSite;
+        if (lockOwner != null) {
+            return lockOwner.getName() + " executing " + site;
+        }
+        return lock.getReadLockCount() > 0 ? lock.getReadLockCount() + " reader(s)" : "Unknown executing " + site;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "scope='" + scope + '\'' +
+            '}';
+    }
+}
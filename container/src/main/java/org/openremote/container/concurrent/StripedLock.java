@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.concurrent;
+
+/**
+ * A fixed number of {@link ScopedLock}s of the same scope, a key is always mapped to the same lock. Use this to
+ * guard state keyed by identifiers with high cardinality, such as asset IDs, without one lock per identifier.
+ * Different keys may share a lock, so code holding the lock of one key must not acquire the lock of another key.
+ */
+public class StripedLock {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    protected final ScopedLock[] stripes;
+
+    public StripedLock(String scope) {
+        this(scope, DEFAULT_STRIPES);
+    }
+
+    public StripedLock(String scope, int stripes) {
+        this.stripes = new ScopedLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ScopedLock(scope);
+        }
+    }
+
+    public ScopedLock get(Object key) {
+        return stripes[key == null ? 0 : Math.floorMod(key.hashCode(), stripes.length)];
+    }
+}
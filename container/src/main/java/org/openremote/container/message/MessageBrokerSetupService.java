@@ -32,11 +32,15 @@ import org.openremote.container.security.IdentityService;
 import org.openremote.container.web.DefaultWebsocketComponent;
 import org.openremote.container.web.WebService;
 import org.openremote.container.web.socket.WebsocketComponent;
+import org.openremote.container.web.socket.WebsocketSessionQueue;
+import org.openremote.model.util.TextUtil;
 
+import java.util.Arrays;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 
 @SuppressWarnings("deprecation")
@@ -45,6 +49,10 @@ public class MessageBrokerSetupService implements ContainerService {
     public static final String WEBSOCKET_PATH = "/websocket";
     public static final String MESSAGE_SESSION_ALLOWED_ORIGIN = "MESSAGE_SESSION_ALLOWED_ORIGIN";
     public static final String MESSAGE_SESSION_ALLOWED_ORIGIN_DEFAULT = null;
+    public static final String WEBSOCKET_SESSION_QUEUE_SIZE = "WEBSOCKET_SESSION_QUEUE_SIZE";
+    public static final int WEBSOCKET_SESSION_QUEUE_SIZE_DEFAULT = WebsocketComponent.SESSION_QUEUE_SIZE_DEFAULT;
+    public static final String WEBSOCKET_SESSION_QUEUE_OVERFLOW = "WEBSOCKET_SESSION_QUEUE_OVERFLOW";
+    public static final String WEBSOCKET_SESSION_QUEUE_OVERFLOW_DEFAULT = WebsocketSessionQueue.OverflowPolicy.COALESCE.name();
     public static final int PRIORITY = DEFAULT_PRIORITY - 100;
 
     protected MessageBrokerContext context;
@@ -133,6 +141,19 @@ public class MessageBrokerSetupService implements ContainerService {
             container.getService(WebService.class),
             allowedOrigin
         );
+        websocketComponent.setSessionQueueSize(
+            getInteger(container.getConfig(), WEBSOCKET_SESSION_QUEUE_SIZE, WEBSOCKET_SESSION_QUEUE_SIZE_DEFAULT)
+        );
+        WebsocketSessionQueue.OverflowPolicy overflowPolicy = TextUtil.getEnumFromString(
+            WebsocketSessionQueue.OverflowPolicy.class,
+            getString(container.getConfig(), WEBSOCKET_SESSION_QUEUE_OVERFLOW, WEBSOCKET_SESSION_QUEUE_OVERFLOW_DEFAULT)
+        );
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException(
+                "Invalid " + WEBSOCKET_SESSION_QUEUE_OVERFLOW + ", must be one of: " + Arrays.toString(WebsocketSessionQueue.OverflowPolicy.values())
+            );
+        }
+        websocketComponent.setSessionQueueOverflowPolicy(overflowPolicy);
 
         context.addComponent(WebsocketComponent.NAME, websocketComponent);
     }
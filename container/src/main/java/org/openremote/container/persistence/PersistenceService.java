@@ -22,6 +22,7 @@ package org.openremote.container.persistence;
 import org.flywaydb.core.Flyway;
 import org.flywaydb.core.api.MigrationInfo;
 import org.hibernate.Session;
+import org.hibernate.Transaction;
 import org.hibernate.engine.spi.SharedSessionContractImplementor;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
@@ -31,6 +32,8 @@ import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.Persistence;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 import javax.ws.rs.core.UriBuilder;
 import java.util.ArrayList;
 import java.util.List;
@@ -198,6 +201,29 @@ public class PersistenceService implements ContainerService {
         }
     }
 
+    /**
+     * Calls the consumer with <code>true</code> when the transaction of the entity manager commits, and with
+     * <code>false</code> when it rolls back. Use this to publish state to other threads only once it is durable.
+     * If no transaction is active, the consumer is called immediately with <code>true</code>.
+     */
+    public void onTransactionCompletion(EntityManager em, Consumer<Boolean> completion) {
+        Transaction tx = em.unwrap(Session.class).getTransaction();
+        if (!tx.isActive()) {
+            completion.accept(true);
+            return;
+        }
+        tx.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                completion.accept(status == Status.STATUS_COMMITTED);
+            }
+        });
+    }
+
     public EntityManagerFactory getEntityManagerFactory() {
         return entityManagerFactory;
     }
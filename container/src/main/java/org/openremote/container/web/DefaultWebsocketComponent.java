@@ -47,6 +47,7 @@ import javax.websocket.server.HandshakeRequest;
 import javax.websocket.server.ServerEndpointConfig;
 import javax.ws.rs.WebApplicationException;
 import java.security.Principal;
+import java.util.Collections;
 import java.util.logging.Logger;
 
 import static javax.ws.rs.core.Response.Status.FORBIDDEN;
@@ -83,6 +84,7 @@ public class DefaultWebsocketComponent extends WebsocketComponent {
             LOG.info("Deploying websocket endpoint: " + endpointPath);
             webSocketDeploymentInfo.addEndpoint(
                 ServerEndpointConfig.Builder.create(WebsocketAdapter.class, endpointPath)
+                    .subprotocols(Collections.singletonList(WebsocketConstants.BINARY_SUBPROTOCOL))
                     .configurator(new DefaultContainerConfigurator() {
                         @SuppressWarnings("unchecked")
                         @Override
@@ -26,6 +26,7 @@ import javax.websocket.Endpoint;
 import javax.websocket.EndpointConfig;
 import javax.websocket.Session;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,12 +52,31 @@ public class WebsocketAdapter extends Endpoint {
             exchange.getIn().setHeader(WebsocketConstants.SESSION, session);
             exchange.getIn().setHeader(WebsocketConstants.SESSION_OPEN, true);
         });
-        session.addMessageHandler(String.class, message -> {
-            if (LOG.isLoggable(Level.FINE))
-                LOG.fine("Websocket session " + session.getId() + " message received: " + message);
-            this.consumer.sendMessage(session.getId(), getHandshakeAuth(session), message, exchange -> {
-                exchange.getIn().setHeader(WebsocketConstants.SESSION, session);
+        session.addMessageHandler(String.class, message -> onMessage(session, message));
+        if (WebsocketComponent.isBinarySession(session)) {
+            session.addMessageHandler(ByteBuffer.class, frame -> {
+                String message;
+                try {
+                    message = WebsocketBinaryCodec.decode(frame);
+                } catch (IllegalArgumentException ex) {
+                    LOG.log(Level.INFO, "Closing websocket session " + session.getId() + ", invalid binary frame", ex);
+                    try {
+                        session.close(new CloseReason(CloseReason.CloseCodes.PROTOCOL_ERROR, "Invalid binary frame"));
+                    } catch (IOException closeEx) {
+                        LOG.log(Level.FINE, "Error closing websocket session: " + session.getId(), closeEx);
+                    }
+                    return;
+                }
+                onMessage(session, message);
             });
+        }
+    }
+
+    protected void onMessage(Session session, String message) {
+        if (LOG.isLoggable(Level.FINE))
+            LOG.fine("Websocket session " + session.getId() + " message received: " + message);
+        this.consumer.sendMessage(session.getId(), getHandshakeAuth(session), message, exchange -> {
+            exchange.getIn().setHeader(WebsocketConstants.SESSION, session);
         });
     }
 
@@ -69,6 +89,7 @@ public class WebsocketAdapter extends Endpoint {
             exchange.getIn().setHeader(WebsocketConstants.SESSION_CLOSE, true);
         });
         consumer.getEndpoint().getWebsocketSessions().remove(session);
+        consumer.getEndpoint().getComponent().removeSessionQueue(session);
     }
 
     @Override
@@ -85,6 +106,7 @@ public class WebsocketAdapter extends Endpoint {
             exchange.getIn().setHeader(WebsocketConstants.SESSION_CLOSE_ERROR, true);
         });
         consumer.getEndpoint().getWebsocketSessions().remove(session);
+        consumer.getEndpoint().getComponent().removeSessionQueue(session);
     }
 
     protected AuthContext getHandshakeAuth(Session session) {
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.web.socket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.openremote.container.Container;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transcodes the text messages of a websocket session to compact binary frames and back, used when the client
+ * negotiates the {@link WebsocketConstants#BINARY_SUBPROTOCOL}.
+ * <p>
+ * A text message is a prefix such as <code>EVENT:</code> or <code>EVENT:mySubscriptionId:</code>, followed by an
+ * optional JSON payload. A binary frame is a CBOR (RFC 7049) array of one or two items: the prefix as a text string
+ * and the {@link Payload} as CBOR data. The sender of a message knows where its payload starts, a message without a
+ * separate payload is sent as a one item array holding the whole text. Arrays and maps of the payload are encoded
+ * with indefinite length, floating point numbers as single precision if this doesn't lose precision.
+ * <p>
+ * Repeated strings of a payload are encoded as stringrefs (see <a href="http://cbor.schmorp.de/stringref">
+ * http://cbor.schmorp.de/stringref</a>): the payload is wrapped in tag {@value #TAG_STRINGREF_NAMESPACE}, which
+ * starts an empty string table. A text string is appended to the table if it is at least as long in UTF-8 bytes as
+ * required for the current size of the table, see {@link #getMinReferenceLength}. Every later occurrence is encoded
+ * as tag {@value #TAG_STRINGREF} followed by the unsigned index of the string in the table. Field names, asset IDs,
+ * attribute names and type discriminators of a batch of events are therefore only sent once per frame. The table
+ * doesn't outlive the frame, so a payload is encoded once and the same bytes are sent to every session, and frames
+ * can be dropped or lost without affecting the following frames.
+ * <p>
+ * A payload which can't be transcoded, because it isn't valid JSON, is sent as part of the text in the first item.
+ */
+public class WebsocketBinaryCodec {
+
+    public static final int TAG_STRINGREF = 25;
+    public static final int TAG_STRINGREF_NAMESPACE = 256;
+
+    static final protected JsonFactory JSON_FACTORY = Container.JSON.getFactory();
+
+    static final protected byte[] INVALID_PAYLOAD = new byte[0];
+
+    /**
+     * The JSON payload of a message, transcoded to CBOR when a binary frame with the payload is sent for the first
+     * time. The same instance can be sent to many sessions, it is thread-safe.
+     */
+    public static class Payload {
+
+        final protected String json;
+        protected volatile byte[] encoded;
+
+        public Payload(String json) {
+            this.json = json;
+        }
+
+        public String getJson() {
+            return json;
+        }
+
+        /**
+         * @return The payload wrapped in a stringref namespace, or <code>null</code> if the payload isn't valid JSON.
+         * The returned array is shared and must not be modified.
+         */
+        public byte[] getEncoded() {
+            byte[] result = encoded;
+            if (result == null) {
+                synchronized (this) {
+                    result = encoded;
+                    if (result == null) {
+                        result = encodePayload(json);
+                        encoded = result;
+                    }
+                }
+            }
+            return result != INVALID_PAYLOAD ? result : null;
+        }
+    }
+
+    /**
+     * @param message The text of the message.
+     * @param payload The payload at the end of the text, or <code>null</code> if the whole text is sent as prefix.
+     * @throws IllegalArgumentException If the text doesn't end with the payload.
+     */
+    public static ByteBuffer encode(String message, Payload payload) {
+        byte[] payloadBytes = null;
+        String prefix = message;
+        if (payload != null) {
+            if (!message.endsWith(payload.getJson()))
+                throw new IllegalArgumentException("Message doesn't end with the given payload");
+            payloadBytes = payload.getEncoded();
+            if (payloadBytes != null) {
+                prefix = message.substring(0, message.length() - payload.getJson().length());
+            }
+        }
+
+        Writer writer = new Writer(prefix.length() + 9 + (payloadBytes != null ? payloadBytes.length : 0));
+        writer.out.write(payloadBytes != null ? 0x82 : 0x81);
+        writer.writeText(prefix);
+        if (payloadBytes != null) {
+            writer.out.write(payloadBytes, 0, payloadBytes.length);
+        }
+        return ByteBuffer.wrap(writer.out.toByteArray());
+    }
+
+    /**
+     * @throws IllegalArgumentException If the frame isn't valid.
+     */
+    public static String decode(ByteBuffer frame) {
+        try {
+            Reader reader = new Reader(frame);
+            int initial = reader.readByte();
+            if (initial != 0x81 && initial != 0x82)
+                throw new IllegalArgumentException("Frame must be an array of one or two items");
+            String prefix = reader.readString(reader.readByte());
+            if (initial == 0x81) {
+                reader.checkEnd();
+                return prefix;
+            }
+
+            StringWriter writer = new StringWriter(prefix.length() + frame.remaining() * 2);
+            writer.write(prefix);
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+                reader.readValue(generator, reader.readByte());
+            }
+            reader.checkEnd();
+            return writer.toString();
+        } catch (IllegalArgumentException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("Invalid frame: " + ex, ex);
+        }
+    }
+
+    /**
+     * @return The minimum length in UTF-8 bytes of a string added to a stringref table of the given size, a reference
+     * to the string is then never longer than the string.
+     */
+    public static int getMinReferenceLength(long tableSize) {
+        if (tableSize < 24)
+            return 3;
+        if (tableSize < 0x100)
+            return 4;
+        if (tableSize < 0x10000)
+            return 5;
+        if (tableSize < 0x100000000L)
+            return 7;
+        return 11;
+    }
+
+    static protected byte[] encodePayload(String json) {
+        Writer writer = new Writer(json.length());
+        writer.writeTypeAndLength(6, TAG_STRINGREF_NAMESPACE);
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            writer.writePayload(parser);
+        } catch (IOException | RuntimeException ex) {
+            return INVALID_PAYLOAD;
+        }
+        return writer.out.toByteArray();
+    }
+
+    /**
+     * Writes the items of a frame, not thread-safe.
+     */
+    static protected class Writer {
+
+        final protected ByteArrayOutputStream out;
+        // Only set while writing a stringref namespace
+        protected Map<String, Integer> stringIndex;
+
+        protected Writer(int initialSize) {
+            out = new ByteArrayOutputStream(initialSize);
+        }
+
+        protected void writePayload(JsonParser parser) throws IOException {
+            stringIndex = new HashMap<>();
+            int depth = 0;
+            boolean complete = false;
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (complete)
+                    throw new IOException("Payload must be a single JSON value");
+                switch (token) {
+                    case START_OBJECT:
+                        out.write(0xbf);
+                        depth++;
+                        break;
+                    case START_ARRAY:
+                        out.write(0x9f);
+                        depth++;
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        out.write(0xff);
+                        depth--;
+                        break;
+                    case FIELD_NAME:
+                        writeString(parser.getCurrentName());
+                        break;
+                    case VALUE_STRING:
+                        writeString(parser.getText());
+                        break;
+                    case VALUE_NUMBER_INT:
+                        if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                            // Beyond the range of CBOR integers without bignum tags
+                            writeDouble(parser.getDoubleValue());
+                        } else {
+                            writeLong(parser.getLongValue());
+                        }
+                        break;
+                    case VALUE_NUMBER_FLOAT:
+                        writeDouble(parser.getDoubleValue());
+                        break;
+                    case VALUE_TRUE:
+                        out.write(0xf5);
+                        break;
+                    case VALUE_FALSE:
+                        out.write(0xf4);
+                        break;
+                    case VALUE_NULL:
+                        out.write(0xf6);
+                        break;
+                    default:
+                        throw new IOException("Unsupported JSON token: " + token);
+                }
+                complete = depth == 0 && token != JsonToken.FIELD_NAME;
+            }
+            if (!complete)
+                throw new IOException("Payload must be a single JSON value");
+            stringIndex = null;
+        }
+
+        protected void writeString(String string) {
+            Integer index = stringIndex.get(string);
+            if (index != null) {
+                writeTypeAndLength(6, TAG_STRINGREF);
+                writeTypeAndLength(0, index);
+                return;
+            }
+            byte[] bytes = writeText(string);
+            if (bytes.length >= getMinReferenceLength(stringIndex.size())) {
+                stringIndex.put(string, stringIndex.size());
+            }
+        }
+
+        protected byte[] writeText(String string) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeTypeAndLength(3, bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return bytes;
+        }
+
+        protected void writeLong(long value) {
+            if (value >= 0) {
+                writeTypeAndLength(0, value);
+            } else {
+                writeTypeAndLength(1, -1 - value);
+            }
+        }
+
+        protected void writeDouble(double value) {
+            float floatValue = (float) value;
+            if (floatValue == value) {
+                out.write(0xfa);
+                writeBytes(Float.floatToIntBits(floatValue), 4);
+            } else {
+                out.write(0xfb);
+                writeBytes(Double.doubleToLongBits(value), 8);
+            }
+        }
+
+        protected void writeTypeAndLength(int majorType, long length) {
+            int type = majorType << 5;
+            if (length < 24) {
+                out.write(type | (int) length);
+            } else if (length < 0x100) {
+                out.write(type | 24);
+                writeBytes(length, 1);
+            } else if (length < 0x10000) {
+                out.write(type | 25);
+                writeBytes(length, 2);
+            } else if (length < 0x100000000L) {
+                out.write(type | 26);
+                writeBytes(length, 4);
+            } else {
+                out.write(type | 27);
+                writeBytes(length, 8);
+            }
+        }
+
+        protected void writeBytes(long value, int count) {
+            for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+                out.write((int) (value >>> shift) & 0xff);
+            }
+        }
+    }
+
+    /**
+     * Reads the items of a frame, not thread-safe.
+     */
+    static protected class Reader {
+
+        final protected ByteBuffer frame;
+        // The table of the innermost stringref namespace, null outside of a namespace
+        protected List<String> strings;
+
+        protected Reader(ByteBuffer frame) {
+            this.frame = frame;
+        }
+
+        protected int readByte() {
+            return frame.get() & 0xff;
+        }
+
+        protected void checkEnd() {
+            if (frame.hasRemaining())
+                throw new IllegalArgumentException("Unexpected data after frame: " + frame.remaining() + " bytes");
+        }
+
+        protected void readValue(JsonGenerator generator, int initial) throws IOException {
+            int majorType = initial >>> 5;
+            int info = initial & 0x1f;
+            switch (majorType) {
+                case 0:
+                    generator.writeNumber(readLength(info));
+                    break;
+                case 1:
+                    generator.writeNumber(-1 - readLength(info));
+                    break;
+                case 3:
+                    generator.writeString(readText(info));
+                    break;
+                case 4:
+                    generator.writeStartArray();
+                    if (info == 31) {
+                        int next;
+                        while ((next = readByte()) != 0xff) {
+                            readValue(generator, next);
+                        }
+                    } else {
+                        for (long i = readLength(info); i > 0; i--) {
+                            readValue(generator, readByte());
+                        }
+                    }
+                    generator.writeEndArray();
+                    break;
+                case 5:
+                    generator.writeStartObject();
+                    if (info == 31) {
+                        int next;
+                        while ((next = readByte()) != 0xff) {
+                            generator.writeFieldName(readString(next));
+                            readValue(generator, readByte());
+                        }
+                    } else {
+                        for (long i = readLength(info); i > 0; i--) {
+                            generator.writeFieldName(readString(readByte()));
+                            readValue(generator, readByte());
+                        }
+                    }
+                    generator.writeEndObject();
+                    break;
+                case 6:
+                    long tag = readLength(info);
+                    if (tag == TAG_STRINGREF_NAMESPACE) {
+                        List<String> outerStrings = strings;
+                        strings = new ArrayList<>();
+                        readValue(generator, readByte());
+                        strings = outerStrings;
+                    } else if (tag == TAG_STRINGREF) {
+                        generator.writeString(readReference());
+                    } else {
+                        throw new IllegalArgumentException("Unsupported tag: " + tag);
+                    }
+                    break;
+                case 7:
+                    switch (info) {
+                        case 20:
+                            generator.writeBoolean(false);
+                            break;
+                        case 21:
+                            generator.writeBoolean(true);
+                            break;
+                        case 22:
+                        case 23:
+                            generator.writeNull();
+                            break;
+                        // Written as double, the shortest float representation isn't the same number as double
+                        case 25:
+                            generator.writeNumber((double) halfToFloat(frame.getShort() & 0xffff));
+                            break;
+                        case 26:
+                            generator.writeNumber((double) frame.getFloat());
+                            break;
+                        case 27:
+                            generator.writeNumber(frame.getDouble());
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unsupported simple value: " + info);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported major type: " + majorType);
+            }
+        }
+
+        protected String readString(int initial) {
+            int majorType = initial >>> 5;
+            int info = initial & 0x1f;
+            if (majorType == 3)
+                return readText(info);
+            if (majorType == 6) {
+                long tag = readLength(info);
+                if (tag != TAG_STRINGREF)
+                    throw new IllegalArgumentException("Expected text string but found tag: " + tag);
+                return readReference();
+            }
+            throw new IllegalArgumentException("Expected text string but found major type: " + majorType);
+        }
+
+        protected String readText(int info) {
+            long length = readLength(info);
+            if (length > frame.remaining())
+                throw new IllegalArgumentException("Text string exceeds frame: " + length);
+            byte[] bytes = new byte[(int) length];
+            frame.get(bytes);
+            String string = new String(bytes, StandardCharsets.UTF_8);
+            if (strings != null && bytes.length >= getMinReferenceLength(strings.size())) {
+                strings.add(string);
+            }
+            return string;
+        }
+
+        protected String readReference() {
+            if (strings == null)
+                throw new IllegalArgumentException("String reference outside of a stringref namespace");
+            int initial = readByte();
+            if (initial >>> 5 != 0)
+                throw new IllegalArgumentException("String reference must be an unsigned integer");
+            long index = readLength(initial & 0x1f);
+            if (index >= strings.size())
+                throw new IllegalArgumentException("Unknown string reference: " + index);
+            return strings.get((int) index);
+        }
+
+        protected long readLength(int info) {
+            if (info < 24)
+                return info;
+            long length;
+            switch (info) {
+                case 24:
+                    return frame.get() & 0xff;
+                case 25:
+                    return frame.getShort() & 0xffff;
+                case 26:
+                    return frame.getInt() & 0xffffffffL;
+                case 27:
+                    length = frame.getLong();
+                    if (length < 0)
+                        throw new IllegalArgumentException("Unsupported length: " + Long.toUnsignedString(length));
+                    return length;
+                default:
+                    throw new IllegalArgumentException("Unsupported length encoding: " + info);
+            }
+        }
+
+        protected static float halfToFloat(int half) {
+            int exponent = (half >>> 10) & 0x1f;
+            int mantissa = half & 0x3ff;
+            float value;
+            if (exponent == 0) {
+                value = mantissa * (float) Math.pow(2, -24);
+            } else if (exponent == 31) {
+                value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+            } else {
+                value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+            }
+            return (half & 0x8000) != 0 ? -value : value;
+        }
+    }
+}
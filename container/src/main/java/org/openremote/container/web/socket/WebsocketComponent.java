@@ -23,8 +23,11 @@ import org.apache.camel.Endpoint;
 import org.apache.camel.impl.DefaultComponent;
 import org.apache.camel.util.ServiceHelper;
 
+import javax.websocket.Session;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 public abstract class WebsocketComponent extends DefaultComponent {
@@ -32,9 +35,14 @@ public abstract class WebsocketComponent extends DefaultComponent {
     private static final Logger LOG = Logger.getLogger(WebsocketComponent.class.getName());
 
     public static final String NAME = "websocket";
+    public static final int SESSION_QUEUE_SIZE_DEFAULT = 1000;
 
     final protected Map<String, WebsocketConsumer> consumers = new HashMap<>();
     final protected WebsocketSessions websocketSessions;
+    // Session ID -> outbound queue of the session
+    final protected Map<String, WebsocketSessionQueue> sessionQueues = new ConcurrentHashMap<>();
+    protected int sessionQueueSize = SESSION_QUEUE_SIZE_DEFAULT;
+    protected WebsocketSessionQueue.OverflowPolicy sessionQueueOverflowPolicy = WebsocketSessionQueue.OverflowPolicy.COALESCE;
 
     public WebsocketComponent() {
         this.websocketSessions = new MemoryWebsocketSessions();
@@ -57,6 +65,8 @@ public abstract class WebsocketComponent extends DefaultComponent {
     protected void doStop() throws Exception {
         super.doStop();
         ServiceHelper.stopService(getWebsocketSessions());
+        sessionQueues.values().forEach(WebsocketSessionQueue::close);
+        sessionQueues.clear();
         undeploy();
     }
 
@@ -64,6 +74,44 @@ public abstract class WebsocketComponent extends DefaultComponent {
         return websocketSessions;
     }
 
+    /**
+     * @return the queue of the session, or <code>null</code> if the session has been closed.
+     */
+    public WebsocketSessionQueue getSessionQueue(Session session) {
+        // Don't recreate the queue of a session which has been closed and removed concurrently
+        return sessionQueues.computeIfAbsent(session.getId(), id -> session.isOpen()
+            ? new WebsocketSessionQueue(
+                session,
+                sessionQueueSize,
+                sessionQueueOverflowPolicy,
+                isBinarySession(session)
+            )
+            : null);
+    }
+
+    public static boolean isBinarySession(Session session) {
+        return WebsocketConstants.BINARY_SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
+    }
+
+    public void removeSessionQueue(Session session) {
+        WebsocketSessionQueue sessionQueue = sessionQueues.remove(session.getId());
+        if (sessionQueue != null) {
+            sessionQueue.close();
+        }
+    }
+
+    public Map<String, WebsocketSessionQueue> getSessionQueues() {
+        return Collections.unmodifiableMap(sessionQueues);
+    }
+
+    public void setSessionQueueSize(int sessionQueueSize) {
+        this.sessionQueueSize = sessionQueueSize;
+    }
+
+    public void setSessionQueueOverflowPolicy(WebsocketSessionQueue.OverflowPolicy sessionQueueOverflowPolicy) {
+        this.sessionQueueOverflowPolicy = sessionQueueOverflowPolicy;
+    }
+
     public Map<String, WebsocketConsumer> getConsumers() {
         return consumers;
     }
@@ -24,9 +24,21 @@ public interface WebsocketConstants {
     String SESSION = "websocket.session";
     String SESSION_KEY = "websocket.sessionKey";
     String SEND_TO_ALL = "websocket.sendToAll";
+    String COALESCE_KEY = "websocket.coalesceKey";
+    /**
+     * The {@link WebsocketBinaryCodec.Payload} at the end of the message text, if the message is sent as binary frame.
+     */
+    String BINARY_PAYLOAD = "websocket.binaryPayload";
     String HANDSHAKE_AUTH = "websocket.auth";
     String SESSION_OPEN = "websocket.sessionOpen";
     String SESSION_CLOSE = "websocket.sessionClose";
     String SESSION_CLOSE_ERROR = "websocket.sessionCloseError";
 
+    /**
+     * Clients can negotiate this subprotocol to exchange messages as compact binary frames.
+     *
+     * @see WebsocketBinaryCodec
+     */
+    String BINARY_SUBPROTOCOL = "openremote-cbor";
+
 }
@@ -25,7 +25,6 @@ import org.apache.camel.Message;
 import org.apache.camel.impl.DefaultProducer;
 
 import javax.websocket.Session;
-import java.io.IOException;
 import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -56,7 +55,12 @@ public class WebsocketProducer extends DefaultProducer {
             String sessionKey = in.getHeader(WebsocketConstants.SESSION_KEY, String.class);
             if (sessionKey != null) {
                 Session websocket = getEndpoint().getComponent().getWebsocketSessions().get(sessionKey);
-                sendMessage(websocket, message);
+                sendMessage(
+                    websocket,
+                    message,
+                    in.getHeader(WebsocketConstants.COALESCE_KEY, String.class),
+                    in.getHeader(WebsocketConstants.BINARY_PAYLOAD, WebsocketBinaryCodec.Payload.class)
+                );
             } else {
                 throw new IllegalArgumentException("Failed to send message to Websocket session; session key not set.");
             }
@@ -80,7 +84,7 @@ public class WebsocketProducer extends DefaultProducer {
         Exception exception = null;
         for (Session session : sessions) {
             try {
-                sendMessage(session, message);
+                sendMessage(session, message, null, null);
             } catch (Exception e) {
                 if (exception == null) {
                     exception = new CamelExchangeException("Failed to deliver message to one or more recipients.", exchange, e);
@@ -92,12 +96,16 @@ public class WebsocketProducer extends DefaultProducer {
         }
     }
 
-    protected void sendMessage(Session session, Object message) throws IOException {
+    /**
+     * Queue the message for asynchronous sending, this doesn't wait for the client to receive the message.
+     */
+    protected void sendMessage(Session session, Object message, String coalesceKey, WebsocketBinaryCodec.Payload payload) {
         if (session != null && session.isOpen()) {
             if (message instanceof String) {
-                if (LOG.isLoggable(Level.FINE))
-                    LOG.fine("Sending to session " + session.getId() + ": " + message);
-                session.getBasicRemote().sendText((String) message);
+                WebsocketSessionQueue sessionQueue = getEndpoint().getComponent().getSessionQueue(session);
+                if (sessionQueue != null) {
+                    sessionQueue.send((String) message, coalesceKey, payload);
+                }
             }
         }
     }
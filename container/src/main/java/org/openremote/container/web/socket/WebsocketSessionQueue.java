@@ -0,0 +1,290 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.web.socket;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded outbound queue of a websocket session, messages are sent asynchronously one at a time, so a slow client
+ * doesn't block the thread delivering messages to all sessions. When the queue is full, the {@link OverflowPolicy}
+ * decides which message is dropped or if the session is closed.
+ * <p>
+ * Messages of a session using the {@link WebsocketConstants#BINARY_SUBPROTOCOL} are sent as binary frames, see
+ * {@link WebsocketBinaryCodec}. They are encoded when they are sent, so dropped or coalesced messages are never encoded.
+ */
+public class WebsocketSessionQueue implements SendHandler {
+
+    private static final Logger LOG = Logger.getLogger(WebsocketSessionQueue.class.getName());
+
+    public enum OverflowPolicy {
+        /**
+         * Drop the oldest queued message.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Replace the queued message with the same coalesce key, so only the latest value is sent. Drop the oldest
+         * queued message if the new message has no key or no message with its key is queued.
+         */
+        COALESCE,
+
+        /**
+         * Close the session of the slow client.
+         */
+        DISCONNECT
+    }
+
+    protected static class QueuedMessage {
+        String text;
+        WebsocketBinaryCodec.Payload payload;
+        final String coalesceKey;
+
+        QueuedMessage(String text, WebsocketBinaryCodec.Payload payload, String coalesceKey) {
+            this.text = text;
+            this.payload = payload;
+            this.coalesceKey = coalesceKey;
+        }
+    }
+
+    /**
+     * The send result of a message if the send completed before {@link javax.websocket.RemoteEndpoint.Async#sendText}
+     * returned, sending continues in a loop on the same thread instead of recursing.
+     */
+    protected static class InlineSend {
+        final WebsocketSessionQueue queue;
+        SendResult result;
+
+        InlineSend(WebsocketSessionQueue queue) {
+            this.queue = queue;
+        }
+    }
+
+    static final protected ThreadLocal<InlineSend> INLINE_SEND = new ThreadLocal<>();
+
+    final protected Session session;
+    final protected int capacity;
+    final protected OverflowPolicy overflowPolicy;
+    final protected boolean binary;
+    final protected ArrayDeque<QueuedMessage> queue = new ArrayDeque<>();
+    // Coalesce key -> latest queued message with the key
+    final protected Map<String, QueuedMessage> coalesceKeyMessages = new HashMap<>();
+    protected boolean sending;
+    protected boolean closed;
+
+    // Statistics, only written while holding the monitor of this queue
+    protected volatile long sentCount;
+    protected volatile long failedCount;
+    protected volatile long droppedCount;
+    protected volatile long coalescedCount;
+
+    public WebsocketSessionQueue(Session session, int capacity, OverflowPolicy overflowPolicy) {
+        this(session, capacity, overflowPolicy, false);
+    }
+
+    /**
+     * @param binary Send messages as binary frames, if the session uses the {@link WebsocketConstants#BINARY_SUBPROTOCOL}.
+     */
+    public WebsocketSessionQueue(Session session, int capacity, OverflowPolicy overflowPolicy, boolean binary) {
+        this.session = session;
+        this.capacity = Math.max(capacity, 1);
+        this.overflowPolicy = overflowPolicy;
+        this.binary = binary;
+    }
+
+    /**
+     * Queue a message for sending.
+     *
+     * @param coalesceKey Messages with the same key can replace each other when the queue is full, or <code>null</code>.
+     */
+    public void send(String text, String coalesceKey) {
+        send(text, coalesceKey, null);
+    }
+
+    /**
+     * Queue a message for sending.
+     *
+     * @param coalesceKey Messages with the same key can replace each other when the queue is full, or <code>null</code>.
+     * @param payload     The payload at the end of the text, encoded separately in a binary frame, or <code>null</code>.
+     */
+    public void send(String text, String coalesceKey, WebsocketBinaryCodec.Payload payload) {
+        QueuedMessage next = null;
+        boolean disconnect = false;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            if (queue.size() >= capacity) {
+                switch (overflowPolicy) {
+                    case COALESCE:
+                        QueuedMessage queued = coalesceKey != null ? coalesceKeyMessages.get(coalesceKey) : null;
+                        if (queued != null) {
+                            queued.text = text;
+                            queued.payload = payload;
+                            coalescedCount++;
+                            return;
+                        }
+                        dropOldest();
+                        break;
+                    case DROP_OLDEST:
+                        dropOldest();
+                        break;
+                    case DISCONNECT:
+                        closed = true;
+                        droppedCount += queue.size() + 1;
+                        queue.clear();
+                        coalesceKeyMessages.clear();
+                        disconnect = true;
+                        break;
+                }
+            }
+
+            if (!disconnect) {
+                QueuedMessage message = new QueuedMessage(text, payload, coalesceKey);
+                queue.add(message);
+                if (coalesceKey != null) {
+                    coalesceKeyMessages.put(coalesceKey, message);
+                }
+                if (!sending) {
+                    sending = true;
+                    next = takeNext();
+                }
+            }
+        }
+
+        if (disconnect) {
+            LOG.info("Closing websocket session of slow client, outbound queue is full: " + session.getId());
+            closeSession(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Outbound message queue full"));
+            return;
+        }
+
+        sendText(next);
+    }
+
+    @Override
+    public void onResult(SendResult result) {
+        InlineSend inlineSend = INLINE_SEND.get();
+        if (inlineSend != null && inlineSend.queue == this) {
+            inlineSend.result = result;
+            return;
+        }
+        sendText(completed(result));
+    }
+
+    /**
+     * Stop sending, queued messages are discarded.
+     */
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        coalesceKeyMessages.clear();
+    }
+
+    public synchronized int getDepth() {
+        return queue.size();
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    protected void sendText(QueuedMessage message) {
+        while (message != null) {
+            InlineSend inlineSend = new InlineSend(this);
+            INLINE_SEND.set(inlineSend);
+            try {
+                if (LOG.isLoggable(Level.FINE))
+                    LOG.fine("Sending to session " + session.getId() + ": " + message.text);
+                if (binary) {
+                    session.getAsyncRemote().sendBinary(WebsocketBinaryCodec.encode(message.text, message.payload), this);
+                } else {
+                    session.getAsyncRemote().sendText(message.text, this);
+                }
+            } catch (Exception ex) {
+                inlineSend.result = new SendResult(ex);
+            } finally {
+                INLINE_SEND.remove();
+            }
+            if (inlineSend.result == null) {
+                // Completes later, the send handler continues with the next message
+                return;
+            }
+            message = completed(inlineSend.result);
+        }
+    }
+
+    protected synchronized QueuedMessage completed(SendResult result) {
+        if (result.isOK()) {
+            sentCount++;
+        } else {
+            failedCount++;
+            LOG.log(Level.FINE, "Error sending to websocket session: " + session.getId(), result.getException());
+        }
+        QueuedMessage next = closed || !session.isOpen() ? null : takeNext();
+        if (next == null) {
+            sending = false;
+        }
+        return next;
+    }
+
+    protected QueuedMessage takeNext() {
+        QueuedMessage message = queue.poll();
+        if (message != null && message.coalesceKey != null) {
+            coalesceKeyMessages.remove(message.coalesceKey, message);
+        }
+        return message;
+    }
+
+    protected void closeSession(CloseReason closeReason) {
+        try {
+            session.close(closeReason);
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Error closing websocket session: " + session.getId(), ex);
+        }
+    }
+
+    protected void dropOldest() {
+        if (takeNext() != null) {
+            droppedCount++;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.openremote.agent.protocol.Protocol;
 import org.openremote.agent.protocol.ProtocolAssetService;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.message.MessageBrokerSetupService;
 import org.openremote.container.persistence.PersistenceEvent;
@@ -52,6 +53,8 @@ import org.openremote.model.value.ObjectValue;
 
 import javax.persistence.EntityManager;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -61,10 +64,9 @@ import java.util.stream.Stream;
 
 import static org.openremote.agent.protocol.Protocol.ACTUATOR_TOPIC;
 import static org.openremote.agent.protocol.Protocol.SENSOR_QUEUE;
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.container.persistence.PersistenceEvent.*;
 import static org.openremote.manager.asset.AssetProcessingService.ASSET_QUEUE;
+import static org.openremote.manager.asset.AssetProcessingService.HEADER_DISPATCH_TIME;
 import static org.openremote.model.AbstractValueTimestampHolder.VALUE_TIMESTAMP_FIELD_NAME;
 import static org.openremote.model.asset.AssetAttribute.attributesFromJson;
 import static org.openremote.model.asset.AssetAttribute.getAddedOrModifiedAttributes;
@@ -90,11 +92,15 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     protected AssetStorageService assetStorageService;
     protected MessageBrokerService messageBrokerService;
     protected ClientEventService clientEventService;
-    protected final Map<AttributeRef, Pair<AssetAttribute, ConnectionStatus>> protocolConfigurations = new HashMap<>();
-    protected final Map<String, Protocol> protocols = new HashMap<>();
-    protected final Map<AttributeRef, List<AttributeRef>> linkedAttributes = new HashMap<>();
+    protected final Map<AttributeRef, Pair<AssetAttribute, ConnectionStatus>> protocolConfigurations = new ConcurrentHashMap<>();
+    protected final Map<String, Protocol> protocols = new ConcurrentHashMap<>();
+    // The lists are replaced and not modified once added, so they can be read without the lock
+    protected final Map<AttributeRef, List<AttributeRef>> linkedAttributes = new ConcurrentHashMap<>();
+    // Guards linking of protocol configurations and attributes, read-only lookups of agents and
+    // connection status don't lock so protocols can call them while holding their own lock
+    protected final ScopedLock lock = new ScopedLock(getClass().getSimpleName());
     protected LocalAgentConnector localAgentConnector;
-    protected Map<String, Asset> agentMap;
+    protected volatile Map<String, Asset> agentMap;
 
     /**
      * It's important that {@link Protocol}s have a lower priority than this service so they are fully initialized
@@ -191,6 +197,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             .routeId("FromSensorUpdates")
             .filter(body().isInstanceOf(AttributeEvent.class))
             .setHeader(HEADER_SOURCE, () -> SENSOR)
+            .setHeader(HEADER_DISPATCH_TIME, () -> System.currentTimeMillis())
             .to(ASSET_QUEUE);
     }
 
@@ -440,7 +447,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void linkProtocolConfigurations(Stream<AssetAttribute> configurations) {
-        withLock(getClass().getSimpleName() + "::linkProtocolConfigurations", () -> configurations.forEach(configuration -> {
+        lock.withLock("linkProtocolConfigurations", () -> configurations.forEach(configuration -> {
             AttributeRef protocolAttributeRef = configuration.getReferenceOrThrow();
             Protocol protocol = getProtocol(configuration);
 
@@ -502,7 +509,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void unlinkProtocolConfigurations(Stream<AssetAttribute> configurations) {
-        withLock(getClass().getSimpleName() + "::unlinkProtocolConfigurations", () -> configurations.forEach(configuration -> {
+        lock.withLock("unlinkProtocolConfigurations", () -> configurations.forEach(configuration -> {
             AttributeRef protocolAttributeRef = configuration.getReferenceOrThrow();
 
             // Get all assets that have attributes that use this protocol configuration
@@ -544,38 +551,44 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void publishProtocolConnectionStatus(AttributeRef protocolRef, ConnectionStatus connectionStatus) {
-        withLock(getClass().getSimpleName() + "::publishProtocolConnectionStatus", () -> {
-            Pair<AssetAttribute, ConnectionStatus> protocolDeploymentInfo = protocolConfigurations.get(protocolRef);
-            if (protocolDeploymentInfo != null && protocolDeploymentInfo.value != connectionStatus) {
-                LOG.info("Agent protocol status updated to " + connectionStatus + ": " + protocolRef);
+        // Called by protocols while holding their own lock, so only update the status atomically
+        AtomicBoolean changed = new AtomicBoolean(false);
+        protocolConfigurations.computeIfPresent(protocolRef, (ref, protocolDeploymentInfo) -> {
+            if (protocolDeploymentInfo.value != connectionStatus) {
                 protocolDeploymentInfo.value = connectionStatus;
-
-                // Notify clients
-                clientEventService.publishEvent(
-                    new AgentStatusEvent(
-                        timerService.getCurrentTimeMillis(),
-                        agentMap.get(protocolRef.getEntityId()).getRealm(),
-                        protocolRef,
-                        connectionStatus
-                    )
-                );
+                changed.set(true);
             }
+            return protocolDeploymentInfo;
         });
+
+        if (changed.get()) {
+            LOG.info("Agent protocol status updated to " + connectionStatus + ": " + protocolRef);
+
+            // Notify clients
+            clientEventService.publishEvent(
+                new AgentStatusEvent(
+                    timerService.getCurrentTimeMillis(),
+                    getAgents().get(protocolRef.getEntityId()).getRealm(),
+                    protocolRef,
+                    connectionStatus
+                )
+            );
+        }
     }
 
     public ConnectionStatus getProtocolConnectionStatus(AttributeRef protocolRef) {
-        return withLockReturning(getClass().getSimpleName() + "::getProtocolConnectionStatus", () ->
-            Optional.ofNullable(protocolConfigurations.get(protocolRef))
-                .map(pair -> pair.value)
-                .orElse(null));
+        return Optional.ofNullable(protocolConfigurations.get(protocolRef))
+            .map(pair -> pair.value)
+            .orElse(null);
     }
 
     protected Protocol getProtocol(AssetAttribute protocolConfiguration) {
-        return protocols.get(protocolConfiguration.getValueAsString().orElse(null));
+        // The concurrent map doesn't accept a null key
+        return protocolConfiguration.getValueAsString().map(protocols::get).orElse(null);
     }
 
     protected void linkAttributes(AssetAttribute protocolConfiguration, Collection<AssetAttribute> attributes) {
-        withLock(getClass().getSimpleName() + "::linkAttributes", () -> {
+        lock.withLock("linkAttributes", () -> {
             LOG.fine("Linking all attributes that use protocol attribute: " + protocolConfiguration);
             Protocol protocol = getProtocol(protocolConfiguration);
 
@@ -591,11 +604,11 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             linkedAttributes.compute(
                 protocolConfiguration.getReferenceOrThrow(),
                 (protocolRef, linkedAttrs) -> {
-                    if (linkedAttrs == null) {
-                        linkedAttrs = new ArrayList<>(attributes.size());
-                    }
-                    linkedAttrs.addAll(attributes.stream().map(AssetAttribute::getReferenceOrThrow).collect(Collectors.toList()));
-                    return linkedAttrs;
+                    List<AttributeRef> updatedAttrs = linkedAttrs == null
+                        ? new ArrayList<>(attributes.size())
+                        : new ArrayList<>(linkedAttrs);
+                    updatedAttrs.addAll(attributes.stream().map(AssetAttribute::getReferenceOrThrow).collect(Collectors.toList()));
+                    return updatedAttrs;
                 });
 
             try {
@@ -610,7 +623,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void unlinkAttributes(AssetAttribute protocolConfiguration, Collection<AssetAttribute> attributes) {
-        withLock(getClass().getSimpleName() + "::unlinkAttributes", () -> {
+        lock.withLock("unlinkAttributes", () -> {
             LOG.fine("Unlinking all attributes that use protocol attribute: " + protocolConfiguration);
             Protocol protocol = getProtocol(protocolConfiguration);
 
@@ -622,8 +635,9 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             linkedAttributes.computeIfPresent(
                 protocolConfiguration.getReferenceOrThrow(),
                 (protocolRef, linkedAttrs) -> {
-                    linkedAttrs.removeAll(attributes.stream().map(AssetAttribute::getReferenceOrThrow).collect(Collectors.toList()));
-                    return linkedAttrs.isEmpty() ? null : linkedAttrs;
+                    List<AttributeRef> updatedAttrs = new ArrayList<>(linkedAttrs);
+                    updatedAttrs.removeAll(attributes.stream().map(AssetAttribute::getReferenceOrThrow).collect(Collectors.toList()));
+                    return updatedAttrs.isEmpty() ? null : updatedAttrs;
                 }
             );
 
@@ -655,7 +669,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             return false;
         }
 
-        Boolean result = withLockReturning(getClass().getSimpleName() + "::processAssetUpdate", () ->
+        Boolean result = lock.withReadLockReturning("processAssetUpdate", () ->
             AgentLink.getAgentLink(attribute)
                 .map(ref ->
                     getProtocolConfiguration(ref)
@@ -720,7 +734,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     public Optional<AssetAttribute> getProtocolConfiguration(AttributeRef protocolRef) {
-        return withLockReturning(getClass().getSimpleName() + "::getProtocolConfiguration", () -> {
+        return lock.withReadLockReturning("getProtocolConfiguration", () -> {
             Pair<AssetAttribute, ConnectionStatus> deploymentStatusPair = protocolConfigurations.get(protocolRef);
             return deploymentStatusPair == null ? Optional.empty() : Optional.of(deploymentStatusPair.key);
         });
@@ -737,23 +751,27 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     protected void addReplaceAgent(Asset agent) {
         // Fully load agent asset
         final Asset loadedAgent = assetStorageService.find(agent.getId(), true);
-        withLock(getClass().getSimpleName() + "::addReplaceAgent", () -> getAgents().put(loadedAgent.getId(), loadedAgent));
+        lock.withLock("addReplaceAgent", () -> getAgents().put(loadedAgent.getId(), loadedAgent));
     }
 
     protected void removeAgent(Asset agent) {
-        withLock(getClass().getSimpleName() + "::removeAgent", () -> getAgents().remove(agent.getId()));
+        lock.withLock("removeAgent", () -> getAgents().remove(agent.getId()));
     }
 
     public Map<String, Asset> getAgents() {
-        return withLockReturning(getClass().getSimpleName() + "::getAgents", () -> {
+        Map<String, Asset> agents = agentMap;
+        if (agents != null) {
+            return agents;
+        }
+        return lock.withLockReturning("getAgents", () -> {
             if (agentMap == null) {
                 agentMap = assetStorageService.findAll(new AssetQuery()
                     .select(new AssetQuery.Select(AssetQuery.Include.ALL))
                     .type(AssetType.AGENT))
                     .stream()
-                    .collect(Collectors.toMap(Asset::getId, agent -> agent));
+                    .collect(Collectors.toMap(Asset::getId, agent -> agent, (a, b) -> b, ConcurrentHashMap::new));
             }
             return agentMap;
         });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.container.concurrent.ScopedLock;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Value;
+import org.openremote.model.value.Values;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import static org.openremote.model.AbstractValueTimestampHolder.VALUE_TIMESTAMP_FIELD_NAME;
+
+/**
+ * Caches the complete {@link Asset}s (including path and all attributes) loaded with private read access by
+ * {@link AssetStorageService}, so finding an asset by identifier doesn't have to query the database.
+ * <p>
+ * The cache holds a bounded number of assets and evicts an asset that has not been read recently when full: assets
+ * are kept in insertion order, a read marks an asset and the eviction moves marked assets to the end instead of
+ * removing them (second chance). Reads only hold the shared read lock, so concurrent hits don't serialize on the
+ * copy of the asset. Cached assets are never handed out, callers always get a copy they can modify.
+ * <p>
+ * Attribute values written with {@link AssetStorageService#storeAttributeValue} are applied to the cached asset
+ * when the transaction commits, any other modification of an asset removes it and its descendants from the cache.
+ * The cached descendants of an asset are indexed by the identifiers in their path, so removing an asset doesn't
+ * scan the cache.
+ * <p>
+ * An asset loaded from the database is only added if no modification of the asset completed while it was loaded,
+ * otherwise a concurrent reader could replace a fresh cache entry with stale state. A cache size of zero disables
+ * the cache, all reads then go to the database.
+ */
+public class AssetCache {
+
+    protected static final int GENERATION_STRIPES = 64;
+
+    static protected class CacheEntry {
+        final protected Asset asset;
+        // Set by reads holding the shared lock, cleared by the eviction
+        protected volatile boolean referenced;
+
+        protected CacheEntry(Asset asset) {
+            this.asset = asset;
+        }
+    }
+
+    final protected int maxSize;
+    final protected ScopedLock lock = new ScopedLock(getClass().getSimpleName());
+    // In insertion order, reads don't modify the structure of the map
+    final protected Map<String, CacheEntry> assets = new LinkedHashMap<>();
+    // The identifiers of the cached assets which have the key in their path, excluding the asset itself
+    final protected Map<String, Set<String>> descendants = new HashMap<>();
+    // Incremented when an asset is modified, checked before a loaded asset is added
+    final protected AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    // Incremented when an asset is removed, this can affect the path of descendants which are not cached yet
+    final protected AtomicLong removals = new AtomicLong();
+
+    final protected AtomicLong hits = new AtomicLong();
+    final protected AtomicLong misses = new AtomicLong();
+    final protected AtomicLong evictions = new AtomicLong();
+    final protected AtomicLong invalidations = new AtomicLong();
+    final protected AtomicLong rejectedPuts = new AtomicLong();
+
+    public AssetCache(int maxSize) {
+        this.maxSize = Math.max(maxSize, 0);
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @param loadComplete If the copy should include path and attributes.
+     * @return A copy of the cached asset or <code>null</code> if the asset is not cached.
+     */
+    public Asset get(String assetId, boolean loadComplete) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Asset asset = lock.withReadLockReturning("get", () -> {
+            CacheEntry entry = assets.get(assetId);
+            if (entry == null) {
+                return null;
+            }
+            entry.referenced = true;
+            return copy(entry.asset, loadComplete);
+        });
+        (asset != null ? hits : misses).incrementAndGet();
+        return asset;
+    }
+
+    /**
+     * @return The generation to pass to {@link #put} after loading the asset from the database.
+     */
+    public long getGeneration(String assetId) {
+        return removals.get() + generations.get(getStripe(assetId));
+    }
+
+    /**
+     * Adds a copy of the asset, which must have been loaded completely with private read access, if it has not
+     * been modified since the given generation.
+     */
+    public void put(Asset asset, long generation) {
+        if (!isEnabled() || asset.getId() == null) {
+            return;
+        }
+        lock.withLock("put", () -> {
+            if (getGeneration(asset.getId()) != generation) {
+                rejectedPuts.incrementAndGet();
+                return;
+            }
+            removeEntry(asset.getId());
+            CacheEntry entry = new CacheEntry(copy(asset, true));
+            assets.put(asset.getId(), entry);
+            forEachAncestor(entry.asset, ancestorId ->
+                descendants.computeIfAbsent(ancestorId, id -> new HashSet<>()).add(asset.getId())
+            );
+            evict();
+        });
+    }
+
+    /**
+     * Sets the value and timestamp of each event on the attribute of the cached asset, the events must have been
+     * committed to the database.
+     */
+    public void putAttributeValues(Collection<AttributeEvent> attributeEvents) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.withLock("putAttributeValues", () -> {
+            for (AttributeEvent attributeEvent : attributeEvents) {
+                generations.incrementAndGet(getStripe(attributeEvent.getEntityId()));
+                CacheEntry entry = assets.get(attributeEvent.getEntityId());
+                if (entry == null || entry.asset.getAttributes() == null) {
+                    continue;
+                }
+                entry.asset.getAttributes().getObject(attributeEvent.getAttributeName()).ifPresent(attribute -> {
+                    // Copy the value, the event might still be modified by its owner
+                    Value value = attributeEvent.getValue()
+                        .flatMap(v -> Values.instance().<Value>parse(v.toJson()))
+                        .orElse(null);
+                    attribute.put("value", value);
+                    attribute.put(VALUE_TIMESTAMP_FIELD_NAME, attributeEvent.getTimestamp());
+                });
+            }
+        });
+    }
+
+    /**
+     * Removes the asset and all cached assets which have the asset in their path.
+     */
+    public void remove(String assetId) {
+        if (!isEnabled() || assetId == null) {
+            return;
+        }
+        lock.withLock("remove", () -> {
+            removals.incrementAndGet();
+            Set<String> descendantIds = descendants.get(assetId);
+            if (descendantIds != null) {
+                for (String descendantId : descendantIds.toArray(new String[0])) {
+                    if (removeEntry(descendantId)) {
+                        invalidations.incrementAndGet();
+                    }
+                }
+            }
+            if (removeEntry(assetId)) {
+                invalidations.incrementAndGet();
+            }
+        });
+    }
+
+    public void clear() {
+        lock.withLock("clear", () -> {
+            removals.incrementAndGet();
+            invalidations.addAndGet(assets.size());
+            assets.clear();
+            descendants.clear();
+        });
+    }
+
+    /**
+     * Removes assets not read since they were last considered until the cache is within its size, must be called
+     * holding the write lock.
+     */
+    protected void evict() {
+        while (assets.size() > maxSize) {
+            Map.Entry<String, CacheEntry> eldest = assets.entrySet().iterator().next();
+            if (eldest.getValue().referenced) {
+                eldest.getValue().referenced = false;
+                assets.remove(eldest.getKey());
+                assets.put(eldest.getKey(), eldest.getValue());
+            } else {
+                removeEntry(eldest.getKey());
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes the asset and its entries of the descendants index, must be called holding the write lock.
+     *
+     * @return <code>true</code> if the asset was cached.
+     */
+    protected boolean removeEntry(String assetId) {
+        CacheEntry entry = assets.remove(assetId);
+        if (entry == null) {
+            return false;
+        }
+        forEachAncestor(entry.asset, ancestorId -> {
+            Set<String> descendantIds = descendants.get(ancestorId);
+            if (descendantIds != null && descendantIds.remove(assetId) && descendantIds.isEmpty()) {
+                descendants.remove(ancestorId);
+            }
+        });
+        return true;
+    }
+
+    protected void forEachAncestor(Asset asset, Consumer<String> consumer) {
+        String[] path = asset.getPath();
+        if (path == null) {
+            return;
+        }
+        for (String id : path) {
+            if (id != null && !id.equals(asset.getId())) {
+                consumer.accept(id);
+            }
+        }
+    }
+
+    protected int getStripe(String assetId) {
+        return Math.floorMod(assetId.hashCode(), GENERATION_STRIPES);
+    }
+
+    protected Asset copy(Asset asset, boolean loadComplete) {
+        String[] path = asset.getPath();
+        ObjectValue attributes = asset.getAttributes();
+        return new Asset(
+            asset.getId(), asset.getVersion(),
+            asset.getCreatedOn() != null ? new Date(asset.getCreatedOn().getTime()) : null,
+            asset.getName(), asset.getType(), asset.isAccessPublicRead(),
+            asset.getParentId(), asset.getParentName(), asset.getParentType(),
+            asset.getRealm(),
+            loadComplete && path != null ? path.clone() : null,
+            loadComplete && attributes != null ? attributes.deepCopy() : null
+        );
+    }
+
+    public int getSize() {
+        return lock.withReadLockReturning("getSize", assets::size);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total > 0 ? (double) hits.get() / total : 0;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public long getRejectedPuts() {
+        return rejectedPuts.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "maxSize=" + maxSize +
+            '}';
+    }
+}
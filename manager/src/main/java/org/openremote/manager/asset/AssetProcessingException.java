@@ -114,6 +114,11 @@ public class AssetProcessingException extends RuntimeException {
          */
         STATE_STORAGE_FAILED,
 
+        /**
+         * The queue of datapoints waiting to be written to database is full.
+         */
+        DATAPOINT_QUEUE_FULL,
+
         /**
          * The event value is not the excepted value for the attribute
          */
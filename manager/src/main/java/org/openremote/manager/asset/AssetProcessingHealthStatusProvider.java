@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.container.Container;
+import org.openremote.container.ContainerHealthStatusProvider;
+import org.openremote.container.ContainerService;
+import org.openremote.model.value.ArrayValue;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Value;
+import org.openremote.model.value.Values;
+
+public class AssetProcessingHealthStatusProvider implements ContainerHealthStatusProvider {
+
+    public static final String NAME = "assetProcessing";
+    public static final String VERSION = "1.0";
+    protected AssetProcessingService assetProcessingService;
+    protected AssetStorageService assetStorageService;
+
+    @Override
+    public int getPriority() {
+        return ContainerService.DEFAULT_PRIORITY;
+    }
+
+    @Override
+    public void init(Container container) throws Exception {
+        assetProcessingService = container.getService(AssetProcessingService.class);
+        assetStorageService = container.getService(AssetStorageService.class);
+    }
+
+    @Override
+    public void start(Container container) throws Exception {
+
+    }
+
+    @Override
+    public void stop(Container container) throws Exception {
+
+    }
+
+    @Override
+    public String getHealthStatusName() {
+        return NAME;
+    }
+
+    @Override
+    public String getHealthStatusVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Value getHealthStatus() {
+        int totalQueueDepth = 0;
+        ArrayValue partitions = Values.createArray();
+
+        for (int i = 0; i < assetProcessingService.getAssetQueuePartitions(); i++) {
+            int queueDepth = assetProcessingService.getAssetQueuePartitionDepth(i);
+            totalQueueDepth += queueDepth;
+            ObjectValue partition = Values.createObject();
+            partition.put("queueDepth", queueDepth);
+            partition.put("processedEvents", assetProcessingService.getAssetQueuePartitionProcessedCount(i));
+            partition.put("lastLagMillis", assetProcessingService.getAssetQueuePartitionLastLagMillis(i));
+            partition.put("maxLagMillis", assetProcessingService.getAssetQueuePartitionMaxLagMillis(i));
+            partitions.add(partition);
+        }
+
+        ObjectValue objectValue = Values.createObject();
+        objectValue.put("totalPartitions", assetProcessingService.getAssetQueuePartitions());
+        objectValue.put("totalQueueDepth", totalQueueDepth);
+        objectValue.put("partitions", partitions);
+
+        AttributeStateWriter attributeStateWriter = assetProcessingService.getAttributeStateWriter();
+        ObjectValue stateWriter = Values.createObject();
+        stateWriter.put("durability", attributeStateWriter.getDurability().name());
+        stateWriter.put("pendingValues", attributeStateWriter.getPendingCount());
+        stateWriter.put("storedValues", attributeStateWriter.getStoredValues());
+        stateWriter.put("coalescedValues", attributeStateWriter.getCoalescedValues());
+        stateWriter.put("flushes", attributeStateWriter.getFlushCount());
+        stateWriter.put("flushFailures", attributeStateWriter.getFlushFailures());
+        stateWriter.put("droppedValues", attributeStateWriter.getDroppedValues());
+        stateWriter.put("lastFlushSize", attributeStateWriter.getLastFlushSize());
+        stateWriter.put("lastFlushMillis", attributeStateWriter.getLastFlushMillis());
+        stateWriter.put("maxFlushMillis", attributeStateWriter.getMaxFlushMillis());
+        stateWriter.put("averageFlushMillis", attributeStateWriter.getAverageFlushMillis());
+        objectValue.put("attributeStateWriter", stateWriter);
+
+        AssetCache assetCache = assetStorageService.getAssetCache();
+        ObjectValue cache = Values.createObject();
+        cache.put("enabled", assetCache.isEnabled());
+        cache.put("size", assetCache.getSize());
+        cache.put("maxSize", assetCache.getMaxSize());
+        cache.put("hits", assetCache.getHits());
+        cache.put("misses", assetCache.getMisses());
+        cache.put("hitRatio", assetCache.getHitRatio());
+        cache.put("evictions", assetCache.getEvictions());
+        cache.put("invalidations", assetCache.getInvalidations());
+        cache.put("rejectedPuts", assetCache.getRejectedPuts());
+        objectValue.put("assetCache", cache);
+        return objectValue;
+    }
+}
@@ -22,15 +22,19 @@ package org.openremote.manager.asset;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.seda.SedaEndpoint;
 import org.openremote.agent.protocol.Protocol;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
+import org.openremote.container.concurrent.ScopedLock;
+import org.openremote.container.concurrent.StripedLock;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.message.MessageBrokerSetupService;
 import org.openremote.container.persistence.PersistenceService;
 import org.openremote.container.security.AuthContext;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.agent.AgentService;
+import org.openremote.manager.concurrent.ManagerExecutorService;
 import org.openremote.manager.datapoint.AssetDatapointService;
 import org.openremote.manager.event.ClientEventService;
 import org.openremote.manager.rules.RulesService;
@@ -42,18 +46,24 @@ import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.attribute.AttributeEvent.Source;
 import org.openremote.model.attribute.AttributeExecuteStatus;
 import org.openremote.model.security.ClientRole;
+import org.openremote.model.util.TextUtil;
 import org.openremote.model.value.Value;
 import org.openremote.model.value.Values;
 
 import javax.persistence.EntityManager;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.manager.asset.AssetProcessingException.Reason.*;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.asset.agent.AgentLink.getAgentLink;
@@ -110,11 +120,24 @@ import static org.openremote.model.attribute.AttributeEvent.Source.*;
  * <h2>Asset Storage Service processing logic</h2>
  * <p>
  * Always tries to persist the attribute value in the database and allows the message to continue if the commit was
- * successful.
+ * successful. With {@link #ASSET_STATE_DURABILITY} set to delayed, the value is handed to the
+ * {@link AttributeStateWriter} when the processing transaction commits and written in a later batch instead.
  * <h2>Asset Datapoint Service processing logic</h2>
  * <p>
  * Checks if attribute is {@link AssetAttribute#isStoreDatapoints()}, and if so the {@link AttributeEvent} is stored
  * is stored in a time series of historical data. Then allows the message to continue if the commit was successful.
+ * <h2>Partitioned processing</h2>
+ * <p>
+ * By default a single consumer of the {@link #ASSET_QUEUE} processes all events one at a time. When
+ * {@link #ASSET_QUEUE_PARTITIONS} is greater than one, that consumer only dispatches each event to an ordered
+ * partition queue chosen by the hash of its asset ID. Each partition has a single consumer, so the events of an
+ * asset are processed in the order they were sent, and events of assets on different partitions are processed
+ * concurrently. Queue depth and lag of each partition are available through
+ * {@link AssetProcessingHealthStatusProvider}.
+ * <p>
+ * In both modes the processor chain runs while holding the lock of the asset's stripe in {@link #assetLocks}, there
+ * is no global lock. Processors guard their own shared state with their own {@link ScopedLock}, e.g. the
+ * {@link AgentService} while protocols are linked and the {@link RulesService} while rulesets are deployed.
  */
 public class AssetProcessingService extends RouteBuilder implements ContainerService {
 
@@ -124,6 +147,44 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     // Message topic for communicating individual asset attribute changes
     public static final String ASSET_QUEUE = "seda://AssetQueue?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size=25000";
 
+    /**
+     * Number of ordered partitions attribute events are hashed onto by asset ID, each partition is processed
+     * by its own consumer thread. The default of <code>1</code> processes all events on a single consumer.
+     */
+    public static final String ASSET_QUEUE_PARTITIONS = "ASSET_QUEUE_PARTITIONS";
+    public static final int ASSET_QUEUE_PARTITIONS_DEFAULT = 1;
+
+    /**
+     * Maximum number of pending attribute events in each partition queue.
+     */
+    public static final String ASSET_QUEUE_PARTITION_SIZE = "ASSET_QUEUE_PARTITION_SIZE";
+    public static final int ASSET_QUEUE_PARTITION_SIZE_DEFAULT = 10000;
+
+    /**
+     * Durability of attribute values stored in the asset table, see {@link AttributeStateWriter.Durability}.
+     */
+    public static final String ASSET_STATE_DURABILITY = "ASSET_STATE_DURABILITY";
+    public static final String ASSET_STATE_DURABILITY_DEFAULT = AttributeStateWriter.Durability.SYNC.name();
+
+    /**
+     * Maximum delay of a buffered attribute value write with delayed durability.
+     */
+    public static final String ASSET_STATE_FLUSH_INTERVAL_MILLIS = "ASSET_STATE_FLUSH_INTERVAL_MILLIS";
+    public static final int ASSET_STATE_FLUSH_INTERVAL_MILLIS_DEFAULT = 100;
+
+    /**
+     * Number of buffered attribute values which triggers a flush before the flush interval elapsed.
+     */
+    public static final String ASSET_STATE_FLUSH_SIZE = "ASSET_STATE_FLUSH_SIZE";
+    public static final int ASSET_STATE_FLUSH_SIZE_DEFAULT = 1000;
+
+    public static final String HEADER_PARTITION_URI = AssetProcessingService.class.getName() + ".PARTITION_URI";
+    /**
+     * System time when an attribute event entered the {@link #ASSET_QUEUE} or the queue of its partition, set by the
+     * producer so the recorded lag includes the wait in the queue it was sent to.
+     */
+    public static final String HEADER_DISPATCH_TIME = AssetProcessingService.class.getName() + ".DISPATCH_TIME";
+
     protected TimerService timerService;
     protected ManagerIdentityService identityService;
     protected PersistenceService persistenceService;
@@ -134,8 +195,16 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     protected AssetAttributeLinkingService assetAttributeLinkingService;
     protected MessageBrokerService messageBrokerService;
     protected ClientEventService clientEventService;
+    protected AttributeStateWriter attributeStateWriter;
     // Used in testing to detect if initial/startup processing has completed
-    protected long lastProcessedEventTimestamp = System.currentTimeMillis();
+    protected volatile long lastProcessedEventTimestamp = System.currentTimeMillis();
+    // Serializes processing of the same asset, updates of different assets only contend on a shared stripe
+    protected final StripedLock assetLocks = new StripedLock(getClass().getSimpleName());
+    protected int assetQueuePartitions;
+    protected int assetQueuePartitionSize;
+    protected AtomicLongArray partitionProcessedCount;
+    protected AtomicLongArray partitionLastLagMillis;
+    protected AtomicLongArray partitionMaxLagMillis;
 
     final protected List<AssetUpdateProcessor> processors = new ArrayList<>();
 
@@ -157,6 +226,35 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         messageBrokerService = container.getService(MessageBrokerService.class);
         clientEventService = container.getService(ClientEventService.class);
 
+        AttributeStateWriter.Durability durability = TextUtil.getEnumFromString(
+            AttributeStateWriter.Durability.class,
+            getString(container.getConfig(), ASSET_STATE_DURABILITY, ASSET_STATE_DURABILITY_DEFAULT)
+        );
+        if (durability == null) {
+            throw new IllegalArgumentException("Invalid " + ASSET_STATE_DURABILITY + ", must be one of: "
+                + Arrays.toString(AttributeStateWriter.Durability.values()));
+        }
+        attributeStateWriter = new AttributeStateWriter(
+            persistenceService,
+            assetStorageService,
+            container.getService(ManagerExecutorService.class),
+            durability,
+            Math.max(getInteger(container.getConfig(), ASSET_STATE_FLUSH_INTERVAL_MILLIS, ASSET_STATE_FLUSH_INTERVAL_MILLIS_DEFAULT), 1),
+            Math.max(getInteger(container.getConfig(), ASSET_STATE_FLUSH_SIZE, ASSET_STATE_FLUSH_SIZE_DEFAULT), 1)
+        );
+
+        assetQueuePartitions = Math.max(
+            getInteger(container.getConfig(), ASSET_QUEUE_PARTITIONS, ASSET_QUEUE_PARTITIONS_DEFAULT), 1
+        );
+        assetQueuePartitionSize =
+            getInteger(container.getConfig(), ASSET_QUEUE_PARTITION_SIZE, ASSET_QUEUE_PARTITION_SIZE_DEFAULT);
+        partitionProcessedCount = new AtomicLongArray(assetQueuePartitions);
+        partitionLastLagMillis = new AtomicLongArray(assetQueuePartitions);
+        partitionMaxLagMillis = new AtomicLongArray(assetQueuePartitions);
+        if (assetQueuePartitions > 1) {
+            LOG.info("Processing attribute events on partitions: " + assetQueuePartitions);
+        }
+
         clientEventService.addSubscriptionAuthorizer((auth, subscription) -> {
             if (!subscription.isEventType(AttributeEvent.class)) {
                 return false;
@@ -209,12 +307,12 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 
     @Override
     public void start(Container container) throws Exception {
-
+        attributeStateWriter.start();
     }
 
     @Override
     public void stop(Container container) throws Exception {
-
+        attributeStateWriter.stop();
     }
 
     @Override
@@ -225,6 +323,7 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
             .routeId("FromClientUpdates")
             .filter(body().isInstanceOf(AttributeEvent.class))
             .setHeader(HEADER_SOURCE, () -> CLIENT)
+            .setHeader(HEADER_DISPATCH_TIME, () -> System.currentTimeMillis())
             .to(ASSET_QUEUE);
 
         // Process attribute events
@@ -243,172 +342,284 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
          - See pseudocode here: http://activemq.apache.org/should-i-use-xa.html
          - Do we want JMS/AMQP/WSS or SOME_API/MQTT/WSS? ActiveMQ or Moquette?
         */
-        from(ASSET_QUEUE)
-            .routeId("AssetQueueProcessor")
-            .filter(body().isInstanceOf(AttributeEvent.class))
-            .doTry()
-            // Lock the global context, we can only process attribute events when the
-            // context isn't locked. Agent- and RulesService lock the context while protocols
-            // or rulesets are modified.
-            .process(exchange -> withLock(getClass().getSimpleName() + "::processFromAssetQueue", () -> {
-
-                AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-                LOG.finest("Processing: " + event);
-                if (event.getEntityId() == null || event.getEntityId().isEmpty())
-                    return;
-                if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
-                    return;
-                Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
-                if (source == null) {
-                    throw new AssetProcessingException(MISSING_SOURCE);
-                }
+        if (assetQueuePartitions > 1) {
+            // Dispatch events onto ordered partitions by asset ID, this is the only consumer of the
+            // asset queue so events of an asset arrive at its partition in the order they were sent
+            from(ASSET_QUEUE)
+                .routeId("AssetQueueDispatcher")
+                .filter(body().isInstanceOf(AttributeEvent.class))
+                .process(exchange -> {
+                    AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+                    exchange.getIn().setHeader(HEADER_PARTITION_URI, getAssetQueueUri(event.getEntityId()));
+                    if (exchange.getIn().getHeader(HEADER_DISPATCH_TIME) == null) {
+                        exchange.getIn().setHeader(HEADER_DISPATCH_TIME, System.currentTimeMillis());
+                    }
+                })
+                .toD("${header." + HEADER_PARTITION_URI + "}");
+
+            for (int i = 0; i < assetQueuePartitions; i++) {
+                final int partition = i;
+                from(getAssetQueuePartitionUri(partition))
+                    .routeId("AssetQueueProcessor-" + partition)
+                    .filter(body().isInstanceOf(AttributeEvent.class))
+                    .doTry()
+                    // Partitions process concurrently and each processor synchronizes
+                    // access to its own shared state
+                    .process(exchange -> {
+                        recordPartitionLag(partition, exchange);
+                        processFromAssetQueueWithLock(exchange);
+                    })
+                    .endDoTry()
+                    .doCatch(AssetProcessingException.class)
+                    .process(handleAssetProcessingException(LOG));
+            }
+        } else {
+            from(ASSET_QUEUE)
+                .routeId("AssetQueueProcessor")
+                .filter(body().isInstanceOf(AttributeEvent.class))
+                .doTry()
+                .process(exchange -> {
+                    recordPartitionLag(0, exchange);
+                    processFromAssetQueueWithLock(exchange);
+                })
+                .endDoTry()
+                .doCatch(AssetProcessingException.class)
+                .process(handleAssetProcessingException(LOG));
+        }
+    }
 
-                // Process the asset update in a database transaction, this ensures that processors
-                // will see consistent database state and we only commit if no processor failed. This
-                // still won't make this procedure consistent with the message queue from which we consume!
-                persistenceService.doTransaction(em -> {
-                    Asset asset = assetStorageService.find(em, event.getEntityId(), true);
-                    if (asset == null)
-                        throw new AssetProcessingException(ASSET_NOT_FOUND);
-
-                    AssetAttribute oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
-                    if (oldAttribute == null)
-                        throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
-
-                    switch (source) {
-                        case CLIENT:
-
-                            AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
-                            if (authContext == null) {
-                                // Check attribute has public write flag
-                                if (!oldAttribute.getMetaItem(AssetMeta.ACCESS_PUBLIC_WRITE).isPresent()) {
-                                    throw new AssetProcessingException(NO_AUTH_CONTEXT);
-                                }
-                                // Check read-only
-                                if (oldAttribute.isReadOnly()) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-                            } else {
-                                // Check realm, must be accessible
-                                if (!identityService.getIdentityProvider().isTenantActiveAndAccessible(authContext,
-                                                                                                       asset)) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Check read-only
-                                if (oldAttribute.isReadOnly() && !authContext.isSuperUser()) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Regular user must have write assets role
-                                if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ASSETS.getValue(),
-                                                                              Constants.KEYCLOAK_CLIENT_ID)) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Check restricted user
-                                if (identityService.getIdentityProvider().isRestrictedUser(authContext.getUserId())) {
-                                    // Must be asset linked to user
-                                    if (!assetStorageService.isUserAsset(authContext.getUserId(),
-                                                                         event.getEntityId())) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                    // Must be writable by restricted client
-                                    if (!oldAttribute.isAccessRestrictedWrite()) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                }
-                            }
-                            break;
+    protected void processFromAssetQueueWithLock(Exchange exchange) throws AssetProcessingException {
+        AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+        assetLocks.get(event.getEntityId()).withLock("processFromAssetQueue", () -> processFromAssetQueue(exchange));
+    }
 
-                        case SENSOR:
-                            Optional<AssetAttribute> protocolConfiguration =
-                                getAgentLink(oldAttribute).flatMap(agentService::getProtocolConfiguration);
+    /**
+     * Validates the {@link AttributeEvent} of the exchange and pushes it through the {@link AssetUpdateProcessor}
+     * chain in a database transaction. The caller must hold the lock of the event's asset in {@link #assetLocks}.
+     */
+    protected void processFromAssetQueue(Exchange exchange) throws AssetProcessingException {
+        AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+        LOG.finest("Processing: " + event);
+        if (event.getEntityId() == null || event.getEntityId().isEmpty())
+            return;
+        if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
+            return;
+        Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
+        if (source == null) {
+            throw new AssetProcessingException(MISSING_SOURCE);
+        }
 
-                            // Sensor event must be for an attribute linked to a protocol configuration
-                            if (!protocolConfiguration.isPresent()) {
-                                throw new AssetProcessingException(INVALID_AGENT_LINK);
-                            }
-                            break;
-                    }
+        // Process the asset update in a database transaction, this ensures that processors
+        // will see consistent database state and we only commit if no processor failed. This
+        // still won't make this procedure consistent with the message queue from which we consume!
+        persistenceService.doTransaction(em -> {
+            Asset asset = assetStorageService.find(em, event.getEntityId(), true);
+            if (asset == null)
+                throw new AssetProcessingException(ASSET_NOT_FOUND);
+
+            // Values of previous events might not have been written yet
+            attributeStateWriter.applyPendingState(asset);
+
+            AssetAttribute oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
+            if (oldAttribute == null)
+                throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
+
+            switch (source) {
+                case CLIENT:
+
+                    AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
+                    if (authContext == null) {
+                        // Check attribute has public write flag
+                        if (!oldAttribute.getMetaItem(AssetMeta.ACCESS_PUBLIC_WRITE).isPresent()) {
+                            throw new AssetProcessingException(NO_AUTH_CONTEXT);
+                        }
+                        // Check read-only
+                        if (oldAttribute.isReadOnly()) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                        }
+                    } else {
+                        // Check realm, must be accessible
+                        if (!identityService.getIdentityProvider().isTenantActiveAndAccessible(authContext,
+                                                                                               asset)) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                        }
 
-                    // Agent attributes can't be updated with events
-                    if (asset.getWellKnownType() == AssetType.AGENT) {
-                        throw new AssetProcessingException(ILLEGAL_AGENT_UPDATE);
-                    }
+                        // Check read-only
+                        if (oldAttribute.isReadOnly() && !authContext.isSuperUser()) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                        }
 
-                    // For executable attributes, non-sensor sources can set a writable attribute execute status
-                    if (oldAttribute.isExecutable() && source != SENSOR) {
-                        Optional<AttributeExecuteStatus> status = event.getValue()
-                            .flatMap(Values::getString)
-                            .flatMap(AttributeExecuteStatus::fromString);
+                        // Regular user must have write assets role
+                        if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ASSETS.getValue(),
+                                                                      Constants.KEYCLOAK_CLIENT_ID)) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                        }
 
-                        if (status.isPresent() && !status.get().isWrite()) {
-                            throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
+                        // Check restricted user
+                        if (identityService.getIdentityProvider().isRestrictedUser(authContext.getUserId())) {
+                            // Must be asset linked to user
+                            if (!assetStorageService.isUserAsset(authContext.getUserId(),
+                                                                 event.getEntityId())) {
+                                throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                            }
+                            // Must be writable by restricted client
+                            if (!oldAttribute.isAccessRestrictedWrite()) {
+                                throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                            }
                         }
                     }
+                    break;
 
-                    //Check if attribute is well known and the value is valid
-                    AssetModel.getAttributeDescriptor(oldAttribute.name).ifPresent(wellKnownAttribute -> {
-                        // Check if the value is valid
-                        wellKnownAttribute.getValueType()
-                            .isValidValue(event.getValue().orElse(null))
-                            .ifPresent(validationFailure -> {
-                                throw new AssetProcessingException(
-                                    INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE
-                                );
-                            });
-                    });
+                case SENSOR:
+                    Optional<AssetAttribute> protocolConfiguration =
+                        getAgentLink(oldAttribute).flatMap(agentService::getProtocolConfiguration);
 
-                    // Either use the timestamp of the event or set event time to processing time
-                    long processingTime = timerService.getCurrentTimeMillis();
-                    long eventTime = event.getTimestamp() > 0 ? event.getTimestamp() : processingTime;
+                    // Sensor event must be for an attribute linked to a protocol configuration
+                    if (!protocolConfiguration.isPresent()) {
+                        throw new AssetProcessingException(INVALID_AGENT_LINK);
+                    }
+                    break;
+            }
+
+            // Agent attributes can't be updated with events
+            if (asset.getWellKnownType() == AssetType.AGENT) {
+                throw new AssetProcessingException(ILLEGAL_AGENT_UPDATE);
+            }
 
-                    // Ensure timestamp of event is not in the future as that would essentially block access to
-                    // the attribute until after that time (maybe that is desirable behaviour)
-                    if (eventTime - processingTime > 0) {
-                        // TODO: Decide how to handle update events in the future - ignore or change timestamp
+            // For executable attributes, non-sensor sources can set a writable attribute execute status
+            if (oldAttribute.isExecutable() && source != SENSOR) {
+                Optional<AttributeExecuteStatus> status = event.getValue()
+                    .flatMap(Values::getString)
+                    .flatMap(AttributeExecuteStatus::fromString);
+
+                if (status.isPresent() && !status.get().isWrite()) {
+                    throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
+                }
+            }
+
+            //Check if attribute is well known and the value is valid
+            AssetModel.getAttributeDescriptor(oldAttribute.name).ifPresent(wellKnownAttribute -> {
+                // Check if the value is valid
+                wellKnownAttribute.getValueType()
+                    .isValidValue(event.getValue().orElse(null))
+                    .ifPresent(validationFailure -> {
                         throw new AssetProcessingException(
-                            EVENT_IN_FUTURE,
-                            "current time: " + new Date(processingTime) + "/" + processingTime
-                                + ", event time: " + new Date(eventTime) + "/" + eventTime
+                            INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE
                         );
-                    }
+                    });
+            });
 
-                    // Check the last update timestamp of the attribute, ignoring any event that is older than last update
-                    // TODO This means we drop out-of-sequence events but accept events with the same source timestamp
-                    // TODO Several attribute events can occur in the same millisecond, then order of application is undefined
-                    oldAttribute.getValueTimestamp().filter(t -> t >= 0 && eventTime < t).ifPresent(
-                        lastStateTime -> {
-                            throw new AssetProcessingException(
-                                EVENT_OUTDATED,
-                                "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
-                                    + ", event time: " + new Date(eventTime) + "/" + eventTime);
-                        }
-                    );
+            // Either use the timestamp of the event or set event time to processing time
+            long processingTime = timerService.getCurrentTimeMillis();
+            long eventTime = event.getTimestamp() > 0 ? event.getTimestamp() : processingTime;
+
+            // Ensure timestamp of event is not in the future as that would essentially block access to
+            // the attribute until after that time (maybe that is desirable behaviour)
+            if (eventTime - processingTime > 0) {
+                // TODO: Decide how to handle update events in the future - ignore or change timestamp
+                throw new AssetProcessingException(
+                    EVENT_IN_FUTURE,
+                    "current time: " + new Date(processingTime) + "/" + processingTime
+                        + ", event time: " + new Date(eventTime) + "/" + eventTime
+                );
+            }
 
-                    // Create a copy of the attribute and set the new value and timestamp
-                    AssetAttribute updatedAttribute = oldAttribute.deepCopy();
-                    updatedAttribute.setValue(event.getValue().orElse(null), eventTime);
+            // Check the last update timestamp of the attribute, ignoring any event that is older than last update
+            // TODO This means we drop out-of-sequence events but accept events with the same source timestamp
+            // TODO Several attribute events can occur in the same millisecond, then order of application is undefined
+            oldAttribute.getValueTimestamp().filter(t -> t >= 0 && eventTime < t).ifPresent(
+                lastStateTime -> {
+                    throw new AssetProcessingException(
+                        EVENT_OUTDATED,
+                        "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
+                            + ", event time: " + new Date(eventTime) + "/" + eventTime);
+                }
+            );
 
-                    // Validate constraints of attribute
-                    List<ValidationFailure> validationFailures = updatedAttribute.getValidationFailures();
-                    if (!validationFailures.isEmpty()) {
-                        throw new AssetProcessingException(ATTRIBUTE_VALIDATION_FAILURE, validationFailures.toString());
-                    }
+            // Create a copy of the attribute and set the new value and timestamp
+            AssetAttribute updatedAttribute = oldAttribute.deepCopy();
+            updatedAttribute.setValue(event.getValue().orElse(null), eventTime);
 
-                    // Push through all processors
-                    boolean consumedCompletely = processAssetUpdate(em, asset, updatedAttribute, source);
+            // Validate constraints of attribute
+            List<ValidationFailure> validationFailures = updatedAttribute.getValidationFailures();
+            if (!validationFailures.isEmpty()) {
+                throw new AssetProcessingException(ATTRIBUTE_VALIDATION_FAILURE, validationFailures.toString());
+            }
 
-                    // Publish a new event for clients if no processor consumed the update completely
-                    if (!consumedCompletely) {
-                        publishClientEvent(asset, updatedAttribute);
-                    }
-                });
-            }))
-            .endDoTry()
-            .doCatch(AssetProcessingException.class)
-            .process(handleAssetProcessingException(LOG));
+            // Push through all processors
+            boolean consumedCompletely = processAssetUpdate(em, asset, updatedAttribute, source);
+
+            // Publish a new event for clients if no processor consumed the update completely
+            if (!consumedCompletely) {
+                publishClientEvent(asset, updatedAttribute);
+            }
+        });
+    }
+
+    public AttributeStateWriter getAttributeStateWriter() {
+        return attributeStateWriter;
+    }
+
+    public int getAssetQueuePartitions() {
+        return assetQueuePartitions;
+    }
+
+    /**
+     * @return The queue attribute events of the given asset should be sent to when a reply is expected, this is the
+     * partition queue of the asset if partitioning is enabled so the {@link #ASSET_QUEUE} dispatcher is not blocked.
+     */
+    public String getAssetQueueUri(String assetId) {
+        if (assetQueuePartitions <= 1) {
+            return ASSET_QUEUE;
+        }
+        return getAssetQueuePartitionUri(getAssetQueuePartition(assetId));
+    }
+
+    public int getAssetQueuePartition(String assetId) {
+        if (assetId == null || assetQueuePartitions <= 1) {
+            return 0;
+        }
+        return Math.floorMod(assetId.hashCode(), assetQueuePartitions);
+    }
+
+    protected String getAssetQueuePartitionUri(int partition) {
+        return "seda://AssetQueuePartition" + partition
+            + "?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size="
+            + assetQueuePartitionSize;
+    }
+
+    /**
+     * @return The number of attribute events waiting in the queue of the partition.
+     */
+    public int getAssetQueuePartitionDepth(int partition) {
+        String uri = assetQueuePartitions > 1 ? getAssetQueuePartitionUri(partition) : ASSET_QUEUE;
+        SedaEndpoint endpoint = getContext().getEndpoint(uri, SedaEndpoint.class);
+        return endpoint != null ? endpoint.getCurrentQueueSize() : 0;
+    }
+
+    public long getAssetQueuePartitionProcessedCount(int partition) {
+        return partitionProcessedCount.get(partition);
+    }
+
+    /**
+     * @return The time the last processed event of the partition waited since it entered the asset queue.
+     */
+    public long getAssetQueuePartitionLastLagMillis(int partition) {
+        return partitionLastLagMillis.get(partition);
+    }
+
+    public long getAssetQueuePartitionMaxLagMillis(int partition) {
+        return partitionMaxLagMillis.get(partition);
+    }
+
+    protected void recordPartitionLag(int partition, Exchange exchange) {
+        partitionProcessedCount.incrementAndGet(partition);
+        Long dispatchTime = exchange.getIn().getHeader(HEADER_DISPATCH_TIME, Long.class);
+        if (dispatchTime == null)
+            return;
+        long lag = Math.max(System.currentTimeMillis() - dispatchTime, 0);
+        partitionLastLagMillis.set(partition, lag);
+        partitionMaxLagMillis.accumulateAndGet(partition, lag, Math::max);
     }
 
     /**
@@ -423,7 +634,10 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         if (attributeEvent.getTimestamp() <= 0) {
             attributeEvent.setTimestamp(timerService.getCurrentTimeMillis());
         }
-        messageBrokerService.getProducerTemplate().sendBodyAndHeader(ASSET_QUEUE, attributeEvent, HEADER_SOURCE, source);
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(HEADER_SOURCE, source);
+        headers.put(HEADER_DISPATCH_TIME, System.currentTimeMillis());
+        messageBrokerService.getProducerTemplate().sendBodyAndHeaders(ASSET_QUEUE, attributeEvent, headers);
     }
 
     /**
@@ -516,11 +730,9 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 
         // If there is no timestamp, use system time (0 or -1 are "no timestamp")
         Optional<Long> timestamp = attribute.getValueTimestamp();
-        String valueTimestamp = Long.toString(
-            timestamp.filter(ts -> ts > 0).orElseGet(() -> timerService.getCurrentTimeMillis())
-        );
+        long valueTimestamp = timestamp.filter(ts -> ts > 0).orElseGet(() -> timerService.getCurrentTimeMillis());
 
-        if (!assetStorageService.storeAttributeValue(em, asset.getId(), attributeName, value, valueTimestamp)) {
+        if (!attributeStateWriter.store(em, new AttributeEvent(asset.getId(), attributeName, value, valueTimestamp))) {
             throw new AssetProcessingException(
                 STATE_STORAGE_FAILED, "database update failed, no rows updated"
             );
@@ -58,14 +58,17 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
     protected final static Asset[] EMPTY_ASSETS = new Asset[0];
     protected final AssetStorageService assetStorageService;
     protected final MessageBrokerService messageBrokerService;
+    protected final AssetProcessingService assetProcessingService;
 
     public AssetResourceImpl(TimerService timerService,
                              ManagerIdentityService identityService,
                              AssetStorageService assetStorageService,
-                             MessageBrokerService messageBrokerService) {
+                             MessageBrokerService messageBrokerService,
+                             AssetProcessingService assetProcessingService) {
         super(timerService, identityService);
         this.assetStorageService = assetStorageService;
         this.messageBrokerService = messageBrokerService;
+        this.assetProcessingService = assetProcessingService;
     }
 
     @Override
@@ -387,12 +390,14 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
                 // Process asynchronously but block for a little while waiting for the result
                 Map<String, Object> headers = new HashMap<>();
                 headers.put(AttributeEvent.HEADER_SOURCE, CLIENT);
+                headers.put(AssetProcessingService.HEADER_DISPATCH_TIME, System.currentTimeMillis());
 
                 if (isAuthenticated()) {
                     headers.put(Constants.AUTH_CONTEXT, getAuthContext());
                 }
+                // Send directly to the partition of the asset, waiting for the reply must not block the dispatcher
                 Object result = messageBrokerService.getProducerTemplate().requestBodyAndHeaders(
-                    AssetProcessingService.ASSET_QUEUE, event, headers
+                    assetProcessingService.getAssetQueueUri(assetId), event, headers
                 );
 
                 if (result instanceof AssetProcessingException) {
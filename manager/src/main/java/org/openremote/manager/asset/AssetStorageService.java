@@ -69,6 +69,7 @@ import javax.persistence.TypedQuery;
 import java.sql.*;
 import java.util.Date;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -76,6 +77,7 @@ import java.util.stream.Stream;
 
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.manager.event.ClientEventService.getSessionKey;
 import static org.openremote.model.asset.AssetAttribute.attributesFromJson;
@@ -107,10 +109,20 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     private static final Logger LOG = Logger.getLogger(AssetStorageService.class.getName());
 
+    /**
+     * Maximum number of complete assets held in memory by the {@link AssetCache}, <code>0</code> disables the
+     * cache and every find queries the database.
+     */
+    public static final String ASSET_CACHE_SIZE = "ASSET_CACHE_SIZE";
+    public static final int ASSET_CACHE_SIZE_DEFAULT = 10000;
+
     protected TimerService timerService;
     protected PersistenceService persistenceService;
     protected ManagerIdentityService identityService;
     protected ClientEventService clientEventService;
+    protected AssetCache assetCache;
+    // Entity managers of transactions which modified assets and didn't complete yet, they bypass the cache
+    final protected Set<EntityManager> pendingWriteEntityManagers = ConcurrentHashMap.newKeySet();
 
     @Override
     public int getPriority() {
@@ -123,6 +135,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         persistenceService = container.getService(PersistenceService.class);
         identityService = container.getService(ManagerIdentityService.class);
         clientEventService = container.getService(ClientEventService.class);
+        assetCache = new AssetCache(getInteger(container.getConfig(), ASSET_CACHE_SIZE, ASSET_CACHE_SIZE_DEFAULT));
+        LOG.info("Asset cache " + (assetCache.isEnabled() ? "size: " + assetCache.getMaxSize() : "disabled"));
 
         clientEventService.addSubscriptionAuthorizer((auth, subscription) ->
             (subscription.isEventType(AssetTreeModifiedEvent.class) || subscription.isEventType(
@@ -138,7 +152,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 container.getService(TimerService.class),
                 identityService,
                 this,
-                container.getService(MessageBrokerService.class)
+                container.getService(MessageBrokerService.class),
+                container.getService(AssetProcessingService.class)
             )
         );
 
@@ -157,7 +172,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     @Override
     public void stop(Container container) throws Exception {
-
+        assetCache.clear();
     }
 
     @SuppressWarnings("unchecked")
@@ -167,7 +182,13 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         from(PERSISTENCE_TOPIC)
             .routeId("AssetPersistenceChanges")
             .filter(isPersistenceEventForEntityType(Asset.class))
-            .process(exchange -> publishModificationEvents(exchange.getIn().getBody(PersistenceEvent.class)));
+            .process(exchange -> {
+                PersistenceEvent<Asset> persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
+                if (persistenceEvent.getCause() != PersistenceEvent.Cause.INSERT) {
+                    assetCache.remove(persistenceEvent.getEntity().getId());
+                }
+                publishModificationEvents(persistenceEvent);
+            });
 
         // React if a client wants to read attribute state
         from(CLIENT_EVENT_TOPIC)
@@ -209,18 +230,14 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     }
 
     public Asset find(String assetId) {
-        if (assetId == null)
-            throw new IllegalArgumentException("Can't query null asset identifier");
-        return find(new AssetQuery().id(assetId));
+        return find(assetId, false);
     }
 
     /**
      * @param loadComplete If the whole asset data (including path and attributes) should be loaded.
      */
     public Asset find(String assetId, boolean loadComplete) {
-        if (assetId == null)
-            throw new IllegalArgumentException("Can't query null asset identifier");
-        return find(new AssetQuery().select(new Select(loadComplete ? ALL : ALL_EXCEPT_PATH_AND_ATTRIBUTES)).id(assetId));
+        return find(assetId, loadComplete, PRIVATE_READ);
     }
 
     /**
@@ -237,8 +254,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     public Asset find(String assetId, boolean loadComplete, Access access) {
         if (assetId == null)
             throw new IllegalArgumentException("Can't query null asset identifier");
-        return find(new AssetQuery().select(new Select(loadComplete ? ALL : ALL_EXCEPT_PATH_AND_ATTRIBUTES, access)).id(
-            assetId));
+        Asset asset = access == PRIVATE_READ ? assetCache.get(assetId, loadComplete) : null;
+        if (asset != null)
+            return asset;
+        return persistenceService.doReturningTransaction(em -> load(em, assetId, loadComplete, access));
     }
 
     public Asset find(BaseAssetQuery query) {
@@ -390,6 +409,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             LOG.fine("Storing: " + asset);
 
             Asset updatedAsset = em.merge(asset);
+            removeFromCacheOnCompletion(em, updatedAsset.getId());
 
             if (user != null) {
                 storeUserAsset(em, new UserAsset(user.getRealm(), user.getId(), updatedAsset.getId()));
@@ -413,6 +433,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     return false;
                 LOG.fine("Removing: " + asset);
                 em.remove(asset);
+                removeFromCacheOnCompletion(em, asset.getId());
             }
             return true;
         });
@@ -507,8 +528,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return persistenceService.doReturningTransaction(entityManager -> entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<Boolean>() {
             @Override
             public Boolean execute(Connection connection) throws SQLException {
-                try (PreparedStatement st = connection.prepareStatement("select count(*) from Asset a where ? = ANY(get_asset_tree_path(a.ID)) AND a.id = ANY(?)")) {
-                    st.setString(1, parentAssetId);
+                try (PreparedStatement st = connection.prepareStatement("select count(*) from Asset a where a.PATH @> ? AND a.id = ANY(?)")) {
+                    st.setArray(1, st.getConnection().createArrayOf("text", new String[]{parentAssetId}));
                     st.setArray(2, st.getConnection().createArrayOf("text", assetIds.toArray()));
                     ResultSet rs = st.executeQuery();
                     return rs.next() && rs.getInt(1) == assetIds.size();
@@ -591,11 +612,34 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     protected Asset find(EntityManager em, String assetId, boolean loadComplete, Access access) {
         if (assetId == null)
             throw new IllegalArgumentException("Can't query null asset identifier");
-        return find(
-            em,
-            new AssetQuery().select(
-                new Select(loadComplete ? ALL : ALL_EXCEPT_PATH_AND_ATTRIBUTES, access)
-            ).id(assetId)
+        Asset asset = access == PRIVATE_READ && !hasPendingWrites(em) ? assetCache.get(assetId, loadComplete) : null;
+        if (asset != null)
+            return asset;
+        return load(em, assetId, loadComplete, access);
+    }
+
+    /**
+     * Queries the asset, a cache miss with private read access loads the complete asset to populate the cache.
+     * A transaction which modified assets reads its own uncommitted state, which is never cached.
+     */
+    protected Asset load(EntityManager em, String assetId, boolean loadComplete, Access access) {
+        if (!assetCache.isEnabled() || access != PRIVATE_READ || hasPendingWrites(em)) {
+            return find(
+                em,
+                new AssetQuery().select(
+                    new Select(loadComplete ? ALL : ALL_EXCEPT_PATH_AND_ATTRIBUTES, access)
+                ).id(assetId)
+            );
+        }
+        long generation = assetCache.getGeneration(assetId);
+        Asset asset = find(em, new AssetQuery().select(new Select(ALL, PRIVATE_READ)).id(assetId));
+        if (asset == null)
+            return null;
+        assetCache.put(asset, generation);
+        return loadComplete ? asset : new Asset(
+            asset.getId(), asset.getVersion(), asset.getCreatedOn(), asset.getName(), asset.getType(),
+            asset.isAccessPublicRead(), asset.getParentId(), asset.getParentName(), asset.getParentType(),
+            asset.getRealm(), null, null
         );
     }
 
@@ -698,7 +742,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
         if (!recursive || level == 3) {
             if (include == ALL) {
-                sb.append(", get_asset_tree_path(A.ID) as PATH");
+                sb.append(", A.PATH as PATH");
             } else {
                 sb.append(", NULL as PATH");
             }
@@ -919,7 +963,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         }
 
         if (level == 1 && query.path != null && query.path.hasPath()) {
-            sb.append(" and ? <@ get_asset_tree_path(A.ID)");
+            sb.append(" and A.PATH @> ?");
             final int pos = binders.size() + 1;
             binders.add(st -> st.setArray(pos, st.getConnection().createArrayOf("text", query.path.path)));
         }
@@ -950,6 +994,14 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
             if (query.attributeMeta != null) {
                 for (AttributeMetaPredicate attributeMetaPredicate : query.attributeMeta) {
+                    // Only check assets which have a meta item with the name, that is all we need to check
+                    // if the value doesn't matter
+                    if (isIndexedNamePredicate(attributeMetaPredicate.itemNamePredicate)) {
+                        sb.append(buildNameIndexFilter("A.ATTRIBUTE_META_NAMES", attributeMetaPredicate.itemNamePredicate, binders));
+                        if (attributeMetaPredicate.itemValuePredicate == null)
+                            continue;
+                    }
+
                     String attributeMetaFilter = buildAttributeMetaFilter(attributeMetaPredicate, binders);
 
                     if (attributeMetaFilter.length() > 0) {
@@ -965,6 +1017,14 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
             if (query.attribute != null) {
                 for (AttributePredicate attributePredicate : query.attribute) {
+                    // Only check assets which have an attribute with the name, that is all we need to check
+                    // if the value doesn't matter
+                    if (isIndexedNamePredicate(attributePredicate.name)) {
+                        sb.append(buildNameIndexFilter("A.ATTRIBUTE_NAMES", attributePredicate.name, binders));
+                        if (attributePredicate.value == null)
+                            continue;
+                    }
+
                     StringBuilder attributeFilterBuilder = new StringBuilder();
                     attributeFilterBuilder.append(buildAttributeFilter(attributePredicate, binders));
 
@@ -981,6 +1041,23 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return sb.toString();
     }
 
+    /**
+     * @return <code>true</code> if the name predicate can be checked with the sorted attribute or meta item names
+     * array of the asset, which is indexed.
+     */
+    protected static boolean isIndexedNamePredicate(StringPredicate namePredicate) {
+        return namePredicate != null
+            && namePredicate.match == Match.EXACT
+            && namePredicate.caseSensitive
+            && namePredicate.value != null;
+    }
+
+    protected String buildNameIndexFilter(String namesColumn, StringPredicate namePredicate, List<ParameterBinder> binders) {
+        final int pos = binders.size() + 1;
+        binders.add(st -> st.setArray(pos, st.getConnection().createArrayOf("text", new String[]{namePredicate.value})));
+        return " and " + namesColumn + " @> ?";
+    }
+
     protected String buildAttributeMetaFilter(AttributeMetaPredicate attributeMetaPredicate, List<ParameterBinder> binders) {
         StringBuilder attributeMetaBuilder = new StringBuilder();
 
@@ -1301,11 +1378,127 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     + "' attribute '" + attributeName
                     + "' (affected rows: " + updatedRows + ") value: "
                     + (value != null ? value.toJson() : "null"));
+                if (updatedRows == 1) {
+                    updateCacheOnCompletion(em, Collections.singletonList(
+                        new AttributeEvent(assetId, attributeName, value, Long.parseLong(timestamp))
+                    ));
+                }
                 return updatedRows == 1;
             }
         });
     }
 
+    /**
+     * Stores the value and timestamp of many attributes with one batched statement, each asset row is updated
+     * once by merging a patch of all its changed attributes. Attributes that no longer exist are ignored.
+     *
+     * @return the number of updated asset rows.
+     */
+    public int storeAttributeValues(EntityManager em, Collection<AttributeEvent> attributeEvents) {
+        Map<String, StringBuilder> assetPatches = new LinkedHashMap<>();
+        for (AttributeEvent attributeEvent : attributeEvents) {
+            String attributeName = attributeEvent.getAttributeName();
+            // Check we don't have a SQL injection hole in attribute name!
+            if (!AssetAttribute.ATTRIBUTE_NAME_VALIDATOR.test(attributeName)) {
+                LOG.fine(
+                    "Invalid attribute name (must match '" + AssetAttribute.ATTRIBUTE_NAME_PATTERN + "'): " + attributeName
+                );
+                continue;
+            }
+            StringBuilder patch = assetPatches.computeIfAbsent(attributeEvent.getEntityId(), id -> new StringBuilder());
+            patch.append(patch.length() == 0 ? "{" : ",")
+                .append(Values.create(attributeName).toJson())
+                .append(":{\"value\":")
+                // Careful, do not use Java null (as returned by value.toJson()) here!
+                .append(attributeEvent.getValue().map(Value::toJson).orElse("null"))
+                .append(",\"valueTimestamp\":")
+                .append(attributeEvent.getTimestamp())
+                .append("}");
+        }
+
+        if (assetPatches.isEmpty()) {
+            return 0;
+        }
+
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            String update =
+                "update ASSET" +
+                    " set ATTRIBUTES = ATTRIBUTES || (" +
+                    "   select coalesce(jsonb_object_agg(P.key, (ATTRIBUTES -> P.key) || P.value), '{}'::jsonb)" +
+                    "   from jsonb_each(?) P where ATTRIBUTES -> P.key is not null" +
+                    " )" +
+                    " where ID = ?";
+            try (PreparedStatement statement = connection.prepareStatement(update)) {
+                for (Map.Entry<String, StringBuilder> assetPatch : assetPatches.entrySet()) {
+                    PGobject pgJsonPatch = new PGobject();
+                    pgJsonPatch.setType("jsonb");
+                    pgJsonPatch.setValue(assetPatch.getValue().append("}").toString());
+                    statement.setObject(1, pgJsonPatch);
+                    statement.setString(2, assetPatch.getKey());
+                    statement.addBatch();
+                }
+                int updatedRows = 0;
+                for (int count : statement.executeBatch()) {
+                    updatedRows += Math.max(count, 0);
+                }
+                LOG.fine("Stored " + attributeEvents.size() + " attribute values of "
+                    + assetPatches.size() + " assets (affected rows: " + updatedRows + ")");
+                updateCacheOnCompletion(em, attributeEvents);
+                return updatedRows;
+            }
+        });
+    }
+
+    public AssetCache getAssetCache() {
+        return assetCache;
+    }
+
+    /**
+     * Applies the stored attribute values to the cached assets when the transaction commits, the assets are
+     * removed from the cache if it rolls back.
+     */
+    protected void updateCacheOnCompletion(EntityManager em, Collection<AttributeEvent> attributeEvents) {
+        if (!assetCache.isEnabled())
+            return;
+        markPendingWrites(em);
+        onTransactionCompletion(em, committed -> {
+            if (committed) {
+                assetCache.putAttributeValues(attributeEvents);
+            } else {
+                attributeEvents.forEach(attributeEvent -> assetCache.remove(attributeEvent.getEntityId()));
+            }
+        });
+    }
+
+    /**
+     * Removes the asset and its descendants from the cache when the transaction completes, the persistence
+     * event of a modified asset is only delivered later.
+     */
+    protected void removeFromCacheOnCompletion(EntityManager em, String assetId) {
+        if (!assetCache.isEnabled())
+            return;
+        markPendingWrites(em);
+        onTransactionCompletion(em, committed -> assetCache.remove(assetId));
+    }
+
+    /**
+     * Reads with the entity manager bypass the cache until its transaction completes, the cached assets don't
+     * have the uncommitted modifications of the transaction.
+     */
+    protected void markPendingWrites(EntityManager em) {
+        if (em.getTransaction().isActive() && pendingWriteEntityManagers.add(em)) {
+            onTransactionCompletion(em, committed -> pendingWriteEntityManagers.remove(em));
+        }
+    }
+
+    protected boolean hasPendingWrites(EntityManager em) {
+        return !pendingWriteEntityManagers.isEmpty() && pendingWriteEntityManagers.contains(em);
+    }
+
+    protected void onTransactionCompletion(EntityManager em, Consumer<Boolean> completion) {
+        persistenceService.onTransactionCompletion(em, completion);
+    }
+
     protected void publishModificationEvents(PersistenceEvent<Asset> persistenceEvent) {
         Asset asset = persistenceEvent.getEntity();
         switch (persistenceEvent.getCause()) {
@@ -19,7 +19,7 @@
  */
 package org.openremote.manager.asset;
 
-import org.openremote.container.concurrent.GlobalLock;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.model.asset.Asset;
 import org.openremote.model.asset.AssetAttribute;
 import org.openremote.model.attribute.AttributeEvent.Source;
@@ -29,10 +29,12 @@ import javax.persistence.EntityManager;
 /**
  * Process update of an asset attribute (value), from a {@link Source}.
  *
- * Implementations don't have to lock the whole context through {@link GlobalLock}, the
- * caller of this has already obtained the lock. Internal synchronization and thread-safety
- * must still be maintained if shared state of a processor can be modified by concurrent tasks
- * maintained by that processor.
+ * The caller of this already holds the lock of the updated asset, so updates of the same asset are never
+ * processed concurrently. Implementations must guard their own shared state, typically with their own
+ * {@link ScopedLock}, as it can be modified by concurrent tasks maintained by that processor.
+ * <p>
+ * When {@link AssetProcessingService#ASSET_QUEUE_PARTITIONS} is enabled, updates of different assets are
+ * processed concurrently, updates of the same asset are always processed in order on the same thread.
  */
 public interface AssetUpdateProcessor {
 
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.openremote.container.concurrent.ScopedLock;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.manager.concurrent.ManagerExecutorService;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.asset.AssetAttribute;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeRef;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores attribute values and timestamps in the asset table.
+ * <p>
+ * With {@link Durability#SYNC} each value is written immediately in the transaction of the caller, the update is
+ * durable when the caller commits. With {@link Durability#DELAYED} values are buffered when the transaction of the
+ * caller commits, values of a transaction that rolls back are discarded. Buffered values are coalesced per attribute,
+ * only the latest value of an attribute is written. All buffered values are flushed in one batched statement
+ * after the flush interval or when the flush size is reached, so an asset row is rewritten once per flush instead
+ * of once per event. Values buffered when the process is killed are lost, the delay is bounded by the flush
+ * interval. The asset processing chain sees buffered values through {@link #applyPendingState}, other readers of
+ * the database see them after the next flush.
+ * <p>
+ * Values of a failed flush are buffered again and retried with exponential backoff, a value that failed
+ * {@link #MAX_FLUSH_ATTEMPTS} flushes is dropped. Flush metrics only cover flushes of buffered values, immediate
+ * writes are part of the transaction of the caller.
+ */
+public class AttributeStateWriter {
+
+    public enum Durability {
+        SYNC,
+        DELAYED
+    }
+
+    private static final Logger LOG = Logger.getLogger(AttributeStateWriter.class.getName());
+
+    public static final int MAX_FLUSH_ATTEMPTS = 5;
+    public static final int MAX_RETRY_DELAY_MILLIS = 30000;
+
+    final protected PersistenceService persistenceService;
+    final protected AssetStorageService assetStorageService;
+    final protected ManagerExecutorService executorService;
+    final protected Durability durability;
+    final protected int flushIntervalMillis;
+    final protected int flushSize;
+    // Guards the pending, flushing and failed attempts maps, flushes are serialized with their own lock
+    final protected ScopedLock lock = new ScopedLock(getClass().getSimpleName());
+    final protected ScopedLock flushLock = new ScopedLock(getClass().getSimpleName() + "Flush");
+    final protected AtomicBoolean flushRequested = new AtomicBoolean();
+    protected Map<AttributeRef, AttributeEvent> pending = new LinkedHashMap<>();
+    protected Map<AttributeRef, AttributeEvent> flushing = Collections.emptyMap();
+    // Failed flushes of buffered values, a newer value of the attribute starts again
+    final protected Map<AttributeRef, Integer> failedAttempts = new HashMap<>();
+    protected ScheduledFuture flushTimer;
+    // Only accessed while holding the flush lock
+    protected int consecutiveFailures;
+    protected volatile long retryAfterMillis;
+
+    final protected AtomicLong storedValues = new AtomicLong();
+    final protected AtomicLong coalescedValues = new AtomicLong();
+    final protected AtomicLong flushCount = new AtomicLong();
+    final protected AtomicLong flushFailures = new AtomicLong();
+    final protected AtomicLong droppedValues = new AtomicLong();
+    final protected AtomicLong totalFlushMillis = new AtomicLong();
+    final protected AtomicLong maxFlushMillis = new AtomicLong();
+    protected volatile long lastFlushMillis;
+    protected volatile int lastFlushSize;
+
+    public AttributeStateWriter(PersistenceService persistenceService,
+                                AssetStorageService assetStorageService,
+                                ManagerExecutorService executorService,
+                                Durability durability,
+                                int flushIntervalMillis,
+                                int flushSize) {
+        this.persistenceService = persistenceService;
+        this.assetStorageService = assetStorageService;
+        this.executorService = executorService;
+        this.durability = durability;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushSize = flushSize;
+    }
+
+    public void start() {
+        if (durability == Durability.DELAYED) {
+            LOG.info("Delaying attribute state writes by max. milliseconds: " + flushIntervalMillis);
+            flushTimer = executorService.scheduleWithFixedDelay(() -> flush(false), flushIntervalMillis, flushIntervalMillis);
+        }
+    }
+
+    public void stop() {
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+        flush();
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Stores or buffers the value of the attribute, the value timestamp of the event must be set.
+     *
+     * @return <code>false</code> if the value was written immediately and no row was updated.
+     */
+    public boolean store(EntityManager em, AttributeEvent attributeEvent) {
+        storedValues.incrementAndGet();
+
+        if (durability == Durability.SYNC) {
+            return assetStorageService.storeAttributeValue(
+                em,
+                attributeEvent.getEntityId(),
+                attributeEvent.getAttributeName(),
+                attributeEvent.getValue().orElse(null),
+                Long.toString(attributeEvent.getTimestamp())
+            );
+        }
+
+        // Only buffer the value if no processor fails and the transaction of the caller commits
+        assetStorageService.onTransactionCompletion(em, committed -> {
+            if (committed) {
+                buffer(attributeEvent);
+            }
+        });
+        return true;
+    }
+
+    protected void buffer(AttributeEvent attributeEvent) {
+        int pendingSize = lock.withLockReturning("store", () -> {
+            if (pending.put(attributeEvent.getAttributeRef(), attributeEvent) != null) {
+                coalescedValues.incrementAndGet();
+            }
+            failedAttempts.remove(attributeEvent.getAttributeRef());
+            return pending.size();
+        });
+
+        if (pendingSize >= flushSize && flushRequested.compareAndSet(false, true)) {
+            executorService.execute(() -> flush(false));
+        }
+    }
+
+    /**
+     * Sets the buffered values which have not been written to the database yet on the given asset, so the
+     * asset is in the same state it would be if all values had been written.
+     */
+    public void applyPendingState(Asset asset) {
+        if (durability == Durability.SYNC) {
+            return;
+        }
+        lock.withReadLock("applyPendingState", () -> {
+            if (pending.isEmpty() && flushing.isEmpty()) {
+                return;
+            }
+            List<AssetAttribute> modifiedAttributes = new ArrayList<>();
+            asset.getAttributesStream().forEach(attribute -> {
+                AttributeRef attributeRef = new AttributeRef(asset.getId(), attribute.getNameOrThrow());
+                AttributeEvent attributeEvent = pending.get(attributeRef);
+                if (attributeEvent == null) {
+                    attributeEvent = flushing.get(attributeRef);
+                }
+                if (attributeEvent != null) {
+                    attribute.setValue(attributeEvent.getValue().orElse(null), attributeEvent.getTimestamp());
+                    modifiedAttributes.add(attribute);
+                }
+            });
+            modifiedAttributes.forEach(asset::replaceAttribute);
+        });
+    }
+
+    /**
+     * Writes all buffered values in one transaction now, values that could not be written are buffered again
+     * unless a newer value of the attribute has been buffered in the meantime.
+     */
+    public void flush() {
+        flush(true);
+    }
+
+    /**
+     * @param force Flush even if the backoff after a failed flush hasn't elapsed yet.
+     */
+    protected void flush(boolean force) {
+        flushLock.withLock("flush", () -> {
+            flushRequested.set(false);
+
+            if (!force && System.currentTimeMillis() < retryAfterMillis) {
+                return;
+            }
+
+            Map<AttributeRef, AttributeEvent> values = lock.withLockReturning("beginFlush", () -> {
+                flushing = pending;
+                pending = new LinkedHashMap<>();
+                return flushing;
+            });
+
+            if (values.isEmpty()) {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            try {
+                persistenceService.doTransaction(em -> assetStorageService.storeAttributeValues(em, values.values()));
+                recordFlush(values.size(), System.currentTimeMillis() - start);
+                consecutiveFailures = 0;
+                retryAfterMillis = 0;
+                lock.withLock("completeFlush", () -> values.keySet().forEach(failedAttempts::remove));
+                LOG.finest("Flushed attribute values: " + values.size());
+            } catch (Exception ex) {
+                flushFailures.incrementAndGet();
+                consecutiveFailures++;
+                long retryDelay = Math.min(
+                    (long) flushIntervalMillis << Math.min(consecutiveFailures - 1, 16), MAX_RETRY_DELAY_MILLIS
+                );
+                retryAfterMillis = System.currentTimeMillis() + retryDelay;
+                int dropped = lock.withLockReturning("requeueFlush", () -> requeue(values));
+                LOG.log(Level.WARNING, "Error flushing attribute values, retrying in " + retryDelay + "ms: "
+                    + (values.size() - dropped) + ", dropped after " + MAX_FLUSH_ATTEMPTS + " attempts: " + dropped, ex);
+            } finally {
+                lock.withLock("endFlush", () -> flushing = Collections.emptyMap());
+            }
+        });
+    }
+
+    /**
+     * Buffers the values of a failed flush again unless a newer value has been buffered, must be called holding
+     * the lock.
+     *
+     * @return The number of values which failed too often and were dropped.
+     */
+    protected int requeue(Map<AttributeRef, AttributeEvent> values) {
+        int dropped = 0;
+        for (Map.Entry<AttributeRef, AttributeEvent> entry : values.entrySet()) {
+            if (pending.containsKey(entry.getKey())) {
+                continue;
+            }
+            int attempts = failedAttempts.merge(entry.getKey(), 1, Integer::sum);
+            if (attempts >= MAX_FLUSH_ATTEMPTS) {
+                failedAttempts.remove(entry.getKey());
+                droppedValues.incrementAndGet();
+                dropped++;
+            } else {
+                pending.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return dropped;
+    }
+
+    protected void recordFlush(int size, long millis) {
+        flushCount.incrementAndGet();
+        totalFlushMillis.addAndGet(millis);
+        maxFlushMillis.accumulateAndGet(millis, Math::max);
+        lastFlushMillis = millis;
+        lastFlushSize = size;
+    }
+
+    public int getPendingCount() {
+        return lock.withReadLockReturning("getPendingCount", () -> pending.size());
+    }
+
+    public long getStoredValues() {
+        return storedValues.get();
+    }
+
+    public long getCoalescedValues() {
+        return coalescedValues.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getFlushFailures() {
+        return flushFailures.get();
+    }
+
+    public long getDroppedValues() {
+        return droppedValues.get();
+    }
+
+    public long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    public int getLastFlushSize() {
+        return lastFlushSize;
+    }
+
+    public long getMaxFlushMillis() {
+        return maxFlushMillis.get();
+    }
+
+    public double getAverageFlushMillis() {
+        long count = flushCount.get();
+        return count > 0 ? (double) totalFlushMillis.get() / count : 0;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "durability=" + durability +
+            ", flushIntervalMillis=" + flushIntervalMillis +
+            ", flushSize=" + flushSize +
+            '}';
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.openremote.manager.asset.console;
 
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.timer.TimerService;
 import org.openremote.container.util.UniqueIdentifierGenerator;
 import org.openremote.manager.asset.AssetStorageService;
@@ -42,13 +43,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
-
 public class ConsoleResourceImpl extends ManagerWebResource implements ConsoleResource {
 
     public static final String CONSOLE_PARENT_ASSET_NAME = "Consoles";
     protected Map<String, String> realmConsoleParentMap = new HashMap<>();
     protected AssetStorageService assetStorageService;
+    protected final ScopedLock lock = new ScopedLock(getClass().getSimpleName());
 
     public ConsoleResourceImpl(TimerService timerService, ManagerIdentityService identityService, AssetStorageService assetStorageService) {
         super(timerService, identityService);
@@ -112,7 +112,7 @@ public class ConsoleResourceImpl extends ManagerWebResource implements ConsoleRe
     }
 
     public String getConsoleParentAssetId(String realm) {
-        return withLockReturning(getClass().getSimpleName() + "::getConsoleParentAssetId", () -> {
+        return lock.withLockReturning("getConsoleParentAssetId", () -> {
             String id = realmConsoleParentMap.get(realm);
 
             if (TextUtil.isNullOrEmpty(id)) {
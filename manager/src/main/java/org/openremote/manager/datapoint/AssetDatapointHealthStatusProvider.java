@@ -66,6 +66,14 @@ public class AssetDatapointHealthStatusProvider implements ContainerHealthStatus
     public Value getHealthStatus() {
         ObjectValue value = Values.createObject();
         value.put("totalDatapoints", assetDatapointService.getDatapointsCount());
+
+        AssetDatapointWriter assetDatapointWriter = assetDatapointService.getAssetDatapointWriter();
+        value.put("writerQueueDepth", assetDatapointWriter.getQueueDepth());
+        value.put("writerQueueCapacity", assetDatapointWriter.getQueueCapacity());
+        value.put("writerRowsPerSecond", assetDatapointWriter.getRowsPerSecond());
+        value.put("writerWrittenRows", assetDatapointWriter.getWrittenRows());
+        value.put("writerFailedRows", assetDatapointWriter.getFailedRows());
+        value.put("writerBlockedOffers", assetDatapointWriter.getBlockedOffers());
         return value;
     }
 }
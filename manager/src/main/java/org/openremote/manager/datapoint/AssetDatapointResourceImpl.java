@@ -26,20 +26,28 @@ import org.openremote.manager.web.ManagerWebResource;
 import org.openremote.model.asset.Asset;
 import org.openremote.model.datapoint.AssetDatapointResource;
 import org.openremote.model.asset.AssetAttribute;
+import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.Datapoint;
+import org.openremote.model.datapoint.DatapointAggregation;
 import org.openremote.model.datapoint.DatapointInterval;
+import org.openremote.model.datapoint.DatapointPage;
+import org.openremote.model.datapoint.DatapointStep;
 import org.openremote.model.datapoint.NumberDatapoint;
 import org.openremote.model.http.RequestParams;
 
-import javax.ws.rs.BeanParam;
-import javax.ws.rs.WebApplicationException;
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.*;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.util.logging.Logger;
 
 public class AssetDatapointResourceImpl extends ManagerWebResource implements AssetDatapointResource {
 
     private static final Logger LOG = Logger.getLogger(AssetDatapointResourceImpl.class.getName());
 
+    public static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    public static final String CSV_MEDIA_TYPE = "text/csv";
+
     protected final AssetStorageService assetStorageService;
     protected final AssetDatapointService assetDatapointService;
 
@@ -59,38 +67,117 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
                                                  DatapointInterval interval,
                                                  long timestamp) {
         try {
+            return assetDatapointService.aggregateDatapoints(
+                getDatapointsAttribute(assetId, attributeName),
+                interval,
+                timestamp
+            );
+        } catch (IllegalStateException | IllegalArgumentException ex) {
+            throw new WebApplicationException(ex, Response.Status.BAD_REQUEST);
+        }
+    }
+
+    @Override
+    public NumberDatapoint[] getAggregatedNumberDatapoints(@BeanParam RequestParams requestParams,
+                                                           String assetId,
+                                                           String attributeName,
+                                                           DatapointStep step,
+                                                           DatapointAggregation aggregation,
+                                                           long fromTimestamp,
+                                                           long toTimestamp) {
+        if (step == null || aggregation == null) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+
+        try {
+            return assetDatapointService.aggregateDatapoints(
+                getDatapointsAttribute(assetId, attributeName),
+                step,
+                aggregation,
+                fromTimestamp,
+                toTimestamp
+            );
+        } catch (IllegalStateException | IllegalArgumentException ex) {
+            throw new WebApplicationException(ex, Response.Status.BAD_REQUEST);
+        }
+    }
+
+    @Override
+    public DatapointPage getDatapointPage(@BeanParam RequestParams requestParams,
+                                          String assetId,
+                                          String attributeName,
+                                          long fromTimestamp,
+                                          long toTimestamp,
+                                          int limit,
+                                          String continuationToken) {
+        try {
+            return assetDatapointService.getDatapointPage(
+                getDatapointsAttribute(assetId, attributeName).getReferenceOrThrow(),
+                fromTimestamp,
+                getToTimestamp(toTimestamp),
+                limit,
+                continuationToken
+            );
+        } catch (IllegalStateException | IllegalArgumentException ex) {
+            throw new WebApplicationException(ex, Response.Status.BAD_REQUEST);
+        }
+    }
 
-            if (isRestrictedUser() && !assetStorageService.isUserAsset(getUserId(), assetId)) {
-                throw new WebApplicationException(Response.Status.FORBIDDEN);
-            }
+    /**
+     * Streams the raw historical datapoints of an asset attribute between two timestamps (epoch milliseconds,
+     * inclusive), oldest first, as newline delimited JSON or CSV. A <code>toTimestamp</code> of <code>0</code> is
+     * the current time. Not part of {@link AssetDatapointResource} as
+     * clients can't consume a streamed response.
+     */
+    @GET
+    @Path("{assetId}/attribute/{attributeName}/export")
+    @Produces({NDJSON_MEDIA_TYPE, CSV_MEDIA_TYPE})
+    @RolesAllowed({"read:assets"})
+    public Response exportDatapoints(@BeanParam RequestParams requestParams,
+                                     @PathParam("assetId") String assetId,
+                                     @PathParam("attributeName") String attributeName,
+                                     @QueryParam("fromTimestamp") long fromTimestamp,
+                                     @QueryParam("toTimestamp") long toTimestamp,
+                                     @QueryParam("format") @DefaultValue("NDJSON") AssetDatapointService.DatapointExportFormat format) {
+        AttributeRef attributeRef = getDatapointsAttribute(assetId, attributeName).getReferenceOrThrow();
+        long to = getToTimestamp(toTimestamp);
+        StreamingOutput output = outputStream ->
+            assetDatapointService.exportDatapoints(attributeRef, fromTimestamp, to, format, outputStream);
+        return Response.ok(output, format == AssetDatapointService.DatapointExportFormat.CSV ? CSV_MEDIA_TYPE : NDJSON_MEDIA_TYPE)
+            .header("Content-Disposition", "attachment; filename=\"" + assetId + "-" + attributeName
+                + (format == AssetDatapointService.DatapointExportFormat.CSV ? ".csv" : ".ndjson") + "\"")
+            .build();
+    }
 
-            Asset asset = assetStorageService.find(assetId, true);
+    protected long getToTimestamp(long toTimestamp) {
+        return toTimestamp > 0 ? toTimestamp : timerService.getCurrentTimeMillis();
+    }
 
-            if (asset == null) {
-                throw new WebApplicationException(Response.Status.NOT_FOUND);
-            }
+    protected AssetAttribute getDatapointsAttribute(String assetId, String attributeName) {
+        if (isRestrictedUser() && !assetStorageService.isUserAsset(getUserId(), assetId)) {
+            throw new WebApplicationException(Response.Status.FORBIDDEN);
+        }
 
-            if (!isTenantActiveAndAccessible(asset)) {
-                LOG.fine("Forbidden access for user '" + getUsername() + "': " + asset);
-                throw new WebApplicationException(Response.Status.FORBIDDEN);
-            }
+        Asset asset = assetStorageService.find(assetId, true);
 
-            AssetAttribute attribute = asset.getAttribute(attributeName).orElseThrow(() ->
-                new WebApplicationException(Response.Status.NOT_FOUND)
-            );
+        if (asset == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
 
-            if (!Datapoint.isDatapointsCapable(attribute) || !attribute.isStoreDatapoints()) {
-                throw new WebApplicationException(Response.Status.BAD_REQUEST);
-            }
+        if (!isTenantActiveAndAccessible(asset)) {
+            LOG.fine("Forbidden access for user '" + getUsername() + "': " + asset);
+            throw new WebApplicationException(Response.Status.FORBIDDEN);
+        }
 
-            return assetDatapointService.aggregateDatapoints(
-                attribute,
-                interval,
-                timestamp
-            );
-        } catch (IllegalStateException ex) {
-            throw new WebApplicationException(ex, Response.Status.BAD_REQUEST);
+        AssetAttribute attribute = asset.getAttribute(attributeName).orElseThrow(() ->
+            new WebApplicationException(Response.Status.NOT_FOUND)
+        );
+
+        if (!Datapoint.isDatapointsCapable(attribute) || !attribute.isStoreDatapoints()) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
+
+        return attribute;
     }
 
 }
@@ -20,7 +20,10 @@ import org.openremote.model.attribute.AttributeEvent.Source;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.AssetDatapoint;
 import org.openremote.model.datapoint.Datapoint;
+import org.openremote.model.datapoint.DatapointAggregation;
 import org.openremote.model.datapoint.DatapointInterval;
+import org.openremote.model.datapoint.DatapointPage;
+import org.openremote.model.datapoint.DatapointStep;
 import org.openremote.model.datapoint.NumberDatapoint;
 import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.BaseAssetQuery;
@@ -30,10 +33,17 @@ import org.postgresql.util.PGInterval;
 
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -46,17 +56,118 @@ import java.util.stream.Collectors;
 import static java.time.temporal.ChronoUnit.DAYS;
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.manager.asset.AssetProcessingException.Reason.DATAPOINT_QUEUE_FULL;
 
 /**
  * Store and retrieve datapoints for asset attributes and periodically purge data points based on
  * {@link org.openremote.model.asset.AssetMeta#DATA_POINTS_MAX_AGE_DAYS} {@link org.openremote.model.attribute.MetaItem}
  * and {@link #DATA_POINTS_MAX_AGE_DAYS} setting; storage duration defaults to {@value #DATA_POINTS_MAX_AGE_DAYS_DEFAULT}
  * days.
+ * <p>
+ * Datapoints are not inserted in the transaction processing the attribute event, they are queued and inserted in
+ * batches by the {@link AssetDatapointWriter}; see {@link #DATA_POINTS_WRITER_QUEUE_SIZE}. The writer also maintains
+ * the {@link Rollup} tables, aggregation of datapoints reads from these instead of the raw datapoints.
  */
 public class AssetDatapointService implements ContainerService, AssetUpdateProcessor {
 
+    /**
+     * Tables of numeric datapoints pre-aggregated into buckets (count, sum, min, max and last value), bucket
+     * boundaries are UTC. Steps in a time zone with another offset are aggregated from smaller buckets which
+     * align with the steps, see {@link #forStep(DatapointStep, ZoneId, long, long)}.
+     */
+    public enum Rollup {
+
+        MINUTE("ASSET_DATAPOINT_MINUTE", 60000L),
+        HOUR("ASSET_DATAPOINT_HOUR", 3600000L),
+        DAY("ASSET_DATAPOINT_DAY", 86400000L);
+
+        final protected String tableName;
+        final protected long bucketMillis;
+
+        Rollup(String tableName, long bucketMillis) {
+            this.tableName = tableName;
+            this.bucketMillis = bucketMillis;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public long getBucketMillis() {
+            return bucketMillis;
+        }
+
+        /**
+         * @return the coarsest rollup with buckets not larger than the step.
+         */
+        public static Rollup forStep(DatapointStep step) {
+            switch (step) {
+                case MINUTE:
+                    return MINUTE;
+                case HOUR:
+                    return HOUR;
+                default:
+                    return DAY;
+            }
+        }
+
+        /**
+         * @return the coarsest rollup with buckets not larger than the step, and with bucket boundaries on the
+         * step boundaries of the zone for all offsets the zone has in the range. Days in a zone with an offset
+         * of whole hours are aggregated from hours, other offsets from minutes.
+         */
+        public static Rollup forStep(DatapointStep step, ZoneId zone, long fromTimestamp, long toTimestamp) {
+            Rollup rollup = forStep(step);
+            while (rollup != MINUTE && !isAligned(rollup, zone, fromTimestamp, toTimestamp)) {
+                rollup = values()[rollup.ordinal() - 1];
+            }
+            return rollup;
+        }
+
+        protected static boolean isAligned(Rollup rollup, ZoneId zone, long fromTimestamp, long toTimestamp) {
+            ZoneRules rules = zone.getRules();
+            Instant instant = Instant.ofEpochMilli(fromTimestamp);
+            Instant to = Instant.ofEpochMilli(toTimestamp);
+            if (rules.getOffset(instant).getTotalSeconds() * 1000L % rollup.getBucketMillis() != 0)
+                return false;
+            ZoneOffsetTransition transition;
+            while ((transition = rules.nextTransition(instant)) != null && !transition.getInstant().isAfter(to)) {
+                if (transition.getOffsetAfter().getTotalSeconds() * 1000L % rollup.getBucketMillis() != 0)
+                    return false;
+                instant = transition.getInstant();
+            }
+            return true;
+        }
+    }
+
     public static final String DATA_POINTS_MAX_AGE_DAYS = "DATA_POINTS_MAX_AGE_DAYS";
     public static final String DATA_POINTS_MAX_AGE_DAYS_DEFAULT = "30";
+    public static final int PURGE_BATCH_SIZE = 10000;
+    public static final int AGGREGATION_MAX_STEPS = 10000;
+    public static final int DATAPOINT_PAGE_DEFAULT_SIZE = 1000;
+    public static final int DATAPOINT_PAGE_MAX_SIZE = 10000;
+    public static final int DATAPOINT_EXPORT_FETCH_SIZE = 1000;
+
+    public enum DatapointExportFormat {
+        NDJSON,
+        CSV
+    }
+    /**
+     * Maximum number of datapoints waiting to be inserted, attribute event processing is blocked while full.
+     */
+    public static final String DATA_POINTS_WRITER_QUEUE_SIZE = "DATA_POINTS_WRITER_QUEUE_SIZE";
+    public static final int DATA_POINTS_WRITER_QUEUE_SIZE_DEFAULT = 10000;
+    /**
+     * Interval of inserting queued datapoints.
+     */
+    public static final String DATA_POINTS_WRITER_INTERVAL_MILLIS = "DATA_POINTS_WRITER_INTERVAL_MILLIS";
+    public static final int DATA_POINTS_WRITER_INTERVAL_MILLIS_DEFAULT = 250;
+    /**
+     * Maximum number of datapoints inserted with one statement, at most {@link AssetDatapointWriter#MAX_BATCH_SIZE}.
+     */
+    public static final String DATA_POINTS_WRITER_BATCH_SIZE = "DATA_POINTS_WRITER_BATCH_SIZE";
+    public static final int DATA_POINTS_WRITER_BATCH_SIZE_DEFAULT = 500;
     private static final Logger LOG = Logger.getLogger(AssetDatapointService.class.getName());
     protected PersistenceService persistenceService;
     protected AssetStorageService assetStorageService;
@@ -64,6 +175,7 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
     protected ManagerExecutorService managerExecutorService;
     protected int maxDatapointAgeDays;
     protected ScheduledFuture dataPointsPurgeScheduledFuture;
+    protected AssetDatapointWriter assetDatapointWriter;
 
     @Override
     public int getPriority() {
@@ -93,10 +205,20 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
         if (maxDatapointAgeDays <= 0) {
             LOG.warning(DATA_POINTS_MAX_AGE_DAYS + " value is not a valid value so data points won't be auto purged");
         }
+
+        assetDatapointWriter = new AssetDatapointWriter(
+                persistenceService,
+                managerExecutorService,
+                Math.max(getInteger(container.getConfig(), DATA_POINTS_WRITER_QUEUE_SIZE, DATA_POINTS_WRITER_QUEUE_SIZE_DEFAULT), 1),
+                Math.max(getInteger(container.getConfig(), DATA_POINTS_WRITER_INTERVAL_MILLIS, DATA_POINTS_WRITER_INTERVAL_MILLIS_DEFAULT), 1),
+                Math.max(getInteger(container.getConfig(), DATA_POINTS_WRITER_BATCH_SIZE, DATA_POINTS_WRITER_BATCH_SIZE_DEFAULT), 1)
+        );
     }
 
     @Override
     public void start(Container container) throws Exception {
+        assetDatapointWriter.start();
+
         if (maxDatapointAgeDays > 0) {
             long period = 24L * 3600L * 1000L;
 
@@ -113,6 +235,7 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
         if (dataPointsPurgeScheduledFuture != null) {
             dataPointsPurgeScheduledFuture.cancel(true);
         }
+        assetDatapointWriter.stop();
     }
 
     @Override
@@ -126,11 +249,24 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
                 && attribute.getStateEvent().get().getValue().isPresent()) { // Don't store datapoints with null value
             LOG.finest("Storing datapoint for: " + attribute);
             AssetDatapoint assetDatapoint = new AssetDatapoint(attribute.getStateEvent().get());
-            em.persist(assetDatapoint);
+            if (!assetDatapointWriter.write(em, assetDatapoint)) {
+                throw new AssetProcessingException(
+                        DATAPOINT_QUEUE_FULL,
+                        "queue depth: " + assetDatapointWriter.getQueueDepth()
+                );
+            }
         }
         return false;
     }
 
+    public AssetDatapointWriter getAssetDatapointWriter() {
+        return assetDatapointWriter;
+    }
+
+    /**
+     * Loads all datapoints of the attribute, use {@link #getDatapointPage} or {@link #exportDatapoints} for
+     * attributes with a long history.
+     */
     public List<AssetDatapoint> getDatapoints(AttributeRef attributeRef) {
         return persistenceService.doReturningTransaction(entityManager ->
                 entityManager.createQuery(
@@ -145,6 +281,136 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
     }
 
 
+    /**
+     * Gets datapoints of the attribute between the timestamps (inclusive) newest first, the page is at most
+     * {@link #DATAPOINT_PAGE_MAX_SIZE} datapoints. The continuation token is the timestamp of the last
+     * datapoint of the previous page, the next page starts with the datapoint before it.
+     */
+    public DatapointPage getDatapointPage(AttributeRef attributeRef,
+                                          long fromTimestamp,
+                                          long toTimestamp,
+                                          int limit,
+                                          String continuationToken) {
+        int pageSize = limit > 0 ? Math.min(limit, DATAPOINT_PAGE_MAX_SIZE) : DATAPOINT_PAGE_DEFAULT_SIZE;
+        long before = toTimestamp < Long.MAX_VALUE ? toTimestamp + 1 : Long.MAX_VALUE;
+        if (continuationToken != null && !continuationToken.isEmpty()) {
+            try {
+                before = Math.min(before, Long.parseLong(continuationToken));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid continuation token: " + continuationToken);
+            }
+        }
+        long finalBefore = before;
+
+        List<AssetDatapoint> datapoints = persistenceService.doReturningTransaction(entityManager ->
+                entityManager.createQuery(
+                        "select dp from AssetDatapoint dp " +
+                                "where dp.entityId = :assetId " +
+                                "and dp.attributeName = :attributeName " +
+                                "and dp.timestamp >= :fromTimestamp " +
+                                "and dp.timestamp < :before " +
+                                "order by dp.timestamp desc",
+                        AssetDatapoint.class)
+                        .setParameter("assetId", attributeRef.getEntityId())
+                        .setParameter("attributeName", attributeRef.getAttributeName())
+                        .setParameter("fromTimestamp", fromTimestamp)
+                        .setParameter("before", finalBefore)
+                        // Fetch one more to know if there is a next page
+                        .setMaxResults(pageSize + 1)
+                        .getResultList());
+
+        String nextContinuationToken = null;
+        if (datapoints.size() > pageSize) {
+            datapoints = datapoints.subList(0, pageSize);
+            nextContinuationToken = Long.toString(datapoints.get(pageSize - 1).getTimestamp());
+        }
+        return new DatapointPage(datapoints.toArray(new AssetDatapoint[datapoints.size()]), nextContinuationToken);
+    }
+
+    /**
+     * Writes datapoints of the attribute between the timestamps (inclusive) oldest first to the output stream.
+     * The datapoints are read in pages of {@link #DATAPOINT_EXPORT_FETCH_SIZE} rows, each in its own short
+     * transaction, and written after the transaction completes, so a slow client doesn't keep a transaction and
+     * its connection open. Values are written as JSON, CSV values are quoted if necessary.
+     */
+    public void exportDatapoints(AttributeRef attributeRef,
+                                 long fromTimestamp,
+                                 long toTimestamp,
+                                 DatapointExportFormat format,
+                                 OutputStream outputStream) {
+        long before = toTimestamp < Long.MAX_VALUE ? toTimestamp + 1 : Long.MAX_VALUE;
+
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            if (format == DatapointExportFormat.CSV) {
+                writer.write("timestamp,value\n");
+            }
+            long from = fromTimestamp;
+            List<Object[]> rows;
+            do {
+                rows = getExportRows(attributeRef, from, before);
+                for (Object[] row : rows) {
+                    String timestamp = Long.toString((Long) row[0]);
+                    String value = (String) row[1];
+                    if (format == DatapointExportFormat.CSV) {
+                        writer.write(timestamp);
+                        writer.write(',');
+                        writer.write(toCsvField(value));
+                        writer.write('\n');
+                    } else {
+                        writer.write("{\"timestamp\":");
+                        writer.write(timestamp);
+                        writer.write(",\"value\":");
+                        writer.write(value);
+                        writer.write("}\n");
+                    }
+                }
+                if (!rows.isEmpty()) {
+                    from = (Long) rows.get(rows.size() - 1)[0] + 1;
+                }
+            } while (rows.size() == DATAPOINT_EXPORT_FETCH_SIZE);
+            writer.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return the timestamp and JSON value of at most {@link #DATAPOINT_EXPORT_FETCH_SIZE} datapoints, oldest first.
+     */
+    protected List<Object[]> getExportRows(AttributeRef attributeRef, long fromTimestamp, long before) {
+        return persistenceService.doReturningTransaction(entityManager ->
+                entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                    try (PreparedStatement st = connection.prepareStatement(
+                            "select TIMESTAMP, VALUE::text from ASSET_DATAPOINT " +
+                                    "where ENTITY_ID = ? and ATTRIBUTE_NAME = ? and TIMESTAMP >= ? and TIMESTAMP < ? " +
+                                    "order by TIMESTAMP asc limit ?")) {
+
+                        st.setString(1, attributeRef.getEntityId());
+                        st.setString(2, attributeRef.getAttributeName());
+                        st.setLong(3, fromTimestamp);
+                        st.setLong(4, before);
+                        st.setInt(5, DATAPOINT_EXPORT_FETCH_SIZE);
+
+                        List<Object[]> rows = new ArrayList<>(DATAPOINT_EXPORT_FETCH_SIZE);
+                        try (ResultSet rs = st.executeQuery()) {
+                            while (rs.next()) {
+                                rows.add(new Object[]{rs.getLong(1), rs.getString(2)});
+                            }
+                        }
+                        return rows;
+                    }
+                })
+        );
+    }
+
+    protected static String toCsvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
     public long getDatapointsCount() {
         return getDatapointsCount(null);
     }
@@ -170,108 +436,181 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
         });
     }
 
+    /**
+     * Aggregates the average of datapoints in the interval ending at the timestamp, into steps of the interval.
+     */
     public NumberDatapoint[] aggregateDatapoints(AssetAttribute attribute,
                                                  DatapointInterval datapointInterval,
                                                  long timestamp) {
+        ZonedDateTime to = Instant.ofEpochSecond(timestamp / 1000).atZone(ZoneId.systemDefault());
+        ZonedDateTime from;
+        switch (datapointInterval) {
+            case HOUR:
+                from = to.minusHours(1);
+                break;
+            case DAY:
+                from = to.minusDays(1);
+                break;
+            case WEEK:
+                from = to.minusWeeks(1);
+                break;
+            case MONTH:
+                from = to.minusMonths(1);
+                break;
+            case YEAR:
+                from = to.minusYears(1);
+                break;
+            default:
+                throw new IllegalArgumentException("Can't handle interval: " + datapointInterval);
+        }
+        return aggregateDatapoints(
+                attribute,
+                datapointInterval.getStep(),
+                DatapointAggregation.AVERAGE,
+                from.toInstant().toEpochMilli(),
+                timestamp,
+                to.getZone()
+        );
+    }
+
+    /**
+     * Aggregates datapoints between the timestamps into steps of the default time zone.
+     */
+    public NumberDatapoint[] aggregateDatapoints(AssetAttribute attribute,
+                                                 DatapointStep step,
+                                                 DatapointAggregation aggregation,
+                                                 long fromTimestamp,
+                                                 long toTimestamp) {
+        return aggregateDatapoints(attribute, step, aggregation, fromTimestamp, toTimestamp, ZoneId.systemDefault());
+    }
+
+    /**
+     * Aggregates datapoints between the timestamps into steps of the zone, reading from the coarsest
+     * {@link Rollup} that has buckets of the step size or smaller which align with the steps in the zone.
+     * Steps without datapoints have a <code>null</code> value. The labels are the local date or time of the
+     * start of each step in the zone.
+     */
+    public NumberDatapoint[] aggregateDatapoints(AssetAttribute attribute,
+                                                 DatapointStep step,
+                                                 DatapointAggregation aggregation,
+                                                 long fromTimestamp,
+                                                 long toTimestamp,
+                                                 ZoneId zone) {
         LOG.fine("Aggregating datapoints for: " + attribute);
 
         AttributeRef attributeRef = attribute.getReferenceOrThrow();
 
+        switch (attribute.getTypeOrThrow().getValueType()) {
+            case NUMBER:
+            case BOOLEAN:
+                break;
+            default:
+                throw new IllegalArgumentException("Can't aggregate number datapoints for type of: " + attribute);
+        }
+
+        if (fromTimestamp > toTimestamp) {
+            throw new IllegalArgumentException("Start of range must not be after end of range");
+        }
+
+        long stepMillis = step == DatapointStep.MONTH
+            ? 28L * Rollup.DAY.getBucketMillis()
+            : Rollup.forStep(step).getBucketMillis();
+        if ((toTimestamp - fromTimestamp) / stepMillis >= AGGREGATION_MAX_STEPS) {
+            throw new IllegalArgumentException("Range contains more than " + AGGREGATION_MAX_STEPS + " steps");
+        }
+        Rollup rollup = Rollup.forStep(step, zone, fromTimestamp, toTimestamp);
+        String timeZone = toPostgresTimeZone(zone);
+
+        String truncateX;
+        String interval;
+        Function<Timestamp, String> labelFunction;
+        // The query returns local timestamps of the zone, which the driver reads as timestamps of the default zone
+        SimpleDateFormat dayFormat = new SimpleDateFormat("dd. MMM yyyy");
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
+        switch (step) {
+            case MINUTE:
+                truncateX = "minute";
+                interval = "1 minute";
+                labelFunction = timeFormat::format;
+                break;
+            case HOUR:
+                truncateX = "hour";
+                interval = "1 hour";
+                labelFunction = timeFormat::format;
+                break;
+            case DAY:
+                truncateX = "day";
+                interval = "1 day";
+                labelFunction = dayFormat::format;
+                break;
+            case MONTH:
+                truncateX = "month";
+                interval = "1 month";
+                labelFunction = dayFormat::format;
+                break;
+            default:
+                throw new IllegalArgumentException("Can't handle step: " + step);
+        }
+
+        String function;
+        switch (aggregation) {
+            case AVERAGE:
+                function = "sum(VALUE_SUM) / sum(VALUE_COUNT)";
+                break;
+            case MIN:
+                function = "min(VALUE_MIN)";
+                break;
+            case MAX:
+                function = "max(VALUE_MAX)";
+                break;
+            case LAST:
+                function = "(array_agg(LAST_VALUE order by LAST_TIMESTAMP desc))[1]";
+                break;
+            default:
+                throw new IllegalArgumentException("Can't handle aggregation: " + aggregation);
+        }
+
+        String query = "select TS as X, Y " +
+                " from ( " +
+                "       select date_trunc(?, GS) TS " +
+                "       from generate_series(to_timestamp(?) at time zone ?, to_timestamp(?) at time zone ?, ?) GS " +
+                "       ) TS " +
+                "  left join ( " +
+                "       select " +
+                "           date_trunc(?, to_timestamp(BUCKET / 1000) at time zone ?) as TS, " +
+                "           " + function + " as Y " +
+                "         from " + rollup.getTableName() +
+                "         where " +
+                "           ENTITY_ID = ? and ATTRIBUTE_NAME = ? " +
+                "           and " +
+                "           BUCKET >= ? " +
+                "           and " +
+                "           BUCKET < ? " +
+                "         group by TS " +
+                "  ) DP using (TS) " +
+                " order by TS asc ";
+
         return persistenceService.doReturningTransaction(entityManager ->
                 entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<NumberDatapoint[]>() {
                     @Override
                     public NumberDatapoint[] execute(Connection connection) throws SQLException {
+                        try (PreparedStatement st = connection.prepareStatement(query)) {
 
-                        String truncateX;
-                        String step;
-                        String interval;
-                        Function<Timestamp, String> labelFunction;
-
-                        SimpleDateFormat dayFormat = new SimpleDateFormat("dd. MMM yyyy");
-                        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
-                        switch (datapointInterval) {
-                            case HOUR:
-                                truncateX = "minute";
-                                step = "1 minute";
-                                interval = "1 hour";
-                                labelFunction = timeFormat::format;
-                                break;
-                            case DAY:
-                                truncateX = "hour";
-                                step = "1 hour";
-                                interval = "1 day";
-                                labelFunction = timeFormat::format;
-                                break;
-                            case WEEK:
-                                truncateX = "day";
-                                step = "1 day";
-                                interval = "7 day";
-                                labelFunction = dayFormat::format;
-                                break;
-                            case MONTH:
-                                truncateX = "day";
-                                step = "1 day";
-                                interval = "1 month";
-                                labelFunction = dayFormat::format;
-                                break;
-                            case YEAR:
-                                truncateX = "month";
-                                step = "1 month";
-                                interval = "1 year";
-                                labelFunction = dayFormat::format;
-                                break;
-                            default:
-                                throw new IllegalArgumentException("Can't handle interval: " + datapointInterval);
-                        }
-
-                        StringBuilder query = new StringBuilder();
-
-                        query.append("select TS as X, coalesce(AVG_VALUE, null) as Y " +
-                                " from ( " +
-                                "       select date_trunc(?, GS)::timestamp TS " +
-                                "       from generate_series(to_timestamp(?) - ?, to_timestamp(?), ?) GS " +
-                                "       ) TS " +
-                                "  left join ( " +
-                                "       select " +
-                                "           date_trunc(?, to_timestamp(TIMESTAMP / 1000))::timestamp as TS, ");
-
-                        switch (attribute.getTypeOrThrow().getValueType()) {
-                            case NUMBER:
-                                query.append(" AVG(VALUE::text::numeric) as AVG_VALUE ");
-                                break;
-                            case BOOLEAN:
-                                query.append(" AVG(case when VALUE::text::boolean is true then 1 else 0 end) as AVG_VALUE ");
-                                break;
-                            default:
-                                throw new IllegalArgumentException("Can't aggregate number datapoints for type of: " + attribute);
-                        }
-
-                        query.append(" from ASSET_DATAPOINT " +
-                                "         where " +
-                                "           to_timestamp(TIMESTAMP / 1000) >= to_timestamp(?) - ? " +
-                                "           and " +
-                                "           to_timestamp(TIMESTAMP / 1000) <= to_timestamp(?) " +
-                                "           and " +
-                                "           ENTITY_ID = ? and ATTRIBUTE_NAME = ? " +
-                                "         group by TS " +
-                                "  ) DP using (TS) " +
-                                " order by TS asc "
-                        );
-
-                        try (PreparedStatement st = connection.prepareStatement(query.toString())) {
-
-                            long timestampSeconds = timestamp / 1000;
+                            long fromSeconds = fromTimestamp / 1000;
+                            long toSeconds = toTimestamp / 1000;
                             st.setString(1, truncateX);
-                            st.setLong(2, timestampSeconds);
-                            st.setObject(3, new PGInterval(interval));
-                            st.setLong(4, timestampSeconds);
-                            st.setObject(5, new PGInterval(step));
-                            st.setString(6, truncateX);
-                            st.setLong(7, timestampSeconds);
-                            st.setObject(8, new PGInterval(interval));
-                            st.setLong(9, timestampSeconds);
-                            st.setString(10, attributeRef.getEntityId());
-                            st.setString(11, attributeRef.getAttributeName());
+                            st.setLong(2, fromSeconds);
+                            st.setString(3, timeZone);
+                            st.setLong(4, toSeconds);
+                            st.setString(5, timeZone);
+                            st.setObject(6, new PGInterval(interval));
+                            st.setString(7, truncateX);
+                            st.setString(8, timeZone);
+                            st.setString(9, attributeRef.getEntityId());
+                            st.setString(10, attributeRef.getAttributeName());
+                            // Include the whole bucket of the start of the range
+                            st.setLong(11, fromSeconds * 1000 - Math.floorMod(fromSeconds * 1000, rollup.getBucketMillis()));
+                            st.setLong(12, (toSeconds + 1) * 1000);
 
                             try (ResultSet rs = st.executeQuery()) {
                                 List<NumberDatapoint> result = new ArrayList<>();
@@ -288,6 +627,19 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
         );
     }
 
+    /**
+     * Postgres reads offsets of time zone names as POSIX offsets, positive west of Greenwich, region IDs are the
+     * same in Java and Postgres.
+     */
+    protected static String toPostgresTimeZone(ZoneId zone) {
+        ZoneId normalized = zone.normalized();
+        if (normalized instanceof ZoneOffset) {
+            int totalSeconds = ((ZoneOffset) normalized).getTotalSeconds();
+            return totalSeconds == 0 ? "UTC" : "UTC" + ZoneOffset.ofTotalSeconds(-totalSeconds).getId();
+        }
+        return normalized.getId();
+    }
+
     protected void purgeDataPoints() {
         LOG.info("Starting data points purge daily task");
 
@@ -312,10 +664,10 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
         // Purge data points not in the above list using default duration
         LOG.fine("Purging data points of attributes that use default max age days of " + maxDatapointAgeDays);
 
-        persistenceService.doTransaction(em -> em.createQuery(
-                "delete from AssetDatapoint dp " +
-                        "where dp.timestamp < :dt" + buildWhereClause(attributes, true)
-        ).setParameter("dt", 1000L * timerService.getNow().truncatedTo(DAYS).minus(maxDatapointAgeDays, DAYS).getEpochSecond()).executeUpdate());
+        purgeDatapoints(
+                1000L * timerService.getNow().truncatedTo(DAYS).minus(maxDatapointAgeDays, DAYS).getEpochSecond(),
+                buildWhereClause(attributes, true)
+        );
 
         if (!attributes.isEmpty()) {
             // Purge data points that have specific age constraints
@@ -331,10 +683,10 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
                 LOG.fine("Purging data points of " + attrs.size() + " attributes that use a max age of " + age);
 
                 try {
-                    persistenceService.doTransaction(em -> em.createQuery(
-                            "delete from AssetDatapoint dp " +
-                                    "where dp.timestamp < :dt" + buildWhereClause(attrs, false)
-                    ).setParameter("dt", 1000L * timerService.getNow().truncatedTo(DAYS).minus(age, DAYS).getEpochSecond()).executeUpdate());
+                    purgeDatapoints(
+                            1000L * timerService.getNow().truncatedTo(DAYS).minus(age, DAYS).getEpochSecond(),
+                            buildWhereClause(attrs, false)
+                    );
                 } catch (Exception e) {
                     LOG.log(Level.SEVERE, "An error occurred whilst deleting data points, this should not happen", e);
                 }
@@ -344,6 +696,34 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
         LOG.info("Finished data points purge daily task");
     }
 
+    /**
+     * Deletes datapoints and rollup buckets older than the given timestamp.
+     */
+    protected void purgeDatapoints(long olderThanMillis, String whereClause) {
+        deleteRows("ASSET_DATAPOINT", "TIMESTAMP", olderThanMillis, whereClause);
+        for (Rollup rollup : Rollup.values()) {
+            deleteRows(rollup.getTableName(), "BUCKET", olderThanMillis, whereClause);
+        }
+    }
+
+    /**
+     * Deletes rows older than the given timestamp in transactions of at most {@link #PURGE_BATCH_SIZE} rows,
+     * so purging doesn't hold locks on or rewrite a large part of the table at once.
+     */
+    protected void deleteRows(String tableName, String timestampColumn, long olderThanMillis, String whereClause) {
+        int deleted;
+        long total = 0;
+        do {
+            deleted = persistenceService.doReturningTransaction(em -> em.createNativeQuery(
+                    "delete from " + tableName + " where ctid = any(array(" +
+                            "select ctid from " + tableName + " where " + timestampColumn + " < :dt" + whereClause +
+                            " limit " + PURGE_BATCH_SIZE + "))"
+            ).setParameter("dt", olderThanMillis).executeUpdate());
+            total += deleted;
+        } while (deleted >= PURGE_BATCH_SIZE);
+        LOG.fine("Purged rows of " + tableName + ": " + total);
+    }
+
     protected String buildWhereClause(List<AssetAttribute> attributes, boolean negate) {
 
         if (attributes.isEmpty()) {
@@ -357,7 +737,7 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
                 })
                 .collect(Collectors.joining(","));
 
-        return " and (dp.entityId, dp.attributeName) " + (negate ? "not " : "") + "in (" + whereStr + ")";
+        return " and (ENTITY_ID, ATTRIBUTE_NAME) " + (negate ? "not " : "") + "in (" + whereStr + ")";
     }
 
     protected long getFirstRunMillis(Instant currentTime) {
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.manager.concurrent.ManagerExecutorService;
+import org.openremote.model.datapoint.AssetDatapoint;
+import org.postgresql.util.PGobject;
+
+import javax.persistence.EntityManager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Buffers {@link AssetDatapoint}s in a bounded queue and inserts them in the background with multi-row
+ * statements, so storing datapoints doesn't add a database round trip to the processing of each attribute
+ * event. A datapoint written in a transaction is only queued when that transaction commits; its place in the
+ * queue is reserved right away, so when the queue is full, callers are blocked until there is space again or
+ * the reservation times out, and the transaction can still be rolled back.
+ * <p>
+ * The {@link AssetDatapointService.Rollup} tables are updated with the inserted datapoints in the same statement.
+ * Datapoints that already exist (same attribute and timestamp) are ignored. A batch that fails to insert is
+ * retried once on the next run, then dropped and counted as failed. The batch size is limited to
+ * {@link #MAX_BATCH_SIZE}, PostgreSQL doesn't accept more bind parameters in one statement.
+ */
+public class AssetDatapointWriter {
+
+    private static final Logger LOG = Logger.getLogger(AssetDatapointWriter.class.getName());
+
+    public static final int OFFER_TIMEOUT_MILLIS = 5000;
+    public static final int PARAMETERS_PER_ROW = 4;
+    public static final int MAX_BATCH_SIZE = Short.MAX_VALUE / PARAMETERS_PER_ROW;
+
+    final protected PersistenceService persistenceService;
+    final protected ManagerExecutorService executorService;
+    final protected BlockingQueue<AssetDatapoint> queue;
+    // One permit for each free place in the queue that hasn't been reserved by an open transaction
+    final protected Semaphore slots;
+    final protected int intervalMillis;
+    final protected int batchSize;
+    final protected AtomicBoolean drainRequested = new AtomicBoolean();
+    protected ScheduledFuture drainTimer;
+    // Only accessed by the draining thread
+    protected List<AssetDatapoint> failedBatch;
+
+    final protected AtomicLong writtenRows = new AtomicLong();
+    final protected AtomicLong failedRows = new AtomicLong();
+    final protected AtomicLong blockedOffers = new AtomicLong();
+    protected volatile long rateWindowStart = System.currentTimeMillis();
+    protected volatile long rateWindowRows;
+    protected volatile double rowsPerSecond;
+
+    public AssetDatapointWriter(PersistenceService persistenceService,
+                                ManagerExecutorService executorService,
+                                int queueSize,
+                                int intervalMillis,
+                                int batchSize) {
+        this.persistenceService = persistenceService;
+        this.executorService = executorService;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.slots = new Semaphore(queueSize);
+        this.intervalMillis = intervalMillis;
+        if (batchSize > MAX_BATCH_SIZE) {
+            LOG.warning("Datapoint batch size " + batchSize + " exceeds the statement parameter limit, using: " + MAX_BATCH_SIZE);
+        }
+        this.batchSize = Math.min(batchSize, MAX_BATCH_SIZE);
+    }
+
+    public void start() {
+        drainTimer = executorService.scheduleWithFixedDelay(this::drain, intervalMillis, intervalMillis);
+    }
+
+    public void stop() {
+        if (drainTimer != null) {
+            drainTimer.cancel(false);
+            drainTimer = null;
+        }
+        drain();
+    }
+
+    /**
+     * Reserves a place in the queue, blocking the caller while the queue is full, and adds the datapoint when
+     * the transaction of the entity manager commits. The reservation is released if the transaction rolls back.
+     *
+     * @return <code>false</code> if the queue is still full after {@link #OFFER_TIMEOUT_MILLIS}.
+     */
+    public boolean write(EntityManager em, AssetDatapoint assetDatapoint) {
+        if (!reserve()) {
+            return false;
+        }
+        persistenceService.onTransactionCompletion(em, committed -> {
+            if (committed) {
+                queue.add(assetDatapoint);
+            } else {
+                slots.release();
+            }
+        });
+        return true;
+    }
+
+    protected boolean reserve() {
+        if (slots.tryAcquire()) {
+            return true;
+        }
+
+        blockedOffers.incrementAndGet();
+        requestDrain();
+        try {
+            return slots.tryAcquire(OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    protected void requestDrain() {
+        if (drainRequested.compareAndSet(false, true)) {
+            executorService.execute(this::drain);
+        }
+    }
+
+    /**
+     * Inserts all queued datapoints in batches, runs on one thread at a time.
+     */
+    protected synchronized void drain() {
+        drainRequested.set(false);
+
+        if (failedBatch != null) {
+            List<AssetDatapoint> batch = failedBatch;
+            failedBatch = null;
+            if (!insert(batch)) {
+                LOG.warning("Dropping datapoints after failed retry: " + batch.size());
+                failedRows.addAndGet(batch.size());
+                return;
+            }
+        }
+
+        List<AssetDatapoint> batch = new ArrayList<>(batchSize);
+        int drained;
+        while ((drained = queue.drainTo(batch, batchSize)) > 0) {
+            slots.release(drained);
+            if (!insert(batch)) {
+                failedBatch = batch;
+                return;
+            }
+            batch = new ArrayList<>(batchSize);
+        }
+    }
+
+    protected boolean insert(List<AssetDatapoint> batch) {
+        try {
+            int rows = persistenceService.doReturningTransaction(em ->
+                em.unwrap(Session.class).doReturningWork(connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(buildInsert(batch.size()))) {
+                        int index = 1;
+                        for (AssetDatapoint assetDatapoint : batch) {
+                            PGobject pgJsonValue = new PGobject();
+                            pgJsonValue.setType("jsonb");
+                            pgJsonValue.setValue(assetDatapoint.getValue().toJson());
+                            statement.setString(index++, assetDatapoint.getEntityId());
+                            statement.setString(index++, assetDatapoint.getAttributeName());
+                            statement.setLong(index++, assetDatapoint.getTimestamp());
+                            statement.setObject(index++, pgJsonValue);
+                        }
+                        try (ResultSet rs = statement.executeQuery()) {
+                            rs.next();
+                            return rs.getInt(1);
+                        }
+                    }
+                })
+            );
+            LOG.finest("Inserted datapoints: " + rows);
+            recordWrittenRows(batch.size());
+            return true;
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Error inserting datapoints: " + batch.size(), ex);
+            return false;
+        }
+    }
+
+    /**
+     * Inserts the datapoints and adds the inserted rows (not duplicates) to each rollup in one statement.
+     */
+    protected String buildInsert(int rows) {
+        StringBuilder insert = new StringBuilder("with DP (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, VALUE) as (values ");
+        for (int i = 0; i < rows; i++) {
+            insert.append(i == 0 ? "" : ",").append("(?, ?, ?::int8, ?::jsonb)");
+        }
+        insert.append("), INSERTED as (" +
+            " insert into ASSET_DATAPOINT (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, VALUE)" +
+            " select ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, VALUE from DP" +
+            " on conflict do nothing" +
+            " returning ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, case jsonb_typeof(VALUE)" +
+            "   when 'number' then VALUE::text::float8" +
+            "   when 'boolean' then case when VALUE::text::boolean then 1 else 0 end" +
+            "   end as NUMBER_VALUE" +
+            ")");
+        for (AssetDatapointService.Rollup rollup : AssetDatapointService.Rollup.values()) {
+            String bucket = "TIMESTAMP - TIMESTAMP % " + rollup.getBucketMillis();
+            insert.append(", ").append(rollup.name()).append(" as (" +
+                " insert into ").append(rollup.getTableName()).append(" as R" +
+                " (ENTITY_ID, ATTRIBUTE_NAME, BUCKET, VALUE_COUNT, VALUE_SUM, VALUE_MIN, VALUE_MAX, LAST_VALUE, LAST_TIMESTAMP)" +
+                " select ENTITY_ID, ATTRIBUTE_NAME, ").append(bucket).append(", count(*), sum(NUMBER_VALUE)," +
+                " min(NUMBER_VALUE), max(NUMBER_VALUE), (array_agg(NUMBER_VALUE order by TIMESTAMP desc))[1], max(TIMESTAMP)" +
+                " from INSERTED where NUMBER_VALUE is not null" +
+                " group by ENTITY_ID, ATTRIBUTE_NAME, ").append(bucket).append(
+                " on conflict (ENTITY_ID, ATTRIBUTE_NAME, BUCKET) do update set" +
+                " VALUE_COUNT = R.VALUE_COUNT + excluded.VALUE_COUNT," +
+                " VALUE_SUM = R.VALUE_SUM + excluded.VALUE_SUM," +
+                " VALUE_MIN = least(R.VALUE_MIN, excluded.VALUE_MIN)," +
+                " VALUE_MAX = greatest(R.VALUE_MAX, excluded.VALUE_MAX)," +
+                " LAST_VALUE = case when excluded.LAST_TIMESTAMP >= R.LAST_TIMESTAMP then excluded.LAST_VALUE else R.LAST_VALUE end," +
+                " LAST_TIMESTAMP = greatest(R.LAST_TIMESTAMP, excluded.LAST_TIMESTAMP)" +
+                ")");
+        }
+        insert.append(" select count(*) from INSERTED");
+        return insert.toString();
+    }
+
+    protected void recordWrittenRows(int rows) {
+        writtenRows.addAndGet(rows);
+        long now = System.currentTimeMillis();
+        rateWindowRows += rows;
+        long elapsed = now - rateWindowStart;
+        if (elapsed >= 1000) {
+            rowsPerSecond = rateWindowRows * 1000d / elapsed;
+            rateWindowRows = 0;
+            rateWindowStart = now;
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    /**
+     * @return the number of datapoints written in transactions which have not completed yet.
+     */
+    public int getReservedCount() {
+        return Math.max(queue.remainingCapacity() - slots.availablePermits(), 0);
+    }
+
+    public long getWrittenRows() {
+        return writtenRows.get();
+    }
+
+    public long getFailedRows() {
+        return failedRows.get();
+    }
+
+    public long getBlockedOffers() {
+        return blockedOffers.get();
+    }
+
+    /**
+     * @return the insert rate of the last window of at least one second, or <code>0</code> if the last
+     * insert was longer than a window ago.
+     */
+    public double getRowsPerSecond() {
+        return System.currentTimeMillis() - rateWindowStart > 2000 ? 0 : rowsPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "queueCapacity=" + getQueueCapacity() +
+            ", intervalMillis=" + intervalMillis +
+            ", batchSize=" + batchSize +
+            '}';
+    }
+}
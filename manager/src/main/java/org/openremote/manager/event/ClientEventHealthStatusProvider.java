@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import org.openremote.container.Container;
+import org.openremote.container.ContainerHealthStatusProvider;
+import org.openremote.container.ContainerService;
+import org.openremote.container.message.MessageBrokerSetupService;
+import org.openremote.container.web.socket.WebsocketComponent;
+import org.openremote.container.web.socket.WebsocketSessionQueue;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Value;
+import org.openremote.model.value.Values;
+
+import java.util.Map;
+
+public class ClientEventHealthStatusProvider implements ContainerHealthStatusProvider {
+
+    public static final String NAME = "client-events";
+    public static final String VERSION = "1.0";
+
+    protected ClientEventService clientEventService;
+    protected MessageBrokerSetupService messageBrokerSetupService;
+
+    @Override
+    public int getPriority() {
+        return ContainerService.DEFAULT_PRIORITY;
+    }
+
+    @Override
+    public void init(Container container) throws Exception {
+        clientEventService = container.getService(ClientEventService.class);
+        messageBrokerSetupService = container.getService(MessageBrokerSetupService.class);
+    }
+
+    @Override
+    public void start(Container container) throws Exception {
+
+    }
+
+    @Override
+    public void stop(Container container) throws Exception {
+
+    }
+
+    @Override
+    public String getHealthStatusName() {
+        return NAME;
+    }
+
+    @Override
+    public String getHealthStatusVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Value getHealthStatus() {
+        EventSubscriptions eventSubscriptions = clientEventService.getEventSubscriptions();
+        ObjectValue objectValue = Values.createObject();
+        objectValue.put("serializedEvents", eventSubscriptions.getSerializedEventCount());
+        objectValue.put("deliveredMessages", eventSubscriptions.getDeliveredMessageCount());
+        objectValue.put("averageCpuNanosPerMessage", eventSubscriptions.getAverageCpuNanosPerMessage());
+        objectValue.put("averageAllocatedBytesPerMessage", eventSubscriptions.getAverageAllocatedBytesPerMessage());
+        objectValue.put("batchedEvents", eventSubscriptions.getBatchedEventCount());
+        objectValue.put("collapsedEvents", eventSubscriptions.getCollapsedEventCount());
+        objectValue.put("batchMessages", eventSubscriptions.getBatchMessageCount());
+        objectValue.put("websocketSessions", getWebsocketSessionQueueStatus());
+        return objectValue;
+    }
+
+    protected ObjectValue getWebsocketSessionQueueStatus() {
+        WebsocketComponent websocketComponent = messageBrokerSetupService.getContext().getComponent(
+            WebsocketComponent.NAME, WebsocketComponent.class
+        );
+
+        long queued = 0, sent = 0, dropped = 0, coalesced = 0, failed = 0;
+        ObjectValue sessions = Values.createObject();
+        Map<String, WebsocketSessionQueue> sessionQueues = websocketComponent.getSessionQueues();
+        for (Map.Entry<String, WebsocketSessionQueue> entry : sessionQueues.entrySet()) {
+            WebsocketSessionQueue sessionQueue = entry.getValue();
+            int depth = sessionQueue.getDepth();
+            long sessionDropped = sessionQueue.getDroppedCount();
+            queued += depth;
+            sent += sessionQueue.getSentCount();
+            dropped += sessionDropped;
+            coalesced += sessionQueue.getCoalescedCount();
+            failed += sessionQueue.getFailedCount();
+
+            // Only report sessions that are (or have been) falling behind
+            if (depth > 0 || sessionDropped > 0) {
+                ObjectValue session = Values.createObject();
+                session.put("depth", depth);
+                session.put("dropped", sessionDropped);
+                sessions.put(entry.getKey(), session);
+            }
+        }
+
+        ObjectValue objectValue = Values.createObject();
+        objectValue.put("count", sessionQueues.size());
+        objectValue.put("queuedMessages", queued);
+        objectValue.put("sentMessages", sent);
+        objectValue.put("droppedMessages", dropped);
+        objectValue.put("coalescedMessages", coalesced);
+        objectValue.put("failedMessages", failed);
+        objectValue.put("slowSessions", sessions);
+        return objectValue;
+    }
+}
@@ -20,6 +20,7 @@
 package org.openremote.manager.event;
 
 import org.apache.camel.Exchange;
+import org.apache.camel.Message;
 import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
@@ -86,6 +87,10 @@ import static org.apache.camel.builder.PredicateBuilder.or;
  * The payload is an array of {@link SharedEvent}s.
  * </p></dd>
  * </dl>
+ * <p>
+ * Clients can negotiate the {@link WebsocketConstants#BINARY_SUBPROTOCOL}, the same messages are then exchanged as
+ * compact binary frames, see {@link org.openremote.container.web.socket.WebsocketBinaryCodec}. The payload of an
+ * <code>EVENT</code> message is encoded once and shared by all sessions receiving the event.
  */
 public class ClientEventService implements ContainerService {
 
@@ -120,7 +125,8 @@ public class ClientEventService implements ContainerService {
 
         eventSubscriptions = new EventSubscriptions(
             container.getService(TimerService.class),
-            container.getService(ManagerExecutorService.class)
+            container.getService(ManagerExecutorService.class),
+            this::sendBatchToSession
         );
 
         MessageBrokerSetupService messageBrokerSetupService = container.getService(MessageBrokerSetupService.class);
@@ -258,6 +264,16 @@ public class ClientEventService implements ContainerService {
         }
     }
 
+    protected void sendBatchToSession(Message message) {
+        if (messageBrokerService != null && messageBrokerService.getProducerTemplate() != null) {
+            messageBrokerService.getProducerTemplate().sendBodyAndHeaders(
+                "websocket://" + WEBSOCKET_EVENTS,
+                message.getBody(),
+                message.getHeaders()
+            );
+        }
+    }
+
     public static String getSessionKey(Exchange exchange) {
         return exchange.getIn().getHeader(WebsocketConstants.SESSION_KEY, String.class);
     }
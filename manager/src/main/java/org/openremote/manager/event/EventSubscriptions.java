@@ -19,37 +19,85 @@
  */
 package org.openremote.manager.event;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.apache.camel.Exchange;
 import org.apache.camel.Message;
 import org.apache.camel.impl.DefaultMessage;
 import org.openremote.container.timer.TimerService;
+import org.openremote.container.web.socket.WebsocketBinaryCodec;
 import org.openremote.container.web.socket.WebsocketConstants;
 import org.openremote.manager.concurrent.ManagerExecutorService;
+import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.event.TriggeredEventSubscription;
 import org.openremote.model.event.shared.CancelEventSubscription;
+import org.openremote.model.event.shared.EventFilter;
 import org.openremote.model.event.shared.EventSubscription;
 import org.openremote.model.event.shared.SharedEvent;
+import org.openremote.model.event.shared.TenantFilter;
+import org.openremote.model.event.shared.TenantScopedEvent;
 import org.openremote.model.util.TextUtil;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.openremote.manager.event.ClientEventService.HEADER_ACCESS_RESTRICTED;
 
 /**
  * Manages subscriptions to events for WebSocket sessions.
+ * <p>
+ * Subscriptions are indexed by event type and by the entity IDs or realm of their filter, so splitting an event for
+ * subscribers only visits the subscriptions that can match it.
+ * <p>
+ * Events of subscriptions with {@link EventSubscription#getBatchMillis} are collected per subscription and sent as
+ * one message when the time window closes, repeated {@link AttributeEvent}s of the same attribute are collapsed to
+ * the latest value.
  */
 public class EventSubscriptions {
 
     private static final Logger LOG = Logger.getLogger(EventSubscriptions.class.getName());
 
+    public static final int MAX_BATCH_MILLIS = 10000;
+    // A batch is sent before its time window closes when it holds this many events
+    public static final int MAX_BATCH_SIZE = 1000;
+
     final protected TimerService timerService;
+    final protected ManagerExecutorService executorService;
+    // Receives the message of a batch for its session when the time window closes
+    final protected Consumer<Message> batchConsumer;
     final protected Map<String, SessionSubscriptions> sessionSubscriptionIdMap = new HashMap<>();
+    // Event type -> subscriptions of all sessions, guarded by the sessionSubscriptionIdMap
+    final protected Map<String, EventTypeSubscriptions> eventTypeSubscriptionsMap = new HashMap<>();
+
+    static final protected ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    // Statistics of creating messages for subscribed sessions
+    final protected LongAdder serializedEventCount = new LongAdder();
+    final protected LongAdder deliveredMessageCount = new LongAdder();
+    // CPU time and allocation are only measured if FINE logging is enabled
+    final protected LongAdder measuredMessageCount = new LongAdder();
+    final protected LongAdder splitCpuNanos = new LongAdder();
+    final protected LongAdder splitAllocatedBytes = new LongAdder();
+    final protected LongAdder batchedEventCount = new LongAdder();
+    final protected LongAdder batchMessageCount = new LongAdder();
+    final protected LongAdder collapsedEventCount = new LongAdder();
 
     class SessionSubscriptions extends HashSet<SessionSubscription> {
+        final String sessionKey;
+
+        SessionSubscriptions(String sessionKey) {
+            this.sessionKey = sessionKey;
+        }
+
         public void removeExpired() {
-            removeIf(sessionSubscription -> {
+            removeSubscriptions(sessionSubscription -> {
                     boolean expired = sessionSubscription.isExpired();
                     if (expired) {
                         LOG.fine("Removing expired; " + sessionSubscription.subscription);
@@ -67,7 +115,11 @@ public class EventSubscriptions {
                 cancelById(eventSubscription.getSubscriptionId());
             }
 
-            add(new SessionSubscription(restrictedUser, timerService.getCurrentTimeMillis(), eventSubscription));
+            SessionSubscription sessionSubscription =
+                new SessionSubscription(sessionKey, restrictedUser, timerService.getCurrentTimeMillis(), eventSubscription);
+            add(sessionSubscription);
+            eventTypeSubscriptionsMap.computeIfAbsent(eventSubscription.getEventType(), type -> new EventTypeSubscriptions())
+                .add(sessionSubscription);
         }
 
         public void update(boolean resstrictedUser, String[] subscriptionIds) {
@@ -81,25 +133,63 @@ public class EventSubscriptions {
         }
 
         public void cancelByType(String eventType) {
-            removeIf(sessionSubscription -> sessionSubscription.subscription.getEventType().equals(eventType));
+            removeSubscriptions(sessionSubscription -> sessionSubscription.subscription.getEventType().equals(eventType));
         }
 
         public void cancelById(String subscriptionId) {
-            removeIf(sessionSubscription -> sessionSubscription.subscription.getSubscriptionId().equals(subscriptionId));
+            removeSubscriptions(sessionSubscription -> sessionSubscription.subscription.getSubscriptionId().equals(subscriptionId));
+        }
+
+        public void cancelAll() {
+            removeSubscriptions(sessionSubscription -> true);
+        }
+
+        protected void removeSubscriptions(Predicate<SessionSubscription> predicate) {
+            removeIf(sessionSubscription -> {
+                if (!predicate.test(sessionSubscription)) {
+                    return false;
+                }
+                if (sessionSubscription.batch != null) {
+                    sessionSubscription.batch.cancel();
+                }
+                String eventType = sessionSubscription.subscription.getEventType();
+                EventTypeSubscriptions eventTypeSubscriptions = eventTypeSubscriptionsMap.get(eventType);
+                if (eventTypeSubscriptions != null) {
+                    eventTypeSubscriptions.remove(sessionSubscription);
+                    if (eventTypeSubscriptions.isEmpty()) {
+                        eventTypeSubscriptionsMap.remove(eventType);
+                    }
+                }
+                return true;
+            });
         }
     }
 
     class SessionSubscription {
-        boolean restrictedUser;
+        // Updated by the session while events are matched on other threads
+        volatile boolean restrictedUser;
         long timestamp;
+        final String sessionKey;
         final EventSubscription subscription;
         final String subscriptionId;
+        // The filter is applied by the index, if it filters by entity ID or realm
+        final boolean indexedFilter;
+        // Only set if events are sent to the session in batches
+        final EventBatch batch;
 
-        public SessionSubscription(boolean restrictedUser, long timestamp, EventSubscription subscription) {
+        public SessionSubscription(String sessionKey, boolean restrictedUser, long timestamp, EventSubscription subscription) {
+            this.sessionKey = sessionKey;
             this.restrictedUser = restrictedUser;
             this.timestamp = timestamp;
             this.subscription = subscription;
             this.subscriptionId = subscription.getSubscriptionId();
+            EventFilter<?> filter = subscription.getFilter();
+            this.indexedFilter = (filter instanceof AttributeEvent.EntityIdFilter && ((AttributeEvent.EntityIdFilter) filter).getEntityIds() != null)
+                || (filter instanceof TenantFilter && ((TenantFilter) filter).getRealm() != null);
+            Integer batchMillis = subscription.getBatchMillis();
+            this.batch = subscription.getInternalConsumer() == null && batchMillis != null && batchMillis > 0
+                ? new EventBatch(this, Math.min(batchMillis, MAX_BATCH_MILLIS))
+                : null;
         }
 
         public boolean matches(boolean accessibleForRestrictedUsers, SharedEvent event) {
@@ -115,9 +205,166 @@ public class EventSubscriptions {
         }
     }
 
-    public EventSubscriptions(TimerService timerService, ManagerExecutorService executorService) {
+    /**
+     * The events collected for a subscription during the current time window, in order of arrival. Events of the same
+     * attribute share one entry which holds the latest event. A batch is flushed by its timer or when it is full,
+     * flushes of the same batch are serialized so batches are delivered in order.
+     */
+    class EventBatch {
+        final SessionSubscription sessionSubscription;
+        final int batchMillis;
+        final Map<Object, SharedEvent> events = new LinkedHashMap<>();
+        // Held while taking, serializing and delivering the events, acquired before the lock of this batch
+        final Object flushLock = new Object();
+        boolean cancelled;
+        // The scheduled flush of the pending events, cancelled when the events are flushed earlier
+        ScheduledFuture flushTimer;
+
+        EventBatch(SessionSubscription sessionSubscription, int batchMillis) {
+            this.sessionSubscription = sessionSubscription;
+            this.batchMillis = batchMillis;
+        }
+
+        void add(SharedEvent event) {
+            boolean flush;
+            synchronized (this) {
+                if (cancelled)
+                    return;
+                boolean first = events.isEmpty();
+                Object key = event instanceof AttributeEvent ? ((AttributeEvent) event).getAttributeRef() : new Object();
+                if (events.put(key, event) != null) {
+                    collapsedEventCount.increment();
+                }
+                batchedEventCount.increment();
+                flush = events.size() >= MAX_BATCH_SIZE;
+                if (first && !flush) {
+                    flushTimer = executorService.schedule(this::flush, batchMillis);
+                }
+            }
+            if (flush) {
+                flush();
+            }
+        }
+
+        void flush() {
+            synchronized (flushLock) {
+                SharedEvent[] batchEvents;
+                synchronized (this) {
+                    cancelFlushTimer();
+                    if (cancelled || events.isEmpty())
+                        return;
+                    // A subscription is for one event type, all events of the batch have the same class
+                    batchEvents = (SharedEvent[]) Array.newInstance(events.values().iterator().next().getClass(), events.size());
+                    events.values().toArray(batchEvents);
+                    events.clear();
+                }
+                try {
+                    String eventsJson = EventTypeConverters.writeEvents(batchEvents);
+                    Message message = new DefaultMessage();
+                    message.setBody(EventTypeConverters.writeTriggeredEventSubscription(sessionSubscription.subscriptionId, eventsJson));
+                    message.setHeader(WebsocketConstants.SESSION_KEY, sessionSubscription.sessionKey);
+                    message.setHeader(WebsocketConstants.BINARY_PAYLOAD, new WebsocketBinaryCodec.Payload(eventsJson));
+                    batchMessageCount.increment();
+                    batchConsumer.accept(message);
+                } catch (Exception ex) {
+                    LOG.log(Level.WARNING, "Error sending batch of " + batchEvents.length + " events to session: " + sessionSubscription.sessionKey, ex);
+                }
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            cancelFlushTimer();
+            events.clear();
+        }
+
+        /**
+         * The pending events are taken, the next added event schedules a new flush. Must be called holding the lock
+         * of this batch.
+         */
+        void cancelFlushTimer() {
+            if (flushTimer != null) {
+                flushTimer.cancel(false);
+                flushTimer = null;
+            }
+        }
+    }
+
+    /**
+     * The subscriptions of all sessions to an event type. Subscriptions filtering by entity ID or by realm are indexed
+     * by each of their entity IDs or by their realm, all others are checked for every event.
+     */
+    class EventTypeSubscriptions {
+        final Map<String, Set<SessionSubscription>> entityIdSubscriptions = new HashMap<>();
+        final Map<String, Set<SessionSubscription>> realmSubscriptions = new HashMap<>();
+        final Set<SessionSubscription> otherSubscriptions = new HashSet<>();
+
+        void add(SessionSubscription sessionSubscription) {
+            EventFilter<?> filter = sessionSubscription.subscription.getFilter();
+            if (!sessionSubscription.indexedFilter) {
+                otherSubscriptions.add(sessionSubscription);
+            } else if (filter instanceof AttributeEvent.EntityIdFilter) {
+                for (String entityId : ((AttributeEvent.EntityIdFilter) filter).getEntityIds()) {
+                    entityIdSubscriptions.computeIfAbsent(entityId, id -> new HashSet<>()).add(sessionSubscription);
+                }
+            } else {
+                realmSubscriptions.computeIfAbsent(((TenantFilter) filter).getRealm(), realm -> new HashSet<>())
+                    .add(sessionSubscription);
+            }
+        }
+
+        void remove(SessionSubscription sessionSubscription) {
+            EventFilter<?> filter = sessionSubscription.subscription.getFilter();
+            if (!sessionSubscription.indexedFilter) {
+                otherSubscriptions.remove(sessionSubscription);
+            } else if (filter instanceof AttributeEvent.EntityIdFilter) {
+                for (String entityId : ((AttributeEvent.EntityIdFilter) filter).getEntityIds()) {
+                    removeFromIndex(entityIdSubscriptions, entityId, sessionSubscription);
+                }
+            } else {
+                removeFromIndex(realmSubscriptions, ((TenantFilter) filter).getRealm(), sessionSubscription);
+            }
+        }
+
+        boolean isEmpty() {
+            return entityIdSubscriptions.isEmpty() && realmSubscriptions.isEmpty() && otherSubscriptions.isEmpty();
+        }
+
+        /**
+         * Add the subscriptions that can match the event, each subscription is only added once.
+         */
+        void addCandidates(SharedEvent event, List<SessionSubscription> candidates) {
+            candidates.addAll(otherSubscriptions);
+            if (event instanceof AttributeEvent) {
+                Set<SessionSubscription> subscriptions = entityIdSubscriptions.get(((AttributeEvent) event).getEntityId());
+                if (subscriptions != null) {
+                    candidates.addAll(subscriptions);
+                }
+            }
+            if (event instanceof TenantScopedEvent) {
+                Set<SessionSubscription> subscriptions = realmSubscriptions.get(((TenantScopedEvent) event).getRealm());
+                if (subscriptions != null) {
+                    candidates.addAll(subscriptions);
+                }
+            }
+        }
+
+        protected void removeFromIndex(Map<String, Set<SessionSubscription>> index, String key, SessionSubscription sessionSubscription) {
+            Set<SessionSubscription> subscriptions = index.get(key);
+            if (subscriptions != null) {
+                subscriptions.remove(sessionSubscription);
+                if (subscriptions.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+    }
+
+    public EventSubscriptions(TimerService timerService, ManagerExecutorService executorService, Consumer<Message> batchConsumer) {
         LOG.info("Starting background task checking for expired event subscriptions from clients");
         this.timerService = timerService;
+        this.executorService = executorService;
+        this.batchConsumer = batchConsumer;
         executorService.scheduleAtFixedRate(() -> {
             synchronized (this.sessionSubscriptionIdMap) {
                 for (SessionSubscriptions subscriptions : sessionSubscriptionIdMap.values()) {
@@ -132,7 +379,7 @@ public class EventSubscriptions {
             // TODO Check if the user can actually subscribe to the events it wants, how do we do that?
             LOG.fine("For session '" + sessionKey + "', creating/updating: " + subscription);
             SessionSubscriptions sessionSubscriptions =
-                this.sessionSubscriptionIdMap.computeIfAbsent(sessionKey, k -> new SessionSubscriptions());
+                this.sessionSubscriptionIdMap.computeIfAbsent(sessionKey, SessionSubscriptions::new);
             sessionSubscriptions.createOrUpdate(restrictedUser, subscription);
         }
     }
@@ -165,13 +412,13 @@ public class EventSubscriptions {
         synchronized (this.sessionSubscriptionIdMap) {
             if (this.sessionSubscriptionIdMap.containsKey(sessionKey)) {
                 LOG.fine("Cancelling all subscriptions for session: " + sessionKey);
-                this.sessionSubscriptionIdMap.remove(sessionKey);
+                this.sessionSubscriptionIdMap.remove(sessionKey).cancelAll();
             }
         }
     }
 
     @SuppressWarnings("unchecked")
-    public <T extends SharedEvent> List<Message> splitForSubscribers(Exchange exchange) {
+    public <T extends SharedEvent> List<Message> splitForSubscribers(Exchange exchange) throws JsonProcessingException {
         List<Message> messageList = new ArrayList<>();
         SharedEvent event = exchange.getIn().getBody(SharedEvent.class);
         if (event == null)
@@ -179,39 +426,155 @@ public class EventSubscriptions {
 
         boolean accessibleForRestrictedUsers = exchange.getIn().getHeader(HEADER_ACCESS_RESTRICTED, false, Boolean.class);
 
-        Set<Map.Entry<String, SessionSubscriptions>> sessionSubscriptionsSet;
+        List<SessionSubscription> candidates = new ArrayList<>();
         synchronized (this.sessionSubscriptionIdMap) {
-            sessionSubscriptionsSet = new HashSet<>(sessionSubscriptionIdMap.entrySet());
+            EventTypeSubscriptions eventTypeSubscriptions = eventTypeSubscriptionsMap.get(event.getEventType());
+            if (eventTypeSubscriptions != null) {
+                eventTypeSubscriptions.addCandidates(event, candidates);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return messageList;
+        }
+
+        boolean measure = LOG.isLoggable(Level.FINE);
+        long startCpuNanos = measure ? getCurrentThreadCpuNanos() : 0;
+        long startAllocatedBytes = measure ? getCurrentThreadAllocatedBytes() : 0;
+
+        // All subscribers share the events array, its serialized form and its binary encoding, only the subscription
+        // ID differs
+        SharedEvent[] events = (SharedEvent[])Array.newInstance(event.getClass(), 1);
+        events[0] = event;
+        String eventsJson = null;
+        WebsocketBinaryCodec.Payload eventsPayload = null;
+        String eventsMessage = null;
+        List<SessionSubscription> internalSubscriptions = null;
+
+        // A newer value of the same attribute can replace a value still queued for a slow session
+        String attributeKey = null;
+        if (event instanceof AttributeEvent) {
+            AttributeEvent attributeEvent = (AttributeEvent) event;
+            attributeKey = attributeEvent.getEntityId() + ":" + attributeEvent.getAttributeName();
         }
 
-        for (Map.Entry<String, SessionSubscriptions> entry : sessionSubscriptionsSet) {
-            String sessionKey = entry.getKey();
-            SessionSubscriptions subscriptions = entry.getValue();
+        for (SessionSubscription sessionSubscription : candidates) {
+            String sessionKey = sessionSubscription.sessionKey;
 
-            for (SessionSubscription sessionSubscription : subscriptions) {
+            if (!sessionSubscription.matches(accessibleForRestrictedUsers, event))
+                continue;
 
-                if (!sessionSubscription.matches(accessibleForRestrictedUsers, event))
-                    continue;
+            if (sessionSubscription.indexedFilter
+                || sessionSubscription.subscription.getFilter() == null
+                || sessionSubscription.subscription.getFilter().apply(event)) {
 
-                if (sessionSubscription.subscription.getFilter() == null
-                    || sessionSubscription.subscription.getFilter().apply(event)) {
+                if (sessionSubscription.batch != null) {
+                    sessionSubscription.batch.add(event);
+                } else if (sessionSubscription.subscription.getInternalConsumer() == null) {
                     LOG.fine("Creating message for subscribed session '" + sessionKey + "': " + event);
-                    SharedEvent[] events = (SharedEvent[])Array.newInstance(event.getClass(), 1);
-                    events[0] = event;
-                    TriggeredEventSubscription triggeredEventSubscription = new TriggeredEventSubscription<>(events, sessionSubscription.subscriptionId);
-
-                    if (sessionSubscription.subscription.getInternalConsumer() == null) {
-                        Message msg = new DefaultMessage();
-                        msg.setBody(triggeredEventSubscription); // Don't copy the event, use same reference
-                        msg.setHeaders(new HashMap<>(exchange.getIn().getHeaders())); // Copy headers
-                        msg.setHeader(WebsocketConstants.SESSION_KEY, sessionKey);
-                        messageList.add(msg);
+                    if (eventsJson == null) {
+                        eventsJson = EventTypeConverters.writeEvents(events);
+                        eventsPayload = new WebsocketBinaryCodec.Payload(eventsJson);
+                        serializedEventCount.increment();
+                    }
+                    String message;
+                    if (TextUtil.isNullOrEmpty(sessionSubscription.subscriptionId)) {
+                        if (eventsMessage == null) {
+                            eventsMessage = EventTypeConverters.writeTriggeredEventSubscription(null, eventsJson);
+                        }
+                        message = eventsMessage;
                     } else {
-                        sessionSubscription.subscription.getInternalConsumer().accept(triggeredEventSubscription);
+                        message = EventTypeConverters.writeTriggeredEventSubscription(sessionSubscription.subscriptionId, eventsJson);
+                    }
+                    Message msg = new DefaultMessage();
+                    msg.setBody(message);
+                    msg.setHeaders(new HashMap<>(exchange.getIn().getHeaders())); // Copy headers
+                    msg.setHeader(WebsocketConstants.SESSION_KEY, sessionKey);
+                    msg.setHeader(WebsocketConstants.BINARY_PAYLOAD, eventsPayload);
+                    if (attributeKey != null) {
+                        msg.setHeader(
+                            WebsocketConstants.COALESCE_KEY,
+                            (sessionSubscription.subscriptionId != null ? sessionSubscription.subscriptionId : "") + ":" + attributeKey
+                        );
+                    }
+                    messageList.add(msg);
+                } else {
+                    if (internalSubscriptions == null) {
+                        internalSubscriptions = new ArrayList<>();
                     }
+                    internalSubscriptions.add(sessionSubscription);
                 }
             }
         }
+
+        if (!messageList.isEmpty()) {
+            if (measure) {
+                splitCpuNanos.add(getCurrentThreadCpuNanos() - startCpuNanos);
+                splitAllocatedBytes.add(getCurrentThreadAllocatedBytes() - startAllocatedBytes);
+                measuredMessageCount.add(messageList.size());
+            }
+            deliveredMessageCount.add(messageList.size());
+        }
+
+        // Internal consumers are not part of the measured fan-out to sessions
+        if (internalSubscriptions != null) {
+            for (SessionSubscription sessionSubscription : internalSubscriptions) {
+                TriggeredEventSubscription triggeredEventSubscription = new TriggeredEventSubscription<>(events, sessionSubscription.subscriptionId);
+                sessionSubscription.subscription.getInternalConsumer().accept(triggeredEventSubscription);
+            }
+        }
         return messageList;
     }
-}
\ No newline at end of file
+
+    public long getSerializedEventCount() {
+        return serializedEventCount.sum();
+    }
+
+    public long getDeliveredMessageCount() {
+        return deliveredMessageCount.sum();
+    }
+
+    public long getBatchedEventCount() {
+        return batchedEventCount.sum();
+    }
+
+    public long getBatchMessageCount() {
+        return batchMessageCount.sum();
+    }
+
+    /**
+     * @return The number of batched events that replaced an earlier event of the same attribute.
+     */
+    public long getCollapsedEventCount() {
+        return collapsedEventCount.sum();
+    }
+
+    /**
+     * @return The average CPU time to create a message for a subscribed session, including serialization, or
+     * <code>0</code> if the JVM doesn't measure thread CPU time. Only measured while FINE logging is enabled.
+     */
+    public long getAverageCpuNanosPerMessage() {
+        long messages = measuredMessageCount.sum();
+        return messages > 0 ? splitCpuNanos.sum() / messages : 0;
+    }
+
+    /**
+     * @return The average bytes allocated to create a message for a subscribed session, including serialization, or
+     * <code>0</code> if the JVM doesn't measure thread allocation. Only measured while FINE logging is enabled.
+     */
+    public long getAverageAllocatedBytesPerMessage() {
+        long messages = measuredMessageCount.sum();
+        return messages > 0 ? splitAllocatedBytes.sum() / messages : 0;
+    }
+
+    protected static long getCurrentThreadCpuNanos() {
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : 0;
+    }
+
+    protected static long getCurrentThreadAllocatedBytes() {
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -39,6 +39,7 @@
 
 package org.openremote.manager.event;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.apache.camel.Converter;
 import org.apache.camel.Exchange;
 import org.apache.camel.TypeConverters;
@@ -67,11 +68,28 @@ public class EventTypeConverters implements TypeConverters {
 
     @Converter
     public String writeTriggeredEventSubscription(TriggeredEventSubscription triggeredEventSubscription, Exchange exchange) throws Exception {
-        if (!TextUtil.isNullOrEmpty(triggeredEventSubscription.getSubscriptionId())) {
-            return SharedEvent.MESSAGE_PREFIX + triggeredEventSubscription.getSubscriptionId() + ":" + Container.JSON.writeValueAsString(triggeredEventSubscription.getEvents());
+        return writeTriggeredEventSubscription(triggeredEventSubscription.getSubscriptionId(), writeEvents(triggeredEventSubscription.getEvents()));
+    }
+
+    /**
+     * Serialize the events of a triggered subscription, the result can be sent to many subscribers with
+     * {@link #writeTriggeredEventSubscription(String, String)}.
+     */
+    public static String writeEvents(SharedEvent[] events) throws JsonProcessingException {
+        return Container.JSON.writeValueAsString(events);
+    }
+
+    public static String writeTriggeredEventSubscription(String subscriptionId, String eventsJson) {
+        if (!TextUtil.isNullOrEmpty(subscriptionId)) {
+            return new StringBuilder(SharedEvent.MESSAGE_PREFIX.length() + subscriptionId.length() + 1 + eventsJson.length())
+                .append(SharedEvent.MESSAGE_PREFIX)
+                .append(subscriptionId)
+                .append(':')
+                .append(eventsJson)
+                .toString();
         }
 
-        return SharedEvent.MESSAGE_PREFIX + Container.JSON.writeValueAsString(triggeredEventSubscription.getEvents());
+        return SharedEvent.MESSAGE_PREFIX + eventsJson;
     }
 
     @Converter
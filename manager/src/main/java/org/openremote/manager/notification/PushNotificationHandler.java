@@ -27,6 +27,7 @@ import com.google.firebase.messaging.*;
 import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.message.MessageBrokerSetupService;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.manager.asset.AssetStorageService;
@@ -54,7 +55,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.persistence.PersistenceEvent.*;
 import static org.openremote.model.asset.AssetType.CONSOLE;
 import static org.openremote.model.notification.PushNotificationMessage.TargetType.DEVICE;
@@ -74,6 +74,7 @@ public class PushNotificationHandler extends RouteBuilder implements Notificatio
     protected boolean valid;
     protected Map<String, String> consoleFCMTokenMap = new HashMap<>();
     protected List<String> fcmTokenBlacklist = new ArrayList<>();
+    protected final ScopedLock lock = new ScopedLock(getClass().getSimpleName());
 
     @Override
     public int getPriority() {
@@ -474,7 +475,7 @@ public class PushNotificationHandler extends RouteBuilder implements Notificatio
 
     protected void processConsoleAssetChange(Asset asset, PersistenceEvent persistenceEvent) {
 
-        withLock(getClass().getSimpleName() + "::processAssetChange", () -> {
+        lock.withLock("processAssetChange", () -> {
 
             String fcmToken = consoleFCMTokenMap.remove(asset.getId());
             if (!TextUtil.isNullOrEmpty(fcmToken)) {
@@ -42,21 +42,32 @@ import org.openremote.model.value.Values;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+import static org.openremote.model.query.BaseAssetQuery.Operator.BETWEEN;
 import static org.openremote.model.query.BaseAssetQuery.Operator.LESS_EQUALS;
 import static org.openremote.model.query.BaseAssetQuery.Operator.LESS_THAN;
 
 /**
  * Test an {@link AssetState} with a {@link BaseAssetQuery}.
+ * <p>
+ * The query is compiled into a tree of predicates when this predicate is created, so testing an asset state doesn't
+ * have to interpret the query again. The query must not be modified after this predicate has been created, rules
+ * should create a predicate once and reuse it in every evaluation.
  */
 public class AssetQueryPredicate implements Predicate<AssetState> {
 
+    // Shortest length of one degree of latitude on the WGS84 ellipsoid (110574m at the equator), with a margin
+    public static final double MIN_METERS_PER_DEGREE = 110000;
+
     final protected NewAssetQuery query;
     final protected TimerService timerService;
     final protected AssetStorageService assetStorageService;
+    final protected Predicate<AssetState> compiled;
 
     // TODO: Remove this ctor once asset queries merged
     @SuppressWarnings("unchecked")
@@ -74,123 +85,120 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
         this.query.tenant = query.tenant;
         this.query.orderBy = query.orderBy;
         this.query.limit = query.limit;
+        this.compiled = compile();
     }
     
     public AssetQueryPredicate(TimerService timerService, AssetStorageService assetStorageService, NewAssetQuery query) {
         this.timerService = timerService;
         this.assetStorageService = assetStorageService;
         this.query = query;
+        this.compiled = compile();
     }
 
     @Override
     public boolean test(AssetState assetState) {
+        return compiled.test(assetState);
+    }
+
+    protected Predicate<AssetState> compile() {
+        List<Predicate<AssetState>> predicates = new ArrayList<>();
 
         if (query.ids != null && query.ids.length > 0) {
-            if (Arrays.stream(query.ids).noneMatch(id -> assetState.getId().equals(id))) {
-                return false;
-            }
+            Set<String> ids = new HashSet<>(Arrays.asList(query.ids));
+            predicates.add(assetState -> ids.contains(assetState.getId()));
         }
 
         if (query.names != null && query.names.length > 0) {
-            if (Arrays.stream(query.names)
+            Predicate<String> namePredicate = anyMatch(Arrays.stream(query.names)
                     .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState.getName()))) {
-                return false;
-            }
+                    .collect(Collectors.toList()));
+            predicates.add(assetState -> namePredicate.test(assetState.getName()));
         }
 
         if (query.parents != null && query.parents.length > 0) {
-            if (Arrays.stream(query.parents)
+            predicates.add(anyMatch(Arrays.stream(query.parents)
                     .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState))) {
-                return false;
-            }
+                    .collect(Collectors.toList())));
         }
 
         if (query.types != null && query.types.length > 0) {
-            if (Arrays.stream(query.types)
+            Predicate<String> typePredicate = anyMatch(Arrays.stream(query.types)
                     .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState.getTypeString()))) {
-                return false;
-            }
+                    .collect(Collectors.toList()));
+            predicates.add(assetState -> typePredicate.test(assetState.getTypeString()));
         }
 
         if (query.paths != null && query.paths.length > 0) {
-            if (Arrays.stream(query.paths)
+            Predicate<String[]> pathPredicate = anyMatch(Arrays.stream(query.paths)
                     .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState.getPath()))) {
-                return false;
-            }
+                    .collect(Collectors.toList()));
+            predicates.add(assetState -> pathPredicate.test(assetState.getPath()));
         }
 
         if (query.tenant != null) {
-            if (!AssetQueryPredicate.asPredicate(query.tenant).test(assetState)) {
-                return false;
-            }
+            predicates.add(AssetQueryPredicate.asPredicate(query.tenant));
         }
 
         if (query.attributes != null) {
-            if (!asPredicate(timerService::getCurrentTimeMillis, query.attributes).test(assetState)) {
-                return false;
-            }
+            predicates.add(asPredicate(timerService::getCurrentTimeMillis, query.attributes));
         }
 
         // Apply user ID predicate last as it is the most expensive
         if (query.userIds != null && query.userIds.length > 0) {
-            if (!assetStorageService.isUserAsset(Arrays.asList(query.userIds), assetState.getId())) {
-                return false;
-            }
+            List<String> userIds = Arrays.asList(query.userIds);
+            predicates.add(assetState -> assetStorageService.isUserAsset(userIds, assetState.getId()));
         }
 
-        return true;
+        return allMatch(predicates);
     }
 
     public static Predicate<String> asPredicate(StringPredicate predicate) {
-        return string -> {
-            if (string == null && predicate.value == null)
-                return true;
-            if (string == null)
-                return false;
-            if (predicate.value == null)
-                return false;
+        if (predicate.value == null) {
+            return string -> string == null;
+        }
 
-            String shouldMatch = predicate.caseSensitive ? predicate.value : predicate.value.toUpperCase(Locale.ROOT);
-            String have = predicate.caseSensitive ? string : string.toUpperCase(Locale.ROOT);
+        String shouldMatch = predicate.caseSensitive ? predicate.value : predicate.value.toUpperCase(Locale.ROOT);
+        UnaryOperator<String> have = predicate.caseSensitive ? UnaryOperator.identity() : string -> string.toUpperCase(Locale.ROOT);
 
+        if (predicate.match != null) {
             switch (predicate.match) {
                 case BEGIN:
-                    return have.startsWith(shouldMatch);
+                    return string -> string != null && have.apply(string).startsWith(shouldMatch);
                 case END:
-                    return have.endsWith(shouldMatch);
+                    return string -> string != null && have.apply(string).endsWith(shouldMatch);
                 case CONTAINS:
-                    return have.contains(shouldMatch);
+                    return string -> string != null && have.apply(string).contains(shouldMatch);
             }
-            return have.equals(shouldMatch);
-        };
+        }
+        return string -> string != null && have.apply(string).equals(shouldMatch);
     }
 
     public static Predicate<Boolean> asPredicate(BooleanPredicate predicate) {
+        boolean value = predicate.value;
         return b -> {
             // If given a null, we assume it's false!
             if (b == null)
                 b = false;
-            return b == predicate.value;
+            return b == value;
         };
     }
 
     public static Predicate<String[]> asPredicate(StringArrayPredicate predicate) {
+        if (predicate.predicates == null) {
+            return strings -> strings == null;
+        }
+
+        List<Predicate<String>> predicates = Arrays.stream(predicate.predicates)
+                .map(AssetQueryPredicate::asPredicate)
+                .collect(Collectors.toList());
+
         return strings -> {
-            if (strings == null && predicate.predicates == null)
-                return true;
             if (strings == null)
                 return false;
-            if (predicate.predicates == null)
-                return false;
-            if (strings.length != predicate.predicates.length)
+            if (strings.length != predicates.size())
                 return false;
-            for (int i = 0; i < predicate.predicates.length; i++) {
-                StringPredicate p = predicate.predicates[i];
-                if (!asPredicate(p).test(strings[i]))
+            for (int i = 0; i < strings.length; i++) {
+                if (!predicates.get(i).test(strings[i]))
                     return false;
             }
             return true;
@@ -198,68 +206,95 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
     }
 
     public static Predicate<Long> asPredicate(Supplier<Long> currentMillisProducer, DateTimePredicate predicate) {
+        BaseAssetQuery.Operator operator = predicate.operator;
+        Function<Long, Long> from = asTimestamp(predicate.value, predicate.dateFormat);
+        Function<Long, Long> to = operator == BETWEEN ? asTimestamp(predicate.rangeValue, predicate.dateFormat) : null;
+
         return timestamp -> {
-            Pair<Long, Long> fromAndTo = asFromAndTo(currentMillisProducer.get(), predicate);
+            long currentMillis = currentMillisProducer.get();
+            Long fromTimestamp = from.apply(currentMillis);
 
-            if (fromAndTo.key == null) {
+            if (fromTimestamp == null) {
                 throw new IllegalArgumentException("Date time predicate 'value' is not valid: " + predicate);
             }
 
-            switch (predicate.operator) {
+            switch (operator) {
 
                 case EQUALS:
-                    return timestamp == fromAndTo.key.longValue();
+                    return timestamp == fromTimestamp.longValue();
                 case NOT_EQUALS:
-                    return timestamp != fromAndTo.key.longValue();
+                    return timestamp != fromTimestamp.longValue();
                 case GREATER_THAN:
-                    return timestamp > fromAndTo.key;
+                    return timestamp > fromTimestamp;
                 case GREATER_EQUALS:
-                    return timestamp >= fromAndTo.key;
+                    return timestamp >= fromTimestamp;
                 case LESS_THAN:
-                    return timestamp < fromAndTo.key;
+                    return timestamp < fromTimestamp;
                 case LESS_EQUALS:
-                    return timestamp <= fromAndTo.key;
+                    return timestamp <= fromTimestamp;
                 case BETWEEN:
-                    if (fromAndTo.value == null) {
+                    Long toTimestamp = to.apply(currentMillis);
+                    if (toTimestamp == null) {
                         throw new IllegalArgumentException("Date time predicate 'rangeValue' is not valid: " + predicate);
                     }
-                    return timestamp > fromAndTo.key && timestamp < fromAndTo.value;
+                    return timestamp > fromTimestamp && timestamp < toTimestamp;
             }
 
             return false;
         };
     }
 
+    /**
+     * @return A function of the current time, returning the timestamp of a time duration relative to the current
+     * time, the timestamp of a fixed date, or <code>null</code> if the value is not valid.
+     */
+    protected static Function<Long, Long> asTimestamp(String value, String dateFormat) {
+        try {
+            if (TimeUtil.isTimeDuration(value)) {
+                long duration = TimeUtil.parseTimeDuration(value);
+                return currentMillis -> currentMillis + duration;
+            }
+            long timestamp = new SimpleDateFormat(dateFormat).parse(value).getTime();
+            return currentMillis -> timestamp;
+        } catch (ParseException | RuntimeException e) {
+            return currentMillis -> null;
+        }
+    }
+
     public static Predicate<Double> asPredicate(NumberPredicate predicate) {
+        BaseAssetQuery.Operator operator = predicate.operator;
+        boolean isDouble = predicate.numberType == NumberType.DOUBLE;
+        double rightOperand = isDouble ? predicate.value : (int) predicate.value;
+        double rangeValue = predicate.rangeValue;
+
         return d -> {
             if (d == null) {
 
                 // If given a null and we want to know if it's "less than x", it's always less than x
                 // TODO Should be consistent with BETWEEN behavior?
-                if (predicate.operator == LESS_THAN || predicate.operator == LESS_EQUALS) {
+                if (operator == LESS_THAN || operator == LESS_EQUALS) {
                     return true;
                 }
 
                 return false;
             }
 
-            Number leftOperand = predicate.numberType == NumberType.DOUBLE ? d : d.intValue();
-            Number rightOperand = predicate.numberType == NumberType.DOUBLE ? predicate.value : (int) predicate.value;
-            switch (predicate.operator) {
+            double leftOperand = isDouble ? d : d.intValue();
+            switch (operator) {
                 case EQUALS:
-                    return leftOperand.equals(rightOperand);
+                    return Double.compare(leftOperand, rightOperand) == 0;
                 case NOT_EQUALS:
-                    return !leftOperand.equals(rightOperand);
+                    return Double.compare(leftOperand, rightOperand) != 0;
                 case BETWEEN:
-                    return leftOperand.doubleValue() >= rightOperand.doubleValue() && leftOperand.doubleValue() <= predicate.rangeValue;
+                    return leftOperand >= rightOperand && leftOperand <= rangeValue;
                 case LESS_THAN:
-                    return leftOperand.doubleValue() < rightOperand.doubleValue();
+                    return leftOperand < rightOperand;
                 case LESS_EQUALS:
-                    return leftOperand.doubleValue() <= rightOperand.doubleValue();
+                    return leftOperand <= rightOperand;
                 case GREATER_THAN:
-                    return leftOperand.doubleValue() > rightOperand.doubleValue();
+                    return leftOperand > rightOperand;
                 case GREATER_EQUALS:
-                    return leftOperand.doubleValue() >= rightOperand.doubleValue();
+                    return leftOperand >= rightOperand;
             }
             return false;
         };
@@ -283,36 +318,79 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
     }
 
     public static Predicate<Coordinate> asPredicate(GeofencePredicate predicate) {
-        return coordinate -> {
-            if (coordinate == null) {
-                return false;
-            }
-
-            if (predicate instanceof RadialGeofencePredicate) {
-                //TODO geotools version to gradle properties
-                RadialGeofencePredicate radialLocationPredicate = (RadialGeofencePredicate) predicate;
-                GeodeticCalculator calculator = new GeodeticCalculator();
-                calculator.setStartingGeographicPoint(radialLocationPredicate.lng, radialLocationPredicate.lat);
-                calculator.setDestinationGeographicPoint(coordinate.y, coordinate.x);
-                if (predicate.negated) {
-                    return calculator.getOrthodromicDistance() > radialLocationPredicate.radius;
+        if (predicate instanceof RadialGeofencePredicate) {
+            //TODO geotools version to gradle properties
+            RadialGeofencePredicate radialLocationPredicate = (RadialGeofencePredicate) predicate;
+            Predicate<Coordinate> withinRadius = asWithinRadiusPredicate(radialLocationPredicate);
+            return coordinate -> {
+                if (coordinate == null) {
+                    return false;
+                }
+                return predicate.negated != withinRadius.test(coordinate);
+            };
+        } else if (predicate instanceof RectangularGeofencePredicate) {
+            // Again this is a euclidean plane so doesn't work perfectly for WGS lat/lng - the bigger the rectangle to less accurate it is)
+            RectangularGeofencePredicate rectangularLocationPredicate = (RectangularGeofencePredicate) predicate;
+            Envelope envelope = new Envelope(rectangularLocationPredicate.latMin,
+                rectangularLocationPredicate.lngMin,
+                rectangularLocationPredicate.latMax,
+                rectangularLocationPredicate.lngMax);
+            return coordinate -> {
+                if (coordinate == null) {
+                    return false;
                 }
-                return calculator.getOrthodromicDistance() <= radialLocationPredicate.radius;
-            } else if (predicate instanceof RectangularGeofencePredicate) {
-                // Again this is a euclidean plane so doesn't work perfectly for WGS lat/lng - the bigger the rectangle to less accurate it is)
-                RectangularGeofencePredicate rectangularLocationPredicate = (RectangularGeofencePredicate) predicate;
-                Envelope envelope = new Envelope(rectangularLocationPredicate.latMin,
-                    rectangularLocationPredicate.lngMin,
-                    rectangularLocationPredicate.latMax,
-                    rectangularLocationPredicate.lngMax);
-                if (predicate.negated) {
-                    return !envelope.contains(coordinate);
+                return predicate.negated != envelope.contains(coordinate);
+            };
+        } else {
+            return coordinate -> {
+                if (coordinate == null) {
+                    return false;
                 }
-                return envelope.contains(coordinate);
-            } else {
                 throw new UnsupportedOperationException("Location predicate '" + predicate.getClass().getSimpleName() + "' not supported in rules matching");
-            }
+            };
+        }
+    }
+
+    /**
+     * Coordinates outside a bounding box around the circle are rejected without calculating the distance, the box is
+     * slightly larger than the circle on the ellipsoid. The exact distance is only calculated inside the box, or for
+     * circles too close to a pole or the antimeridian to have a box.
+     */
+    protected static Predicate<Coordinate> asWithinRadiusPredicate(RadialGeofencePredicate predicate) {
+        double radius = predicate.radius;
+        double lat = predicate.lat;
+        double lng = predicate.lng;
+
+        Predicate<Coordinate> withinDistance = coordinate -> {
+            GeodeticCalculator calculator = new GeodeticCalculator();
+            calculator.setStartingGeographicPoint(lng, lat);
+            calculator.setDestinationGeographicPoint(coordinate.y, coordinate.x);
+            return calculator.getOrthodromicDistance() <= radius;
         };
+
+        double latDelta = radius / MIN_METERS_PER_DEGREE;
+        if (Math.abs(lat) + latDelta >= 89) {
+            return withinDistance;
+        }
+        // Largest longitude difference of a point within the angular radius on a sphere
+        double sinLngDelta = Math.sin(Math.toRadians(latDelta)) / Math.cos(Math.toRadians(lat));
+        if (sinLngDelta >= 1) {
+            return withinDistance;
+        }
+        double lngDelta = Math.toDegrees(Math.asin(sinLngDelta));
+        if (Math.abs(lng) + lngDelta >= 180) {
+            return withinDistance;
+        }
+
+        double latMin = lat - latDelta;
+        double latMax = lat + latDelta;
+        double lngMin = lng - lngDelta;
+        double lngMax = lng + lngDelta;
+
+        // Coordinates are (lat, lng)
+        return coordinate -> coordinate.x >= latMin && coordinate.x <= latMax
+            && coordinate.y >= lngMin && coordinate.y <= lngMax
+            && withinDistance.test(coordinate);
     }
 
     public static Predicate<AssetState> asPredicate(Supplier<Long> currentMillisProducer, AttributePredicate predicate) {
@@ -320,12 +398,8 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
         Predicate<String> namePredicate = predicate.name != null
                 ? asPredicate(predicate.name) : str -> true;
 
-        Predicate<Value> valuePredicate = value -> {
-            if (predicate.value == null) {
-                return true;
-            }
-            return asPredicate(currentMillisProducer, predicate.value).test(value);
-        };
+        Predicate<Value> valuePredicate = predicate.value != null
+                ? asPredicate(currentMillisProducer, predicate.value) : value -> true;
 
         return assetState -> namePredicate.test(assetState.getAttributeName())
                 && valuePredicate.test(assetState.getValue().orElse(null));
@@ -335,26 +409,14 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
 
         Predicate<AssetState> attributePredicate = asPredicate(currentMillisProducer, (AttributePredicate)predicate);
 
-        Predicate<Meta> metaPredicate = meta -> {
-
-            if (predicate.meta == null || predicate.meta.length == 0) {
-                return true;
-            }
-
-            for (AttributeMetaPredicate p : predicate.meta) {
-                if (!AssetQueryPredicate.asPredicate(currentMillisProducer, p).test(meta)) {
-                    return false;
-                }
-            }
-            return true;
-        };
+        Predicate<Meta> metaPredicate = predicate.meta == null || predicate.meta.length == 0
+                ? meta -> true
+                : allMatch(Arrays.stream(predicate.meta)
+                    .map(p -> AssetQueryPredicate.asPredicate(currentMillisProducer, p))
+                    .collect(Collectors.toList()));
 
-        Predicate<Value> oldValuePredicate = value -> {
-            if (predicate.lastValue == null) {
-                return true;
-            }
-            return AssetQueryPredicate.asPredicate(currentMillisProducer, predicate.lastValue).test(value);
-        };
+        Predicate<Value> oldValuePredicate = predicate.lastValue != null
+                ? AssetQueryPredicate.asPredicate(currentMillisProducer, predicate.lastValue) : value -> true;
 
         return assetState -> attributePredicate.test(assetState)
                 && metaPredicate.test(assetState.getMeta())
@@ -362,69 +424,85 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
     }
 
     public static Predicate<Value> asPredicate(Supplier<Long> currentMillisProducer, ValuePredicate predicate) {
-        return value -> {
-            if (predicate == null)
-                return true;
+        if (predicate == null) {
+            return value -> true;
+        }
 
-            if (predicate instanceof ValueEmptyPredicate) {
+        if (predicate instanceof ValueEmptyPredicate) {
 
-                return value == null;
-            } else if (predicate instanceof ValueNotEmptyPredicate) {
+            return value -> value == null;
 
-                return value != null;
+        } else if (predicate instanceof ValueNotEmptyPredicate) {
 
-            } else if (predicate instanceof StringPredicate) {
+            return value -> value != null;
 
-                StringPredicate p = (StringPredicate) predicate;
-                return asPredicate(p).test(Values.getString(value).orElse(null));
+        } else if (predicate instanceof StringPredicate) {
 
-            } else if (predicate instanceof BooleanPredicate) {
+            Predicate<String> p = asPredicate((StringPredicate) predicate);
+            return value -> p.test(Values.getString(value).orElse(null));
 
-                BooleanPredicate p = (BooleanPredicate) predicate;
-                return asPredicate(p).test(Values.getBoolean(value).orElse(null));
+        } else if (predicate instanceof BooleanPredicate) {
 
-            } else if (predicate instanceof NumberPredicate) {
+            Predicate<Boolean> p = asPredicate((BooleanPredicate) predicate);
+            return value -> p.test(Values.getBoolean(value).orElse(null));
 
-                NumberPredicate p = (NumberPredicate) predicate;
-                return asPredicate(p).test(Values.getNumber(value).orElse(null));
+        } else if (predicate instanceof NumberPredicate) {
 
-            } else if (predicate instanceof DateTimePredicate) {
+            Predicate<Double> p = asPredicate((NumberPredicate) predicate);
+            return value -> p.test(Values.getNumber(value).orElse(null));
 
-                DateTimePredicate p = (DateTimePredicate) predicate;
-                return asPredicate(currentMillisProducer, p).test(Values.getNumber(value).map(Double::longValue).orElse(null));
-            } else if (predicate instanceof GeofencePredicate) {
+        } else if (predicate instanceof DateTimePredicate) {
 
-                GeofencePredicate p = (GeofencePredicate) predicate;
-                return asPredicate(p).test(Optional.ofNullable(value)
-                        .flatMap(GeoJSONPoint::fromValue)
-                        .map(point -> new Coordinate(point.getY(), point.getX()))
-                        .orElse(null));
-            } else {
-                // TODO Implement more
+            Predicate<Long> p = asPredicate(currentMillisProducer, (DateTimePredicate) predicate);
+            return value -> p.test(Values.getNumber(value).map(Double::longValue).orElse(null));
+
+        } else if (predicate instanceof GeofencePredicate) {
+
+            Predicate<Coordinate> p = asPredicate((GeofencePredicate) predicate);
+            return value -> p.test(Optional.ofNullable(value)
+                    .flatMap(GeoJSONPoint::fromValue)
+                    .map(point -> new Coordinate(point.getY(), point.getX()))
+                    .orElse(null));
+        } else {
+            // TODO Implement more
+            return value -> {
                 throw new UnsupportedOperationException(
                         "Restriction by attribute value not implemented in rules matching for " + predicate.getClass()
                 );
-            }
-        };
+            };
+        }
     }
 
     public static Predicate<Meta> asPredicate(Supplier<Long> currentMillisProducer, AttributeMetaPredicate predicate) {
 
+        Predicate<String> namePredicate = predicate.itemNamePredicate != null
+                ? asPredicate(predicate.itemNamePredicate) : null;
+
+        Predicate<Value> valuePredicate = predicate.itemValuePredicate != null
+                ? asPredicate(currentMillisProducer, predicate.itemValuePredicate) : null;
+
         Predicate<MetaItem> metaItemPredicate = metaItem -> {
-            if (predicate.itemNamePredicate != null) {
-                if (!metaItem.getName().map(name -> asPredicate(predicate.itemNamePredicate).test(name)).orElse(false)) {
+            if (namePredicate != null) {
+                if (!metaItem.getName().map(namePredicate::test).orElse(false)) {
                     return false;
                 }
             }
-            if (predicate.itemValuePredicate != null) {
-                if (!metaItem.getValue().map(value -> asPredicate(currentMillisProducer, predicate.itemValuePredicate).test(value)).orElse(false)) {
+            if (valuePredicate != null) {
+                if (!metaItem.getValue().map(valuePredicate::test).orElse(false)) {
                     return false;
                 }
             }
             return true;
         };
 
-        return meta -> meta.stream().anyMatch(metaItemPredicate);
+        return meta -> {
+            for (MetaItem metaItem : meta) {
+                if (metaItemPredicate.test(metaItem)) {
+                    return true;
+                }
+            }
+            return false;
+        };
     }
 
     public static Predicate<RulesFacts> asPredicate(TimerService timerService, AssetStorageService assetStorageService, RuleCondition<NewAssetQuery> condition) {
@@ -441,6 +519,7 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
         if (condition.predicates != null && condition.predicates.length > 0) {
             assetPredicates.addAll(
                     Arrays.stream(condition.predicates)
+                            .map(p -> new AssetQueryPredicate(timerService, assetStorageService, p))
                             .map(p ->
                                     (Predicate<RulesFacts>) facts ->
                                             facts.matchAssetState(p).findFirst().isPresent())
@@ -515,6 +594,34 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
         };
     }
 
+    protected static <T> Predicate<T> allMatch(List<Predicate<T>> predicates) {
+        if (predicates.size() == 1) {
+            return predicates.get(0);
+        }
+        return in -> {
+            for (int i = 0; i < predicates.size(); i++) {
+                if (!predicates.get(i).test(in)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    protected static <T> Predicate<T> anyMatch(List<Predicate<T>> predicates) {
+        if (predicates.size() == 1) {
+            return predicates.get(0);
+        }
+        return in -> {
+            for (int i = 0; i < predicates.size(); i++) {
+                if (predicates.get(i).test(in)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
     public static Pair<Long, Long> asFromAndTo(long currentMillis, DateTimePredicate dateTimePredicate) {
 
         Long from;
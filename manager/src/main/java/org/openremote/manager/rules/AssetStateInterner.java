@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.rules;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.openremote.model.rules.AssetState;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Creates canonical copies of asset states that share their strings and asset path with the other states of the same
+ * asset, instead of each state holding the copies loaded from the database with its asset. All rules engines in
+ * scope of an asset reference the same canonical state. Thread-safe, interned instances are released when no state
+ * references them anymore.
+ */
+public class AssetStateInterner {
+
+    // Estimated shallow sizes with compressed references, in bytes
+    static final int ASSET_STATE_BYTES = 96;
+    static final int STRING_BYTES = 24;
+    static final int ARRAY_HEADER_BYTES = 16;
+    static final int REFERENCE_BYTES = 4;
+
+    final protected Interner<String> strings = Interners.newWeakInterner();
+    // Asset ID -> path of the asset, shared by the states of the asset
+    final protected Cache<String, String[]> paths = CacheBuilder.newBuilder().weakValues().build();
+
+    public AssetState intern(AssetState assetState) {
+        return new AssetState(assetState, strings::intern, internPath(assetState.getId(), assetState.getPath()));
+    }
+
+    protected String[] internPath(String assetId, String[] path) {
+        if (assetId == null || path == null) {
+            return path;
+        }
+        String[] interned = paths.getIfPresent(assetId);
+        if (!Arrays.equals(interned, path)) {
+            interned = Arrays.stream(path).map(strings::intern).toArray(String[]::new);
+            paths.put(assetId, interned);
+        }
+        return interned;
+    }
+
+    /**
+     * @return The estimated heap used by the asset states, their strings and paths, counting instances shared by
+     * several states once. Attribute values and meta items are not included.
+     */
+    public static long estimateHeapBytes(Collection<AssetState> assetStates) {
+        Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        long bytes = 0;
+        for (AssetState assetState : assetStates) {
+            bytes += ASSET_STATE_BYTES;
+            bytes += estimateHeapBytes(counted, assetState.getAttributeName());
+            bytes += estimateHeapBytes(counted, assetState.getId());
+            bytes += estimateHeapBytes(counted, assetState.getName());
+            bytes += estimateHeapBytes(counted, assetState.getTypeString());
+            bytes += estimateHeapBytes(counted, assetState.getParentId());
+            bytes += estimateHeapBytes(counted, assetState.getParentName());
+            bytes += estimateHeapBytes(counted, assetState.getParentTypeString());
+            bytes += estimateHeapBytes(counted, assetState.getRealm());
+            String[] path = assetState.getPath();
+            if (path != null && counted.add(path)) {
+                bytes += align(ARRAY_HEADER_BYTES + path.length * REFERENCE_BYTES);
+                for (String id : path) {
+                    bytes += estimateHeapBytes(counted, id);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    protected static long estimateHeapBytes(Set<Object> counted, String string) {
+        if (string == null || !counted.add(string)) {
+            return 0;
+        }
+        return STRING_BYTES + align(ARRAY_HEADER_BYTES + string.length() * 2);
+    }
+
+    protected static long align(long bytes) {
+        return (bytes + 7) & ~7;
+    }
+}
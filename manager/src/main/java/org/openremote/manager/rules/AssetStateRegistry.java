@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.rules;
+
+import org.openremote.model.rules.AssetState;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The asset states shared by all rules engines, indexed by asset ID, by each ancestor in the asset path and by
+ * realm. Looking up the states of an asset subtree or a realm costs in proportion to the number of states found.
+ * An asset state replaces any state of the same asset and attribute. Not thread-safe.
+ */
+public class AssetStateRegistry {
+
+    // Asset ID -> attribute name -> asset state
+    final protected Map<String, Map<String, AssetState>> assetStates = new HashMap<>();
+    // Asset ID -> path of the asset when its states were indexed
+    final protected Map<String, String[]> assetPaths = new HashMap<>();
+    // Asset ID of any asset in the path -> IDs of assets in its subtree, including itself
+    final protected Map<String, Set<String>> subtreeIndex = new HashMap<>();
+    // Realm -> IDs of assets
+    final protected Map<String, Set<String>> realmIndex = new HashMap<>();
+    protected int size;
+
+    /**
+     * Add an asset state, replacing the state of the same asset and attribute. If the path of the asset changed (the
+     * asset was moved), the asset is indexed with its new path.
+     */
+    public void add(AssetState assetState) {
+        String assetId = assetState.getId();
+        Map<String, AssetState> attributeStates = assetStates.get(assetId);
+
+        if (attributeStates == null) {
+            attributeStates = new HashMap<>();
+            assetStates.put(assetId, attributeStates);
+            indexAsset(assetId, assetState.getPath(), assetState.getRealm());
+        } else if (!Arrays.equals(assetPaths.get(assetId), assetState.getPath())) {
+            unindexAsset(assetId, attributeStates.values().iterator().next().getRealm());
+            indexAsset(assetId, assetState.getPath(), assetState.getRealm());
+        }
+
+        if (attributeStates.put(assetState.getAttributeName(), assetState) == null) {
+            size++;
+        }
+    }
+
+    /**
+     * Remove the asset state of the same asset and attribute.
+     */
+    public void remove(AssetState assetState) {
+        String assetId = assetState.getId();
+        Map<String, AssetState> attributeStates = assetStates.get(assetId);
+        if (attributeStates == null || attributeStates.remove(assetState.getAttributeName()) == null) {
+            return;
+        }
+        size--;
+
+        if (attributeStates.isEmpty()) {
+            assetStates.remove(assetId);
+            unindexAsset(assetId, assetState.getRealm());
+        }
+    }
+
+    public boolean hasAssetStates(String assetId) {
+        return assetStates.containsKey(assetId);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(Consumer<AssetState> consumer) {
+        assetStates.values().forEach(attributeStates -> attributeStates.values().forEach(consumer));
+    }
+
+    /**
+     * @return The states of the asset and its descendants, as far as their paths are known.
+     */
+    public List<AssetState> getInScope(String assetId) {
+        return getAssetStates(subtreeIndex.get(assetId));
+    }
+
+    public List<AssetState> getInRealm(String realm) {
+        return getAssetStates(realmIndex.get(realm));
+    }
+
+    protected List<AssetState> getAssetStates(Set<String> assetIds) {
+        if (assetIds == null) {
+            return Collections.emptyList();
+        }
+        List<AssetState> result = new ArrayList<>();
+        for (String assetId : assetIds) {
+            result.addAll(assetStates.get(assetId).values());
+        }
+        return result;
+    }
+
+    protected void indexAsset(String assetId, String[] path, String realm) {
+        assetPaths.put(assetId, path);
+        if (path != null) {
+            for (String ancestorId : path) {
+                subtreeIndex.computeIfAbsent(ancestorId, id -> new HashSet<>()).add(assetId);
+            }
+        }
+        if (realm != null) {
+            realmIndex.computeIfAbsent(realm, r -> new HashSet<>()).add(assetId);
+        }
+    }
+
+    protected void unindexAsset(String assetId, String realm) {
+        String[] path = assetPaths.remove(assetId);
+        if (path != null) {
+            for (String ancestorId : path) {
+                removeFromIndex(subtreeIndex, ancestorId, assetId);
+            }
+        }
+        if (realm != null) {
+            removeFromIndex(realmIndex, realm, assetId);
+        }
+    }
+
+    protected static void removeFromIndex(Map<String, Set<String>> index, String key, String assetId) {
+        Set<String> assetIds = index.get(key);
+        if (assetIds != null) {
+            assetIds.remove(assetId);
+            if (assetIds.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
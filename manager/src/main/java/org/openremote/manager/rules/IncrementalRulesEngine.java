@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.rules;
+
+import org.jeasy.rules.api.Rule;
+import org.jeasy.rules.api.Rules;
+import org.jeasy.rules.core.DefaultRulesEngine;
+import org.jeasy.rules.core.RulesEngineParameters;
+import org.openremote.model.rules.AssetState;
+
+import java.util.*;
+
+/**
+ * Fires rules like {@link org.jeasy.rules.core.InferenceRulesEngine}, until no rule condition is satisfied, but only
+ * evaluates the conditions which can have a different result than in their last evaluation.
+ * <p>
+ * The facts read by each condition are recorded with {@link RulesFacts#startTrackingDependencies} and indexed by
+ * asset ID, attribute name, asset type and fact name. Changes of asset states and named facts mark the conditions
+ * depending on them for evaluation. A condition is always evaluated if it is new, if it was satisfied in its last
+ * evaluation (its action must fire again, as in inference mode), or if it read facts which can not be tracked,
+ * see {@link RuleDependencies}. Conditions must therefore only access facts through {@link RulesFacts}.
+ */
+public class IncrementalRulesEngine {
+
+    protected static class RuleState {
+        protected RuleDependencies dependencies;
+        protected boolean lastResult;
+        protected boolean dirty;
+
+        protected boolean requiresEvaluation() {
+            return dependencies == null || dirty || lastResult || dependencies.isUntracked();
+        }
+    }
+
+    final protected RulesFacts facts;
+    final protected DefaultRulesEngine delegate;
+    final protected Map<Rule, RuleState> ruleStates = new IdentityHashMap<>();
+    final protected Map<String, Set<RuleState>> assetIdIndex = new HashMap<>();
+    final protected Map<String, Set<RuleState>> attributeNameIndex = new HashMap<>();
+    final protected Map<String, Set<RuleState>> assetTypeIndex = new HashMap<>();
+    final protected Map<String, Set<RuleState>> factNameIndex = new HashMap<>();
+    final protected Set<RuleState> anyAssetStateIndex = Collections.newSetFromMap(new IdentityHashMap<>());
+    protected long evaluatedCount;
+    protected long skippedCount;
+
+    public IncrementalRulesEngine(RulesEngineParameters parameters, RulesFacts facts) {
+        this.facts = facts;
+        this.delegate = new DefaultRulesEngine(parameters);
+        this.delegate.registerRuleListener(facts);
+        facts.startTrackingChanges();
+    }
+
+    public void fire(Rules rules) {
+        Set<Rule> candidates;
+        do {
+            applyChanges();
+            candidates = selectCandidates(rules);
+            if (!candidates.isEmpty()) {
+                delegate.fire(new Rules(candidates), facts);
+            }
+        } while (!candidates.isEmpty());
+    }
+
+    /**
+     * Forget the recorded dependencies of the rules, must be called when rules are undeployed.
+     */
+    public void forget(Rules rules) {
+        for (Rule rule : rules) {
+            RuleState state = ruleStates.remove(rule);
+            if (state != null) {
+                unindex(state);
+            }
+        }
+    }
+
+    /**
+     * Evaluate all conditions on the next firing.
+     */
+    public void reset() {
+        ruleStates.clear();
+        assetIdIndex.clear();
+        attributeNameIndex.clear();
+        assetTypeIndex.clear();
+        factNameIndex.clear();
+        anyAssetStateIndex.clear();
+        facts.takeChangedAssetStates();
+        facts.takeChangedFactNames();
+    }
+
+    public long getEvaluatedCount() {
+        return evaluatedCount;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    protected void applyChanges() {
+        for (AssetState assetState : facts.takeChangedAssetStates()) {
+            markDirty(assetIdIndex.get(assetState.getId()), assetState);
+            markDirty(attributeNameIndex.get(assetState.getAttributeName()), assetState);
+            markDirty(assetTypeIndex.get(assetState.getTypeString()), assetState);
+            markDirty(anyAssetStateIndex, assetState);
+        }
+        for (String factName : facts.takeChangedFactNames()) {
+            Set<RuleState> states = factNameIndex.get(factName);
+            if (states != null) {
+                states.forEach(state -> state.dirty = true);
+            }
+        }
+    }
+
+    protected void markDirty(Set<RuleState> states, AssetState assetState) {
+        if (states == null) {
+            return;
+        }
+        for (RuleState state : states) {
+            if (!state.dirty && state.dependencies.matches(assetState)) {
+                state.dirty = true;
+            }
+        }
+    }
+
+    protected Set<Rule> selectCandidates(Rules rules) {
+        Set<Rule> candidates = new TreeSet<>();
+        for (Rule rule : rules) {
+            RuleState state = ruleStates.computeIfAbsent(rule, r -> new RuleState());
+            if (!state.requiresEvaluation()) {
+                skippedCount++;
+                continue;
+            }
+            if (evaluate(rule, state)) {
+                candidates.add(rule);
+            }
+        }
+        return candidates;
+    }
+
+    protected boolean evaluate(Rule rule, RuleState state) {
+        unindex(state);
+        state.dependencies = null;
+
+        RuleDependencies dependencies = new RuleDependencies();
+        boolean result;
+        facts.startTrackingDependencies(dependencies);
+        try {
+            result = rule.evaluate(facts);
+        } finally {
+            facts.stopTrackingDependencies();
+        }
+        evaluatedCount++;
+
+        state.dependencies = dependencies;
+        state.lastResult = result;
+        state.dirty = false;
+        if (!dependencies.isUntracked()) {
+            index(state);
+        }
+        return result;
+    }
+
+    protected void index(RuleState state) {
+        for (RuleDependencies.AssetStateDependency dependency : state.dependencies.getAssetStates()) {
+            // Index by the most selective restriction, the others are checked when a change is applied
+            if (dependency.getAssetIds() != null) {
+                dependency.getAssetIds().forEach(id -> addToIndex(assetIdIndex, id, state));
+            } else if (dependency.getAttributeNames() != null) {
+                dependency.getAttributeNames().forEach(name -> addToIndex(attributeNameIndex, name, state));
+            } else if (dependency.getAssetTypes() != null) {
+                dependency.getAssetTypes().forEach(type -> addToIndex(assetTypeIndex, type, state));
+            } else {
+                anyAssetStateIndex.add(state);
+            }
+        }
+        state.dependencies.getFactNames().forEach(name -> addToIndex(factNameIndex, name, state));
+    }
+
+    protected void unindex(RuleState state) {
+        if (state.dependencies == null) {
+            return;
+        }
+        for (RuleDependencies.AssetStateDependency dependency : state.dependencies.getAssetStates()) {
+            if (dependency.getAssetIds() != null) {
+                dependency.getAssetIds().forEach(id -> removeFromIndex(assetIdIndex, id, state));
+            } else if (dependency.getAttributeNames() != null) {
+                dependency.getAttributeNames().forEach(name -> removeFromIndex(attributeNameIndex, name, state));
+            } else if (dependency.getAssetTypes() != null) {
+                dependency.getAssetTypes().forEach(type -> removeFromIndex(assetTypeIndex, type, state));
+            } else {
+                anyAssetStateIndex.remove(state);
+            }
+        }
+        state.dependencies.getFactNames().forEach(name -> removeFromIndex(factNameIndex, name, state));
+    }
+
+    protected static void addToIndex(Map<String, Set<RuleState>> index, String key, RuleState state) {
+        index.computeIfAbsent(key, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(state);
+    }
+
+    protected static void removeFromIndex(Map<String, Set<RuleState>> index, String key, RuleState state) {
+        Set<RuleState> states = index.get(key);
+        if (states != null) {
+            states.remove(state);
+            if (states.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
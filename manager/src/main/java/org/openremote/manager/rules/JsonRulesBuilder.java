@@ -29,12 +29,14 @@ import org.openremote.model.query.BaseAssetQuery;
 import org.openremote.model.query.NewAssetQuery;
 import org.openremote.model.query.UserQuery;
 import org.openremote.model.query.filter.AttributeMetaPredicate;
+import org.openremote.model.query.filter.AttributePredicate;
 import org.openremote.model.query.filter.NewAttributePredicate;
 import org.openremote.model.rules.AssetState;
 import org.openremote.model.rules.Assets;
 import org.openremote.model.rules.Users;
 import org.openremote.model.rules.json.*;
 import org.openremote.model.util.TextUtil;
+import org.openremote.model.util.TimeUtil;
 import org.openremote.model.value.Value;
 
 import java.util.*;
@@ -49,9 +51,12 @@ public class JsonRulesBuilder extends RulesBuilder {
 
     static class RuleFiredInfo {
         AssetState firedAssetState;
+        // Clock time until which the rule doesn't fire again for the asset state, when the reset is a timer
+        long expirationTimestamp;
 
-        RuleFiredInfo(AssetState firedAssetState) {
+        RuleFiredInfo(AssetState firedAssetState, long expirationTimestamp) {
             this.firedAssetState = firedAssetState;
+            this.expirationTimestamp = expirationTimestamp;
         }
     }
 
@@ -70,6 +75,169 @@ public class JsonRulesBuilder extends RulesBuilder {
         USER
     }
 
+    /**
+     * The asset states a rule has fired for and not been reset for yet, indexed by asset ID and attribute name so
+     * the rule condition doesn't have to build a lookup key for every matched asset state.
+     */
+    static class RuleFiredInfos {
+        final protected Map<String, Map<String, RuleFiredInfo>> infos = new HashMap<>();
+
+        RuleFiredInfo get(String assetId, String attributeName) {
+            Map<String, RuleFiredInfo> attributeInfos = infos.get(assetId);
+            return attributeInfos != null ? attributeInfos.get(attributeName) : null;
+        }
+
+        boolean contains(AssetState assetState) {
+            return get(assetState.getId(), assetState.getAttributeName()) != null;
+        }
+
+        void put(RuleFiredInfo info) {
+            infos.computeIfAbsent(info.firedAssetState.getId(), id -> new HashMap<>())
+                .put(info.firedAssetState.getAttributeName(), info);
+        }
+
+        void remove(AssetState assetState) {
+            Map<String, RuleFiredInfo> attributeInfos = infos.get(assetState.getId());
+            if (attributeInfos != null) {
+                attributeInfos.remove(assetState.getAttributeName());
+                if (attributeInfos.isEmpty()) {
+                    infos.remove(assetState.getId());
+                }
+            }
+        }
+
+        void removeExpired(long timestamp) {
+            infos.values().removeIf(attributeInfos -> {
+                attributeInfos.values().removeIf(info -> info.expirationTimestamp < timestamp);
+                return attributeInfos.isEmpty();
+            });
+        }
+
+        boolean isEmpty() {
+            return infos.isEmpty();
+        }
+
+        List<RuleFiredInfo> getAll() {
+            List<RuleFiredInfo> all = new ArrayList<>();
+            infos.values().forEach(attributeInfos -> all.addAll(attributeInfos.values()));
+            return all;
+        }
+    }
+
+    /**
+     * A {@link RuleCondition} flattened into arrays: nested conditions with the same operator as their parent and
+     * nested conditions with a single predicate are merged into the parent.
+     */
+    static class FlattenedCondition implements Predicate<RulesFacts> {
+        final protected boolean and;
+        final protected AssetQueryPredicate[] predicates;
+        final protected FlattenedCondition[] conditions;
+
+        FlattenedCondition(boolean and, AssetQueryPredicate[] predicates, FlattenedCondition[] conditions) {
+            this.and = and;
+            this.predicates = predicates;
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean test(RulesFacts facts) {
+            // Short-circuit on the first false (AND) or the first true (OR)
+            for (AssetQueryPredicate predicate : predicates) {
+                if (facts.matchAssetState(predicate).findFirst().isPresent() != and) {
+                    return !and;
+                }
+            }
+            for (FlattenedCondition condition : conditions) {
+                if (condition.test(facts) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+    }
+
+    /**
+     * The target asset IDs of a rule action, resolved on first use and again after {@link #invalidateTargets}. Queries
+     * which don't only depend on asset persistence events are resolved on every use, see {@link #isCacheable}.
+     */
+    class TargetAssets {
+        final protected org.openremote.model.query.AssetQuery query;
+        final protected boolean cacheable;
+        protected List<String> ids;
+        protected long version = -1;
+
+        TargetAssets(org.openremote.model.query.AssetQuery query) {
+            this.query = query;
+            this.cacheable = isCacheable(query);
+        }
+
+        List<String> get() {
+            if (!cacheable) {
+                return getAssetIds(assetsFacade, query);
+            }
+            long currentVersion = targetsVersion;
+            if (ids == null || version != currentVersion) {
+                ids = getAssetIds(assetsFacade, query);
+                version = currentVersion;
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * The evaluation plan of a JSON rule, everything that doesn't depend on the facts is prepared once when the rule
+     * is added.
+     */
+    class CompiledRule {
+        final protected Rule rule;
+        final protected String resetFactName;
+        final protected long resetTimerMillis;
+        final protected RuleFiredInfos firedInfos = new RuleFiredInfos();
+        final protected Map<RuleActionWithTarget.Target, TargetAssets> targetAssets = new IdentityHashMap<>();
+        protected AssetQueryPredicate whenPredicate;
+        protected Comparator<AssetState> whenComparator;
+        protected int whenLimit;
+        protected Predicate<RulesFacts> andPredicate;
+
+        CompiledRule(Rule rule) {
+            this.rule = rule;
+            // Not a fact, only the name the rule condition depends on and the reset action changes
+            this.resetFactName = rule.name + " RESET";
+            this.resetTimerMillis = rule.reset != null && !TextUtil.isNullOrEmpty(rule.reset.timer)
+                ? TimeUtil.parseTimeDuration(rule.reset.timer)
+                : 0;
+
+            if (rule.when != null && rule.when.asset != null) {
+                // Pull out order and limit so they can be applied after filtering already triggered asset states
+                BaseAssetQuery.OrderBy orderBy = rule.when.asset.orderBy;
+                whenLimit = rule.when.asset.limit;
+                rule.when.asset.orderBy = null;
+                rule.when.asset.limit = 0;
+                whenPredicate = new AssetQueryPredicate(timerService, assetStorageService, rule.when.asset);
+                whenComparator = orderBy != null ? RulesFacts.asComparator(orderBy) : null;
+            }
+
+            if (rule.and != null) {
+                andPredicate = flatten(rule.and);
+            }
+
+            if (rule.then != null) {
+                for (RuleAction ruleAction : rule.then) {
+                    if (ruleAction instanceof RuleActionWithTarget) {
+                        RuleActionWithTarget.Target target = ((RuleActionWithTarget) ruleAction).target;
+                        if (target != null && target.assets != null) {
+                            targetAssets.put(target, new TargetAssets(target.assets));
+                        }
+                    }
+                }
+            }
+        }
+
+        List<String> getTargetAssetIds(RuleActionWithTarget.Target target) {
+            return targetAssets.get(target).get();
+        }
+    }
+
     final protected AssetStorageService assetStorageService;
     final protected TimerService timerService;
     final protected Assets assetsFacade;
@@ -77,6 +245,8 @@ public class JsonRulesBuilder extends RulesBuilder {
     final protected NotificationsFacade notificationFacade;
     final protected ManagerExecutorService executorService;
     final protected BiConsumer<Runnable, Long> scheduledActionConsumer;
+    final protected Map<String, CompiledRule> compiledRules = new LinkedHashMap<>();
+    protected volatile long targetsVersion;
 
     public JsonRulesBuilder(TimerService timerService, AssetStorageService assetStorageService, ManagerExecutorService executorService, Assets assetsFacade, Users usersFacade, NotificationsFacade notificationFacade, BiConsumer<Runnable, Long> scheduledActionConsumer) {
         this.timerService = timerService;
@@ -88,10 +258,6 @@ public class JsonRulesBuilder extends RulesBuilder {
         this.scheduledActionConsumer = scheduledActionConsumer;
     }
 
-    protected static String buildResetFactName(Rule rule, AssetState assetState) {
-        return rule.name + "_" + assetState.getId() + "_" + assetState.getAttributeName();
-    }
-
     protected static List<String> getUserIds(Users users, UserQuery userQuery) {
         return users.query()
                 .tenant(userQuery.tenantPredicate)
@@ -114,10 +280,55 @@ public class JsonRulesBuilder extends RulesBuilder {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * @return <code>false</code> if the result of the query can change without an asset persistence event: attribute
+     * values are updated without persistence events, links of users and assets are not assets, and the active
+     * period of a calendar event depends on the clock.
+     */
+    protected static boolean isCacheable(org.openremote.model.query.AssetQuery assetQuery) {
+        return assetQuery.userId == null && assetQuery.calendarEventActive == null && !hasValuePredicates(assetQuery);
+    }
+
+    protected static boolean hasValuePredicates(org.openremote.model.query.AssetQuery assetQuery) {
+        if (assetQuery.attribute != null) {
+            for (AttributePredicate attributePredicate : assetQuery.attribute) {
+                if (attributePredicate.value != null) {
+                    return true;
+                }
+            }
+        }
+        if (assetQuery.attributeMeta != null) {
+            for (AttributeMetaPredicate attributeMetaPredicate : assetQuery.attributeMeta) {
+                if (attributeMetaPredicate.itemValuePredicate != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Assets were created, modified or deleted, resolve the target assets of rule actions again on next use.
+     */
+    public void invalidateTargets() {
+        targetsVersion++;
+    }
+
+    /**
+     * @return <code>true</code> if the rule fired for the asset state and hasn't been reset for it yet.
+     */
+    boolean hasFired(String ruleName, String assetId, String attributeName) {
+        CompiledRule compiledRule = compiledRules.get(ruleName);
+        return compiledRule != null && compiledRule.firedInfos.get(assetId, attributeName) != null;
+    }
+
     public JsonRulesBuilder add(Rule rule) {
 
-        Condition condition = buildLhsCondition(rule);
-        Action action = buildAction(rule);
+        CompiledRule compiledRule = new CompiledRule(rule);
+        compiledRules.put(rule.name, compiledRule);
+
+        Condition condition = buildLhsCondition(compiledRule);
+        Action action = buildAction(compiledRule);
 
         if (condition == null || action == null) {
             throw new IllegalArgumentException("Error building JSON rule '" + rule.name + "'");
@@ -141,8 +352,8 @@ public class JsonRulesBuilder extends RulesBuilder {
                 })
                 .then(action);
 
-        Condition resetCondition = buildResetCondition(rule);
-        Action resetAction = buildResetAction();
+        Condition resetCondition = buildResetCondition(compiledRule);
+        Action resetAction = buildResetAction(compiledRule);
 
         if (resetCondition != null && resetAction != null) {
             add().name(rule.name + " RESET")
@@ -167,87 +378,133 @@ public class JsonRulesBuilder extends RulesBuilder {
         return this;
     }
 
-    protected Condition buildLhsCondition(Rule rule) {
-        if (rule.when == null || (rule.when.asset == null && rule.when.timer == null)) {
-            return facts -> false;
-        }
+    /**
+     * @return The flattened condition, or <code>null</code> if the condition is always true.
+     */
+    protected FlattenedCondition flatten(RuleCondition<NewAssetQuery> condition) {
+        RuleOperator operator = condition.operator == null ? RuleOperator.AND : condition.operator;
+        List<AssetQueryPredicate> predicates = new ArrayList<>();
+        List<FlattenedCondition> conditions = new ArrayList<>();
 
-        Predicate<RulesFacts> whenPredicate = facts -> false;
-        Predicate<RulesFacts> andPredicate = facts -> true;
-
-        if (rule.when.asset != null) {
-            // Pull out order and limit so they can be applied after filtering already triggered asset states
-            BaseAssetQuery.OrderBy orderBy = rule.when.asset.orderBy;
-            int limit = rule.when.asset.limit;
-            rule.when.asset.orderBy = null;
-            rule.when.asset.limit = 0;
+        if (!flatten(condition, operator, predicates, conditions) || (predicates.isEmpty() && conditions.isEmpty())) {
+            return null;
+        }
 
-            whenPredicate = facts -> {
+        return new FlattenedCondition(
+                operator == RuleOperator.AND,
+                predicates.toArray(new AssetQueryPredicate[predicates.size()]),
+                conditions.toArray(new FlattenedCondition[conditions.size()])
+        );
+    }
 
-                Stream<AssetState> assetStates = facts.matchAssetState(rule.when.asset);
+    /**
+     * @return <code>false</code> if the condition is always true.
+     */
+    protected boolean flatten(RuleCondition<NewAssetQuery> condition, RuleOperator operator, List<AssetQueryPredicate> predicates, List<FlattenedCondition> conditions) {
+        if (condition.predicates != null) {
+            for (NewAssetQuery query : condition.predicates) {
+                predicates.add(new AssetQueryPredicate(timerService, assetStorageService, query));
+            }
+        }
 
-                // Apply reset predicate (to prevent re-running a rule on an asset state before the reset has triggered)
-                assetStates = assetStates.filter(as -> {
-                    String factName = buildResetFactName(rule, as);
-                    return !facts.getOptional(factName).isPresent();
-                });
+        if (condition.conditions != null) {
+            for (RuleCondition<NewAssetQuery> nested : condition.conditions) {
+                RuleOperator nestedOperator = nested.operator == null ? RuleOperator.AND : nested.operator;
+                int nestedSize = (nested.predicates != null ? nested.predicates.length : 0)
+                        + (nested.conditions != null ? nested.conditions.length : 0);
 
-                if (orderBy != null) {
-                    assetStates = assetStates.sorted(RulesFacts.asComparator(rule.when.asset.orderBy));
+                if (nestedOperator == operator || nestedSize == 1) {
+                    if (!flatten(nested, operator, predicates, conditions) && operator == RuleOperator.OR) {
+                        return false;
+                    }
+                } else {
+                    FlattenedCondition flattened = flatten(nested);
+                    if (flattened != null) {
+                        conditions.add(flattened);
+                    } else if (operator == RuleOperator.OR) {
+                        return false;
+                    }
                 }
+            }
+        }
 
-                if (limit > 0) {
-                    assetStates = assetStates.limit(limit);
-                }
+        // An empty condition is always true
+        return condition.predicates != null && condition.predicates.length > 0
+                || condition.conditions != null && condition.conditions.length > 0;
+    }
 
-                List<AssetState> assetStateList = assetStates.collect(Collectors.toList());
+    protected Condition buildLhsCondition(CompiledRule compiledRule) {
+        Rule rule = compiledRule.rule;
 
-                if (!assetStateList.isEmpty()) {
-                    // Push matched asset states into RHS
-                    facts.bind("assetStates", assetStateList);
-                    return true;
-                }
+        if (rule.when == null || (rule.when.asset == null && rule.when.timer == null)) {
+            return facts -> false;
+        }
 
-                return false;
-            };
-        } else if (!TextUtil.isNullOrEmpty(rule.when.timer)) {
+        if (compiledRule.whenPredicate == null) {
             // TODO: Create timer condition
+            return facts -> false;
         }
 
-        if (rule.and != null) {
-            andPredicate = AssetQueryPredicate.asPredicate(timerService, assetStorageService, rule.and);
-        }
+        return facts -> {
 
-        Predicate<RulesFacts> finalWhenPredicate = whenPredicate;
-        Predicate<RulesFacts> finalAndPredicate = andPredicate;
+            // The reset action changes this name, so incremental evaluation picks up reset asset states
+            facts.dependsOnFact(compiledRule.resetFactName);
 
-        return facts -> {
-            if (!finalWhenPredicate.test(facts)) {
+            if (compiledRule.resetTimerMillis > 0) {
+                compiledRule.firedInfos.removeExpired((long) facts.getClock().getTimestamp());
+            }
+
+            Stream<AssetState> assetStates = facts.matchAssetState(compiledRule.whenPredicate);
+
+            // Apply reset predicate (to prevent re-running a rule on an asset state before the reset has triggered)
+            if (!compiledRule.firedInfos.isEmpty()) {
+                assetStates = assetStates.filter(as -> !compiledRule.firedInfos.contains(as));
+            }
+
+            if (compiledRule.whenComparator != null) {
+                assetStates = assetStates.sorted(compiledRule.whenComparator);
+            }
+
+            if (compiledRule.whenLimit > 0) {
+                assetStates = assetStates.limit(compiledRule.whenLimit);
+            }
+
+            List<AssetState> assetStateList = assetStates.collect(Collectors.toList());
+
+            if (assetStateList.isEmpty()) {
                 return false;
             }
 
-            if (!finalAndPredicate.test(facts)) {
+            if (compiledRule.andPredicate != null && !compiledRule.andPredicate.test(facts)) {
                 return false;
             }
 
+            // Push matched asset states into RHS
+            facts.bind("assetStates", assetStateList);
             return true;
         };
     }
 
-    protected Action buildAction(Rule rule) {
+    protected Action buildAction(CompiledRule compiledRule) {
+        Rule rule = compiledRule.rule;
 
         return facts -> {
 
             List<AssetState> assetStates = facts.bound("assetStates");
 
             if (assetStates != null) {
+                long expirationTimestamp = compiledRule.resetTimerMillis > 0
+                        ? (long) facts.getClock().getTimestamp() + compiledRule.resetTimerMillis
+                        : Long.MAX_VALUE;
+
                 for (AssetState assetState : assetStates) {
+                    // Add RuleFiredInfo to limit re-triggering of the rule for a given asset state
+                    RuleFiredInfo firedInfo = new RuleFiredInfo(assetState, expirationTimestamp);
+                    compiledRule.firedInfos.put(firedInfo);
 
-                    // Add RuleFiredInfo fact to limit re-triggering of the rule for a given asset state
-                    if (rule.reset == null || TextUtil.isNullOrEmpty(rule.reset.timer)) {
-                        facts.put(buildResetFactName(rule, assetState), new RuleFiredInfo(assetState));
-                    } else if (!TextUtil.isNullOrEmpty(rule.reset.timer)) {
-                        facts.putTemporary(buildResetFactName(rule, assetState), rule.reset.timer, new RuleFiredInfo(assetState));
+                    // A temporary fact wakes up the engine when the reset timer expires
+                    if (compiledRule.resetTimerMillis > 0) {
+                        facts.putTemporary(compiledRule.resetTimerMillis, firedInfo);
                     }
                 }
             }
@@ -277,7 +534,7 @@ public class JsonRulesBuilder extends RulesBuilder {
                             if (target.useAssetsFromWhen && assetStates != null) {
                                 ids = assetStates.stream().map(AssetState::getId).collect(Collectors.toList());
                             } else if (target.assets != null) {
-                                ids = getAssetIds(assetsFacade, target.assets);
+                                ids = compiledRule.getTargetAssetIds(target);
                             } else if (target.users != null) {
                                 targetType = Notification.TargetType.USER;
                                 ids = getUserIds(usersFacade, target.users);
@@ -308,7 +565,7 @@ public class JsonRulesBuilder extends RulesBuilder {
                             if (target.useAssetsFromWhen && assetStates != null) {
                                 ids = assetStates.stream().map(AssetState::getId).collect(Collectors.toList());
                             } else if (target.assets != null) {
-                                ids = getAssetIds(assetsFacade, target.assets);
+                                ids = compiledRule.getTargetAssetIds(target);
                             }
                         }
 
@@ -338,10 +595,11 @@ public class JsonRulesBuilder extends RulesBuilder {
         };
     }
 
-    protected Condition buildResetCondition(Rule rule) {
+    protected Condition buildResetCondition(CompiledRule compiledRule) {
+        Rule rule = compiledRule.rule;
 
-        // Timer only reset is handled in rule action with temporary fact other resets require rule.when.asset to be set
-        // so that we have
+        // Timer only reset is handled in rule condition with the fired info expiration, other resets require
+        // rule.when.asset to be set so that we have asset states to compare with
         if (rule.reset == null || (!rule.reset.triggerNoLongerMatches && !rule.reset.attributeTimestampChange
                 && !rule.reset.attributeValueChange)) {
 
@@ -354,8 +612,8 @@ public class JsonRulesBuilder extends RulesBuilder {
         BiPredicate<AssetState, RuleFiredInfo> attributeTimestampPredicate = (assetState, ruleFiredInfo) -> false;
         BiPredicate<AssetState, RuleFiredInfo> attributeValuePredicate = (assetState, ruleFiredInfo) -> false;
 
-        if (reset.triggerNoLongerMatches && rule.when != null && rule.when.asset != null) {
-            noLongerMatchesPredicate = new AssetQueryPredicate(timerService, assetStorageService, rule.when.asset).negate();
+        if (reset.triggerNoLongerMatches && compiledRule.whenPredicate != null) {
+            noLongerMatchesPredicate = compiledRule.whenPredicate.negate();
         }
 
         if (reset.attributeTimestampChange) {
@@ -384,18 +642,24 @@ public class JsonRulesBuilder extends RulesBuilder {
                         || finalAttributeValuePredicate.test(assetState, ruleFiredInfo);
 
         return facts -> {
-            List<String> resetAssetStates = facts.getAssetStates()
-                    .stream()
-                    .filter(as -> {
+            // Any asset state change can reset the rule
+            facts.dependsOnUntracked();
 
-                        String factName = buildResetFactName(rule, as);
-                        Optional<RuleFiredInfo> firedInfo = facts.getOptional(factName);
-
-                        return firedInfo.filter(ruleFiredInfo -> resetPredicate.test(as, ruleFiredInfo)).isPresent();
+            if (compiledRule.firedInfos.isEmpty()) {
+                return false;
+            }
 
-                    })
-                    .map(as -> buildResetFactName(rule, as))
-                    .collect(Collectors.toList());
+            // Only look at the asset states the rule has fired for, not all asset states
+            List<AssetState> resetAssetStates = new ArrayList<>();
+            for (RuleFiredInfo firedInfo : compiledRule.firedInfos.getAll()) {
+                AssetState assetState = facts.getAssetState(
+                        firedInfo.firedAssetState.getId(),
+                        firedInfo.firedAssetState.getAttributeName()
+                );
+                if (assetState != null && resetPredicate.test(assetState, firedInfo)) {
+                    resetAssetStates.add(assetState);
+                }
+            }
 
             if (resetAssetStates.isEmpty()) {
                 return false;
@@ -406,11 +670,12 @@ public class JsonRulesBuilder extends RulesBuilder {
         };
     }
 
-    protected Action buildResetAction() {
+    protected Action buildResetAction(CompiledRule compiledRule) {
         return facts -> {
-            List<String> resetAssets = facts.bound("resetAssetStates");
-            if (resetAssets != null) {
-                resetAssets.forEach(facts::remove);
+            List<AssetState> resetAssetStates = facts.bound("resetAssetStates");
+            if (resetAssetStates != null) {
+                resetAssetStates.forEach(compiledRule.firedInfos::remove);
+                facts.factChanged(compiledRule.resetFactName);
             }
         };
     }
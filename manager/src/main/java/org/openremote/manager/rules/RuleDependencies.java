@@ -0,0 +1,266 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.rules;
+
+import org.openremote.model.query.BaseAssetQuery;
+import org.openremote.model.query.NewAssetQuery;
+import org.openremote.model.query.filter.AttributeMetaPredicate;
+import org.openremote.model.query.filter.AttributePredicate;
+import org.openremote.model.query.filter.DateTimePredicate;
+import org.openremote.model.query.filter.NewAttributePredicate;
+import org.openremote.model.query.filter.StringPredicate;
+import org.openremote.model.rules.AssetState;
+import org.openremote.model.rules.json.RuleCondition;
+import org.openremote.model.rules.json.RuleOperator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The facts read by the last evaluation of a rule condition, recorded by {@link RulesFacts}. The condition can only
+ * have a different result if one of these facts changed, unless it read something which is not tracked: the clock,
+ * temporary asset events, anonymous facts, a query with time or user predicates, or any other fact access that
+ * is not a lookup by name or an asset state query.
+ * <p>
+ * Facts can be read concurrently while a condition is evaluated, {@link RulesFacts} matches large sets of asset
+ * states with a parallel stream, and a filter of the stream can read other facts. The dependencies are therefore
+ * recorded in concurrent collections.
+ */
+public class RuleDependencies {
+
+    /**
+     * The asset states an asset state query can match, each restriction is a set of allowed values or
+     * <code>null</code> if the query doesn't restrict it. This is a superset of the states actually matched
+     * by the query as all other restrictions are ignored.
+     */
+    public static class AssetStateDependency {
+
+        final protected Set<String> assetIds;
+        final protected Set<String> assetTypes;
+        final protected Set<String> attributeNames;
+
+        public AssetStateDependency(Set<String> assetIds, Set<String> assetTypes, Set<String> attributeNames) {
+            this.assetIds = assetIds;
+            this.assetTypes = assetTypes;
+            this.attributeNames = attributeNames;
+        }
+
+        public Set<String> getAssetIds() {
+            return assetIds;
+        }
+
+        public Set<String> getAssetTypes() {
+            return assetTypes;
+        }
+
+        public Set<String> getAttributeNames() {
+            return attributeNames;
+        }
+
+        public boolean matches(AssetState assetState) {
+            return (assetIds == null || assetIds.contains(assetState.getId()))
+                && (assetTypes == null || assetTypes.contains(assetState.getTypeString()))
+                && (attributeNames == null || attributeNames.contains(assetState.getAttributeName()));
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" +
+                "assetIds=" + assetIds +
+                ", assetTypes=" + assetTypes +
+                ", attributeNames=" + attributeNames +
+                '}';
+        }
+    }
+
+    final protected List<AssetStateDependency> assetStates = new CopyOnWriteArrayList<>();
+    final protected Set<String> factNames = ConcurrentHashMap.newKeySet();
+    protected volatile boolean untracked;
+
+    public List<AssetStateDependency> getAssetStates() {
+        return assetStates;
+    }
+
+    public Set<String> getFactNames() {
+        return factNames;
+    }
+
+    /**
+     * @return <code>true</code> if the condition read facts which are not tracked and must always be evaluated.
+     */
+    public boolean isUntracked() {
+        return untracked;
+    }
+
+    public void addUntracked() {
+        untracked = true;
+    }
+
+    public void addFactName(String name) {
+        factNames.add(name);
+    }
+
+    public void addAllAssetStates() {
+        assetStates.add(new AssetStateDependency(null, null, null));
+    }
+
+    public void addAssetStates(NewAssetQuery query) {
+        if ((query.userIds != null && query.userIds.length > 0) || (query.attributes != null && isTimeDependent(query.attributes))) {
+            // Result depends on user asset links in the database or on the current time
+            untracked = true;
+            return;
+        }
+        assetStates.add(new AssetStateDependency(
+            query.ids != null && query.ids.length > 0 ? new HashSet<>(Arrays.asList(query.ids)) : null,
+            getExactValues(query.types),
+            query.attributes != null ? getAttributeNames(query.attributes) : null
+        ));
+    }
+
+    public boolean matches(AssetState assetState) {
+        for (AssetStateDependency dependency : assetStates) {
+            if (dependency.matches(assetState)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The values of the predicates if all match exactly, otherwise <code>null</code>.
+     */
+    protected static Set<String> getExactValues(StringPredicate[] predicates) {
+        if (predicates == null || predicates.length == 0) {
+            return null;
+        }
+        Set<String> values = new HashSet<>();
+        for (StringPredicate predicate : predicates) {
+            if (!isExact(predicate)) {
+                return null;
+            }
+            values.add(predicate.value);
+        }
+        return values;
+    }
+
+    protected static boolean isExact(StringPredicate predicate) {
+        return predicate != null
+            && predicate.match == BaseAssetQuery.Match.EXACT
+            && predicate.caseSensitive
+            && predicate.value != null;
+    }
+
+    /**
+     * @return The attribute names an asset state must have to satisfy the condition or <code>null</code> if the
+     * condition doesn't restrict the attribute name.
+     */
+    protected static Set<String> getAttributeNames(RuleCondition<AttributePredicate> condition) {
+        List<Set<String>> restrictions = new ArrayList<>();
+        boolean unrestricted = false;
+
+        if (condition.predicates != null) {
+            for (AttributePredicate predicate : condition.predicates) {
+                if (isExact(predicate.name)) {
+                    restrictions.add(new HashSet<>(Arrays.asList(predicate.name.value)));
+                } else {
+                    unrestricted = true;
+                }
+            }
+        }
+        if (condition.conditions != null) {
+            for (RuleCondition<AttributePredicate> nestedCondition : condition.conditions) {
+                Set<String> names = getAttributeNames(nestedCondition);
+                if (names != null) {
+                    restrictions.add(names);
+                } else {
+                    unrestricted = true;
+                }
+            }
+        }
+
+        if (restrictions.isEmpty()) {
+            return null;
+        }
+
+        if (condition.operator == RuleOperator.OR) {
+            // Each alternative must be restricted
+            if (unrestricted) {
+                return null;
+            }
+            Set<String> names = new HashSet<>();
+            restrictions.forEach(names::addAll);
+            return names;
+        }
+
+        // All must be satisfied, the smallest restriction is sufficient
+        Set<String> names = restrictions.get(0);
+        for (Set<String> restriction : restrictions) {
+            if (restriction.size() < names.size()) {
+                names = restriction;
+            }
+        }
+        return names;
+    }
+
+    protected static boolean isTimeDependent(RuleCondition<AttributePredicate> condition) {
+        if (condition.predicates != null) {
+            for (AttributePredicate predicate : condition.predicates) {
+                if (predicate.value instanceof DateTimePredicate) {
+                    return true;
+                }
+                if (predicate instanceof NewAttributePredicate) {
+                    NewAttributePredicate newPredicate = (NewAttributePredicate) predicate;
+                    if (newPredicate.lastValue instanceof DateTimePredicate || newPredicate.valueTimestamp != null) {
+                        return true;
+                    }
+                    if (newPredicate.meta != null) {
+                        for (AttributeMetaPredicate metaPredicate : newPredicate.meta) {
+                            if (metaPredicate.itemValuePredicate instanceof DateTimePredicate) {
+                                return true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (condition.conditions != null) {
+            for (RuleCondition<AttributePredicate> nestedCondition : condition.conditions) {
+                if (isTimeDependent(nestedCondition)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "untracked=" + untracked +
+            ", assetStates=" + assetStates +
+            ", factNames=" + factNames +
+            '}';
+    }
+}
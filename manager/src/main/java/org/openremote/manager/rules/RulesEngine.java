@@ -21,6 +21,7 @@ package org.openremote.manager.rules;
 
 import org.jeasy.rules.core.InferenceRulesEngine;
 import org.jeasy.rules.core.RulesEngineParameters;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetProcessingService;
 import org.openremote.manager.asset.AssetStorageService;
@@ -39,12 +40,12 @@ import org.openremote.model.query.filter.LocationAttributePredicate;
 import org.openremote.model.rules.*;
 
 import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.model.rules.RulesetStatus.*;
 
 public class RulesEngine<T extends Ruleset> {
@@ -93,11 +94,33 @@ public class RulesEngine<T extends Ruleset> {
     final protected Map<Long, RulesetDeployment> deployments = new LinkedHashMap<>();
     final protected RulesFacts facts;
     final protected InferenceRulesEngine engine;
+    // Only set if incremental evaluation is enabled, replaces the inference engine
+    final protected IncrementalRulesEngine incrementalEngine;
 
     protected boolean running;
     protected boolean trackLocationPredicates;
     protected ScheduledFuture fireTimer;
+    // Time of the timer service when the fire timer runs
+    protected long fireTimerTime;
+    // Time of the timer service when the last firing completed, firings are at least the fire interval apart
+    protected long lastFireTime;
     protected ScheduledFuture statsTimer;
+    // Guards the facts and deployments of this engine, engines fire concurrently on the fire executor
+    final protected ScopedLock lock = new ScopedLock(RulesEngine.class.getSimpleName());
+    final protected ScheduledExecutorService fireExecutor;
+    final protected long fireIntervalMillis;
+    final protected RulesetScriptCache scriptCache;
+    // Set without the lock when assets change, JSON rules resolve their target assets again on the next firing
+    protected volatile boolean assetsChanged;
+
+    // Statistics of firing, only written while holding the lock
+    protected volatile long fireCount;
+    protected volatile long totalFireMillis;
+    protected volatile long lastFireMillis;
+    protected volatile long maxFireMillis;
+    protected volatile long lastQueueDelayMillis;
+    protected volatile long maxQueueDelayMillis;
+    protected volatile int factCount;
 
     // Only used to optimize toString(), contains the details of this engine
     protected String deploymentInfo;
@@ -113,7 +136,11 @@ public class RulesEngine<T extends Ruleset> {
                        NotificationService notificationService,
                        ClientEventService clientEventService,
                        RulesEngineId<T> id,
-                       AssetLocationPredicateProcessor assetLocationPredicatesConsumer) {
+                       AssetLocationPredicateProcessor assetLocationPredicatesConsumer,
+                       ScheduledExecutorService fireExecutor,
+                       long fireIntervalMillis,
+                       RulesetScriptCache scriptCache,
+                       boolean incrementalEvaluation) {
         this.timerService = timerService;
         this.executorService = executorService;
         this.assetStorageService = assetStorageService;
@@ -124,13 +151,20 @@ public class RulesEngine<T extends Ruleset> {
         this.usersFacade = new UsersFacade<>(id, assetStorageService, notificationService, identityService);
         this.notificationFacade = new NotificationsFacade<>(id, notificationService);
         this.assetLocationPredicatesConsumer = assetLocationPredicatesConsumer;
+        this.fireExecutor = fireExecutor;
+        // A longer interval would delay the removal of expired temporary facts beyond their guaranteed expiration
+        if (fireIntervalMillis > TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS) {
+            LOG.fine("Fire interval of " + fireIntervalMillis + "ms reduced to " + TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS + "ms on: " + id);
+        }
+        this.fireIntervalMillis = Math.max(0, Math.min(fireIntervalMillis, TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS));
+        this.scriptCache = scriptCache;
 
         this.facts = new RulesFacts(timerService, assetStorageService, assetsFacade, this, RULES_LOG);
-        engine = new InferenceRulesEngine(
-            // Skip any other rules after the first failed rule (exception thrown in condition or action)
-            new RulesEngineParameters(false, true, false, RulesEngineParameters.DEFAULT_RULE_PRIORITY_THRESHOLD)
-        );
+        // Skip any other rules after the first failed rule (exception thrown in condition or action)
+        RulesEngineParameters parameters = new RulesEngineParameters(false, true, false, RulesEngineParameters.DEFAULT_RULE_PRIORITY_THRESHOLD);
+        engine = new InferenceRulesEngine(parameters);
         engine.registerRuleListener(facts);
+        incrementalEngine = incrementalEvaluation ? new IncrementalRulesEngine(parameters, facts) : null;
     }
 
     public RulesEngineId<T> getId() {
@@ -141,14 +175,49 @@ public class RulesEngine<T extends Ruleset> {
      * @return a shallow copy of the asset state facts.
      */
     public Set<AssetState> getAssetStates() {
-        return new HashSet<>(facts.getAssetStates());
+        return lock.withReadLockReturning("getAssetStates", () -> new HashSet<>(facts.getAssetStates()));
     }
 
     /**
      * @return a shallow copy of the asset event facts.
      */
     public List<TemporaryFact<AssetState>> getAssetEvents() {
-        return new ArrayList<>(facts.getAssetEvents());
+        return lock.withReadLockReturning("getAssetEvents", () -> new ArrayList<>(facts.getAssetEvents()));
+    }
+
+    public long getFireCount() {
+        return fireCount;
+    }
+
+    public long getLastFireMillis() {
+        return lastFireMillis;
+    }
+
+    public long getMaxFireMillis() {
+        return maxFireMillis;
+    }
+
+    public long getAverageFireMillis() {
+        long count = fireCount;
+        return count > 0 ? totalFireMillis / count : 0;
+    }
+
+    /**
+     * @return The time the last firing waited for a thread of the fire executor and the lock of this engine.
+     */
+    public long getLastQueueDelayMillis() {
+        return lastQueueDelayMillis;
+    }
+
+    public long getMaxQueueDelayMillis() {
+        return maxQueueDelayMillis;
+    }
+
+    /**
+     * @return The number of facts after the last firing.
+     */
+    public int getFactCount() {
+        return factCount;
     }
 
     public boolean isRunning() {
@@ -196,177 +265,231 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void addRuleset(T ruleset) {
-        if (ruleset == null || ruleset.getRules() == null || ruleset.getRules().isEmpty()) {
-            // Assume it's a success if deploying an empty ruleset
-            LOG.finest("Ruleset is empty so no rules to deploy");
-            return;
-        }
-
-        RulesetDeployment deployment = deployments.get(ruleset.getId());
-
-        stop();
+        lock.withLock("addRuleset", () -> {
+            if (ruleset == null || ruleset.getRules() == null || ruleset.getRules().isEmpty()) {
+                // Assume it's a success if deploying an empty ruleset
+                LOG.finest("Ruleset is empty so no rules to deploy");
+                return;
+            }
 
-        // Check if ruleset is already deployed (maybe an older version)
-        if (deployment != null) {
-            deployment.stop();
-            LOG.info("Removing ruleset deployment: " + ruleset);
-            deployments.remove(ruleset.getId());
-            updateDeploymentInfo();
-        }
+            RulesetDeployment deployment = deployments.get(ruleset.getId());
 
-        deployment = new RulesetDeployment(ruleset, timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade);
+            stop();
 
-        boolean compilationSuccessful = deployment.start();
+            // Check if ruleset is already deployed (maybe an older version)
+            if (deployment != null) {
+                deployment.stop();
+                LOG.info("Removing ruleset deployment: " + ruleset);
+                deployments.remove(ruleset.getId());
+                forgetRules(deployment);
+                updateDeploymentInfo();
+            }
 
-        if (!compilationSuccessful) {
-            // If any other ruleset is DEPLOYED in this scope, demote to READY
-            for (RulesetDeployment rd : deployments.values()) {
-                if (rd.getStatus() == DEPLOYED) {
-                    rd.setStatus(READY);
-                    publishRulesetStatus(
-                        rd.getRuleset(),
-                        rd.getStatus(),
-                        rd.getErrorMessage()
-                    );
+            deployment = new RulesetDeployment(ruleset, timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade, lock, scriptCache);
+
+            boolean compilationSuccessful = deployment.start();
+
+            if (!compilationSuccessful) {
+                // If any other ruleset is DEPLOYED in this scope, demote to READY
+                for (RulesetDeployment rd : deployments.values()) {
+                    if (rd.getStatus() == DEPLOYED) {
+                        rd.setStatus(READY);
+                        publishRulesetStatus(
+                            rd.getRuleset(),
+                            rd.getStatus(),
+                            rd.getErrorMessage()
+                        );
+                    }
                 }
-            }
-        } else {
-            // If any other ruleset is READY in this scope, promote to DEPLOYED
-            for (RulesetDeployment rd : deployments.values()) {
-                if (rd.getStatus() == READY) {
-                    rd.setStatus(DEPLOYED);
-                    publishRulesetStatus(
-                        rd.getRuleset(),
-                        rd.getStatus(),
-                        rd.getErrorMessage()
-                    );
+            } else {
+                // If any other ruleset is READY in this scope, promote to DEPLOYED
+                for (RulesetDeployment rd : deployments.values()) {
+                    if (rd.getStatus() == READY) {
+                        rd.setStatus(DEPLOYED);
+                        publishRulesetStatus(
+                            rd.getRuleset(),
+                            rd.getStatus(),
+                            rd.getErrorMessage()
+                        );
+                    }
                 }
             }
-        }
 
-        // Add new ruleset and set its status to either DEPLOYED or COMPILATION_ERROR
-        deployment.setStatus(compilationSuccessful ? DEPLOYED : COMPILATION_ERROR);
-        deployments.put(ruleset.getId(), deployment);
-        updateDeploymentInfo();
+            // Add new ruleset and set its status to either DEPLOYED or COMPILATION_ERROR
+            deployment.setStatus(compilationSuccessful ? DEPLOYED : COMPILATION_ERROR);
+            deployments.put(ruleset.getId(), deployment);
+            updateDeploymentInfo();
 
-        publishRulesetStatus(
-            ruleset,
-            deployment.getStatus(),
-            deployment.getErrorMessage()
-        );
+            publishRulesetStatus(
+                ruleset,
+                deployment.getStatus(),
+                deployment.getErrorMessage()
+            );
 
-        start();
+            start();
+        });
     }
 
     /**
      * @return <code>true</code> if this rules engine has no deployments.
      */
     public boolean removeRuleset(Ruleset ruleset) {
-        if (!deployments.containsKey(ruleset.getId())) {
-            LOG.finer("Ruleset cannot be retracted as it was never deployed: " + ruleset);
-            return deployments.size() == 0;
-        }
+        return lock.withLockReturning("removeRuleset", () -> {
+            if (!deployments.containsKey(ruleset.getId())) {
+                LOG.finer("Ruleset cannot be retracted as it was never deployed: " + ruleset);
+                return deployments.size() == 0;
+            }
 
-        stop();
-
-        RulesetDeployment deployment = deployments.remove(ruleset.getId());
-        deployment.stop();
-        updateDeploymentInfo();
-
-        publishRulesetStatus(ruleset, ruleset.isEnabled() ? REMOVED : DISABLED, null);
-
-        // If there are no deployments with COMPILATION_ERROR, promote all which are READY to DEPLOYED
-        boolean anyDeploymentsHaveCompilationError = deployments
-            .values()
-            .stream()
-            .anyMatch(rd -> rd.getStatus() == COMPILATION_ERROR);
-
-        if (!anyDeploymentsHaveCompilationError) {
-            deployments.values().forEach(rd -> {
-                if (rd.getStatus() == READY) {
-                    rd.setStatus(DEPLOYED);
-                    publishRulesetStatus(
-                        rd.getRuleset(),
-                        rd.getStatus(),
-                        rd.getErrorMessage()
-                    );
-                }
-            });
-        }
+            stop();
 
-        if (deployments.size() > 0) {
-            start();
-            return false;
-        } else {
-            publishRulesEngineStatus();
-            return true;
-        }
+            RulesetDeployment deployment = deployments.remove(ruleset.getId());
+            deployment.stop();
+            forgetRules(deployment);
+            updateDeploymentInfo();
+
+            publishRulesetStatus(ruleset, ruleset.isEnabled() ? REMOVED : DISABLED, null);
+
+            // If there are no deployments with COMPILATION_ERROR, promote all which are READY to DEPLOYED
+            boolean anyDeploymentsHaveCompilationError = deployments
+                .values()
+                .stream()
+                .anyMatch(rd -> rd.getStatus() == COMPILATION_ERROR);
+
+            if (!anyDeploymentsHaveCompilationError) {
+                deployments.values().forEach(rd -> {
+                    if (rd.getStatus() == READY) {
+                        rd.setStatus(DEPLOYED);
+                        publishRulesetStatus(
+                            rd.getRuleset(),
+                            rd.getStatus(),
+                            rd.getErrorMessage()
+                        );
+                    }
+                });
+            }
+
+            if (deployments.size() > 0) {
+                start();
+                return false;
+            } else {
+                publishRulesEngineStatus();
+                return true;
+            }
+        });
     }
 
     public void start() {
-        if (isRunning()) {
-            return;
-        }
+        lock.withLock("start", () -> {
+            if (isRunning()) {
+                return;
+            }
 
-        if (!isDeployed()) {
-            LOG.fine("Cannot start rules engine, not all rulesets are status " + DEPLOYED);
-            return;
-        }
+            if (!isDeployed()) {
+                LOG.fine("Cannot start rules engine, not all rulesets are status " + DEPLOYED);
+                return;
+            }
 
-        if (deployments.size() == 0) {
-            LOG.finest("No rulesets so nothing to start");
-            return;
-        }
+            if (deployments.size() == 0) {
+                LOG.finest("No rulesets so nothing to start");
+                return;
+            }
 
-        LOG.info("Starting: " + this);
-        running = true;
-        trackLocationPredicates = true;
-        publishRulesEngineStatus();
-        fire();
+            LOG.info("Starting: " + this);
+            running = true;
+            // Delay the first firing by the fire interval, facts are usually imported after starting
+            lastFireTime = timerService.getCurrentTimeMillis();
+            trackLocationPredicates = true;
+            publishRulesEngineStatus();
+            fire();
 
-        // Start a background stats printer if INFO level logging is enabled
-        if (STATS_LOG.isLoggable(Level.INFO) || STATS_LOG.isLoggable(Level.FINEST)) {
-            if (STATS_LOG.isLoggable(Level.FINEST)) {
-                LOG.info("On " + this + ", enabling periodic statistics output at INFO level every 30 seconds on category: " + STATS_LOG.getName());
-            } else {
-                LOG.info("On " + this + ", enabling periodic full memory dump at FINEST level every 30 seconds on category: " + STATS_LOG.getName());
+            // Start a background stats printer if INFO level logging is enabled
+            if (STATS_LOG.isLoggable(Level.INFO) || STATS_LOG.isLoggable(Level.FINEST)) {
+                if (STATS_LOG.isLoggable(Level.FINEST)) {
+                    LOG.info("On " + this + ", enabling periodic statistics output at INFO level every 30 seconds on category: " + STATS_LOG.getName());
+                } else {
+                    LOG.info("On " + this + ", enabling periodic full memory dump at FINEST level every 30 seconds on category: " + STATS_LOG.getName());
+                }
+                statsTimer = executorService.scheduleAtFixedRate(this::printSessionStats, 3, 30, TimeUnit.SECONDS);
             }
-            statsTimer = executorService.scheduleAtFixedRate(this::printSessionStats, 3, 30, TimeUnit.SECONDS);
-        }
+        });
     }
 
+    /**
+     * Assets were created, modified or deleted, doesn't wait for a running firing of this engine.
+     */
+    public void onAssetsChanged() {
+        assetsChanged = true;
+    }
+
+    /**
+     * Requests a firing of this engine, changes are coalesced: an idle engine fires immediately, a busy engine fires
+     * once the fire interval has passed since its last firing.
+     */
     public void fire() {
-        withLock(toString() + "::scheduleFire", () -> {
-            // Schedule a firing within the guaranteed expiration time (so not immediately), and
-            // only if the last firing is done. This effectively limits how often the rules engine
-            // will fire, only once within the guaranteed minimum expiration time.
-            if (fireTimer == null || fireTimer.isDone()) {
-                LOG.fine("Scheduling rules firing on: " + this);
-                fireTimer = executorService.schedule(
-                    () -> withLock(RulesEngine.this.toString() + "::fire", () -> {
-
-                        // Are temporary facts present before rules are fired?
-                        boolean hadTemporaryFactsBefore = facts.hasTemporaryFacts();
-
-                        // Process rules for all deployments
-                        fireAllDeployments();
-
-                        // If there are temporary facts, or if there were some before and
-                        // now they are gone, schedule a new firing to guarantee processing
-                        // of expired and removed temporary facts
-                        if ((facts.hasTemporaryFacts() || (hadTemporaryFactsBefore && !facts.hasTemporaryFacts()))
-                            && !disableTemporaryFactExpiration) {
-                            LOG.fine("Temporary facts require firing rules on: " + this);
-                            executorService.schedule(this::fire, 0);
-                        } else if (!disableTemporaryFactExpiration) {
-                            LOG.fine("No temporary facts present/changed when firing rules on: " + this);
-                        }
-
-                    }),
-                    TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS
-                );
+        lock.withLock("scheduleFire", () -> scheduleFire(lastFireTime + fireIntervalMillis));
+    }
+
+    /**
+     * Schedules a firing at the given time of the timer service, or keeps an earlier scheduled firing. After firing,
+     * the next firing is scheduled at the earliest expiration of the temporary facts in {@link RulesFacts}, but not
+     * before the fire interval has passed. With a pseudo clock the wait for an expiration is at most
+     * {@link TemporaryFact#GUARANTEED_MIN_EXPIRATION_MILLIS}, as the clock can be advanced without notice.
+     */
+    protected void scheduleFire(long fireTime) {
+        if (fireTimer != null && !fireTimer.isDone()) {
+            // Keep the scheduled firing if it's not later, or if it's already running
+            if (fireTimerTime <= fireTime || !fireTimer.cancel(false)) {
+                return;
             }
-        });
+        }
+
+        long currentTime = timerService.getCurrentTimeMillis();
+        long delay = Math.max(0, fireTime - currentTime);
+        LOG.fine("Scheduling rules firing in " + delay + "ms on: " + this);
+        fireTimerTime = currentTime + delay;
+        long scheduledTime = fireTimerTime;
+        fireTimer = fireExecutor.schedule(
+            () -> lock.withLock("fire", () -> {
+                long queueDelayMillis = Math.max(0, timerService.getCurrentTimeMillis() - scheduledTime);
+                long startTime = System.currentTimeMillis();
+                // Changes made from now on require another firing
+                fireTimer = null;
+
+                // Are temporary facts present before rules are fired?
+                boolean hadTemporaryFactsBefore = facts.hasTemporaryFacts();
+
+                // Process rules for all deployments
+                fireAllDeployments();
+                recordFiring(queueDelayMillis, System.currentTimeMillis() - startTime);
+                lastFireTime = timerService.getCurrentTimeMillis();
+
+                if (!running || fireTimer != null || disableTemporaryFactExpiration) {
+                    return;
+                }
+
+                if (facts.hasTemporaryFacts()) {
+                    // Fire when the next temporary fact expires, relative to the clock expired facts were removed at
+                    long currentTimestamp = (long) facts.getClock().getTimestamp();
+                    Long nextExpiration = facts.getNextTemporaryFactExpiration();
+                    // A fact is expired after its expiration timestamp
+                    long expirationDelay = nextExpiration != null ? nextExpiration - currentTimestamp + 1 : 0;
+                    if (timerService.getClock() != TimerService.Clock.REAL) {
+                        // A pseudo clock can be advanced without notice, don't rely on it for scheduling
+                        expirationDelay = Math.min(expirationDelay, TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS);
+                    }
+                    LOG.fine("Temporary facts require firing rules in " + expirationDelay + "ms on: " + this);
+                    scheduleFire(Math.max(lastFireTime + expirationDelay, lastFireTime + fireIntervalMillis));
+                } else if (hadTemporaryFactsBefore) {
+                    // Guarantee processing of removed temporary facts
+                    LOG.fine("Temporary facts removed, firing rules on: " + this);
+                    scheduleFire(lastFireTime + fireIntervalMillis);
+                } else {
+                    LOG.fine("No temporary facts present/changed when firing rules on: " + this);
+                }
+            }),
+            delay,
+            TimeUnit.MILLISECONDS
+        );
     }
 
     protected void fireAllDeployments() {
@@ -385,6 +508,16 @@ public class RulesEngine<T extends Ruleset> {
         // Remove any expired temporary facts
         facts.removeExpiredTemporaryFacts();
 
+        if (assetsChanged) {
+            assetsChanged = false;
+            deployments.values().forEach(RulesetDeployment::onAssetsChanged);
+        }
+
+        // Location predicates are collected while evaluating conditions, so all must be evaluated
+        if (incrementalEngine != null && trackLocationPredicates) {
+            incrementalEngine.reset();
+        }
+
         for (RulesetDeployment deployment : deployments.values()) {
             try {
                 RULES_LOG.fine("Firing rules @" + clock + " of: " + deployment);
@@ -399,7 +532,11 @@ public class RulesEngine<T extends Ruleset> {
                 facts.reset();
 
                 long startTimestamp = System.currentTimeMillis();
-                engine.fire(deployment.getRules(), facts);
+                if (incrementalEngine != null) {
+                    incrementalEngine.fire(deployment.getRules());
+                } else {
+                    engine.fire(deployment.getRules(), facts);
+                }
                 RULES_LOG.fine("Rules executed in: " + (System.currentTimeMillis() - startTimestamp) + "ms");
 
             } catch (Exception ex) {
@@ -433,46 +570,70 @@ public class RulesEngine<T extends Ruleset> {
         stop(false);
     }
 
-    public void stop(boolean systemShutdownInProgress) {
-        if (!isRunning()) {
-            return;
-        }
-        LOG.info("Stopping: " + this);
-        if (fireTimer != null) {
-            fireTimer.cancel(true);
-            fireTimer = null;
-        }
-        if (statsTimer != null) {
-            statsTimer.cancel(true);
-            statsTimer = null;
-        }
-        running = false;
+    protected void recordFiring(long queueDelayMillis, long fireMillis) {
+        fireCount++;
+        totalFireMillis += fireMillis;
+        lastFireMillis = fireMillis;
+        maxFireMillis = Math.max(maxFireMillis, fireMillis);
+        lastQueueDelayMillis = queueDelayMillis;
+        maxQueueDelayMillis = Math.max(maxQueueDelayMillis, queueDelayMillis);
+        factCount = facts.getFactCount();
+    }
 
-        if (!systemShutdownInProgress && assetLocationPredicatesConsumer != null) {
-            assetLocationPredicatesConsumer.accept(this, null);
+    protected void forgetRules(RulesetDeployment deployment) {
+        if (incrementalEngine != null) {
+            incrementalEngine.forget(deployment.getRules());
         }
+    }
+
+    public void stop(boolean systemShutdownInProgress) {
+        lock.withLock("stop", () -> {
+            if (!isRunning()) {
+                return;
+            }
+            LOG.info("Stopping: " + this);
+            if (fireTimer != null) {
+                fireTimer.cancel(true);
+                fireTimer = null;
+            }
+            if (statsTimer != null) {
+                statsTimer.cancel(true);
+                statsTimer = null;
+            }
+            running = false;
+
+            if (!systemShutdownInProgress && assetLocationPredicatesConsumer != null) {
+                assetLocationPredicatesConsumer.accept(this, null);
+            }
 
-        publishRulesEngineStatus();
+            publishRulesEngineStatus();
+        });
     }
 
     public void updateFact(AssetState assetState, boolean fireImmediately) {
-        facts.putAssetState(assetState);
-        trackLocationPredicates = trackLocationPredicates || assetState.getAttributeName().equals(AttributeType.LOCATION.getName());
-        if (fireImmediately) {
-            fire();
-        }
+        lock.withLock("updateFact", () -> {
+            facts.putAssetState(assetState);
+            trackLocationPredicates = trackLocationPredicates || assetState.getAttributeName().equals(AttributeType.LOCATION.getName());
+            if (fireImmediately) {
+                fire();
+            }
+        });
     }
 
     public void removeFact(AssetState assetState) {
-        facts.removeAssetState(assetState);
-        trackLocationPredicates = trackLocationPredicates || assetState.getAttributeName().equals(AttributeType.LOCATION.getName());
-        fire();
+        lock.withLock("removeFact", () -> {
+            facts.removeAssetState(assetState);
+            trackLocationPredicates = trackLocationPredicates || assetState.getAttributeName().equals(AttributeType.LOCATION.getName());
+            fire();
+        });
     }
 
     public void insertFact(String expires, AssetState assetState) {
-        facts.insertAssetEvent(expires, assetState);
-        trackLocationPredicates = trackLocationPredicates || assetState.getAttributeName().equals(AttributeType.LOCATION.getName());
-        fire();
+        lock.withLock("insertFact", () -> {
+            facts.insertAssetEvent(expires, assetState);
+            trackLocationPredicates = trackLocationPredicates || assetState.getAttributeName().equals(AttributeType.LOCATION.getName());
+            fire();
+        });
     }
 
     protected void updateDeploymentInfo() {
@@ -484,12 +645,12 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void printSessionStats() {
-        withLock(toString() + "::printSessionStats", () -> {
+        List<AssetState> assetStateSnapshot = lock.withLockReturning("printSessionStats", () -> {
             Collection<AssetState> assetStateFacts = facts.getAssetStates();
             Collection<TemporaryFact<AssetState>> assetEventFacts = facts.getAssetEvents();
             Map<String, Object> namedFacts = facts.getNamedFacts();
             Collection<Object> anonFacts = facts.getAnonymousFacts();
-            long temporaryFactsCount = facts.getTemporaryFacts().count();
+            long temporaryFactsCount = facts.getTemporaryFactCount();
             long total = assetStateFacts.size() + assetEventFacts.size() + namedFacts.size() + anonFacts.size();
             STATS_LOG.info("On " + this + ", in memory facts are Total: " + total
                 + ", AssetState: " + assetStateFacts.size()
@@ -498,11 +659,28 @@ public class RulesEngine<T extends Ruleset> {
                 + ", Anonymous: " + anonFacts.size()
                 + ", Temporary: " + temporaryFactsCount);
 
+            if (incrementalEngine != null) {
+                STATS_LOG.info("On " + this + ", incremental evaluation of conditions Evaluated: " + incrementalEngine.getEvaluatedCount()
+                    + ", Skipped: " + incrementalEngine.getSkippedCount());
+            }
+
             // Additional details if FINEST is enabled
             if (STATS_LOG.isLoggable(Level.FINEST)) {
                 facts.logFacts(STATS_LOG);
             }
+
+            // Asset states are immutable, estimate their heap after releasing the lock
+            return STATS_LOG.isLoggable(Level.FINE) && !assetStateFacts.isEmpty()
+                ? new ArrayList<>(assetStateFacts)
+                : null;
         });
+
+        if (assetStateSnapshot != null) {
+            long assetStateBytes = AssetStateInterner.estimateHeapBytes(assetStateSnapshot);
+            STATS_LOG.fine("On " + this + ", estimated heap of AssetState facts (without values): "
+                + (assetStateBytes / 1024) + " KiB, per 100k facts: "
+                + (assetStateBytes * 100000 / assetStateSnapshot.size() / (1024 * 1024)) + " MiB");
+        }
     }
 
     /**
@@ -528,7 +706,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void publishRulesEngineStatus() {
-        withLock(getClass().getSimpleName() + "::publishRulesEngineStatus", () -> {
+        lock.withLock("publishRulesEngineStatus", () -> {
 
             String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
             int compilationErrors = getCompilationErrorDeploymentCount();
@@ -552,7 +730,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void publishRulesetStatus(Ruleset ruleset, RulesetStatus status, String error) {
-        withLock(getClass().getSimpleName() + "::publishRulesetStatus", () -> {
+        lock.withLock("publishRulesetStatus", () -> {
 
             String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
 
@@ -57,7 +57,8 @@ public class RulesFacts extends Facts implements RuleListener {
     // TODO Better way than tracking rule trigger count? Max trigger could be a configurable multiple of facts count?
     public static final int MAX_RULES_TRIGGERED_PER_EXECUTION = 100;
 
-    public static final int INITIAL_CAPACITY = 100000;
+    // Matching fewer candidate asset states in parallel costs more than it saves
+    public static final int PARALLEL_MATCH_THRESHOLD = 1000;
 
     public static final String CLOCK = "INTERNAL_CLOCK";
     public static final String ASSET_STATES = "INTERNAL_ASSET_STATES";
@@ -72,10 +73,43 @@ public class RulesFacts extends Facts implements RuleListener {
     final protected Logger LOG;
     final protected Map<String, Collection<AssetState>> assetIdIndex = new HashMap<>();
     final protected Map<String, Collection<AssetState>> assetTypeIndex = new HashMap<>();
+    final protected Map<String, Collection<AssetState>> attributeNameIndex = new HashMap<>();
+    final protected Map<String, Collection<AssetState>> parentIdIndex = new HashMap<>();
     public RulesClock clock;
     protected int triggerCount;
     protected boolean trackLocationRules;
     protected Map<String, Set<GeofencePredicate>> assetStateLocationPredicateMap = null;
+    // Facts read by the rule condition currently evaluated, only set by incremental evaluation, also read by the
+    // threads of parallel asset state matches
+    protected volatile RuleDependencies dependencies;
+    // Facts changed since the last incremental evaluation, null if not tracking changes
+    protected List<AssetState> changedAssetStates;
+    protected Set<String> changedFactNames;
+    // Temporary facts ordered by expiration, may contain facts already removed before they expired
+    final protected PriorityQueue<TemporaryFactExpiration> temporaryFactExpirations = new PriorityQueue<>(
+        Comparator.comparingLong(TemporaryFactExpiration::getExpirationTimestamp)
+    );
+    // The number of temporary facts present
+    protected int temporaryFactCount;
+
+    /**
+     * A temporary fact and where it is stored, either in the {@link #ASSET_EVENTS}, the {@link #ANONYMOUS_FACTS}, or
+     * as a named fact.
+     */
+    protected static class TemporaryFactExpiration {
+
+        final protected TemporaryFact fact;
+        final protected String name;
+
+        public TemporaryFactExpiration(TemporaryFact fact, String name) {
+            this.fact = fact;
+            this.name = name;
+        }
+
+        public long getExpirationTimestamp() {
+            return fact.getTimestamp() + fact.getExpirationMilliseconds();
+        }
+    }
 
     public RulesFacts(TimerService timerService, AssetStorageService assetStorageService, Assets assetsFacade, Object loggingContext, Logger logger) {
         this.timerService = timerService;
@@ -84,10 +118,11 @@ public class RulesFacts extends Facts implements RuleListener {
         this.loggingContext = loggingContext;
         this.LOG = logger;
 
-        asMap().put(ASSET_STATES, new ArrayDeque(INITIAL_CAPACITY));
-        asMap().put(ASSET_EVENTS, new ArrayDeque(INITIAL_CAPACITY));
+        // Grow with the facts, most engines only hold a few
+        asMap().put(ASSET_STATES, new LinkedHashSet());
+        asMap().put(ASSET_EVENTS, new LinkedHashSet());
         asMap().put(EXECUTION_VARS, new HashMap());
-        asMap().put(ANONYMOUS_FACTS, new ArrayDeque(INITIAL_CAPACITY));
+        asMap().put(ANONYMOUS_FACTS, new LinkedHashSet());
     }
 
     protected void startTrackingLocationRules() {
@@ -107,7 +142,92 @@ public class RulesFacts extends Facts implements RuleListener {
                                 assetStateSetEntry.getValue())).collect(Collectors.toList());
     }
 
+    /**
+     * Record the facts read by rule conditions until {@link #stopTrackingDependencies}.
+     */
+    protected void startTrackingDependencies(RuleDependencies dependencies) {
+        this.dependencies = dependencies;
+    }
+
+    protected void stopTrackingDependencies() {
+        this.dependencies = null;
+    }
+
+    /**
+     * Record changes of asset states and named facts, the changes can be consumed with
+     * {@link #takeChangedAssetStates} and {@link #takeChangedFactNames}.
+     */
+    protected void startTrackingChanges() {
+        if (changedAssetStates == null) {
+            changedAssetStates = new ArrayList<>();
+            changedFactNames = new HashSet<>();
+        }
+    }
+
+    protected List<AssetState> takeChangedAssetStates() {
+        List<AssetState> changes = changedAssetStates;
+        changedAssetStates = new ArrayList<>();
+        return changes;
+    }
+
+    protected Set<String> takeChangedFactNames() {
+        Set<String> changes = changedFactNames;
+        changedFactNames = new HashSet<>();
+        return changes;
+    }
+
+    protected void assetStateChanged(AssetState assetState) {
+        if (changedAssetStates != null) {
+            changedAssetStates.add(assetState);
+        }
+    }
+
+    protected void factChanged(String name) {
+        if (changedFactNames != null) {
+            changedFactNames.add(name);
+        }
+    }
+
+    protected void dependsOnUntracked() {
+        if (dependencies != null) {
+            dependencies.addUntracked();
+        }
+    }
+
+    /**
+     * Record a dependency on a name that is changed with {@link #factChanged} but isn't necessarily a fact.
+     */
+    protected void dependsOnFact(String name) {
+        if (dependencies != null) {
+            dependencies.addFactName(name);
+        }
+    }
+
+    /**
+     * @return The current state of the asset attribute, without recording a dependency of the evaluated rule.
+     */
+    protected AssetState getAssetState(String assetId, String attributeName) {
+        Collection<AssetState> assetStates = assetIdIndex.get(assetId);
+        if (assetStates != null) {
+            for (AssetState assetState : assetStates) {
+                if (assetState.getAttributeName().equals(attributeName)) {
+                    return assetState;
+                }
+            }
+        }
+        return null;
+    }
+
+    public static boolean isReservedName(String name) {
+        return name.equals(CLOCK)
+                || name.equals(ASSET_STATES)
+                || name.equals(ASSET_EVENTS)
+                || name.equals(EXECUTION_VARS)
+                || name.equals(ANONYMOUS_FACTS);
+    }
+
     public RulesClock getClock() {
+        dependsOnUntracked();
         return clock;
     }
 
@@ -116,22 +236,32 @@ public class RulesFacts extends Facts implements RuleListener {
         asMap().put(CLOCK, clock);
     }
 
-    @SuppressWarnings("unchecked")
     public Collection<AssetState> getAssetStates() {
-        return (Collection<AssetState>) get(ASSET_STATES);
+        if (dependencies != null) {
+            dependencies.addAllAssetStates();
+        }
+        return assetStates();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Collection<AssetState> assetStates() {
+        return (Collection<AssetState>) super.get(ASSET_STATES);
     }
 
     @SuppressWarnings("unchecked")
     public Collection<TemporaryFact<AssetState>> getAssetEvents() {
+        dependsOnUntracked();
         return (Collection<TemporaryFact<AssetState>>) get(ASSET_EVENTS);
     }
 
     @SuppressWarnings("unchecked")
     public Collection<Object> getAnonymousFacts() {
+        dependsOnUntracked();
         return (Collection<Object>) get(ANONYMOUS_FACTS);
     }
 
     public Map<String, Object> getNamedFacts() {
+        dependsOnUntracked();
         return asMap().entrySet().stream().filter(entry ->
                 !entry.getKey().equals(CLOCK)
                         && !entry.getKey().equals(ASSET_STATES)
@@ -141,6 +271,19 @@ public class RulesFacts extends Facts implements RuleListener {
         ).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
     }
 
+    /**
+     * @return The number of asset states, asset events, named and anonymous facts, without building a stream of them.
+     */
+    public int getFactCount() {
+        int namedFacts = 0;
+        for (String name : asMap().keySet()) {
+            if (!isReservedName(name)) {
+                namedFacts++;
+            }
+        }
+        return assetStates().size() + getAssetEvents().size() + getAnonymousFacts().size() + namedFacts;
+    }
+
     public Stream<Object> getAllFacts() {
         return
                 Stream.concat(
@@ -148,7 +291,7 @@ public class RulesFacts extends Facts implements RuleListener {
                         Stream.concat(
                                 getAnonymousFacts().stream().parallel(),
                                 Stream.concat(
-                                        getAssetStates().stream().parallel(),
+                                        assetStates().stream().parallel(),
                                         getAssetEvents().stream().parallel()
                                 )
                         )
@@ -173,6 +316,9 @@ public class RulesFacts extends Facts implements RuleListener {
     @SuppressWarnings("unchecked")
     @Override
     public <T> T get(String name) {
+        if (dependencies != null && !isReservedName(name)) {
+            dependencies.addFactName(name);
+        }
         Object fact = super.get(name);
         if (fact != null && fact instanceof TemporaryFact) {
             TemporaryFact temporaryFact = (TemporaryFact) fact;
@@ -198,7 +344,10 @@ public class RulesFacts extends Facts implements RuleListener {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Fact change (UPDATE): " + name + " => " + fact + " - on: " + loggingContext);
         }
+        temporaryFactRemoved(asMap().get(name));
         super.put(name, fact);
+        factChanged(name);
+        temporaryFactAdded(fact, name);
         return this;
     }
 
@@ -206,8 +355,11 @@ public class RulesFacts extends Facts implements RuleListener {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Fact change (UPDATE): " + o + " - on: " + loggingContext);
         }
-        getAnonymousFacts().remove(o);
+        if (getAnonymousFacts().remove(o)) {
+            temporaryFactRemoved(o);
+        }
         getAnonymousFacts().add(o);
+        temporaryFactAdded(o, ANONYMOUS_FACTS);
         return this;
     }
 
@@ -215,19 +367,11 @@ public class RulesFacts extends Facts implements RuleListener {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Fact change (UPDATE): " + assetState + " - on: " + loggingContext);
         }
-        getAssetStates().remove(assetState);
-        getAssetStates().add(assetState);
-
-        // Maintain index of all asset states for this asset by ID
-        assetIdIndex.putIfAbsent(assetState.getId(), new ArrayDeque<>());
-        assetIdIndex.get(assetState.getId()).remove(assetState);
-        assetIdIndex.get(assetState.getId()).add(assetState);
-
-        // Maintain index of all asset states for this asset by type
-        assetTypeIndex.putIfAbsent(assetState.getTypeString(), new ArrayDeque<>());
-        assetTypeIndex.get(assetState.getTypeString()).remove(assetState);
-        assetTypeIndex.get(assetState.getTypeString()).add(assetState);
-
+        unindexAssetState(assetState);
+        assetStates().remove(assetState);
+        assetStates().add(assetState);
+        indexAssetState(assetState);
+        assetStateChanged(assetState);
         return this;
     }
 
@@ -235,21 +379,58 @@ public class RulesFacts extends Facts implements RuleListener {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Fact change (DELETE): " + assetState + " - on: " + loggingContext);
         }
-        getAssetStates().remove(assetState);
+        unindexAssetState(assetState);
+        assetStates().remove(assetState);
+        assetStateChanged(assetState);
+        return this;
+    }
 
-        // Maintain index of all asset states for this asset by ID
-        Collection<AssetState> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-        if (assetIdIndexCollection != null) {
-            assetIdIndexCollection.remove(assetState);
+    /**
+     * Maintain the indexes of asset states by asset ID, asset type, attribute name, and parent ID.
+     */
+    protected void indexAssetState(AssetState assetState) {
+        addToIndex(assetIdIndex, assetState.getId(), assetState);
+        addToIndex(assetTypeIndex, assetState.getTypeString(), assetState);
+        addToIndex(attributeNameIndex, assetState.getAttributeName(), assetState);
+        if (assetState.getParentId() != null) {
+            addToIndex(parentIdIndex, assetState.getParentId(), assetState);
         }
+    }
 
-        // Maintain index of all asset states for this asset by type
-        Collection<AssetState> assetTypeIndexCollection = assetTypeIndex.get(assetState.getTypeString());
-        if (assetTypeIndexCollection != null) {
-            assetTypeIndexCollection.remove(assetState);
+    /**
+     * Remove the indexed asset state with the same asset ID and attribute name, which can have other properties
+     * (such as the parent ID) than the given asset state.
+     */
+    protected void unindexAssetState(AssetState assetState) {
+        Collection<AssetState> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
+        if (assetIdIndexCollection == null) {
+            return;
+        }
+        for (AssetState indexed : assetIdIndexCollection) {
+            if (indexed.equals(assetState)) {
+                removeFromIndex(assetIdIndex, indexed.getId(), indexed);
+                removeFromIndex(assetTypeIndex, indexed.getTypeString(), indexed);
+                removeFromIndex(attributeNameIndex, indexed.getAttributeName(), indexed);
+                if (indexed.getParentId() != null) {
+                    removeFromIndex(parentIdIndex, indexed.getParentId(), indexed);
+                }
+                return;
+            }
         }
+    }
 
-        return this;
+    protected static void addToIndex(Map<String, Collection<AssetState>> index, String key, AssetState assetState) {
+        index.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(assetState);
+    }
+
+    protected static void removeFromIndex(Map<String, Collection<AssetState>> index, String key, AssetState assetState) {
+        Collection<AssetState> indexCollection = index.get(key);
+        if (indexCollection != null) {
+            indexCollection.remove(assetState);
+            if (indexCollection.isEmpty()) {
+                index.remove(key);
+            }
+        }
     }
 
     public RulesFacts insertAssetEvent(String expires, AssetState assetState) {
@@ -262,6 +443,7 @@ public class RulesFacts extends Facts implements RuleListener {
             LOG.finest("Fact change (INSERT): " + fact + " - on: " + loggingContext);
         }
         getAssetEvents().add(fact);
+        temporaryFactAdded(fact, ASSET_EVENTS);
         return this;
     }
 
@@ -278,7 +460,9 @@ public class RulesFacts extends Facts implements RuleListener {
     }
 
     public RulesFacts putTemporary(long expires, Object value) {
-        getAnonymousFacts().add(new TemporaryFact<>((long) getClock().getTimestamp(), expires, value));
+        TemporaryFact<Object> fact = new TemporaryFact<>((long) getClock().getTimestamp(), expires, value);
+        getAnonymousFacts().add(fact);
+        temporaryFactAdded(fact, ANONYMOUS_FACTS);
         return this;
     }
 
@@ -295,8 +479,49 @@ public class RulesFacts extends Facts implements RuleListener {
         return this;
     }
 
+    protected void temporaryFactAdded(Object fact, String name) {
+        if (fact instanceof TemporaryFact) {
+            temporaryFactCount++;
+            temporaryFactExpirations.add(new TemporaryFactExpiration((TemporaryFact) fact, name));
+        }
+    }
+
+    /**
+     * The expiration of a removed fact stays queued until it expires or reaches the head of the queue.
+     */
+    protected void temporaryFactRemoved(Object fact) {
+        if (fact instanceof TemporaryFact) {
+            temporaryFactCount--;
+        }
+    }
+
+    protected boolean isPresent(TemporaryFactExpiration expiration) {
+        switch (expiration.name) {
+            case ASSET_EVENTS:
+                return getAssetEvents().contains(expiration.fact);
+            case ANONYMOUS_FACTS:
+                return getAnonymousFacts().contains(expiration.fact);
+            default:
+                return asMap().get(expiration.name) == expiration.fact;
+        }
+    }
+
+    /**
+     * @return The earliest expiration timestamp of any present temporary fact, or <code>null</code> if there is none.
+     */
+    public Long getNextTemporaryFactExpiration() {
+        while (!temporaryFactExpirations.isEmpty() && !isPresent(temporaryFactExpirations.peek())) {
+            temporaryFactExpirations.poll();
+        }
+        return temporaryFactExpirations.isEmpty() ? null : temporaryFactExpirations.peek().getExpirationTimestamp();
+    }
+
     public boolean hasTemporaryFacts() {
-        return getTemporaryFacts().count() > 0;
+        return temporaryFactCount > 0;
+    }
+
+    public int getTemporaryFactCount() {
+        return temporaryFactCount;
     }
 
     public Stream<TemporaryFact> getTemporaryFacts() {
@@ -311,16 +536,20 @@ public class RulesFacts extends Facts implements RuleListener {
 
     @Override
     public RulesFacts remove(String name) {
+        temporaryFactRemoved(asMap().get(name));
         super.remove(name);
+        factChanged(name);
         return this;
     }
 
     public RulesFacts remove(Object fact) {
         getAnonymousFacts().removeIf(anonFact -> {
-            if (anonFact instanceof TemporaryFact) {
-                anonFact = ((TemporaryFact) anonFact).getFact();
+            Object value = anonFact instanceof TemporaryFact ? ((TemporaryFact) anonFact).getFact() : anonFact;
+            boolean result = value.equals(fact);
+            if (result) {
+                temporaryFactRemoved(anonFact);
             }
-            return anonFact.equals(fact);
+            return result;
         });
         return this;
     }
@@ -437,29 +666,91 @@ public class RulesFacts extends Facts implements RuleListener {
     }
 
     public Stream<AssetState> matchAssetState(NewAssetQuery assetQuery) {
-        if (trackLocationRules && assetQuery.attributes != null) {
-            List<AttributePredicate> attributePredicates = RuleCondition.flatten(Collections.singletonList(assetQuery.attributes));
+        return matchAssetState(new AssetQueryPredicate(timerService, assetStorageService, assetQuery));
+    }
+
+    public Stream<AssetState> matchAssetState(AssetQuery assetQuery) {
+        return matchAssetState(new AssetQueryPredicate(timerService, assetStorageService, assetQuery));
+    }
+
+    /**
+     * Match with a compiled query, rules should create the predicate once and reuse it in every evaluation.
+     */
+    public Stream<AssetState> matchAssetState(AssetQueryPredicate p) {
+        if (dependencies != null) {
+            dependencies.addAssetStates(p.query);
+        }
+        if (trackLocationRules && p.query.attributes != null) {
+            List<AttributePredicate> attributePredicates = RuleCondition.flatten(Collections.singletonList(p.query.attributes));
             storeLocationPredicates(getLocationPredicates(attributePredicates));
         }
+        return filterAssetStates(getCandidateAssetStates(p.query), p);
+    }
 
-        Predicate<AssetState> p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
-        return matchAssetState(p);
+    public Stream<AssetState> matchAssetState(Predicate<AssetState> p) {
+        if (dependencies != null) {
+            dependencies.addAllAssetStates();
+        }
+        // Match against all asset states
+        return filterAssetStates(assetStates(), p);
     }
 
-    public Stream<AssetState> matchAssetState(AssetQuery assetQuery) {
+    protected Stream<AssetState> filterAssetStates(Collection<AssetState> candidates, Predicate<AssetState> p) {
+        Stream<AssetState> assetStates = candidates.size() >= PARALLEL_MATCH_THRESHOLD
+                ? candidates.parallelStream()
+                : candidates.stream();
+        return assetStates.filter(p);
+    }
 
-        if (trackLocationRules && assetQuery.attribute != null && assetQuery.attribute.length > 0) {
-            storeLocationPredicates(getLocationPredicates(Arrays.asList(assetQuery.attribute)));
+    /**
+     * Narrows the asset states which can match the query with the indexes by asset ID, asset type, attribute name,
+     * and parent ID, using the smallest candidate set. Only exact restrictions of the query can use an index, the
+     * candidates must still be tested with the complete query predicate.
+     */
+    protected Collection<AssetState> getCandidateAssetStates(NewAssetQuery query) {
+        Collection<AssetState> candidates = assetStates();
+        if (query.ids != null && query.ids.length > 0) {
+            candidates = narrowCandidates(candidates, assetIdIndex, new LinkedHashSet<>(Arrays.asList(query.ids)));
         }
-
-        Predicate<AssetState> p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
-        return matchAssetState(p);
+        candidates = narrowCandidates(candidates, assetTypeIndex, RuleDependencies.getExactValues(query.types));
+        if (query.attributes != null) {
+            candidates = narrowCandidates(candidates, attributeNameIndex, RuleDependencies.getAttributeNames(query.attributes));
+        }
+        if (query.parents != null && query.parents.length > 0
+                && Arrays.stream(query.parents).allMatch(parentPredicate -> parentPredicate.id != null)) {
+            candidates = narrowCandidates(
+                    candidates,
+                    parentIdIndex,
+                    Arrays.stream(query.parents).map(parentPredicate -> parentPredicate.id).collect(Collectors.toCollection(LinkedHashSet::new))
+            );
+        }
+        return candidates;
     }
 
-    public Stream<AssetState> matchAssetState(Predicate<AssetState> p) {
-        // Match against all asset states by default
-        Stream<AssetState> assetStates = getAssetStates().stream();
-        return assetStates.parallel().filter(p);
+    /**
+     * @return The asset states indexed with any of the keys, if fewer than the given candidates.
+     */
+    protected static Collection<AssetState> narrowCandidates(Collection<AssetState> candidates, Map<String, Collection<AssetState>> index, Collection<String> keys) {
+        if (keys == null) {
+            return candidates;
+        }
+        if (keys.size() == 1) {
+            Collection<AssetState> indexed = index.getOrDefault(keys.iterator().next(), Collections.emptySet());
+            return indexed.size() < candidates.size() ? indexed : candidates;
+        }
+        int size = 0;
+        for (String key : keys) {
+            size += index.getOrDefault(key, Collections.emptySet()).size();
+        }
+        if (size >= candidates.size()) {
+            return candidates;
+        }
+        // Each asset state is indexed with a single key, the union has no duplicates
+        List<AssetState> union = new ArrayList<>(size);
+        for (String key : keys) {
+            union.addAll(index.getOrDefault(key, Collections.emptySet()));
+        }
+        return union;
     }
 
     public Optional<TemporaryFact<AssetState>> matchFirstAssetEvent(AssetQuery assetQuery) {
@@ -500,41 +791,34 @@ public class RulesFacts extends Facts implements RuleListener {
         return updateAssetState(assetId, attributeName, status.asValue());
     }
 
+    /**
+     * Removes temporary facts in order of expiration, only visiting the expired facts.
+     */
     public void removeExpiredTemporaryFacts() {
         long currentTimestamp = (long) getClock().getTimestamp();
-        getAssetEvents().removeIf(fact -> {
-            boolean result = fact.isExpired(currentTimestamp);
-            if (result && LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("Fact change (DELETE EXPIRED): " + fact + " - on: " + loggingContext);
-            }
-            return result;
-        });
-        asMap().entrySet().removeIf(entry -> {
-            if (entry.getKey().equals(CLOCK)
-                    || entry.getKey().equals(ASSET_STATES)
-                    || entry.getKey().equals(ASSET_EVENTS)
-                    || entry.getKey().equals(EXECUTION_VARS)
-                    || entry.getKey().equals(ANONYMOUS_FACTS)
-                    || !(entry.getValue() instanceof TemporaryFact)) {
-                return false;
-            }
-            boolean result = ((TemporaryFact) entry.getValue()).isExpired(currentTimestamp);
-            if (result && LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("Fact change (DELETE EXPIRED): " + entry.getValue() + " - on: " + loggingContext);
-            }
-            return result;
-        });
-        getAnonymousFacts().removeIf(fact -> {
-            boolean result = false;
-            if (fact instanceof TemporaryFact) {
-                TemporaryFact temporaryFact = (TemporaryFact) fact;
-                result = temporaryFact.isExpired((long) getClock().getTimestamp());
+        while (!temporaryFactExpirations.isEmpty() && temporaryFactExpirations.peek().fact.isExpired(currentTimestamp)) {
+            TemporaryFactExpiration expiration = temporaryFactExpirations.poll();
+            boolean removed;
+            switch (expiration.name) {
+                case ASSET_EVENTS:
+                    removed = getAssetEvents().remove(expiration.fact);
+                    break;
+                case ANONYMOUS_FACTS:
+                    removed = getAnonymousFacts().remove(expiration.fact);
+                    break;
+                default:
+                    removed = asMap().remove(expiration.name, expiration.fact);
+                    if (removed) {
+                        factChanged(expiration.name);
+                    }
             }
-            if (result && LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("Fact change (DELETE EXPIRED): " + fact + " - on: " + loggingContext);
+            if (removed) {
+                temporaryFactCount--;
+                if (LOG.isLoggable(Level.FINEST)) {
+                    LOG.finest("Fact change (DELETE EXPIRED): " + expiration.fact + " - on: " + loggingContext);
+                }
             }
-            return result;
-        });
+        }
     }
 
     public boolean logFacts(Logger logger) {
@@ -545,7 +829,7 @@ public class RulesFacts extends Facts implements RuleListener {
             haveLog = true;
         }
 
-        List<AssetState> sortedAssetStates = new ArrayList<>(getAssetStates());
+        List<AssetState> sortedAssetStates = new ArrayList<>(assetStates());
         sortedAssetStates.sort(Comparator.naturalOrder());
         if (sortedAssetStates.size() > 0) {
             logger.info("--------------------------------- ASSET STATES (" + sortedAssetStates.size() + ") ---------------------------------");
@@ -629,26 +913,18 @@ public class RulesFacts extends Facts implements RuleListener {
 
     protected RulesFacts invalidateAssetStateAndDispatch(String assetId, String attributeName, Value value) {
         // Remove the asset state from the facts, it is invalid now
-        getAssetStates()
-                .removeIf(assetState -> {
-                    boolean invalid = assetState.getId().equals(assetId) && assetState.getAttributeName().equals(attributeName);
-                    if (invalid) {
-                        if (LOG.isLoggable(Level.FINEST)) {
-                            LOG.finest("Fact change (INTERNAL DELETE): " + assetState + " - on: " + loggingContext);
-                        }
-                        // Maintain index of all asset states for this asset by ID
-                        Collection<AssetState> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-                        if (assetIdIndexCollection != null) {
-                            assetIdIndexCollection.remove(assetState);
-                        }
-                        // Maintain index of all asset states for this asset by type
-                        Collection<AssetState> assetTypeIndexCollection = assetTypeIndex.get(assetState.getTypeString());
-                        if (assetTypeIndexCollection != null) {
-                            assetTypeIndexCollection.remove(assetState);
-                        }
-                    }
-                    return invalid;
-                });
+        Optional<AssetState> invalidAssetState = assetIdIndex.getOrDefault(assetId, Collections.emptySet())
+                .stream()
+                .filter(assetState -> assetState.getAttributeName().equals(attributeName))
+                .findFirst();
+        invalidAssetState.ifPresent(assetState -> {
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.finest("Fact change (INTERNAL DELETE): " + assetState + " - on: " + loggingContext);
+            }
+            unindexAssetState(assetState);
+            assetStates().remove(assetState);
+            assetStateChanged(assetState);
+        });
 
         // Dispatch the update to the asset processing service
         AttributeEvent attributeEvent = new AttributeEvent(assetId, attributeName, value);
@@ -665,7 +941,7 @@ public class RulesFacts extends Facts implements RuleListener {
             // Collect asset states only where the attribute is location (location predicates only make sense when the location
             // attribute is exposed to rules - we don't support RULE_EVENT facts just RULE_STATE
             if (assetStateLocationPredicateMap == null) {
-                Collection<AssetState> locationAssetStates = getAssetStates().stream().filter(assetState -> assetState.getAttributeName().equalsIgnoreCase(LOCATION.getName())).collect(Collectors.toSet());
+                Collection<AssetState> locationAssetStates = assetStates().stream().filter(assetState -> assetState.getAttributeName().equalsIgnoreCase(LOCATION.getName())).collect(Collectors.toSet());
                 assetStateLocationPredicateMap = new HashMap<>(locationAssetStates.size());
                 locationAssetStates.forEach(assetState -> assetStateLocationPredicateMap.put(assetState.getId(), new HashSet<>()));
             }
@@ -131,6 +131,13 @@ public class RulesHealthStatusProvider implements ContainerHealthStatusProvider
         val.put("totalDeployments", totalDeployments);
         val.put("executionErrorDeployments", executionErrorDeployments);
         val.put("compilationErrorDeployments", compilationErrorDeployments);
+        val.put("factCount", rulesEngine.getFactCount());
+        val.put("fireCount", rulesEngine.getFireCount());
+        val.put("lastFireMillis", rulesEngine.getLastFireMillis());
+        val.put("maxFireMillis", rulesEngine.getMaxFireMillis());
+        val.put("averageFireMillis", rulesEngine.getAverageFireMillis());
+        val.put("lastQueueDelayMillis", rulesEngine.getLastQueueDelayMillis());
+        val.put("maxQueueDelayMillis", rulesEngine.getMaxQueueDelayMillis());
 
         ObjectValue deployments = Values.createObject();
 
@@ -140,6 +147,7 @@ public class RulesHealthStatusProvider implements ContainerHealthStatusProvider
             dVal.put("name", deployment.getName());
             dVal.put("status", deployment.getStatus().name());
             dVal.put("error", deployment.getError() != null ? deployment.getError().getMessage() : null);
+            dVal.put("compilationMillis", deployment.getCompilationMillis());
             deployments.put(Long.toString(deployment.getId()), dVal);
         }
 
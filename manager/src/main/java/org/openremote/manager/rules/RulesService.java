@@ -22,6 +22,9 @@ package org.openremote.manager.rules;
 import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
+import org.openremote.container.concurrent.ContainerScheduledExecutor;
+import org.openremote.container.concurrent.ScopedLock;
+import org.openremote.container.concurrent.StripedLock;
 import org.openremote.container.message.MessageBrokerSetupService;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.persistence.PersistenceService;
@@ -53,6 +56,8 @@ import org.openremote.model.value.ObjectValue;
 
 import javax.persistence.EntityManager;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.BiFunction;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -60,10 +65,10 @@ import java.util.stream.Stream;
 
 import static java.util.logging.Level.FINEST;
 import static java.util.logging.Level.SEVERE;
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
+import static org.openremote.container.util.MapAccess.getBoolean;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.model.AbstractValueTimestampHolder.VALUE_TIMESTAMP_FIELD_NAME;
 import static org.openremote.model.asset.AssetAttribute.attributesFromJson;
@@ -94,9 +99,60 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
 
     public static final String RULE_EVENT_EXPIRES = "RULE_EVENT_EXPIRES";
     public static final String RULE_EVENT_EXPIRES_DEFAULT = "1h";
+    public static final String RULES_INCREMENTAL_EVALUATION = "RULES_INCREMENTAL_EVALUATION";
+    public static final boolean RULES_INCREMENTAL_EVALUATION_DEFAULT = false;
+    /**
+     * Threads firing rules engines, engines of different scopes fire concurrently.
+     */
+    public static final String RULES_ENGINE_THREADS_MAX = "RULES_ENGINE_THREADS_MAX";
+    public static final int RULES_ENGINE_THREADS_MAX_DEFAULT = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+    /**
+     * Minimum time between firings of a busy rules engine, an idle engine fires immediately when facts change. A
+     * longer value than {@link TemporaryFact#GUARANTEED_MIN_EXPIRATION_MILLIS} is reduced to that value with a warning.
+     */
+    public static final String RULES_FIRE_INTERVAL_MILLIS = "RULES_FIRE_INTERVAL_MILLIS";
+    public static final int RULES_FIRE_INTERVAL_MILLIS_DEFAULT = TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS;
+    /**
+     * Maximum number of compiled Groovy and JavaScript rulesets kept in memory, each for Groovy and JavaScript.
+     */
+    public static final String RULES_SCRIPT_CACHE_SIZE = "RULES_SCRIPT_CACHE_SIZE";
+    public static final int RULES_SCRIPT_CACHE_SIZE_DEFAULT = 1000;
+    /**
+     * Also persist compiled JavaScript rulesets on disk, in the directory of the JVM system property
+     * <code>nashorn.persistent.code.cache</code>.
+     */
+    public static final String RULES_SCRIPT_PERSISTENT_CACHE = "RULES_SCRIPT_PERSISTENT_CACHE";
+    public static final boolean RULES_SCRIPT_PERSISTENT_CACHE_DEFAULT = false;
     private static final Logger LOG = Logger.getLogger(RulesService.class.getName());
 
+    /**
+     * The rules engines in scope of an asset with the given realm and path.
+     */
+    protected static class EngineChain {
+
+        final protected String realm;
+        final protected String[] assetPath;
+        final protected List<RulesEngine> rulesEngines;
+
+        public EngineChain(String realm, String[] assetPath, List<RulesEngine> rulesEngines) {
+            this.realm = realm;
+            this.assetPath = assetPath;
+            this.rulesEngines = rulesEngines;
+        }
+
+        public boolean isValid(String realm, String[] assetPath) {
+            return Objects.equals(this.realm, realm) && Arrays.equals(this.assetPath, assetPath);
+        }
+    }
+
     protected List<GeofenceAssetAdapter> geofenceAssetAdapters = new ArrayList<>();
+    // Guards the engines of this service, each engine has its own lock which may be acquired while holding this lock
+    protected final ScopedLock lock = new ScopedLock(getClass().getSimpleName());
+    // Guards the location predicates of engines, acquired by engines while holding their own lock
+    protected final ScopedLock geofenceLock = new ScopedLock(getClass().getSimpleName() + "Geofences");
+    // Orders the delivery of asset states to engines per asset, acquired before the lock of this service
+    protected final StripedLock assetStateLocks = new StripedLock(getClass().getSimpleName() + "AssetStates");
+    protected ScheduledExecutorService fireExecutor;
     protected final Map<String, RulesEngine<TenantRuleset>> tenantEngines = new HashMap<>();
     protected final Map<String, RulesEngine<AssetRuleset>> assetEngines = new HashMap<>();
     protected TimerService timerService;
@@ -116,8 +172,14 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     // Keep global list of asset states that have been pushed to any engines
     // The objects are already in memory inside the rule engines but keeping them
     // here means we can quickly insert facts into newly started engines
-    protected Set<AssetState> assetStates = new HashSet<>();
+    protected final AssetStateRegistry assetStates = new AssetStateRegistry();
+    protected final AssetStateInterner assetStateInterner = new AssetStateInterner();
+    // Engines in scope of an asset, cleared when engines are added or removed, populated while holding the read lock
+    protected final Map<String, EngineChain> engineChains = new ConcurrentHashMap<>();
     protected String configEventExpires;
+    protected boolean incrementalEvaluation;
+    protected long fireIntervalMillis;
+    protected RulesetScriptCache scriptCache;
 
     @Override
     public int getPriority() {
@@ -166,6 +228,21 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
         geofenceAssetAdapters.sort(Comparator.comparingInt(GeofenceAssetAdapter::getPriority));
         container.getService(MessageBrokerSetupService.class).getContext().addRoutes(this);
         configEventExpires = getString(container.getConfig(), RULE_EVENT_EXPIRES, RULE_EVENT_EXPIRES_DEFAULT);
+        incrementalEvaluation = getBoolean(container.getConfig(), RULES_INCREMENTAL_EVALUATION, RULES_INCREMENTAL_EVALUATION_DEFAULT);
+        scriptCache = new RulesetScriptCache(
+            getInteger(container.getConfig(), RULES_SCRIPT_CACHE_SIZE, RULES_SCRIPT_CACHE_SIZE_DEFAULT),
+            getBoolean(container.getConfig(), RULES_SCRIPT_PERSISTENT_CACHE, RULES_SCRIPT_PERSISTENT_CACHE_DEFAULT)
+        );
+        fireIntervalMillis = getInteger(container.getConfig(), RULES_FIRE_INTERVAL_MILLIS, RULES_FIRE_INTERVAL_MILLIS_DEFAULT);
+        if (fireIntervalMillis > TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS) {
+            LOG.fine(RULES_FIRE_INTERVAL_MILLIS + " of " + fireIntervalMillis + "ms is longer than the guaranteed " +
+                "minimum expiration of temporary facts, using " + TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS + "ms");
+            fireIntervalMillis = TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS;
+        }
+        fireExecutor = new ContainerScheduledExecutor(
+            "Rules engine",
+            getInteger(container.getConfig(), RULES_ENGINE_THREADS_MAX, RULES_ENGINE_THREADS_MAX_DEFAULT)
+        );
     }
 
     @Override
@@ -213,17 +290,25 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             }
         }
 
-        LOG.info("Deploying global rulesets");
-        rulesetStorageService.findEnabledGlobalRulesets().forEach(this::deployGlobalRuleset);
-
-        LOG.info("Deploying tenant rulesets");
+        List<GlobalRuleset> globalRulesets = rulesetStorageService.findEnabledGlobalRulesets();
         tenants = identityService.getIdentityProvider().getTenants();
-        rulesetStorageService.findEnabledTenantRulesets()
+        List<TenantRuleset> tenantRulesets = rulesetStorageService.findEnabledTenantRulesets()
             .stream()
             .filter(rd ->
                 Arrays.stream(tenants)
                     .anyMatch(tenant -> rd.getRealm().equals(tenant.getRealm()))
-            ).forEach(this::deployTenantRuleset);
+            ).collect(Collectors.toList());
+
+        LOG.info("Compiling global and tenant rulesets");
+        List<Ruleset> rulesets = new ArrayList<>(globalRulesets);
+        rulesets.addAll(tenantRulesets);
+        scriptCache.compile(rulesets);
+
+        LOG.info("Deploying global rulesets");
+        globalRulesets.forEach(this::deployGlobalRuleset);
+
+        LOG.info("Deploying tenant rulesets");
+        tenantRulesets.forEach(this::deployTenantRuleset);
 
         LOG.info("Deploying asset rulesets");
         // Group by asset ID then tenant and check tenant is enabled
@@ -246,7 +331,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
 
     @Override
     public void stop(Container container) throws Exception {
-        withLock(getClass().getSimpleName() + "::stop", () -> {
+        lock.withLock("stop", () -> {
             for (GeofenceAssetAdapter geofenceAssetAdapter : geofenceAssetAdapters) {
                 try {
                     geofenceAssetAdapter.stop(container);
@@ -260,12 +345,14 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             assetEngines.clear();
             tenantEngines.forEach((realm, rulesEngine) -> rulesEngine.stop(true));
             tenantEngines.clear();
+            engineChains.clear();
 
             if (globalEngine != null) {
                 globalEngine.stop(true);
                 globalEngine = null;
             }
         });
+        fireExecutor.shutdownNow();
     }
 
     @Override
@@ -296,7 +383,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     public GeofenceDefinition[] getAssetGeofences(String assetId) {
-        return withLockReturning(getClass().getSimpleName() + "::getAssetGeofences", () -> {
+        return geofenceLock.withReadLockReturning("getAssetGeofences", () -> {
 
             LOG.finest("Requesting geofences for asset: " + assetId);
 
@@ -313,7 +400,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void processTenantChange(Tenant tenant, PersistenceEvent.Cause cause) {
-        withLock(getClass().getSimpleName() + "::processTenantChange", () -> {
+        lock.withLock("processTenantChange", () -> {
             // Check if enabled status has changed
             boolean wasEnabled = Arrays.stream(tenants).anyMatch(t -> tenant.getRealm().equals(t.getRealm()));
             boolean isEnabled = tenant.getEnabled() && cause != PersistenceEvent.Cause.DELETE;
@@ -340,6 +427,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     entry.getValue().getId().getRealm().map(id -> id.equals(tenant.getRealm())).orElse(
                         false)
                 );
+                engineChains.clear();
 
             } else {
                 // Create tenant rules engines for this tenant if it has any rulesets
@@ -354,103 +442,129 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void processAssetChange(Asset asset, PersistenceEvent persistenceEvent) {
-        withLock(getClass().getSimpleName() + "::processAssetChange", () -> {
+        // Updates and retractions of the asset's states must not overtake each other on their way to the engines
+        assetStateLocks.get(asset.getId()).withLock("processAssetChange", () -> doProcessAssetChange(asset, persistenceEvent));
+    }
 
-            // We must load the asset from database (only when required), as the
-            // persistence event might not contain a completely loaded asset
-            BiFunction<Asset, AssetAttribute, AssetState> buildAssetState = (loadedAsset, attribute) ->
-                new AssetState(loadedAsset, attribute.deepCopy(), Source.INTERNAL);
+    /**
+     * Collects the states to retract and update without holding the lock of this service, the asset is loaded from
+     * the database, then delivers them to the engines. Each delivery only holds the lock of this service while it
+     * looks up the engines in scope, the caller holds the lock of the asset in {@link #assetStateLocks}.
+     */
+    protected void doProcessAssetChange(Asset asset, PersistenceEvent persistenceEvent) {
+        // Target assets of JSON rule actions might have changed
+        List<RulesEngine> rulesEngines = lock.withReadLockReturning("processAssetChange", () -> {
+            List<RulesEngine> engines = new ArrayList<>();
+            if (globalEngine != null) {
+                engines.add(globalEngine);
+            }
+            engines.addAll(tenantEngines.values());
+            engines.addAll(assetEngines.values());
+            return engines;
+        });
+        rulesEngines.forEach(RulesEngine::onAssetsChanged);
 
-            switch (persistenceEvent.getCause()) {
-                case INSERT: {
-                    // New asset has been created so get attributes that have RULE_STATE meta
-                    List<AssetAttribute> ruleStateAttributes =
-                        asset.getAttributesStream().filter(AssetAttribute::isRuleState).collect(Collectors.toList());
+        // We must load the asset from database (only when required), as the
+        // persistence event might not contain a completely loaded asset
+        BiFunction<Asset, AssetAttribute, AssetState> buildAssetState = (loadedAsset, attribute) ->
+            new AssetState(loadedAsset, attribute.deepCopy(), Source.INTERNAL);
 
-                    // Asset used to be loaded for each attribute which is inefficient
-                    Asset loadedAsset = ruleStateAttributes.isEmpty() ? null : assetStorageService.find(asset.getId(),
-                        true);
+        List<AssetState> retractions = new ArrayList<>();
+        List<AssetState> updates = new ArrayList<>();
 
-                    // Build an update with a fully loaded asset
-                    ruleStateAttributes.forEach(attribute -> {
+        switch (persistenceEvent.getCause()) {
+            case INSERT: {
+                // New asset has been created so get attributes that have RULE_STATE meta
+                List<AssetAttribute> ruleStateAttributes =
+                    asset.getAttributesStream().filter(AssetAttribute::isRuleState).collect(Collectors.toList());
 
-                        // If the asset is now gone it was deleted immediately after being inserted, nothing more to do
-                        if (loadedAsset == null)
-                            return;
+                // Asset used to be loaded for each attribute which is inefficient
+                Asset loadedAsset = ruleStateAttributes.isEmpty() ? null : assetStorageService.find(asset.getId(),
+                    true);
 
-                        AssetState assetState = buildAssetState.apply(loadedAsset, attribute);
-                        LOG.fine("Asset was persisted (" + persistenceEvent.getCause() + "), inserting fact: " + assetState);
-                        updateAssetState(assetState, true, true);
-                    });
+                // If the asset is now gone it was deleted immediately after being inserted, nothing more to do
+                if (loadedAsset == null)
                     break;
-                }
-                case UPDATE: {
-                    int attributesIndex = Arrays.asList(persistenceEvent.getPropertyNames()).indexOf("attributes");
-                    if (attributesIndex < 0) {
-                        return;
-                    }
 
-                    // Fully load the asset
-                    Asset loadedAsset = assetStorageService.find(asset.getId(), true);
-                    // If the asset is now gone it was deleted immediately after being updated, nothing more to do
-                    if (loadedAsset == null)
-                        return;
-
-                    // Attributes have possibly changed so need to compare old and new attributes
-                    // to determine which facts to retract and which to insert
-                    List<AssetAttribute> oldRuleStateAttributes =
-                        attributesFromJson(
-                            (ObjectValue) persistenceEvent.getPreviousState()[attributesIndex],
-                            asset.getId()
-                        ).filter(AssetAttribute::isRuleState).collect(Collectors.toList());
-
-                    List<AssetAttribute> newRuleStateAttributes =
-                        attributesFromJson(
-                            (ObjectValue) persistenceEvent.getCurrentState()[attributesIndex],
-                            asset.getId()
-                        ).filter(AssetAttribute::isRuleState).collect(Collectors.toList());
-
-                    // Retract facts for attributes that are obsolete
-                    getAddedOrModifiedAttributes(newRuleStateAttributes,
-                        oldRuleStateAttributes,
-                        key -> key.equals(VALUE_TIMESTAMP_FIELD_NAME))
-                        .forEach(obsoleteFactAttribute -> {
-                            AssetState update = buildAssetState.apply(loadedAsset, obsoleteFactAttribute);
-                            LOG.fine("Asset was persisted (" + persistenceEvent.getCause() + "), retracting: " + update);
-                            retractAssetState(update);
-                        });
-
-                    // Insert facts for attributes that are new
-                    getAddedOrModifiedAttributes(oldRuleStateAttributes,
-                        newRuleStateAttributes,
-                        key -> key.equals(VALUE_TIMESTAMP_FIELD_NAME))
-                        .forEach(newFactAttribute -> {
-                            AssetState assetState = buildAssetState.apply(loadedAsset, newFactAttribute);
-                            LOG.fine("Asset was persisted (" + persistenceEvent.getCause() + "), updating: " + assetState);
-                            updateAssetState(assetState, true, true);
-                        });
+                // Build an update with a fully loaded asset
+                ruleStateAttributes.forEach(attribute -> {
+                    AssetState assetState = buildAssetState.apply(loadedAsset, attribute);
+                    LOG.fine("Asset was persisted (" + persistenceEvent.getCause() + "), inserting fact: " + assetState);
+                    updates.add(assetState);
+                });
+                break;
+            }
+            case UPDATE: {
+                int attributesIndex = Arrays.asList(persistenceEvent.getPropertyNames()).indexOf("attributes");
+                if (attributesIndex < 0) {
                     break;
                 }
-                case DELETE:
-                    // Retract any facts that were associated with this asset
-                    asset.getAttributesStream()
-                        .filter(AssetAttribute::isRuleState)
-                        .forEach(attribute -> {
-                            // We can't load the asset again (it was deleted), so don't use buildAssetState() and
-                            // hope that the path of the event asset has been loaded before deletion, although it is
-                            // "unlikely" anybody will access it during retraction...
-                            AssetState assetState = new AssetState(asset, attribute, Source.INTERNAL);
-                            LOG.fine("Asset was persisted (" + persistenceEvent.getCause() + "), retracting fact: " + assetState);
-                            retractAssetState(assetState);
-                        });
+
+                // Fully load the asset
+                Asset loadedAsset = assetStorageService.find(asset.getId(), true);
+                // If the asset is now gone it was deleted immediately after being updated, nothing more to do
+                if (loadedAsset == null)
                     break;
+
+                // Attributes have possibly changed so need to compare old and new attributes
+                // to determine which facts to retract and which to insert
+                List<AssetAttribute> oldRuleStateAttributes =
+                    attributesFromJson(
+                        (ObjectValue) persistenceEvent.getPreviousState()[attributesIndex],
+                        asset.getId()
+                    ).filter(AssetAttribute::isRuleState).collect(Collectors.toList());
+
+                List<AssetAttribute> newRuleStateAttributes =
+                    attributesFromJson(
+                        (ObjectValue) persistenceEvent.getCurrentState()[attributesIndex],
+                        asset.getId()
+                    ).filter(AssetAttribute::isRuleState).collect(Collectors.toList());
+
+                // Retract facts for attributes that are obsolete
+                getAddedOrModifiedAttributes(newRuleStateAttributes,
+                    oldRuleStateAttributes,
+                    key -> key.equals(VALUE_TIMESTAMP_FIELD_NAME))
+                    .forEach(obsoleteFactAttribute -> {
+                        AssetState update = buildAssetState.apply(loadedAsset, obsoleteFactAttribute);
+                        LOG.fine("Asset was persisted (" + persistenceEvent.getCause() + "), retracting: " + update);
+                        retractions.add(update);
+                    });
+
+                // Insert facts for attributes that are new
+                getAddedOrModifiedAttributes(oldRuleStateAttributes,
+                    newRuleStateAttributes,
+                    key -> key.equals(VALUE_TIMESTAMP_FIELD_NAME))
+                    .forEach(newFactAttribute -> {
+                        AssetState assetState = buildAssetState.apply(loadedAsset, newFactAttribute);
+                        LOG.fine("Asset was persisted (" + persistenceEvent.getCause() + "), updating: " + assetState);
+                        updates.add(assetState);
+                    });
+                break;
             }
-        });
+            case DELETE:
+                // Retract any facts that were associated with this asset
+                asset.getAttributesStream()
+                    .filter(AssetAttribute::isRuleState)
+                    .forEach(attribute -> {
+                        // We can't load the asset again (it was deleted), so don't use buildAssetState() and
+                        // hope that the path of the event asset has been loaded before deletion, although it is
+                        // "unlikely" anybody will access it during retraction...
+                        AssetState assetState = new AssetState(asset, attribute, Source.INTERNAL);
+                        LOG.fine("Asset was persisted (" + persistenceEvent.getCause() + "), retracting fact: " + assetState);
+                        retractions.add(assetState);
+                    });
+                break;
+        }
+
+        // Retractions first, a modified attribute is retracted before its new state is inserted
+        retractions.forEach(this::retractAssetState);
+        updates.forEach(assetState -> updateAssetState(assetState, true, true));
     }
 
     protected void processRulesetChange(Ruleset ruleset, PersistenceEvent.Cause cause) {
-        withLock(getClass().getSimpleName() + "::processRulesetChange", () -> {
+        lock.withLock("processRulesetChange", () -> {
             if (cause == PersistenceEvent.Cause.DELETE || !ruleset.isEnabled()) {
+                scriptCache.remove(ruleset);
                 if (ruleset instanceof GlobalRuleset) {
                     undeployGlobalRuleset((GlobalRuleset) ruleset);
                 } else if (ruleset instanceof TenantRuleset) {
@@ -473,11 +587,8 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     RulesEngine newEngine = deployTenantRuleset((TenantRuleset) ruleset);
                     if (newEngine != null) {
                         // Push all existing facts into the engine, this is an initial import of state so fire delayed
-                        assetStates.forEach(assetState -> {
-                            if (assetState.getRealm().equals(((TenantRuleset) ruleset).getRealm())) {
-                                newEngine.updateFact(assetState, false);
-                            }
-                        });
+                        assetStates.getInRealm(((TenantRuleset) ruleset).getRealm())
+                            .forEach(assetState -> newEngine.updateFact(assetState, false));
                         newEngine.fire();
                     }
 
@@ -489,7 +600,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     if (newEngine != null) {
                         // Push all existing facts for this asset (and it's children into the engine), this is an
                         // initial import of state so fire delayed
-                        getAssetStatesInScope(((AssetRuleset) ruleset).getAssetId())
+                        assetStates.getInScope(((AssetRuleset) ruleset).getAssetId())
                             .forEach(assetState -> newEngine.updateFact(assetState, false));
                         newEngine.fire();
                     }
@@ -503,7 +614,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
      * returned from the method.
      */
     protected RulesEngine<GlobalRuleset> deployGlobalRuleset(GlobalRuleset ruleset) {
-        return withLockReturning(getClass().getSimpleName() + "::deployGlobalRuleset", () -> {
+        return lock.withLockReturning("deployGlobalRuleset", () -> {
             boolean created = globalEngine == null;
 
             // Global rules have access to everything in the system
@@ -517,8 +628,13 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     notificationService,
                     clientEventService,
                     new RulesEngineId<>(),
-                    locationPredicateRulesConsumer
+                    locationPredicateRulesConsumer,
+                    fireExecutor,
+                    fireIntervalMillis,
+                    scriptCache,
+                    incrementalEvaluation
                 );
+                engineChains.clear();
             }
 
             globalEngine.addRuleset(ruleset);
@@ -527,19 +643,20 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void undeployGlobalRuleset(GlobalRuleset ruleset) {
-        withLock(getClass().getSimpleName() + "::undeployGlobalRuleset", () -> {
+        lock.withLock("undeployGlobalRuleset", () -> {
             if (globalEngine == null) {
                 return;
             }
 
             if (globalEngine.removeRuleset(ruleset)) {
                 globalEngine = null;
+                engineChains.clear();
             }
         });
     }
 
     protected RulesEngine<TenantRuleset> deployTenantRuleset(TenantRuleset ruleset) {
-        return withLockReturning(getClass().getSimpleName() + "::deployTenantRuleset", () -> {
+        return lock.withLockReturning("deployTenantRuleset", () -> {
             final boolean[] created = {false};
 
             // Look for existing rules engines for this tenant
@@ -555,10 +672,17 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                         notificationService,
                         clientEventService,
                         new RulesEngineId<>(realm),
-                        locationPredicateRulesConsumer
+                        locationPredicateRulesConsumer,
+                        fireExecutor,
+                        fireIntervalMillis,
+                        scriptCache,
+                        incrementalEvaluation
                     );
                 });
 
+            if (created[0]) {
+                engineChains.clear();
+            }
             tenentRulesEngine.addRuleset(ruleset);
 
             return created[0] ? tenentRulesEngine : null;
@@ -566,7 +690,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void undeployTenantRuleset(TenantRuleset ruleset) {
-        withLock(getClass().getSimpleName() + "::undeployTenantRuleset", () -> {
+        lock.withLock("undeployTenantRuleset", () -> {
             RulesEngine<TenantRuleset> rulesEngine = tenantEngines.get(ruleset.getRealm());
             if (rulesEngine == null) {
                 return;
@@ -574,11 +698,15 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
 
             if (rulesEngine.removeRuleset(ruleset)) {
                 tenantEngines.remove(ruleset.getRealm());
+                engineChains.clear();
             }
         });
     }
 
     protected void deployAssetRulesets(List<AssetRuleset> rulesets) {
+        // Compile in parallel, deploying the rulesets then only evaluates the compiled scripts
+        scriptCache.compile(rulesets);
+
         rulesets
             .stream()
             .collect(Collectors.groupingBy(AssetRuleset::getAssetId))
@@ -607,7 +735,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected RulesEngine<AssetRuleset> deployAssetRuleset(AssetRuleset ruleset) {
-        return withLockReturning(getClass().getSimpleName() + "::deployAssetRuleset", () -> {
+        return lock.withLockReturning("deployAssetRuleset", () -> {
             final boolean[] created = {false};
 
             // Look for existing rules engine for this asset
@@ -623,17 +751,24 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                         notificationService,
                         clientEventService,
                         new RulesEngineId<>(ruleset.getRealm(), assetId),
-                        locationPredicateRulesConsumer
+                        locationPredicateRulesConsumer,
+                        fireExecutor,
+                        fireIntervalMillis,
+                        scriptCache,
+                        incrementalEvaluation
                     );
                 });
 
+            if (created[0]) {
+                engineChains.clear();
+            }
             assetRulesEngine.addRuleset(ruleset);
             return created[0] ? assetRulesEngine : null;
         });
     }
 
     protected void undeployAssetRuleset(AssetRuleset ruleset) {
-        withLock(getClass().getSimpleName() + "::undeployAssetRuleset", () -> {
+        lock.withLock("undeployAssetRuleset", () -> {
             RulesEngine<AssetRuleset> assetRulesEngine = assetEngines.get(ruleset.getAssetId());
             if (assetRulesEngine == null) {
                 return;
@@ -641,57 +776,70 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
 
             if (assetRulesEngine.removeRuleset(ruleset)) {
                 assetEngines.remove(ruleset.getAssetId());
+                engineChains.clear();
             }
         });
     }
 
-    protected void insertAssetEvent(AssetState assetState, String expires) {
-        withLock(getClass().getSimpleName() + "::insertAssetEvent", () -> {
+    protected void insertAssetEvent(AssetState newAssetState, String expires) {
+        AssetState assetState = assetStateInterner.intern(newAssetState);
+        List<RulesEngine> rulesEngines = lock.withReadLockReturning("insertAssetEvent", () -> {
             // Get the chain of rule engines that we need to pass through
-            List<RulesEngine> rulesEngines = getEnginesInScope(assetState.getRealm(), assetState.getPath());
+            List<RulesEngine> enginesInScope = getEnginesInScope(assetState);
 
             // Check that all engines in the scope are available
-            if (rulesEngines.stream().anyMatch(RulesEngine::isError)) {
+            if (enginesInScope.stream().anyMatch(RulesEngine::isError)) {
                 LOG.severe("At least one rules engine is in an error state, skipping: " + assetState);
                 if (LOG.isLoggable(FINEST)) {
-                    for (RulesEngine rulesEngine : rulesEngines) {
+                    for (RulesEngine rulesEngine : enginesInScope) {
                         if (rulesEngine.isError()) {
                             LOG.log(FINEST, "Rules engine error state: " + rulesEngine, rulesEngine.getError());
                         }
                     }
                 }
-                return;
-            }
-
-            // Pass through each engine
-            for (RulesEngine rulesEngine : rulesEngines) {
-                rulesEngine.insertFact(expires, assetState);
+                return Collections.<RulesEngine>emptyList();
             }
+            return enginesInScope;
         });
-    }
 
-    protected void updateAssetState(AssetState assetState, boolean skipStatusCheck, boolean fireImmediately) {
-        withLock(getClass().getSimpleName() + "::updateAssetState", () -> {
-            // TODO: implement rules processing error state handling
-
-            LOG.fine("Updating asset state: " + assetState);
+        // Pass through each engine, without holding the lock of this service while waiting for a firing engine
+        for (RulesEngine rulesEngine : rulesEngines) {
+            rulesEngine.insertFact(expires, assetState);
+        }
+    }
 
-            // Get the chain of rule engines that we need to pass through
-            List<RulesEngine> rulesEngines = getEnginesInScope(assetState.getRealm(), assetState.getPath());
-
-            if (!skipStatusCheck) {
-                // Check that all engines in the scope are available
-                // TODO This is not very useful without locking the engines until we are done with the update
-                for (RulesEngine rulesEngine : rulesEngines) {
-                    if (rulesEngine.isError()) {
-                        throw rulesEngine.getError();
+    /**
+     * Updates the state in all engines in scope. The lock of the asset in {@link #assetStateLocks} is held until all
+     * engines have the new state, so two updates of the same attribute can't reach an engine out of order. Engines
+     * are updated without holding the lock of this service while waiting for a firing engine.
+     */
+    protected void updateAssetState(AssetState newAssetState, boolean skipStatusCheck, boolean fireImmediately) {
+        // Share strings and path with the other states of the asset, engines in scope all reference this state
+        AssetState assetState = assetStateInterner.intern(newAssetState);
+        assetStateLocks.get(assetState.getId()).withLock("updateAssetState", () -> {
+            List<RulesEngine> rulesEngines = lock.withLockReturning("updateAssetState", () -> {
+                // TODO: implement rules processing error state handling
+
+                LOG.fine("Updating asset state: " + assetState);
+
+                // Get the chain of rule engines that we need to pass through
+                List<RulesEngine> enginesInScope = getEnginesInScope(assetState);
+
+                if (!skipStatusCheck) {
+                    // Check that all engines in the scope are available
+                    // TODO This is not very useful without locking the engines until we are done with the update
+                    for (RulesEngine rulesEngine : enginesInScope) {
+                        if (rulesEngine.isError()) {
+                            throw rulesEngine.getError();
+                        }
                     }
                 }
-            }
 
-            // Remove asset state with same attribute ref as new state, add new state
-            assetStates.remove(assetState);
-            assetStates.add(assetState);
+                // Remove asset state with same attribute ref as new state, add new state
+                assetStates.remove(assetState);
+                assetStates.add(assetState);
+                return enginesInScope;
+            });
 
             // Pass through each rules engine
             for (RulesEngine rulesEngine : rulesEngines) {
@@ -701,27 +849,44 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void retractAssetState(AssetState assetState) {
-        // Get the chain of rule engines that we need to pass through
-        List<RulesEngine> rulesEngines = getEnginesInScope(assetState.getRealm(), assetState.getPath());
+        assetStateLocks.get(assetState.getId()).withLock("retractAssetState", () -> {
+            // Get the chain of rule engines that we need to pass through
+            List<RulesEngine> rulesEngines = lock.withLockReturning("retractAssetState", () -> {
+                List<RulesEngine> enginesInScope = getEnginesInScope(assetState);
 
-        // Remove asset state with same attribute ref
-        assetStates.remove(assetState);
+                // Remove asset state with same attribute ref
+                assetStates.remove(assetState);
+                if (!assetStates.hasAssetStates(assetState.getId())) {
+                    engineChains.remove(assetState.getId());
+                }
+                return enginesInScope;
+            });
 
-        if (rulesEngines.size() == 0) {
-            LOG.fine("Ignoring as there are no matching rules engines: " + assetState);
-        }
+            if (rulesEngines.size() == 0) {
+                LOG.fine("Ignoring as there are no matching rules engines: " + assetState);
+            }
 
-        // Pass through each rules engine
-        for (RulesEngine rulesEngine : rulesEngines) {
-            rulesEngine.removeFact(assetState);
-        }
+            // Pass through each rules engine
+            for (RulesEngine rulesEngine : rulesEngines) {
+                rulesEngine.removeFact(assetState);
+            }
+        });
     }
 
-    protected List<AssetState> getAssetStatesInScope(String assetId) {
-        return assetStates
-            .stream()
-            .filter(assetState -> Arrays.asList(assetState.getPath()).contains(assetId))
-            .collect(Collectors.toList());
+    /**
+     * @return The cached chain of engines in scope of the asset of the state, rebuilt if the path of the asset changed.
+     */
+    protected List<RulesEngine> getEnginesInScope(AssetState assetState) {
+        EngineChain engineChain = engineChains.get(assetState.getId());
+        if (engineChain == null || !engineChain.isValid(assetState.getRealm(), assetState.getPath())) {
+            engineChain = new EngineChain(
+                assetState.getRealm(),
+                assetState.getPath(),
+                Collections.unmodifiableList(getEnginesInScope(assetState.getRealm(), assetState.getPath()))
+            );
+            engineChains.put(assetState.getId(), engineChain);
+        }
+        return engineChain.rulesEngines;
     }
 
     protected List<RulesEngine> getEnginesInScope(String realm, String[] assetPath) {
@@ -773,7 +938,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
      * notify the {@link GeofenceAssetAdapter}s.
      */
     protected void onEngineLocationRulesChanged(RulesEngine rulesEngine, List<RulesEngine.AssetStateLocationPredicates> newEngineAssetStateLocationPredicates) {
-        withLock(getClass().getSimpleName() + "::onEngineLocationRulesChanged", () -> {
+        geofenceLock.withLock("onEngineLocationRulesChanged", () -> {
             int initialModifiedCount = assetsWithModifiedLocationPredicates.size();
 
             if (newEngineAssetStateLocationPredicates == null) {
@@ -849,7 +1014,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void processModifiedGeofences() {
-        withLock(getClass().getSimpleName() + "::processModifiedGeofences", () -> {
+        geofenceLock.withLock("processModifiedGeofences", () -> {
             LOG.finest("Processing geofence modifications: modified asset geofence count=" + assetsWithModifiedLocationPredicates.size());
 
             try {
@@ -24,6 +24,7 @@ import groovy.lang.GroovyShell;
 import groovy.lang.Script;
 import jdk.nashorn.api.scripting.ScriptObjectMirror;
 import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.jeasy.rules.api.Action;
 import org.jeasy.rules.api.Condition;
 import org.jeasy.rules.api.Rule;
@@ -32,6 +33,7 @@ import org.jeasy.rules.core.RuleBuilder;
 import org.kohsuke.groovy.sandbox.GroovyValueFilter;
 import org.kohsuke.groovy.sandbox.SandboxTransformer;
 import org.openremote.container.Container;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.concurrent.ManagerExecutorService;
@@ -53,8 +55,6 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-
 public class RulesetDeployment {
 
     /**
@@ -96,6 +96,7 @@ public class RulesetDeployment {
     // Share one JS script engine manager, it's thread-safe
     static final protected ScriptEngineManager scriptEngineManager;
 
+    static final protected CompilerConfiguration groovyCompilerConfiguration;
     static final protected GroovyShell groovyShell;
 
     static {
@@ -116,9 +117,8 @@ public class RulesetDeployment {
         If one of the method suggestions matches the method you wanted to call,
         then check your class loader setup.
          */
-        groovyShell = new GroovyShell(
-                new CompilerConfiguration().addCompilationCustomizers(new SandboxTransformer())
-        );
+        groovyCompilerConfiguration = new CompilerConfiguration().addCompilationCustomizers(new SandboxTransformer());
+        groovyShell = new GroovyShell(groovyCompilerConfiguration);
     }
 
     final protected Ruleset ruleset;
@@ -130,10 +130,14 @@ public class RulesetDeployment {
     final protected Users usersFacade;
     final protected NotificationsFacade notificationFacade;
     final protected List<ScheduledFuture> scheduledRuleActions = new ArrayList<>();
+    final protected ScopedLock lock;
+    final protected RulesetScriptCache scriptCache;
     protected RulesetStatus status;
     protected Throwable error;
+    protected long compilationMillis;
+    protected JsonRulesBuilder jsonRulesBuilder;
 
-    public RulesetDeployment(Ruleset ruleset, TimerService timerService, AssetStorageService assetStorageService, ManagerExecutorService executorService, Assets assetsFacade, Users usersFacade, NotificationsFacade notificationFacade) {
+    public RulesetDeployment(Ruleset ruleset, TimerService timerService, AssetStorageService assetStorageService, ManagerExecutorService executorService, Assets assetsFacade, Users usersFacade, NotificationsFacade notificationFacade, ScopedLock lock, RulesetScriptCache scriptCache) {
         this.ruleset = ruleset;
         this.timerService = timerService;
         this.assetStorageService = assetStorageService;
@@ -141,6 +145,8 @@ public class RulesetDeployment {
         this.assetsFacade = assetsFacade;
         this.usersFacade = usersFacade;
         this.notificationFacade = notificationFacade;
+        this.lock = lock;
+        this.scriptCache = scriptCache;
     }
 
     public long getId() {
@@ -163,17 +169,30 @@ public class RulesetDeployment {
         return rules;
     }
 
+    /**
+     * @return The time it took to compile (or get the compiled script from the cache) and evaluate the ruleset.
+     */
+    public long getCompilationMillis() {
+        return compilationMillis;
+    }
+
     public boolean start() {
         RulesEngine.LOG.info("Evaluating ruleset deployment: " + ruleset);
-        switch (ruleset.getLang()) {
-            case JAVASCRIPT:
-                return startRulesJavascript(ruleset, assetsFacade, usersFacade, notificationFacade);
-            case GROOVY:
-                return startRulesGroovy(ruleset, assetsFacade, usersFacade, notificationFacade);
-            case JSON:
-                return startRulesJson(ruleset, assetsFacade, usersFacade, notificationFacade);
+        long startTime = System.currentTimeMillis();
+        try {
+            switch (ruleset.getLang()) {
+                case JAVASCRIPT:
+                    return startRulesJavascript(ruleset, assetsFacade, usersFacade, notificationFacade);
+                case GROOVY:
+                    return startRulesGroovy(ruleset, assetsFacade, usersFacade, notificationFacade);
+                case JSON:
+                    return startRulesJson(ruleset, assetsFacade, usersFacade, notificationFacade);
+            }
+            return false;
+        } finally {
+            compilationMillis = System.currentTimeMillis() - startTime;
+            RulesEngine.LOG.fine("Ruleset evaluated in " + compilationMillis + "ms: " + ruleset);
         }
-        return false;
     }
 
     /**
@@ -181,17 +200,26 @@ public class RulesetDeployment {
      * during execution
      */
     public void stop() {
-        withLock(toString() + "::stopRulesetDeployment", () ->
+        lock.withLock("stopRulesetDeployment", () ->
                 scheduledRuleActions.removeIf(scheduledFuture -> {
                     scheduledFuture.cancel(true);
                     return true;
                 }));
     }
 
+    /**
+     * Called when assets were created, modified or deleted, before the next firing.
+     */
+    public void onAssetsChanged() {
+        if (jsonRulesBuilder != null) {
+            jsonRulesBuilder.invalidateTargets();
+        }
+    }
+
     protected void scheduleRuleAction(Runnable action, long delayMillis) {
-        withLock(toString() + "::scheduleRuleAction", () -> {
+        lock.withLock("scheduleRuleAction", () -> {
             ScheduledFuture future = executorService.schedule(() ->
-                    withLock(toString() + "::scheduledRuleActionFire", () -> {
+                    lock.withLock("scheduledRuleActionFire", () -> {
                         scheduledRuleActions.removeIf(Future::isDone);
                         action.run();
                     }), delayMillis);
@@ -202,7 +230,7 @@ public class RulesetDeployment {
     protected boolean startRulesJson(Ruleset ruleset, Assets assetsFacade, Users usersFacade, NotificationsFacade notificationFacade) {
         try {
             JsonRulesetDefinition jsonRulesetDefinition = Container.JSON.readValue(ruleset.getRules(), JsonRulesetDefinition.class);
-            JsonRulesBuilder jsonRulesBuilder = new JsonRulesBuilder(timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade, this::scheduleRuleAction);
+            jsonRulesBuilder = new JsonRulesBuilder(timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade, this::scheduleRuleAction);
 
             Arrays.stream(jsonRulesetDefinition.rules).forEach(jsonRulesBuilder::add);
 
@@ -223,7 +251,17 @@ public class RulesetDeployment {
 
     protected boolean startRulesJavascript(Ruleset ruleset, Assets assetsFacade, Users usersFacade, NotificationsFacade consolesFacade) {
         // TODO https://github.com/pfisterer/scripting-sandbox/blob/master/src/main/java/de/farberg/scripting/sandbox/ScriptingSandbox.java
-        ScriptEngine scriptEngine = scriptEngineManager.getEngineByName("nashorn");
+        CompiledScript compiledScript;
+        try {
+            compiledScript = scriptCache.getJavascript(ruleset);
+        } catch (Exception e) {
+            RulesEngine.LOG.log(Level.SEVERE, "Error compiling ruleset: " + ruleset, e);
+            setError(e);
+            return false;
+        }
+
+        // Evaluate the compiled script with new bindings, this creates a new global scope for this deployment
+        ScriptEngine scriptEngine = compiledScript.getEngine();
         ScriptContext newContext = new SimpleScriptContext();
         newContext.setBindings(scriptEngine.createBindings(), ScriptContext.ENGINE_SCOPE);
         Bindings engineScope = newContext.getBindings(ScriptContext.ENGINE_SCOPE);
@@ -232,10 +270,27 @@ public class RulesetDeployment {
         engineScope.put("users", usersFacade);
         engineScope.put("consoles", consolesFacade);
 
-        String script = ruleset.getRules();
+        try {
+            compiledScript.eval(engineScope);
+
+            startRulesJavascript((ScriptObjectMirror) engineScope.get("rules"));
+
+            RulesEngine.LOG.info("Evaluated ruleset deployment: " + ruleset);
+            return true;
 
-        // Default header/imports for all rules scripts
-        script = "load(\"nashorn:mozilla_compat.js\");\n" + // This provides importPackage
+        } catch (Exception e) {
+            RulesEngine.LOG.log(Level.SEVERE, "Error evaluating ruleset: " + ruleset, e);
+            setError(e);
+            engineScope.clear();
+            return false;
+        }
+    }
+
+    /**
+     * @return The JavaScript rules with the default header/imports for all rules scripts.
+     */
+    public static String getJavascriptSource(String script) {
+        return "load(\"nashorn:mozilla_compat.js\");\n" + // This provides importPackage
                 "\n" +
                 "importPackage(\n" +
                 "    \"java.util.stream\",\n" +
@@ -279,21 +334,6 @@ public class RulesetDeployment {
                 "var DISABLED = AttributeExecuteStatus.DISABLED;\n" +
                 "\n"
                 + script;
-
-        try {
-            scriptEngine.eval(script, engineScope);
-
-            startRulesJavascript((ScriptObjectMirror) engineScope.get("rules"));
-
-            RulesEngine.LOG.info("Evaluated ruleset deployment: " + ruleset);
-            return true;
-
-        } catch (Exception e) {
-            RulesEngine.LOG.log(Level.SEVERE, "Error evaluating ruleset: " + ruleset, e);
-            setError(e);
-            engineScope.clear();
-            return false;
-        }
     }
 
     /**
@@ -369,7 +409,6 @@ public class RulesetDeployment {
         try {
             // TODO Implement sandbox
             // new DenyAll().register();
-            Script script = groovyShell.parse(ruleset.getRules());
             Binding binding = new Binding();
             RulesBuilder rulesBuilder = new RulesBuilder();
             binding.setVariable("LOG", RulesEngine.RULES_LOG);
@@ -377,7 +416,7 @@ public class RulesetDeployment {
             binding.setVariable("assets", assetsFacade);
             binding.setVariable("users", usersFacade);
             binding.setVariable("notifications", notificationFacade);
-            script.setBinding(binding);
+            Script script = InvokerHelper.createScript(scriptCache.getGroovyScript(ruleset), binding);
             script.run();
             for (Rule rule : rulesBuilder.build()) {
                 RulesEngine.LOG.info("Registering rule: " + rule.getName());
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.rules;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.Script;
+import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.tools.GroovyClass;
+import org.openremote.model.rules.Ruleset;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compiled Groovy and JavaScript rulesets, keyed by the hash of their source, so redeploying a ruleset or deploying
+ * the same source in several scopes compiles it only once. Each deployment runs the compiled script with its own
+ * bindings, and Groovy classes are defined again for each deployment so deployments don't share static state.
+ * <p>
+ * The cache remembers the source of each ruleset, the compiled source is removed when it is no longer used by any
+ * ruleset because the ruleset was updated or deleted.
+ */
+public class RulesetScriptCache {
+
+    /**
+     * The bytecode of a compiled Groovy ruleset, the script class and any closures or classes declared in the source.
+     */
+    protected static class GroovyScriptClasses {
+
+        final protected String scriptClassName;
+        final protected Map<String, byte[]> classes;
+
+        public GroovyScriptClasses(String scriptClassName, Map<String, byte[]> classes) {
+            this.scriptClassName = scriptClassName;
+            this.classes = classes;
+        }
+
+        /**
+         * @return The script class defined in a new class loader, with its own static state.
+         */
+        @SuppressWarnings("unchecked")
+        public Class<? extends Script> defineScriptClass(ClassLoader parent) throws ClassNotFoundException {
+            return (Class<? extends Script>) new GroovyScriptClassLoader(parent, classes).loadClass(scriptClassName);
+        }
+    }
+
+    protected static class GroovyScriptClassLoader extends ClassLoader {
+
+        final protected Map<String, byte[]> classes;
+
+        public GroovyScriptClassLoader(ClassLoader parent, Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger(RulesetScriptCache.class.getName());
+
+    final protected Cache<String, GroovyScriptClasses> groovyScripts;
+    final protected Cache<String, CompiledScript> javascriptScripts;
+    final protected boolean persistentJavascriptCache;
+    // Hash of the source last compiled for each ruleset, guarded by this
+    final protected Map<Long, String> rulesetSourceHashes = new HashMap<>();
+
+    /**
+     * @param persistentJavascriptCache Enables the persistent code cache of the JavaScript engine, its directory is
+     *                                  set with the <code>nashorn.persistent.code.cache</code> system property of the
+     *                                  JVM.
+     */
+    public RulesetScriptCache(int maximumSize, boolean persistentJavascriptCache) {
+        this.groovyScripts = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+        this.javascriptScripts = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+        this.persistentJavascriptCache = persistentJavascriptCache;
+    }
+
+    public static String getContentHash(String source) {
+        return Hashing.sha256().hashString(source, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * @return A new script class of the ruleset's source, compiled only if the source is not in the cache.
+     */
+    public Class<? extends Script> getGroovyScript(Ruleset ruleset) throws Exception {
+        String source = ruleset.getRules();
+        String hash = getContentHash(source);
+        use(ruleset, hash);
+        GroovyScriptClasses scriptClasses = get(groovyScripts, hash, () -> {
+            LOG.fine("Compiling Groovy ruleset source: " + hash);
+            GroovyClassLoader classLoader = RulesetDeployment.groovyShell.getClassLoader();
+            CompilationUnit compilationUnit = new CompilationUnit(
+                RulesetDeployment.groovyCompilerConfiguration, null, classLoader
+            );
+            // The script class name is derived from the hash, it's the same for every compilation of a source
+            compilationUnit.addSource("Ruleset_" + hash + ".groovy", source);
+            compilationUnit.compile(Phases.CLASS_GENERATION);
+            Map<String, byte[]> classes = new HashMap<>();
+            for (Object compiledClass : compilationUnit.getClasses()) {
+                classes.put(((GroovyClass) compiledClass).getName(), ((GroovyClass) compiledClass).getBytes());
+            }
+            return new GroovyScriptClasses("Ruleset_" + hash, classes);
+        });
+        return scriptClasses.defineScriptClass(RulesetDeployment.groovyShell.getClassLoader());
+    }
+
+    public CompiledScript getJavascript(Ruleset ruleset) throws Exception {
+        String source = RulesetDeployment.getJavascriptSource(ruleset.getRules());
+        String hash = getContentHash(source);
+        use(ruleset, hash);
+        return get(javascriptScripts, hash, () -> {
+            LOG.fine("Compiling JavaScript ruleset source: " + hash);
+            // A compiled script is evaluated in the engine which compiled it, use a new engine for each source
+            ScriptEngine scriptEngine;
+            if (persistentJavascriptCache) {
+                scriptEngine = new NashornScriptEngineFactory().getScriptEngine("--persistent-code-cache");
+                // Same global scope as an engine of the manager
+                scriptEngine.setBindings(RulesetDeployment.scriptEngineManager.getBindings(), ScriptContext.GLOBAL_SCOPE);
+            } else {
+                scriptEngine = RulesetDeployment.scriptEngineManager.getEngineByName("nashorn");
+            }
+            return ((Compilable) scriptEngine).compile(source);
+        });
+    }
+
+    /**
+     * Compile the scripts of the rulesets in parallel, errors are ignored and reported when a ruleset is deployed.
+     */
+    public void compile(Collection<? extends Ruleset> rulesets) {
+        long startTime = System.currentTimeMillis();
+        rulesets.parallelStream().forEach(ruleset -> {
+            try {
+                switch (ruleset.getLang()) {
+                    case JAVASCRIPT:
+                        getJavascript(ruleset);
+                        break;
+                    case GROOVY:
+                        getGroovyScript(ruleset);
+                        break;
+                }
+            } catch (Exception ex) {
+                LOG.log(Level.FINE, "Error compiling ruleset, will be reported on deployment: " + ruleset, ex);
+            }
+        });
+        LOG.info("Compiled " + rulesets.size() + " rulesets in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * Forget the source of a deleted or disabled ruleset, its compiled script is removed if no other ruleset has the
+     * same source.
+     */
+    public synchronized void remove(Ruleset ruleset) {
+        if (ruleset.getId() != null) {
+            invalidateUnused(rulesetSourceHashes.remove(ruleset.getId()));
+        }
+    }
+
+    public synchronized void clear() {
+        rulesetSourceHashes.clear();
+        groovyScripts.invalidateAll();
+        javascriptScripts.invalidateAll();
+    }
+
+    public long getGroovyScriptCount() {
+        return groovyScripts.size();
+    }
+
+    public long getJavascriptCount() {
+        return javascriptScripts.size();
+    }
+
+    /**
+     * @return The number of Groovy and JavaScript sources compiled so far, including failed compilations.
+     */
+    public long getCompilationCount() {
+        return groovyScripts.stats().loadCount() + javascriptScripts.stats().loadCount();
+    }
+
+    /**
+     * Record the source of the ruleset, the previous source of an updated ruleset is removed if no longer used.
+     */
+    protected synchronized void use(Ruleset ruleset, String hash) {
+        if (ruleset.getId() == null) {
+            return;
+        }
+        String previousHash = rulesetSourceHashes.put(ruleset.getId(), hash);
+        if (previousHash != null && !previousHash.equals(hash)) {
+            invalidateUnused(previousHash);
+        }
+    }
+
+    protected void invalidateUnused(String hash) {
+        if (hash != null && !rulesetSourceHashes.containsValue(hash)) {
+            LOG.fine("Removing compiled ruleset source no longer used: " + hash);
+            groovyScripts.invalidate(hash);
+            javascriptScripts.invalidate(hash);
+        }
+    }
+
+    protected static <T> T get(Cache<String, T> cache, String hash, Callable<T> compiler) throws Exception {
+        try {
+            return cache.get(hash, compiler);
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError ex) {
+            // Report the compilation error itself
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ex;
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.openremote.manager.rules.geofence;
 
 import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.Container;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.message.MessageBrokerSetupService;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.manager.asset.AssetStorageService;
@@ -52,7 +53,6 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.persistence.PersistenceEvent.*;
 import static org.openremote.model.asset.AssetResource.Util.WRITE_ATTRIBUTE_HTTP_METHOD;
 import static org.openremote.model.asset.AssetResource.Util.getWriteAttributeUrl;
@@ -81,6 +81,7 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
     protected Map<String, String> consoleIdRealmMap;
     protected ScheduledFuture notifyAssetsScheduledFuture;
     protected Set<String> notifyAssets;
+    protected final ScopedLock lock = new ScopedLock(getClass().getSimpleName());
 
     @Override
     public int getPriority() {
@@ -144,7 +145,7 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
     @Override
     public void processLocationPredicates(List<RulesEngine.AssetStateLocationPredicates> modifiedAssetLocationPredicates) {
 
-        withLock(getClass().getSimpleName() + "::processLocationPredicates", () -> {
+        lock.withLock("processLocationPredicates", () -> {
 
             AtomicBoolean notifierDebounce = new AtomicBoolean(false);
 
@@ -200,7 +201,7 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
             if (notifierDebounce.get()) {
                 if (notifyAssetsScheduledFuture == null || notifyAssetsScheduledFuture.cancel(false)) {
                     notifyAssetsScheduledFuture = executorService.schedule(() ->
-                            withLock(getClass().getSimpleName() + "::notifyAssets",
+                            lock.withLock("notifyAssets",
                                 () -> {
                                     notifyAssetGeofencesChanged(notifyAssets);
                                     notifyAssets = null;
@@ -281,7 +282,7 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
 
     protected void processConsoleAssetChange(Asset asset, PersistenceEvent persistenceEvent) {
 
-        withLock(getClass().getSimpleName() + "::processAssetChange", () -> {
+        lock.withLock("processAssetChange", () -> {
             switch (persistenceEvent.getCause()) {
 
                 case INSERT:
@@ -0,0 +1,13 @@
+/*
+  Datapoints are always queried by attribute and time range, reorder the primary key so these queries
+  can use it. Purging old datapoints queries by time range only, that needs its own index.
+ */
+
+ALTER TABLE ASSET_DATAPOINT
+  DROP CONSTRAINT ASSET_DATAPOINT_PKEY;
+
+ALTER TABLE ASSET_DATAPOINT
+  ADD PRIMARY KEY (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP);
+
+CREATE INDEX ASSET_DATAPOINT_TIMESTAMP_IDX
+  ON ASSET_DATAPOINT (TIMESTAMP);
@@ -0,0 +1,102 @@
+/*
+  Rollups of numeric datapoints per minute, hour and day (UTC), maintained by the datapoint writer as
+  datapoints are inserted. Boolean datapoints are stored as 0 and 1.
+ */
+
+CREATE TABLE ASSET_DATAPOINT_MINUTE (
+  ENTITY_ID      varchar(36)  not null,
+  ATTRIBUTE_NAME varchar(255) not null,
+  BUCKET         int8         not null,
+  VALUE_COUNT    int8         not null,
+  VALUE_SUM      float8       not null,
+  VALUE_MIN      float8       not null,
+  VALUE_MAX      float8       not null,
+  LAST_VALUE     float8       not null,
+  LAST_TIMESTAMP int8         not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, BUCKET)
+);
+
+ALTER TABLE ASSET_DATAPOINT_MINUTE
+  ADD FOREIGN KEY (ENTITY_ID) REFERENCES ASSET (ID) ON DELETE CASCADE;
+
+CREATE INDEX ASSET_DATAPOINT_MINUTE_BUCKET_IDX
+  ON ASSET_DATAPOINT_MINUTE (BUCKET);
+
+CREATE TABLE ASSET_DATAPOINT_HOUR (
+  ENTITY_ID      varchar(36)  not null,
+  ATTRIBUTE_NAME varchar(255) not null,
+  BUCKET         int8         not null,
+  VALUE_COUNT    int8         not null,
+  VALUE_SUM      float8       not null,
+  VALUE_MIN      float8       not null,
+  VALUE_MAX      float8       not null,
+  LAST_VALUE     float8       not null,
+  LAST_TIMESTAMP int8         not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, BUCKET)
+);
+
+ALTER TABLE ASSET_DATAPOINT_HOUR
+  ADD FOREIGN KEY (ENTITY_ID) REFERENCES ASSET (ID) ON DELETE CASCADE;
+
+CREATE INDEX ASSET_DATAPOINT_HOUR_BUCKET_IDX
+  ON ASSET_DATAPOINT_HOUR (BUCKET);
+
+CREATE TABLE ASSET_DATAPOINT_DAY (
+  ENTITY_ID      varchar(36)  not null,
+  ATTRIBUTE_NAME varchar(255) not null,
+  BUCKET         int8         not null,
+  VALUE_COUNT    int8         not null,
+  VALUE_SUM      float8       not null,
+  VALUE_MIN      float8       not null,
+  VALUE_MAX      float8       not null,
+  LAST_VALUE     float8       not null,
+  LAST_TIMESTAMP int8         not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, BUCKET)
+);
+
+ALTER TABLE ASSET_DATAPOINT_DAY
+  ADD FOREIGN KEY (ENTITY_ID) REFERENCES ASSET (ID) ON DELETE CASCADE;
+
+CREATE INDEX ASSET_DATAPOINT_DAY_BUCKET_IDX
+  ON ASSET_DATAPOINT_DAY (BUCKET);
+
+-- Roll up existing datapoints
+
+INSERT INTO ASSET_DATAPOINT_MINUTE (ENTITY_ID, ATTRIBUTE_NAME, BUCKET, VALUE_COUNT, VALUE_SUM, VALUE_MIN, VALUE_MAX, LAST_VALUE, LAST_TIMESTAMP)
+  SELECT ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP - TIMESTAMP % 60000, count(*), sum(NUMBER_VALUE), min(NUMBER_VALUE),
+    max(NUMBER_VALUE), (array_agg(NUMBER_VALUE ORDER BY TIMESTAMP DESC))[1], max(TIMESTAMP)
+  FROM (
+    SELECT ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, CASE jsonb_typeof(VALUE)
+      WHEN 'number' THEN VALUE::text::float8
+      WHEN 'boolean' THEN CASE WHEN VALUE::text::boolean THEN 1 ELSE 0 END
+      END AS NUMBER_VALUE
+    FROM ASSET_DATAPOINT
+  ) DP
+  WHERE NUMBER_VALUE IS NOT NULL
+  GROUP BY ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP - TIMESTAMP % 60000;
+
+INSERT INTO ASSET_DATAPOINT_HOUR (ENTITY_ID, ATTRIBUTE_NAME, BUCKET, VALUE_COUNT, VALUE_SUM, VALUE_MIN, VALUE_MAX, LAST_VALUE, LAST_TIMESTAMP)
+  SELECT ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP - TIMESTAMP % 3600000, count(*), sum(NUMBER_VALUE), min(NUMBER_VALUE),
+    max(NUMBER_VALUE), (array_agg(NUMBER_VALUE ORDER BY TIMESTAMP DESC))[1], max(TIMESTAMP)
+  FROM (
+    SELECT ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, CASE jsonb_typeof(VALUE)
+      WHEN 'number' THEN VALUE::text::float8
+      WHEN 'boolean' THEN CASE WHEN VALUE::text::boolean THEN 1 ELSE 0 END
+      END AS NUMBER_VALUE
+    FROM ASSET_DATAPOINT
+  ) DP
+  WHERE NUMBER_VALUE IS NOT NULL
+  GROUP BY ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP - TIMESTAMP % 3600000;
+
+INSERT INTO ASSET_DATAPOINT_DAY (ENTITY_ID, ATTRIBUTE_NAME, BUCKET, VALUE_COUNT, VALUE_SUM, VALUE_MIN, VALUE_MAX, LAST_VALUE, LAST_TIMESTAMP)
+  SELECT ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP - TIMESTAMP % 86400000, count(*), sum(NUMBER_VALUE), min(NUMBER_VALUE),
+    max(NUMBER_VALUE), (array_agg(NUMBER_VALUE ORDER BY TIMESTAMP DESC))[1], max(TIMESTAMP)
+  FROM (
+    SELECT ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, CASE jsonb_typeof(VALUE)
+      WHEN 'number' THEN VALUE::text::float8
+      WHEN 'boolean' THEN CASE WHEN VALUE::text::boolean THEN 1 ELSE 0 END
+      END AS NUMBER_VALUE
+    FROM ASSET_DATAPOINT
+  ) DP
+  WHERE NUMBER_VALUE IS NOT NULL
+  GROUP BY ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP - TIMESTAMP % 86400000;
@@ -0,0 +1,70 @@
+/*
+  Store the path of each asset (its own ID followed by the IDs of all parents up to the root) in a column
+  maintained by triggers, instead of walking the parent chain for every row queried. Assets with children
+  can't be deleted, so only inserting and moving an asset to another parent changes paths.
+ */
+
+ALTER TABLE ASSET
+  ADD COLUMN PATH text [];
+
+UPDATE ASSET
+  SET PATH = GET_ASSET_TREE_PATH(ID);
+
+ALTER TABLE ASSET
+  ALTER COLUMN PATH SET NOT NULL;
+
+CREATE INDEX ASSET_PATH_IDX
+  ON ASSET USING GIN (PATH);
+
+CREATE OR REPLACE FUNCTION GET_ASSET_TREE_PATH(ASSET_ID text)
+  RETURNS text [] AS
+$$
+BEGIN
+  RETURN (SELECT PATH FROM ASSET WHERE ID = ASSET_ID);
+END;
+$$
+LANGUAGE plpgsql;
+
+/*
+  Set the path of an inserted or moved asset from the path of its parent.
+ */
+CREATE OR REPLACE FUNCTION SET_ASSET_PATH()
+  RETURNS trigger AS
+$$
+BEGIN
+  IF NEW.PARENT_ID IS NULL THEN
+    NEW.PATH := array [text(NEW.ID)];
+  ELSE
+    NEW.PATH := array [text(NEW.ID)] || (SELECT PATH FROM ASSET WHERE ID = NEW.PARENT_ID);
+  END IF;
+  RETURN NEW;
+END;
+$$
+LANGUAGE plpgsql;
+
+/*
+  Replace the old ancestors of all descendants of a moved asset with its new path.
+ */
+CREATE OR REPLACE FUNCTION UPDATE_DESCENDANT_ASSET_PATHS()
+  RETURNS trigger AS
+$$
+BEGIN
+  UPDATE ASSET
+    SET PATH = PATH [1 : array_position(PATH, text(NEW.ID)) - 1] || NEW.PATH
+    WHERE PATH @> array [text(NEW.ID)] AND ID <> NEW.ID;
+  RETURN NULL;
+END;
+$$
+LANGUAGE plpgsql;
+
+CREATE TRIGGER ASSET_PATH_INSERT
+  BEFORE INSERT ON ASSET
+  FOR EACH ROW EXECUTE PROCEDURE SET_ASSET_PATH();
+
+CREATE TRIGGER ASSET_PATH_UPDATE
+  BEFORE UPDATE OF PARENT_ID ON ASSET
+  FOR EACH ROW WHEN (OLD.PARENT_ID IS DISTINCT FROM NEW.PARENT_ID) EXECUTE PROCEDURE SET_ASSET_PATH();
+
+CREATE TRIGGER ASSET_DESCENDANT_PATH_UPDATE
+  AFTER UPDATE OF PARENT_ID ON ASSET
+  FOR EACH ROW WHEN (OLD.PARENT_ID IS DISTINCT FROM NEW.PARENT_ID) EXECUTE PROCEDURE UPDATE_DESCENDANT_ASSET_PATHS();
@@ -0,0 +1,49 @@
+/*
+  Attribute and meta item predicates expand every attribute of every asset, store the sorted attribute names
+  and meta item names of each asset in indexed columns so these queries only have to check assets which have
+  the attribute or meta item. The columns are maintained by a trigger whenever the attributes are written,
+  value updates don't change them and therefore don't change the indexes.
+ */
+
+ALTER TABLE ASSET
+  ADD COLUMN ATTRIBUTE_NAMES text [],
+  ADD COLUMN ATTRIBUTE_META_NAMES text [];
+
+CREATE OR REPLACE FUNCTION SET_ASSET_ATTRIBUTE_NAMES()
+  RETURNS trigger AS
+$$
+DECLARE
+  ASSET_ATTRIBUTES jsonb := CASE WHEN jsonb_typeof(NEW.ATTRIBUTES) = 'object' THEN NEW.ATTRIBUTES END;
+BEGIN
+  NEW.ATTRIBUTE_NAMES := coalesce(
+    (SELECT array_agg(AX.KEY ORDER BY AX.KEY) FROM jsonb_each(ASSET_ATTRIBUTES) AS AX),
+    '{}'
+  );
+  NEW.ATTRIBUTE_META_NAMES := coalesce(
+    (SELECT array_agg(DISTINCT AM.VALUE #>> '{name}')
+     FROM jsonb_each(ASSET_ATTRIBUTES) AS AX,
+       jsonb_array_elements(CASE WHEN jsonb_typeof(AX.VALUE -> 'meta') = 'array' THEN AX.VALUE -> 'meta' END) AS AM
+     WHERE AM.VALUE #>> '{name}' IS NOT NULL),
+    '{}'
+  );
+  RETURN NEW;
+END;
+$$
+LANGUAGE plpgsql;
+
+CREATE TRIGGER ASSET_ATTRIBUTE_NAMES_UPDATE
+  BEFORE INSERT OR UPDATE OF ATTRIBUTES ON ASSET
+  FOR EACH ROW EXECUTE PROCEDURE SET_ASSET_ATTRIBUTE_NAMES();
+
+UPDATE ASSET
+  SET ATTRIBUTES = ATTRIBUTES;
+
+ALTER TABLE ASSET
+  ALTER COLUMN ATTRIBUTE_NAMES SET NOT NULL,
+  ALTER COLUMN ATTRIBUTE_META_NAMES SET NOT NULL;
+
+CREATE INDEX ASSET_ATTRIBUTE_NAMES_IDX
+  ON ASSET USING GIN (ATTRIBUTE_NAMES);
+
+CREATE INDEX ASSET_ATTRIBUTE_META_NAMES_IDX
+  ON ASSET USING GIN (ATTRIBUTE_META_NAMES);
@@ -0,0 +1,22 @@
+/*
+  The attribute names trigger ran for every update of the attributes column, including the value updates of
+  attribute events, and expanded all attributes and meta items of the asset each time. Value updates were
+  therefore not cheap, and because the trigger always assigns the name columns they could not be treated as
+  updates without index changes either.
+
+  Attribute names and meta items only change when the asset entity is inserted or merged, which increments the
+  entity version. Value updates are written with SQL statements which don't change the version, skip the trigger
+  for those. Any other statement modifying the attribute names or meta items must increment OBJ_VERSION.
+ */
+
+DROP TRIGGER ASSET_ATTRIBUTE_NAMES_UPDATE ON ASSET;
+
+CREATE TRIGGER ASSET_ATTRIBUTE_NAMES_INSERT
+  BEFORE INSERT ON ASSET
+  FOR EACH ROW EXECUTE PROCEDURE SET_ASSET_ATTRIBUTE_NAMES();
+
+CREATE TRIGGER ASSET_ATTRIBUTE_NAMES_UPDATE
+  BEFORE UPDATE OF ATTRIBUTES ON ASSET
+  FOR EACH ROW
+  WHEN (NEW.OBJ_VERSION IS DISTINCT FROM OLD.OBJ_VERSION)
+  EXECUTE PROCEDURE SET_ASSET_ATTRIBUTE_NAMES();
@@ -21,7 +21,6 @@ package org.openremote.model.asset;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.hibernate.annotations.Check;
-import org.hibernate.annotations.Formula;
 import org.openremote.model.AbstractValueHolder;
 import org.openremote.model.IdentifiableEntity;
 import org.openremote.model.ValidationFailure;
@@ -271,7 +270,8 @@ public class Asset implements IdentifiableEntity {
 
     // The following are expensive to query, so if they are null, they might not have been loaded
 
-    @Formula("get_asset_tree_path(ID)")
+    // Maintained by database triggers when the asset is inserted or moved to another parent
+    @Column(name = "PATH", insertable = false, updatable = false)
     @org.hibernate.annotations.Type(type = "org.openremote.container.persistence.ArrayUserType")
     protected String[] path;
 
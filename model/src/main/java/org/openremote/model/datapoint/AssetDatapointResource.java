@@ -54,4 +54,44 @@ public interface AssetDatapointResource {
                                           @QueryParam("interval") DatapointInterval datapointInterval,
                                           @QueryParam("timestamp") long timestamp);
 
+    /**
+     * Retrieve the historical datapoints of an asset attribute between two timestamps (epoch milliseconds), each
+     * {@link NumberDatapoint} is the result of the aggregation function applied to the datapoints of one step. The
+     * same access rules as {@link #getNumberDatapoints} apply. A 400 status is also returned if the range is invalid
+     * or contains too many steps.
+     */
+    @GET
+    @Path("{assetId}/attribute/{attributeName}/aggregate")
+    @Produces(APPLICATION_JSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"read:assets"})
+    @SuppressWarnings("unusable-by-js")
+    NumberDatapoint[] getAggregatedNumberDatapoints(@BeanParam RequestParams requestParams,
+                                                    @PathParam("assetId") String assetId,
+                                                    @PathParam("attributeName") String attributeName,
+                                                    @QueryParam("step") DatapointStep step,
+                                                    @QueryParam("aggregation") DatapointAggregation aggregation,
+                                                    @QueryParam("fromTimestamp") long fromTimestamp,
+                                                    @QueryParam("toTimestamp") long toTimestamp);
+
+    /**
+     * Retrieve a page of the raw historical datapoints of an asset attribute between two timestamps (epoch
+     * milliseconds, inclusive), newest first. A <code>toTimestamp</code> of <code>0</code> is the current time. The
+     * page contains at most <code>limit</code> datapoints, pass the continuation token of a page to get the next
+     * page. The same access rules as {@link #getNumberDatapoints} apply.
+     */
+    @GET
+    @Path("{assetId}/attribute/{attributeName}/page")
+    @Produces(APPLICATION_JSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"read:assets"})
+    @SuppressWarnings("unusable-by-js")
+    DatapointPage getDatapointPage(@BeanParam RequestParams requestParams,
+                                   @PathParam("assetId") String assetId,
+                                   @PathParam("attributeName") String attributeName,
+                                   @QueryParam("fromTimestamp") long fromTimestamp,
+                                   @QueryParam("toTimestamp") long toTimestamp,
+                                   @QueryParam("limit") int limit,
+                                   @QueryParam("continuationToken") String continuationToken);
+
 }
@@ -19,12 +19,24 @@
  */
 package org.openremote.model.datapoint;
 
+/**
+ * A range of datapoints ending at a given time, with the {@link DatapointStep} the range is aggregated into.
+ */
 public enum DatapointInterval {
 
-    HOUR,
-    DAY,
-    WEEK,
-    MONTH,
-    YEAR
+    HOUR(DatapointStep.MINUTE),
+    DAY(DatapointStep.HOUR),
+    WEEK(DatapointStep.DAY),
+    MONTH(DatapointStep.DAY),
+    YEAR(DatapointStep.MONTH);
+
+    final protected DatapointStep step;
+
+    DatapointInterval(DatapointStep step) {
+        this.step = step;
+    }
 
+    public DatapointStep getStep() {
+        return step;
+    }
 }
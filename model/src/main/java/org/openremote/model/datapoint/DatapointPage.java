@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.datapoint;
+
+import java.util.Arrays;
+
+/**
+ * A page of datapoints ordered by descending timestamp. If there are more datapoints in the requested range, the
+ * continuation token can be used to request the next page.
+ */
+public class DatapointPage {
+
+    protected AssetDatapoint[] datapoints;
+    protected String continuationToken;
+
+    protected DatapointPage() {
+    }
+
+    public DatapointPage(AssetDatapoint[] datapoints, String continuationToken) {
+        this.datapoints = datapoints;
+        this.continuationToken = continuationToken;
+    }
+
+    public AssetDatapoint[] getDatapoints() {
+        return datapoints;
+    }
+
+    public void setDatapoints(AssetDatapoint[] datapoints) {
+        this.datapoints = datapoints;
+    }
+
+    /**
+     * @return <code>null</code> if this is the last page.
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "datapoints=" + (datapoints != null ? datapoints.length : 0) +
+            ", continuationToken='" + continuationToken + '\'' +
+            '}';
+    }
+}
@@ -34,6 +34,11 @@ import java.util.function.Consumer;
  * <p>
  * A subscription can optionally contain a {@link #subscriptionId} which allows a client
  * to have multiple subscriptions for the same event type.
+ * <p>
+ * A subscription can optionally set {@link #batchMillis}, the server then collects the events of the subscription
+ * during this time window and sends them to the client as one array. Repeated {@link
+ * org.openremote.model.attribute.AttributeEvent}s of the same attribute within a window are collapsed to the latest
+ * value.
  */
 public class EventSubscription<E extends SharedEvent> {
 
@@ -44,6 +49,7 @@ public class EventSubscription<E extends SharedEvent> {
     protected String eventType;
     protected EventFilter<E> filter;
     protected String subscriptionId;
+    protected Integer batchMillis;
 
     /**
      * Optional only set when an internal subscription is made
@@ -111,12 +117,21 @@ public class EventSubscription<E extends SharedEvent> {
         return subscriptionId;
     }
 
+    public Integer getBatchMillis() {
+        return batchMillis;
+    }
+
+    public void setBatchMillis(Integer batchMillis) {
+        this.batchMillis = batchMillis;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
             "eventType='" + eventType + '\'' +
             ", filter=" + filter +
             "subscriptionId='" + subscriptionId + '\'' +
+            ", batchMillis=" + batchMillis +
             '}';
     }
 }
@@ -36,6 +36,7 @@ import org.openremote.model.value.Values;
 import java.util.Date;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
 
 /**
  * An asset attribute value update, capturing asset state at a point in time.
@@ -107,6 +108,32 @@ public class AssetState implements Comparable<AssetState> {
         this.meta = that.meta;
     }
 
+    /**
+     * Copy that asset state, replacing its strings with the instances returned by the interner and its path with the
+     * given equal path, so the states of many attributes can share them.
+     */
+    public AssetState(AssetState that, Function<String, String> interner, String[] path) {
+        this.attributeName = intern(interner, that.attributeName);
+        this.attributeValueType = that.attributeValueType;
+        this.value = that.value;
+        this.timestamp = that.timestamp;
+        this.source = that.source;
+        this.oldValue = that.oldValue;
+        this.oldValueTimestamp = that.oldValueTimestamp;
+        this.id = intern(interner, that.id);
+        this.name = intern(interner, that.name);
+        this.typeString = intern(interner, that.typeString);
+        this.type = that.type;
+        this.createdOn = that.createdOn;
+        this.path = path;
+        this.parentId = intern(interner, that.parentId);
+        this.parentName = intern(interner, that.parentName);
+        this.parentTypeString = intern(interner, that.parentTypeString);
+        this.parentType = that.parentType;
+        this.realm = intern(interner, that.realm);
+        this.meta = that.meta;
+    }
+
     public AssetState(Asset asset, AssetAttribute attribute, AttributeEvent.Source source) {
         this.attributeName = attribute.getNameOrThrow();
         this.attributeValueType = attribute.getTypeOrThrow();
@@ -129,6 +156,10 @@ public class AssetState implements Comparable<AssetState> {
         this.meta = attribute.getMeta();
     }
 
+    protected static String intern(Function<String, String> interner, String string) {
+        return string != null ? interner.apply(string) : null;
+    }
+
     public String getAttributeName() {
         return attributeName;
     }
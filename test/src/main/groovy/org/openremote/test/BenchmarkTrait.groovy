@@ -0,0 +1,76 @@
+package org.openremote.test
+
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.RulesClock
+import org.openremote.manager.rules.RulesEngine
+import org.openremote.manager.rules.RulesFacts
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.rules.AssetState
+import org.openremote.model.rules.Assets
+import org.openremote.model.value.Values
+
+import java.util.logging.Logger
+
+import static org.openremote.model.attribute.AttributeValueType.NUMBER
+
+/**
+ * Shared setup and measurement of the benchmark specifications. Benchmarks are skipped unless the
+ * <code>benchmark</code> system property is set, which the <code>benchmark</code> task of the test project does:
+ * <code>./gradlew :test:benchmark</code>. Benchmarks assert behaviour and query plans, measured times depend on
+ * the machine and are only logged.
+ */
+trait BenchmarkTrait {
+
+    static TimerService createPseudoTimerService() {
+        def timerService = new TimerService()
+        timerService.clock = TimerService.Clock.PSEUDO
+        return timerService
+    }
+
+    static RulesFacts createRulesFacts(TimerService timerService, AssetStorageService assetStorageService, Object loggingContext) {
+        def rulesFacts = new RulesFacts(timerService, assetStorageService, [:] as Assets, loggingContext, RulesEngine.RULES_LOG)
+        rulesFacts.setClock(new RulesClock(0))
+        return rulesFacts
+    }
+
+    /**
+     * Puts the numeric attributes of the assets, every other asset is a room, the others are things. Asset
+     * <code>i</code> is a child of <code>"parent" + (i % 100)</code> and its attributes have the value <code>i</code>.
+     */
+    static void putAssetStates(RulesFacts rulesFacts, int assetCount, int attributeCount) {
+        for (int i = 0; i < assetCount; i++) {
+            Asset asset = new Asset("Asset asset" + i, i % 2 == 0 ? AssetType.THING : AssetType.ROOM)
+            asset.setId("asset" + i)
+            asset.setParentId("parent" + (i % 100))
+            for (int j = 0; j < attributeCount; j++) {
+                rulesFacts.putAssetState(new AssetState(
+                    asset, new AssetAttribute("attribute" + j, NUMBER, Values.create(i)), AttributeEvent.Source.SENSOR
+                ))
+            }
+        }
+    }
+
+    /**
+     * @return The average time in nanoseconds of the iterations, after running the warmup iterations.
+     */
+    static long measureNanos(int warmupIterations, int iterations, Closure work) {
+        for (int i = 0; i < warmupIterations; i++) {
+            work()
+        }
+        long start = System.nanoTime()
+        for (int i = 0; i < iterations; i++) {
+            work()
+        }
+        return (System.nanoTime() - start) / iterations
+    }
+
+    static void logMeasurements(Logger logger, String description, Map<String, Long> nanos) {
+        logger.info(description + ": " + nanos.collect { name, value ->
+            String.format("%s %.1fus", name, value / 1000d)
+        }.join(", "))
+    }
+}
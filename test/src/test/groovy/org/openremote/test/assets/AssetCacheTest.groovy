@@ -0,0 +1,219 @@
+package org.openremote.test.assets
+
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetCache
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.setup.SetupService
+import org.openremote.manager.setup.builtin.ManagerDemoSetup
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+
+class AssetCacheTest extends Specification implements ManagerContainerTrait {
+
+    def cachedAsset(String id, String[] path, double value) {
+        def attributes = Values.createObject()
+        attributes.put("temperature", Values.createObject().put("type", "NUMBER").put("value", value))
+        new Asset(id, 1, new Date(), "Asset " + id, AssetType.THING.value, false, path.length > 1 ? path[1] : null,
+            null, null, "master", path, attributes)
+    }
+
+    def "Cache copies of assets and invalidate them"() {
+
+        given: "a cache of two assets"
+        def assetCache = new AssetCache(2)
+
+        when: "an asset is read before and after it was added"
+        def miss = assetCache.get("a", true)
+        assetCache.put(cachedAsset("a", ["a"] as String[], 1), assetCache.getGeneration("a"))
+        def hit = assetCache.get("a", true)
+
+        then: "the second read should be a hit and return a complete copy"
+        miss == null
+        hit.id == "a"
+        hit.path == ["a"] as String[]
+        hit.attributes.getObject("temperature").get().getNumber("value").get() == 1d
+        assetCache.hits == 1
+        assetCache.misses == 1
+
+        when: "the copy is modified and an incomplete copy is read"
+        hit.attributes.getObject("temperature").get().put("value", 2d)
+        def incomplete = assetCache.get("a", false)
+
+        then: "the cached asset should not have been modified"
+        assetCache.get("a", true).attributes.getObject("temperature").get().getNumber("value").get() == 1d
+        incomplete.path == null
+        incomplete.attributes == null
+
+        when: "committed attribute values are applied"
+        assetCache.putAttributeValues([new AttributeEvent("a", "temperature", Values.create(3d), 1000)])
+
+        then: "the cached asset should have the new value"
+        assetCache.get("a", true).attributes.getObject("temperature").get().getNumber("value").get() == 3d
+
+        when: "a descendant is cached and the asset is removed"
+        assetCache.put(cachedAsset("b", ["b", "a"] as String[], 1), assetCache.getGeneration("b"))
+        assetCache.remove("a")
+
+        then: "the asset and its descendant should have been invalidated"
+        assetCache.get("a", true) == null
+        assetCache.get("b", true) == null
+        assetCache.invalidations == 2
+
+        when: "more assets than the cache holds are added"
+        ["c", "d", "e"].each { assetCache.put(cachedAsset(it, [it] as String[], 1), assetCache.getGeneration(it)) }
+
+        then: "the least recently used asset should have been evicted"
+        assetCache.size == 2
+        assetCache.evictions == 1
+        assetCache.get("c", true) == null
+    }
+
+    def "Keep recently read assets and only invalidate descendants"() {
+
+        given: "a cache of three assets"
+        def assetCache = new AssetCache(3)
+
+        when: "an asset is read before more assets than the cache holds are added"
+        ["a", "b", "c"].each { assetCache.put(cachedAsset(it, [it] as String[], 1), assetCache.getGeneration(it)) }
+        assetCache.get("a", true)
+        assetCache.put(cachedAsset("d", ["d"] as String[], 1), assetCache.getGeneration("d"))
+
+        then: "the asset which was read should have been kept"
+        assetCache.get("a", true) != null
+        assetCache.get("b", true) == null
+        assetCache.evictions == 1
+
+        when: "a tree of assets is cached and an asset in the middle is removed"
+        assetCache.clear()
+        assetCache.put(cachedAsset("child", ["child", "parent", "root"] as String[], 1), assetCache.getGeneration("child"))
+        assetCache.put(cachedAsset("sibling", ["sibling", "root"] as String[], 1), assetCache.getGeneration("sibling"))
+        assetCache.put(cachedAsset("grandchild", ["grandchild", "child", "parent", "root"] as String[], 1), assetCache.getGeneration("grandchild"))
+        def invalidations = assetCache.invalidations
+        assetCache.remove("parent")
+
+        then: "only its descendants should have been invalidated"
+        assetCache.get("child", true) == null
+        assetCache.get("grandchild", true) == null
+        assetCache.get("sibling", true) != null
+        assetCache.invalidations == invalidations + 2
+
+        when: "a cached asset is replaced with a different path and its old ancestor is removed"
+        assetCache.put(cachedAsset("sibling", ["sibling", "other"] as String[], 1), assetCache.getGeneration("sibling"))
+        assetCache.remove("root")
+
+        then: "the asset should still be cached"
+        assetCache.get("sibling", true) != null
+        assetCache.size == 1
+    }
+
+    def "Reject assets which were modified while they were loaded"() {
+
+        given: "a cache"
+        def assetCache = new AssetCache(10)
+
+        when: "an asset is modified while it is loaded"
+        def generation = assetCache.getGeneration("a")
+        assetCache.putAttributeValues([new AttributeEvent("a", "temperature", Values.create(3d), 1000)])
+        assetCache.put(cachedAsset("a", ["a"] as String[], 1), generation)
+
+        then: "the stale asset should not have been added"
+        assetCache.get("a", true) == null
+        assetCache.rejectedPuts == 1
+
+        when: "another asset is removed while an asset is loaded"
+        generation = assetCache.getGeneration("b")
+        assetCache.remove("x")
+        assetCache.put(cachedAsset("b", ["b", "x"] as String[], 1), generation)
+
+        then: "the asset should not have been added, its path might be stale"
+        assetCache.get("b", true) == null
+        assetCache.rejectedPuts == 2
+
+        when: "an asset is loaded without concurrent modification"
+        assetCache.put(cachedAsset("b", ["b"] as String[], 1), assetCache.getGeneration("b"))
+
+        then: "it should have been added"
+        assetCache.get("b", true) != null
+    }
+
+    def "Keep cached assets consistent with committed transactions"() {
+
+        given: "the container with the demo setup"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(defaultConfig(serverPort), defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetCache = assetStorageService.getAssetCache()
+        def powerConsumption = { Asset asset ->
+            asset.getAttribute("light1PowerConsumption").flatMap { it.getValueAsNumber() }.orElse(null)
+        }
+        def storeValue = { em, double value ->
+            assetStorageService.storeAttributeValue(
+                em, managerDemoSetup.thingId, "light1PowerConsumption", Values.create(value), "1000"
+            )
+        }
+
+        when: "an asset is found twice"
+        assetCache.clear()
+        def hits = assetCache.hits
+        assetStorageService.find(managerDemoSetup.thingId, true)
+        def thing = assetStorageService.find(managerDemoSetup.thingId, true)
+
+        then: "the second find should be served from the cache"
+        assetCache.hits == hits + 1
+
+        when: "an attribute value is stored and read in a transaction which rolls back"
+        def uncommittedValue = null
+        try {
+            persistenceService.doTransaction { em ->
+                storeValue(em, 99.9d)
+                uncommittedValue = powerConsumption(assetStorageService.find(em, managerDemoSetup.thingId, true))
+                throw new IllegalStateException("Processor failed")
+            }
+        } catch (IllegalStateException ignored) {
+        }
+
+        then: "the transaction should have read its own write, which should not be visible afterwards"
+        uncommittedValue == 99.9d
+        powerConsumption(assetStorageService.find(managerDemoSetup.thingId, true)) == powerConsumption(thing)
+
+        when: "an attribute value is stored in a transaction which commits"
+        assetStorageService.find(managerDemoSetup.thingId, true)
+        persistenceService.doTransaction { em -> storeValue(em, 88.8d) }
+        hits = assetCache.hits
+
+        then: "the cached asset should have the committed value"
+        powerConsumption(assetStorageService.find(managerDemoSetup.thingId, true)) == 88.8d
+        assetCache.hits == hits + 1
+
+        when: "an asset is moved to another parent"
+        def lobby = assetStorageService.find(managerDemoSetup.lobbyId, true)
+        def groundFloor = assetStorageService.find(managerDemoSetup.groundFloorId, true)
+        def building = assetStorageService.merge(new Asset("Cache test building", AssetType.BUILDING, null, groundFloor.realm))
+        groundFloor.setParentId(building.id)
+        assetStorageService.merge(groundFloor)
+
+        then: "the cached descendants should have the new path"
+        lobby.pathContains(managerDemoSetup.groundFloorId)
+        assetStorageService.find(managerDemoSetup.lobbyId, true).pathContains(building.id)
+
+        when: "a cached asset is deleted"
+        assetStorageService.find(building.id, true)
+        groundFloor = assetStorageService.find(managerDemoSetup.groundFloorId, true)
+        groundFloor.setParentId(managerDemoSetup.smartOfficeId)
+        assetStorageService.merge(groundFloor)
+        assetStorageService.delete(building.id)
+
+        then: "it should not be found"
+        assetStorageService.find(building.id, true) == null
+        !assetStorageService.find(managerDemoSetup.lobbyId, true).pathContains(building.id)
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
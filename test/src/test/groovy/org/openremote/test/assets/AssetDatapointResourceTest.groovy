@@ -0,0 +1,110 @@
+package org.openremote.test.assets
+
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.datapoint.AssetDatapointResourceImpl
+import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.setup.SetupService
+import org.openremote.manager.setup.builtin.ManagerDemoSetup
+import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.datapoint.AssetDatapoint
+import org.openremote.model.datapoint.AssetDatapointResource
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+
+import static org.openremote.container.util.MapAccess.getString
+import static org.openremote.manager.setup.AbstractKeycloakSetup.SETUP_ADMIN_PASSWORD
+import static org.openremote.manager.setup.AbstractKeycloakSetup.SETUP_ADMIN_PASSWORD_DEFAULT
+import static org.openremote.model.Constants.*
+
+class AssetDatapointResourceTest extends Specification implements ManagerContainerTrait {
+
+    def "Page through and export the raw datapoints of an attribute"() {
+
+        given: "the server container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(defaultConfig(serverPort), defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def attributeRef = new AttributeRef(managerDemoSetup.thingId, "light1PowerConsumption")
+
+        and: "an authenticated admin user"
+        def accessToken = authenticate(
+            container,
+            MASTER_REALM,
+            KEYCLOAK_CLIENT_ID,
+            MASTER_REALM_ADMIN_USER,
+            getString(container.getConfig(), SETUP_ADMIN_PASSWORD, SETUP_ADMIN_PASSWORD_DEFAULT)
+        ).token
+
+        and: "the datapoint resource"
+        def datapointResource = getClientApiTarget(serverUri(serverPort), MASTER_REALM, accessToken).proxy(AssetDatapointResource.class)
+        def exportTarget = { long fromTimestamp, long toTimestamp, String format ->
+            getClientApiTarget(serverUri(serverPort), MASTER_REALM,
+                "asset/datapoint/" + attributeRef.entityId + "/attribute/" + attributeRef.attributeName + "/export", accessToken)
+                .queryParam("fromTimestamp", fromTimestamp)
+                .queryParam("toTimestamp", toTimestamp)
+                .queryParam("format", format)
+        }
+
+        when: "more datapoints than fit in one export transaction are stored, and one in the future"
+        def now = getClockTimeOf(container)
+        def from = now - 3600000
+        def count = AssetDatapointService.DATAPOINT_EXPORT_FETCH_SIZE * 2 + 100
+        def timestamps = (0..<count).collect { from + it * 1000L }
+        def to = timestamps.last()
+        persistenceService.doTransaction { em ->
+            timestamps.eachWithIndex { long timestamp, int i ->
+                def value = i == 0 ? Values.create("a,\"b\"") : Values.create(i as double)
+                assert assetDatapointService.assetDatapointWriter.write(em, new AssetDatapoint(attributeRef, value, timestamp))
+            }
+            assert assetDatapointService.assetDatapointWriter.write(em, new AssetDatapoint(attributeRef, Values.create(-1d), now + 60000))
+        }
+        assetDatapointService.assetDatapointWriter.drain()
+
+        and: "the datapoints are requested in pages"
+        def pages = []
+        def page = datapointResource.getDatapointPage(null, attributeRef.entityId, attributeRef.attributeName, from, to, 1000, null)
+        pages << page
+        while (page.continuationToken != null) {
+            page = datapointResource.getDatapointPage(null, attributeRef.entityId, attributeRef.attributeName, from, to, 1000, page.continuationToken)
+            pages << page
+        }
+
+        then: "each page should continue where the previous page ended, newest first"
+        pages.collect { it.datapoints.length } == [1000, 1000, 100]
+        pages.last().continuationToken == null
+        pages.collectMany { it.datapoints as List }.collect { it.timestamp } == timestamps.reverse()
+
+        when: "a page without end of range is requested"
+        page = datapointResource.getDatapointPage(null, attributeRef.entityId, attributeRef.attributeName, from, 0, 10, null)
+
+        then: "the range should end at the current time"
+        page.datapoints.every { it.timestamp <= now }
+        page.datapoints*.timestamp.contains(to)
+
+        when: "the datapoints are exported as newline delimited JSON"
+        def lines = exportTarget(from, to, "NDJSON")
+            .request(AssetDatapointResourceImpl.NDJSON_MEDIA_TYPE).get(String.class).readLines()
+
+        then: "all datapoints of the range should be exported oldest first"
+        lines.size() == count
+        lines.first() == '{"timestamp":' + from + ',"value":"a,\\"b\\""}'
+        lines.last() == '{"timestamp":' + to + ',"value":' + Values.create((count - 1) as double).toJson() + '}'
+
+        when: "the datapoints are exported as CSV without end of range"
+        lines = exportTarget(from, 0, "CSV")
+            .request(AssetDatapointResourceImpl.CSV_MEDIA_TYPE).get(String.class).readLines()
+
+        then: "the values should be quoted if necessary and the future datapoint should not be exported"
+        lines.first() == "timestamp,value"
+        lines[1] == from + ',"""a,\\""b\\"""""'
+        lines[2] == (from + 1000) + "," + Values.create(1d).toJson()
+        lines.drop(1).collect { Long.parseLong(it.substring(0, it.indexOf(','))) }.every { it <= now }
+        lines.drop(1).collect { Long.parseLong(it.substring(0, it.indexOf(','))) }.containsAll(timestamps)
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
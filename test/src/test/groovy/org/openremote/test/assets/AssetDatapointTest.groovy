@@ -1,18 +1,25 @@
 package org.openremote.test.assets
 
 import org.openremote.agent.protocol.simulator.SimulatorProtocol
+import org.openremote.container.persistence.PersistenceService
 import org.openremote.manager.asset.AssetStorageService
 import org.openremote.manager.datapoint.AssetDatapointService
 import org.openremote.manager.setup.SetupService
 import org.openremote.manager.setup.builtin.ManagerDemoSetup
 import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.datapoint.AssetDatapoint
+import org.openremote.model.datapoint.DatapointAggregation
 import org.openremote.model.datapoint.DatapointInterval
+import org.openremote.model.datapoint.DatapointStep
 import org.openremote.model.value.Values
 import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
+import java.text.SimpleDateFormat
 import java.time.Instant
+import java.time.ZoneId
+import java.time.ZoneOffset
 import java.util.concurrent.TimeUnit
 
 import static java.util.concurrent.TimeUnit.HOURS
@@ -113,6 +120,28 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
             assert aggregatedDatapoints.size() == 61
         }
 
+        and: "the minimum and maximum of the datapoints should be aggregated from rollups"
+        conditions.eventually {
+            def thing = assetStorageService.find(managerDemoSetup.thingId, true)
+            def attribute = thing.getAttribute("light1PowerConsumption").orElseThrow({ new RuntimeException("Missing attribute")})
+            def minDatapoints = assetDatapointService.aggregateDatapoints(
+                    attribute,
+                    DatapointStep.HOUR,
+                    DatapointAggregation.MIN,
+                    getClockTimeOf(container) - TimeUnit.HOURS.toMillis(1),
+                    getClockTimeOf(container)
+            )
+            def maxDatapoints = assetDatapointService.aggregateDatapoints(
+                    attribute,
+                    DatapointStep.HOUR,
+                    DatapointAggregation.MAX,
+                    getClockTimeOf(container) - TimeUnit.HOURS.toMillis(1),
+                    getClockTimeOf(container)
+            )
+            assert minDatapoints.findAll { it.number != null }.collect { it.number }.min() == 13.3d
+            assert maxDatapoints.findAll { it.number != null }.collect { it.number }.max() == 15.5d
+        }
+
         // ------------------------------------
         // Test boolean data point storage
         // ------------------------------------
@@ -268,4 +297,60 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
         cleanup: "the server should be stopped"
         stopContainer(container)
     }
+
+    def "Aggregate daily datapoints in a time zone which is not UTC"() {
+
+        given: "the container with the demo setup"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock defaultConfig(serverPort), defaultServices()
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def attribute = assetStorageService.find(managerDemoSetup.thingId, true)
+            .getAttribute("light1PowerConsumption").orElseThrow({ new RuntimeException("Missing attribute")})
+        def zone = ZoneId.of("Asia/Kolkata")
+        def day = Instant.ofEpochMilli(getClockTimeOf(container)).atZone(zone).toLocalDate().minusDays(3)
+        def localTime = { int days, int hour, int minute ->
+            day.plusDays(days).atTime(hour, minute).atZone(zone).toInstant().toEpochMilli()
+        }
+
+        when: "datapoints are stored around local midnight, which is 18:30 UTC"
+        persistenceService.doTransaction { em ->
+            [
+                new AssetDatapoint(attribute.referenceOrThrow, Values.create(10d), localTime(0, 0, 10)),
+                new AssetDatapoint(attribute.referenceOrThrow, Values.create(20d), localTime(0, 23, 50)),
+                new AssetDatapoint(attribute.referenceOrThrow, Values.create(30d), localTime(1, 0, 10))
+            ].each { assert assetDatapointService.assetDatapointWriter.write(em, it) }
+        }
+        assetDatapointService.assetDatapointWriter.drain()
+
+        then: "the days should be aggregated from buckets which align with local midnight"
+        AssetDatapointService.Rollup.forStep(DatapointStep.DAY, zone, localTime(0, 0, 0), localTime(2, 0, 0)) ==
+            AssetDatapointService.Rollup.MINUTE
+        AssetDatapointService.Rollup.forStep(DatapointStep.DAY, ZoneId.of("Europe/Amsterdam"), localTime(0, 0, 0), localTime(2, 0, 0)) ==
+            AssetDatapointService.Rollup.HOUR
+        AssetDatapointService.Rollup.forStep(DatapointStep.DAY, ZoneOffset.UTC, localTime(0, 0, 0), localTime(2, 0, 0)) ==
+            AssetDatapointService.Rollup.DAY
+
+        when: "the datapoints of both local days are aggregated"
+        def dailyAverages = assetDatapointService.aggregateDatapoints(
+            attribute,
+            DatapointStep.DAY,
+            DatapointAggregation.AVERAGE,
+            localTime(0, 0, 0),
+            localTime(2, 0, 0) - 1,
+            zone
+        )
+        def dayFormat = new SimpleDateFormat("dd. MMM yyyy")
+
+        then: "each local day should have the average of its own datapoints and its local date as label"
+        dailyAverages.collect { it.label } == [0, 1].collect {
+            dayFormat.format(java.sql.Timestamp.valueOf(day.plusDays(it).atStartOfDay()))
+        }
+        dailyAverages.collect { it.number } == [15d, 30d]
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
 }
@@ -0,0 +1,84 @@
+package org.openremote.test.assets
+
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.datapoint.AssetDatapointWriter
+import org.openremote.manager.setup.SetupService
+import org.openremote.manager.setup.builtin.ManagerDemoSetup
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+
+class AssetDatapointWriterTest extends Specification implements ManagerContainerTrait {
+
+    def "Limit the batch size to the bind parameters of one statement"() {
+
+        when: "a writer is created with a batch size above the limit"
+        def assetDatapointWriter = new AssetDatapointWriter(null, null, 10, 100, 10000)
+
+        then: "the batch size should have been limited"
+        assetDatapointWriter.batchSize == AssetDatapointWriter.MAX_BATCH_SIZE
+
+        and: "an insert of a full batch should not exceed the bind parameters PostgreSQL accepts"
+        assetDatapointWriter.buildInsert(assetDatapointWriter.batchSize).count("?") <= Short.MAX_VALUE
+    }
+
+    def "Only write datapoints of committed transactions"() {
+
+        given: "the container with the demo setup"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(defaultConfig(serverPort), defaultServices())
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def assetDatapointWriter = assetDatapointService.getAssetDatapointWriter()
+        def attributeRef = new AttributeRef(managerDemoSetup.thingId, "light1PowerConsumption")
+        def processUpdate = { em, double value, long timestamp ->
+            def asset = assetStorageService.find(managerDemoSetup.thingId, true)
+            def attribute = asset.getAttribute(attributeRef.attributeName).get()
+            attribute.setValue(Values.create(value), timestamp)
+            assetDatapointService.processAssetUpdate(em, asset, attribute, AttributeEvent.Source.SENSOR)
+        }
+        def datapointsAt = { long timestamp ->
+            assetDatapointService.getDatapoints(attributeRef).findAll { it.timestamp == timestamp }
+        }
+        def timestamp = getClockTimeOf(container) + 60000
+
+        when: "a datapoint is processed in a transaction which rolls back"
+        try {
+            persistenceService.doTransaction { em ->
+                processUpdate(em, 99.9d, timestamp)
+                assert assetDatapointWriter.reservedCount == 1
+                throw new IllegalStateException("Processor failed")
+            }
+        } catch (IllegalStateException ignored) {
+        }
+        assetDatapointWriter.drain()
+
+        then: "the datapoint should not have been queued or written and its place in the queue released"
+        assetDatapointWriter.queueDepth == 0
+        assetDatapointWriter.reservedCount == 0
+        datapointsAt(timestamp).isEmpty()
+
+        when: "a datapoint is processed in a transaction which commits"
+        persistenceService.doTransaction { em ->
+            processUpdate(em, 88.8d, timestamp + 1)
+            assert assetDatapointWriter.queueDepth == 0
+        }
+
+        and: "the queue is drained"
+        assetDatapointWriter.drain()
+
+        then: "the datapoint should have been written"
+        assetDatapointWriter.queueDepth == 0
+        assetDatapointWriter.reservedCount == 0
+        datapointsAt(timestamp + 1).collect { it.value.toJson() } == [Values.create(88.8d).toJson()]
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
@@ -0,0 +1,145 @@
+package org.openremote.test.assets
+
+import org.hibernate.Session
+import org.openremote.container.Container
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.setup.SetupService
+import org.openremote.manager.setup.builtin.KeycloakDemoSetup
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.BaseAssetQuery
+import org.openremote.model.query.filter.AttributeMetaPredicate
+import org.openremote.model.query.filter.AttributePredicate
+import org.openremote.model.query.filter.BooleanPredicate
+import org.openremote.model.query.filter.StringPredicate
+import org.openremote.test.BenchmarkTrait
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.IgnoreIf
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.sql.Connection
+import java.util.logging.Logger
+
+import static org.openremote.model.query.BaseAssetQuery.Include.ONLY_ID_AND_NAME
+import static org.openremote.model.query.BaseAssetQuery.Match.EXACT
+
+/**
+ * Compares the query plans of attribute and meta item predicates on many assets, with the indexed attribute and
+ * meta item names and with the unindexed expansion of all attributes (which is still used for case insensitive
+ * names). Execution times are logged. Run with <code>./gradlew :test:benchmark</code>.
+ */
+@IgnoreIf({ !Boolean.getBoolean("benchmark") })
+class AssetQueryBenchmarkTest extends Specification implements ManagerContainerTrait, BenchmarkTrait {
+
+    private static final Logger LOG = Logger.getLogger(AssetQueryBenchmarkTest.class.getName())
+
+    static final int ASSET_COUNT = 100000
+    static final String BENCHMARK_META_ITEM = "urn:openremote:test:benchmark"
+
+    @Shared
+    static Container container
+    @Shared
+    static AssetStorageService assetStorageService
+    @Shared
+    static PersistenceService persistenceService
+
+    def setupSpec() {
+        given: "the server container is started"
+        def serverPort = findEphemeralPort()
+        container = startContainer(defaultConfig(serverPort), defaultServices())
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+        assetStorageService = container.getService(AssetStorageService.class)
+        persistenceService = container.getService(PersistenceService.class)
+
+        and: "many assets are stored, every 100th asset has the benchmark attribute and meta item"
+        withConnection { Connection connection ->
+            def st = connection.prepareStatement(
+                "insert into ASSET (ID, OBJ_VERSION, CREATED_ON, NAME, ASSET_TYPE, REALM, ACCESS_PUBLIC_READ, ATTRIBUTES)" +
+                    " select 'benchmark' || I, 0, now(), 'Benchmark ' || I, 'urn:openremote:asset:thing', ?, false," +
+                    " case when I % 100 = 0" +
+                    "   then ('{\"benchmarkFlag\": {\"type\": \"BOOLEAN\", \"value\": true, \"meta\": [{\"name\": \"" + BENCHMARK_META_ITEM + "\", \"value\": true}]}}')::jsonb" +
+                    "   else ('{\"temperature\": {\"type\": \"TEMPERATURE\", \"value\": ' || I % 30 || ', \"meta\": [{\"name\": \"urn:openremote:asset:meta:label\", \"value\": \"Temperature\"}]}}')::jsonb" +
+                    " end" +
+                    " from generate_series(1, ?) as I"
+            )
+            st.setString(1, keycloakDemoSetup.masterTenant.realm)
+            st.setInt(2, ASSET_COUNT)
+            st.executeUpdate()
+            connection.createStatement().execute("analyze ASSET")
+        }
+    }
+
+    def cleanupSpec() {
+        given: "the benchmark assets are removed and the server should be stopped"
+        if (persistenceService != null) {
+            withConnection { Connection connection ->
+                connection.createStatement().executeUpdate("delete from ASSET where ID like 'benchmark%'")
+            }
+        }
+        stopContainer(container)
+    }
+
+    def "Query assets by meta item name"() {
+
+        when: "the assets with the meta item are queried with an indexed and an unindexed name predicate"
+        def indexed = explain(new AssetQuery()
+            .select(new BaseAssetQuery.Select(ONLY_ID_AND_NAME))
+            .attributeMeta(new AttributeMetaPredicate(new StringPredicate(BENCHMARK_META_ITEM))))
+        def unindexed = explain(new AssetQuery()
+            .select(new BaseAssetQuery.Select(ONLY_ID_AND_NAME))
+            .attributeMeta(new AttributeMetaPredicate(new StringPredicate(EXACT, false, BENCHMARK_META_ITEM))))
+
+        then: "only the indexed query should use the meta item name index, both should find the same assets"
+        indexed.plan.contains("asset_attribute_meta_names_idx")
+        !unindexed.plan.contains("asset_attribute_meta_names_idx")
+        indexed.rows == ASSET_COUNT / 100
+        unindexed.rows == indexed.rows
+    }
+
+    def "Query assets by attribute name and meta item value"() {
+
+        when: "the assets with the attribute and meta item value are queried with indexed and unindexed name predicates"
+        def indexed = explain(new AssetQuery()
+            .select(new BaseAssetQuery.Select(ONLY_ID_AND_NAME))
+            .attributes(new AttributePredicate(new StringPredicate("benchmarkFlag")))
+            .attributeMeta(new AttributeMetaPredicate(new StringPredicate(BENCHMARK_META_ITEM), new BooleanPredicate(true))))
+        def unindexed = explain(new AssetQuery()
+            .select(new BaseAssetQuery.Select(ONLY_ID_AND_NAME))
+            .attributes(new AttributePredicate(new StringPredicate(EXACT, false, "benchmarkFlag")))
+            .attributeMeta(new AttributeMetaPredicate(new StringPredicate(EXACT, false, BENCHMARK_META_ITEM), new BooleanPredicate(true))))
+
+        then: "only the indexed query should use the name indexes, both should find the same assets"
+        indexed.plan.contains("asset_attribute_names_idx") || indexed.plan.contains("asset_attribute_meta_names_idx")
+        !unindexed.plan.contains("asset_attribute_names_idx") && !unindexed.plan.contains("asset_attribute_meta_names_idx")
+        indexed.rows == ASSET_COUNT / 100
+        unindexed.rows == indexed.rows
+    }
+
+    static withConnection(Closure work) {
+        persistenceService.doReturningTransaction { em ->
+            em.unwrap(Session.class).doReturningWork { Connection connection -> work(connection) }
+        }
+    }
+
+    /**
+     * Executes the query with <code>EXPLAIN ANALYZE</code> and returns the plan, the number of result rows and
+     * the execution time.
+     */
+    static Map explain(AssetQuery query) {
+        def rows = assetStorageService.findAll(query).size()
+        def preparedQuery = assetStorageService.buildQuery(query)
+        def plan = new StringBuilder()
+        withConnection { Connection connection ->
+            def st = connection.prepareStatement("explain analyze " + preparedQuery.querySql)
+            preparedQuery.apply(st)
+            def rs = st.executeQuery()
+            while (rs.next()) {
+                plan.append(rs.getString(1)).append("\n")
+            }
+        }
+        def millis = (plan =~ /Execution time: ([0-9.]+) ms/)[0][1] as double
+        LOG.info("Query with " + rows + " results in " + millis + "ms:\n" + preparedQuery.querySql + "\n" + plan)
+        return [plan: plan.toString().toLowerCase(), rows: rows, millis: millis]
+    }
+}
@@ -0,0 +1,109 @@
+package org.openremote.test.assets
+
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetProcessingException
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.asset.AssetUpdateProcessor
+import org.openremote.manager.setup.SetupService
+import org.openremote.manager.setup.builtin.KeycloakDemoSetup
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeValueType
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import javax.persistence.EntityManager
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+import static org.openremote.manager.asset.AssetProcessingService.ASSET_QUEUE_PARTITIONS
+
+class AssetQueuePartitionTest extends Specification implements ManagerContainerTrait {
+
+    static final int ASSET_COUNT = 8
+    static final int EVENT_COUNT = 50
+
+    def "Process the events of an asset in order and one at a time on its partition"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 20, delay: 0.5)
+
+        when: "the container is started with partitioned asset processing"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(defaultConfig(serverPort) << [(ASSET_QUEUE_PARTITIONS): "4"], defaultServices())
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def timerService = container.getService(TimerService.class)
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+
+        then: "the container should be running and initialised"
+        assetProcessingService.assetQueuePartitions == 4
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        when: "a processor records the events of each asset and how many are processed at the same time"
+        Map<String, List<Integer>> processedValues = new ConcurrentHashMap<>()
+        Map<String, AtomicInteger> processing = new ConcurrentHashMap<>()
+        Set<Thread> processingThreads = ConcurrentHashMap.newKeySet()
+        AtomicBoolean processedConcurrently = new AtomicBoolean()
+        AssetUpdateProcessor recordingProcessor = new AssetUpdateProcessor() {
+            @Override
+            boolean processAssetUpdate(EntityManager em, Asset asset, AssetAttribute attribute, AttributeEvent.Source source) throws AssetProcessingException {
+                if (attribute.nameOrThrow != "counter") {
+                    return false
+                }
+                if (processing.computeIfAbsent(asset.id, { new AtomicInteger() }).incrementAndGet() > 1) {
+                    processedConcurrently.set(true)
+                }
+                processingThreads.add(Thread.currentThread())
+                // Widen the window for concurrent processing of the same asset
+                Thread.sleep(1)
+                processedValues.computeIfAbsent(asset.id, { new CopyOnWriteArrayList<>() })
+                    .add(attribute.valueAsNumber.get().intValue())
+                processing.get(asset.id).decrementAndGet()
+                true
+            }
+        }
+        assetProcessingService.processors.add(0, recordingProcessor)
+
+        and: "events of several assets are sent interleaved"
+        def assetIds = (0..<ASSET_COUNT).collect {
+            def asset = new Asset("Partition test asset " + it, AssetType.THING, null, keycloakDemoSetup.masterTenant.realm)
+            asset.setAttributes(new AssetAttribute("counter", AttributeValueType.NUMBER, Values.create(-1)))
+            assetStorageService.merge(asset).id
+        }
+        def timestamp = timerService.currentTimeMillis
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            assetIds.each { assetId ->
+                assetProcessingService.sendAttributeEvent(new AttributeEvent(assetId, "counter", Values.create(i), timestamp))
+            }
+        }
+
+        then: "all events should have been processed in the order they were sent"
+        conditions.eventually {
+            assetIds.each { assetId ->
+                assert processedValues[assetId] == (0..<EVENT_COUNT).collect()
+            }
+        }
+
+        and: "no asset should have been processed concurrently"
+        !processedConcurrently.get()
+
+        and: "the events should have been processed on the partitions of their assets"
+        def partitions = assetIds.collect { assetProcessingService.getAssetQueuePartition(it) }.unique()
+        partitions.every { assetProcessingService.getAssetQueuePartitionProcessedCount(it) > 0 }
+        processingThreads.size() <= 4
+        (0..<4).sum { assetProcessingService.getAssetQueuePartitionProcessedCount(it) } >= ASSET_COUNT * EVENT_COUNT
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
@@ -0,0 +1,108 @@
+package org.openremote.test.assets
+
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.asset.AttributeStateWriter
+import org.openremote.manager.setup.SetupService
+import org.openremote.manager.setup.builtin.ManagerDemoSetup
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+
+import static org.openremote.manager.asset.AssetProcessingService.ASSET_STATE_DURABILITY
+
+class AttributeStateWriterTest extends Specification implements ManagerContainerTrait {
+
+    def "Only write delayed attribute values of committed transactions"() {
+
+        given: "the container with delayed attribute state writes"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(
+            defaultConfig(serverPort) << [(ASSET_STATE_DURABILITY): AttributeStateWriter.Durability.DELAYED.name()],
+            defaultServices()
+        )
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def attributeStateWriter = container.getService(AssetProcessingService.class).getAttributeStateWriter()
+        def storedValue = {
+            assetStorageService.find(managerDemoSetup.thingId, true)
+                .getAttribute("light1PowerConsumption").flatMap { it.getValueAsNumber() }.orElse(null)
+        }
+        attributeStateWriter.flush()
+        def initialValue = storedValue()
+
+        when: "a value is stored in a transaction which rolls back"
+        try {
+            persistenceService.doTransaction { em ->
+                attributeStateWriter.store(em, new AttributeEvent(
+                    managerDemoSetup.thingId, "light1PowerConsumption", Values.create(99.9d), getClockTimeOf(container)
+                ))
+                throw new IllegalStateException("Processor failed")
+            }
+        } catch (IllegalStateException ignored) {
+        }
+        attributeStateWriter.flush()
+
+        then: "the value should not have been buffered or written"
+        attributeStateWriter.pendingCount == 0
+        storedValue() == initialValue
+
+        when: "a value is stored in a transaction which commits"
+        persistenceService.doTransaction { em ->
+            attributeStateWriter.store(em, new AttributeEvent(
+                managerDemoSetup.thingId, "light1PowerConsumption", Values.create(88.8d), getClockTimeOf(container)
+            ))
+            assert attributeStateWriter.pendingCount == 0
+        }
+
+        then: "the value should be buffered after the commit"
+        attributeStateWriter.pendingCount == 1
+
+        when: "the buffered values are flushed"
+        attributeStateWriter.flush()
+
+        then: "the value should have been written"
+        attributeStateWriter.pendingCount == 0
+        storedValue() == 88.8d
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Retry failed flushes with backoff and drop values after the last attempt"() {
+
+        given: "a writer with delayed durability and an unavailable database"
+        def persistenceService = [
+            doTransaction: { consumer -> throw new IllegalStateException("Database unavailable") }
+        ] as PersistenceService
+        def attributeStateWriter = new AttributeStateWriter(
+            persistenceService, null, null, AttributeStateWriter.Durability.DELAYED, 100, 1000
+        )
+
+        when: "a buffered value fails to flush"
+        attributeStateWriter.buffer(new AttributeEvent("asset1", "attribute1", Values.create(1d), 1000))
+        attributeStateWriter.flush()
+
+        then: "the value should be buffered again"
+        attributeStateWriter.pendingCount == 1
+        attributeStateWriter.flushFailures == 1
+        attributeStateWriter.flushCount == 0
+
+        when: "the next scheduled flush runs before the backoff elapsed"
+        attributeStateWriter.flush(false)
+
+        then: "the flush should not have been attempted"
+        attributeStateWriter.flushFailures == 1
+
+        when: "the value fails to flush on all remaining attempts"
+        (AttributeStateWriter.MAX_FLUSH_ATTEMPTS - 1).times { attributeStateWriter.flush() }
+
+        then: "the value should have been dropped"
+        attributeStateWriter.pendingCount == 0
+        attributeStateWriter.droppedValues == 1
+        attributeStateWriter.flushFailures == AttributeStateWriter.MAX_FLUSH_ATTEMPTS
+    }
+}
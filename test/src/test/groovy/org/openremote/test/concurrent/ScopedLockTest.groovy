@@ -0,0 +1,118 @@
+package org.openremote.test.concurrent
+
+import org.openremote.container.concurrent.ScopedLock
+import org.openremote.container.concurrent.StripedLock
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ScopedLockTest extends Specification {
+
+    def "Reenter the lock of a scope"() {
+
+        given: "a scoped lock"
+        def lock = new ScopedLock("ReentrancyTest")
+
+        when: "the write lock is acquired again and the read lock is acquired while holding the write lock"
+        def result = lock.withLockReturning("outer", {
+            lock.withLockReturning("inner", {
+                lock.withReadLockReturning("innerRead", { lock.isHeldByCurrentThread() })
+            })
+        })
+
+        then: "the nested sections should have been executed"
+        result
+        !lock.isHeldByCurrentThread()
+
+        when: "the write lock is acquired while holding the read lock"
+        lock.withReadLock("outerRead", {
+            lock.withLock("innerWrite", {})
+        })
+
+        then: "the upgrade should fail immediately instead of waiting for the timeout"
+        def ex = thrown(IllegalStateException)
+        ex.message.contains("ReentrancyTest")
+        ex.message.contains("innerWrite")
+    }
+
+    def "Map a key always to the same reentrant lock of a stripe"() {
+
+        given: "a striped lock"
+        def stripedLock = new StripedLock("StripeTest", 8)
+
+        expect: "the same key to map to the same lock, which can be reentered"
+        stripedLock.get("asset1").is(stripedLock.get("asset1"))
+        stripedLock.get(null).is(stripedLock.get(null))
+        stripedLock.get("asset1").withLockReturning("outer", {
+            stripedLock.get("asset1").withLockReturning("inner", { true })
+        })
+    }
+
+    def "Acquire locks of different scopes concurrently in the same order"() {
+
+        given: "the locks of an asset stripe, a service and an engine"
+        def stripes = new StripedLock("OrderTestStripes", 4)
+        def serviceLock = new ScopedLock("OrderTestService")
+        def engineLock = new ScopedLock("OrderTestEngine")
+        def threadCount = 8
+        def iterations = 200
+        def start = new CountDownLatch(1)
+        def completed = new AtomicInteger()
+        def failures = new AtomicInteger()
+
+        when: "threads acquire the locks in order stripe, service, engine, some only parts of the order"
+        def threads = (0..<threadCount).collect { index ->
+            Thread.start {
+                start.await(10, TimeUnit.SECONDS)
+                try {
+                    for (int i = 0; i < iterations; i++) {
+                        def stripe = stripes.get("asset" + ((index + i) % 16))
+                        switch (i % 3) {
+                            case 0:
+                                stripe.withLock("process", {
+                                    serviceLock.withReadLock("getEngines", {
+                                        engineLock.withLock("updateFact", { completed.incrementAndGet() })
+                                    })
+                                })
+                                break
+                            case 1:
+                                serviceLock.withLock("deploy", {
+                                    engineLock.withLock("addRuleset", { completed.incrementAndGet() })
+                                })
+                                break
+                            default:
+                                stripe.withLock("process", {
+                                    engineLock.withLock("insertFact", { completed.incrementAndGet() })
+                                })
+                        }
+                    }
+                } catch (Exception ignored) {
+                    failures.incrementAndGet()
+                }
+            }
+        }
+        start.countDown()
+        threads.each { it.join(30000) }
+
+        then: "all sections should have been executed without a deadlock or timeout"
+        failures.get() == 0
+        completed.get() == threadCount * iterations
+        ScopedLock.getStatistics().findAll { it.site.startsWith("OrderTest") }.every { it.timeouts == 0 }
+        ScopedLock.getStatistics().find { it.site == "OrderTestEngine::updateFact" }.acquisitions > 0
+    }
+
+    def "Limit the number of recorded lock sites"() {
+
+        given: "a scoped lock"
+        def lock = new ScopedLock("SiteLimitTest")
+
+        when: "more sites than are recorded separately are used"
+        (0..ScopedLock.MAX_STATISTICS_SITES).each { lock.withLock("site" + it, {}) }
+
+        then: "the statistics should be bounded and further sites should share one entry"
+        ScopedLock.getStatistics().size() <= ScopedLock.MAX_STATISTICS_SITES + 1
+        ScopedLock.getStatistics().find { it.site == ScopedLock.OTHER_SITES }.acquisitions > 0
+    }
+}
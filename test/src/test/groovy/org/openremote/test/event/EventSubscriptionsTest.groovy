@@ -0,0 +1,258 @@
+package org.openremote.test.event
+
+import org.apache.camel.Message
+import org.apache.camel.impl.DefaultCamelContext
+import org.apache.camel.impl.DefaultExchange
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.container.web.socket.WebsocketConstants
+import org.openremote.manager.concurrent.ManagerExecutorService
+import org.openremote.manager.event.EventSubscriptions
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.shared.CancelEventSubscription
+import org.openremote.model.event.shared.EventSubscription
+import org.openremote.model.event.shared.SharedEvent
+import org.openremote.model.value.Values
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.function.Consumer
+
+class EventSubscriptionsTest extends Specification {
+
+    def "Split events for subscribers by event type and entity ID"() {
+
+        given: "event subscriptions"
+        def eventSubscriptions = new EventSubscriptions(new TimerService(), Mock(ManagerExecutorService), { message -> } as Consumer)
+        def camelContext = new DefaultCamelContext()
+        def splitSessions = { AttributeEvent event ->
+            def exchange = new DefaultExchange(camelContext)
+            exchange.in.body = event
+            eventSubscriptions.splitForSubscribers(exchange).collect { it.getHeader(WebsocketConstants.SESSION_KEY) } as Set
+        }
+
+        when: "sessions subscribe to attribute events of some assets or of all assets"
+        eventSubscriptions.createOrUpdate("session1", false, new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("asset1")))
+        eventSubscriptions.createOrUpdate("session2", false, new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("asset1", "asset2")))
+        eventSubscriptions.createOrUpdate("session3", false, new EventSubscription(AttributeEvent.class))
+
+        then: "events should be split for the subscribed sessions only"
+        splitSessions(new AttributeEvent("asset1", "attribute", Values.create(1))) == ["session1", "session2", "session3"] as Set
+        splitSessions(new AttributeEvent("asset2", "attribute", Values.create(1))) == ["session2", "session3"] as Set
+        splitSessions(new AttributeEvent("asset3", "attribute", Values.create(1))) == ["session3"] as Set
+
+        when: "a session changes its subscription"
+        eventSubscriptions.createOrUpdate("session2", false, new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("asset3")))
+
+        then: "events should be split for the new subscription"
+        splitSessions(new AttributeEvent("asset2", "attribute", Values.create(1))) == ["session3"] as Set
+        splitSessions(new AttributeEvent("asset3", "attribute", Values.create(1))) == ["session2", "session3"] as Set
+
+        when: "subscriptions are cancelled"
+        eventSubscriptions.cancel("session1", new CancelEventSubscription(AttributeEvent.class))
+        eventSubscriptions.cancelAll("session3")
+
+        then: "events should only be split for the remaining subscriptions"
+        splitSessions(new AttributeEvent("asset1", "attribute", Values.create(1))).isEmpty()
+        splitSessions(new AttributeEvent("asset3", "attribute", Values.create(1))) == ["session2"] as Set
+    }
+
+    def "Serialize an event once for all subscribers"() {
+
+        given: "event subscriptions of several sessions"
+        def eventSubscriptions = new EventSubscriptions(new TimerService(), Mock(ManagerExecutorService), { message -> } as Consumer)
+        eventSubscriptions.createOrUpdate("session1", false, new EventSubscription(AttributeEvent.class))
+        eventSubscriptions.createOrUpdate("session2", false, new EventSubscription(AttributeEvent.class))
+        eventSubscriptions.createOrUpdate("session3", false, new EventSubscription(AttributeEvent.class, null, "subscription3", null))
+
+        when: "an event is split for the subscribers"
+        def exchange = new DefaultExchange(new DefaultCamelContext())
+        exchange.in.body = new AttributeEvent("asset1", "attribute", Values.create(1))
+        def messages = eventSubscriptions.splitForSubscribers(exchange)
+        def bodies = messages.collectEntries { [(it.getHeader(WebsocketConstants.SESSION_KEY)): it.body] }
+
+        then: "the event should have been serialized once"
+        assert messages.size() == 3
+        assert eventSubscriptions.serializedEventCount == 1
+        assert eventSubscriptions.deliveredMessageCount == 3
+
+        and: "sessions without subscription ID should share the same message"
+        assert bodies["session1"].is(bodies["session2"])
+        assert bodies["session1"].startsWith(SharedEvent.MESSAGE_PREFIX + "[")
+        assert bodies["session3"] == SharedEvent.MESSAGE_PREFIX + "subscription3:" + bodies["session1"].substring(SharedEvent.MESSAGE_PREFIX.length())
+
+        and: "all sessions should share the binary payload of the event"
+        def payloads = messages.collect { it.getHeader(WebsocketConstants.BINARY_PAYLOAD) }
+        assert payloads.every { it.is(payloads[0]) }
+        assert bodies["session3"].endsWith(payloads[0].json)
+    }
+
+    def "Collect events of a subscription in batches and collapse updates of the same attribute"() {
+
+        given: "a batched subscription and an unbatched subscription"
+        def scheduledFlushes = []
+        def executorService = Mock(ManagerExecutorService) {
+            schedule(_ as Runnable, _ as Long) >> { Runnable runnable, long delayMillis ->
+                scheduledFlushes << runnable
+                null
+            }
+        }
+        def batchMessages = [:]
+        def eventSubscriptions = new EventSubscriptions(new TimerService(), executorService, { Message message ->
+            batchMessages[message.getHeader(WebsocketConstants.SESSION_KEY)] = message.body
+        } as Consumer)
+        def batchedSubscription = new EventSubscription(AttributeEvent.class, null, "batched", null)
+        batchedSubscription.batchMillis = 100
+        eventSubscriptions.createOrUpdate("session1", false, batchedSubscription)
+        eventSubscriptions.createOrUpdate("session2", false, new EventSubscription(AttributeEvent.class))
+        def split = { AttributeEvent event ->
+            def exchange = new DefaultExchange(new DefaultCamelContext())
+            exchange.in.body = event
+            eventSubscriptions.splitForSubscribers(exchange).collect { it.getHeader(WebsocketConstants.SESSION_KEY) }
+        }
+
+        when: "an attribute changes several times within the time window"
+        def splitSessions = (1..5).collect { split(new AttributeEvent("asset1", "attribute1", Values.create(it))) }
+        split(new AttributeEvent("asset1", "attribute2", Values.create(true)))
+
+        then: "only the unbatched subscription receives a message per event"
+        splitSessions.every { it == ["session2"] }
+        batchMessages.isEmpty()
+        scheduledFlushes.size() == 1
+        eventSubscriptions.batchedEventCount == 6
+        eventSubscriptions.collapsedEventCount == 4
+
+        when: "the time window closes"
+        scheduledFlushes.each { it.run() }
+        def events = Container.JSON.readValue(
+            batchMessages["session1"].substring((SharedEvent.MESSAGE_PREFIX + "batched:").length()),
+            AttributeEvent[].class
+        )
+
+        then: "one message with the latest value of each attribute is sent"
+        batchMessages["session1"].startsWith(SharedEvent.MESSAGE_PREFIX + "batched:[")
+        events.length == 2
+        events[0].attributeName == "attribute1"
+        events[0].value.get().number == 5
+        events[1].attributeName == "attribute2"
+        eventSubscriptions.batchMessageCount == 1
+    }
+
+    def "Cancel the scheduled flush of a batch which is flushed when full"() {
+
+        given: "a batched subscription and an executor recording the scheduled flushes and their cancellation"
+        def scheduledFlushes = []
+        def cancelledFlushes = []
+        def executorService = Mock(ManagerExecutorService) {
+            schedule(_ as Runnable, _ as Long) >> { Runnable runnable, long delayMillis ->
+                def flushIndex = scheduledFlushes.size()
+                scheduledFlushes << runnable
+                [cancel: { boolean mayInterrupt -> cancelledFlushes << flushIndex; true }] as ScheduledFuture
+            }
+        }
+        def batchMessages = []
+        def eventSubscriptions = new EventSubscriptions(new TimerService(), executorService, { Message message ->
+            batchMessages << message.body
+        } as Consumer)
+        def batchedSubscription = new EventSubscription(AttributeEvent.class, null, "batched", null)
+        batchedSubscription.batchMillis = 100
+        eventSubscriptions.createOrUpdate("session1", false, batchedSubscription)
+        def split = { AttributeEvent event ->
+            def exchange = new DefaultExchange(new DefaultCamelContext())
+            exchange.in.body = event
+            eventSubscriptions.splitForSubscribers(exchange)
+        }
+
+        when: "a batch is filled"
+        (1..EventSubscriptions.MAX_BATCH_SIZE).each {
+            split(new AttributeEvent("asset1", "attribute" + it, Values.create(it)))
+        }
+
+        then: "the full batch is sent and its scheduled flush is cancelled"
+        batchMessages.size() == 1
+        scheduledFlushes.size() == 1
+        cancelledFlushes == [0]
+
+        when: "another event is added"
+        split(new AttributeEvent("asset2", "attribute", Values.create(true)))
+
+        then: "a new flush is scheduled for it"
+        scheduledFlushes.size() == 2
+        cancelledFlushes == [0]
+
+        when: "the new flush runs"
+        scheduledFlushes.last().run()
+
+        then: "the event is sent in its own batch"
+        batchMessages.size() == 2
+    }
+
+    def "Deliver batches of a subscription in order when a full batch and the timer flush concurrently"() {
+
+        given: "a batched subscription with a session which is slow to receive the first batch"
+        def scheduledFlushes = new CopyOnWriteArrayList<Runnable>()
+        def executorService = Mock(ManagerExecutorService) {
+            schedule(_ as Runnable, _ as Long) >> { Runnable runnable, long delayMillis ->
+                scheduledFlushes << runnable
+                null
+            }
+        }
+        def batchMessages = new CopyOnWriteArrayList<String>()
+        def firstBatchDelivering = new CountDownLatch(1)
+        def releaseFirstBatch = new CountDownLatch(1)
+        def eventSubscriptions = new EventSubscriptions(new TimerService(), executorService, { Message message ->
+            if (firstBatchDelivering.count > 0) {
+                firstBatchDelivering.countDown()
+                releaseFirstBatch.await(10, TimeUnit.SECONDS)
+            }
+            batchMessages << (String) message.body
+        } as Consumer)
+        def batchedSubscription = new EventSubscription(AttributeEvent.class, null, "batched", null)
+        batchedSubscription.batchMillis = 100
+        eventSubscriptions.createOrUpdate("session1", false, batchedSubscription)
+        def split = { AttributeEvent event ->
+            def exchange = new DefaultExchange(new DefaultCamelContext())
+            exchange.in.body = event
+            eventSubscriptions.splitForSubscribers(exchange)
+        }
+        def conditions = new PollingConditions(timeout: 5)
+
+        when: "a batch is filled and flushed by the thread adding the last event"
+        def fullBatch = Thread.start {
+            (1..EventSubscriptions.MAX_BATCH_SIZE).each {
+                split(new AttributeEvent("asset1", "attribute" + it, Values.create(it)))
+            }
+        }
+        firstBatchDelivering.await(10, TimeUnit.SECONDS)
+
+        and: "another event is added and its timer flushes while the full batch is being delivered"
+        split(new AttributeEvent("asset2", "attribute", Values.create(true)))
+        def timerFlush = Thread.start {
+            scheduledFlushes.last().run()
+        }
+
+        then: "the timer flush waits for the delivery of the full batch"
+        conditions.eventually {
+            assert timerFlush.state == Thread.State.BLOCKED
+        }
+        batchMessages.isEmpty()
+
+        when: "the full batch is delivered"
+        releaseFirstBatch.countDown()
+        fullBatch.join(10000)
+        timerFlush.join(10000)
+
+        then: "the batches have been delivered in order"
+        batchMessages.size() == 2
+        Container.JSON.readValue(
+            batchMessages[0].substring((SharedEvent.MESSAGE_PREFIX + "batched:").length()), AttributeEvent[].class
+        ).length == EventSubscriptions.MAX_BATCH_SIZE
+        Container.JSON.readValue(
+            batchMessages[1].substring((SharedEvent.MESSAGE_PREFIX + "batched:").length()), AttributeEvent[].class
+        )[0].entityId == "asset2"
+    }
+}
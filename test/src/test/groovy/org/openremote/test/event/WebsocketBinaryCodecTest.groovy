@@ -0,0 +1,166 @@
+package org.openremote.test.event
+
+import org.openremote.container.Container
+import org.openremote.container.web.socket.WebsocketBinaryCodec
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.shared.SharedEvent
+import org.openremote.model.value.Values
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+
+class WebsocketBinaryCodecTest extends Specification {
+
+    def eventsJson(AttributeEvent... events) {
+        Container.JSON.writeValueAsString(events)
+    }
+
+    def roundTrip(String message, WebsocketBinaryCodec.Payload payload) {
+        WebsocketBinaryCodec.decode(WebsocketBinaryCodec.encode(message, payload))
+    }
+
+    def "Transcode messages to binary frames and back"() {
+
+        given: "messages with a payload, the subscription ID of one contains JSON delimiters"
+        def payload = new WebsocketBinaryCodec.Payload(eventsJson(
+            new AttributeEvent("5M2nvQ4VG5TSMoFSpdS8Kn", "temperature", Values.create(21.5), 1000),
+            new AttributeEvent("5M2nvQ4VG5TSMoFSpdS8Kn", "temperature", Values.create(21.75), 2000),
+            new AttributeEvent("5M2nvQ4VG5TSMoFSpdS8Kn", "targetTemperature", Values.create(true), 3000)
+        ))
+        def valuesPayload = new WebsocketBinaryCodec.Payload(
+            '{"eventType":"attribute","values":[1,-1,100000,-4294967296,0.1,0.30000001192092896,1.5E300,true,false,null,"été","","ab","abc"],"nested":{"a":[]}}'
+        )
+        def messages = [
+            [SharedEvent.MESSAGE_PREFIX + payload.json, payload],
+            [SharedEvent.MESSAGE_PREFIX + "subscription{[1]}:" + payload.json, payload],
+            [SharedEvent.MESSAGE_PREFIX + "subscription1:" + valuesPayload.json, valuesPayload],
+            ["SUBSCRIBED:{\"eventType\":\"attribute\"}", null]
+        ]
+
+        expect: "the messages to be decoded unchanged"
+        messages.every { roundTrip(it[0] as String, it[1] as WebsocketBinaryCodec.Payload) == it[0] }
+
+        and: "the frame to be smaller than the text, repeated strings of the events are only sent once"
+        def message = messages[1][0] as String
+        def singleEventPayload = new WebsocketBinaryCodec.Payload(eventsJson(
+            new AttributeEvent("5M2nvQ4VG5TSMoFSpdS8Kn", "temperature", Values.create(21.5), 1000)
+        ))
+        WebsocketBinaryCodec.encode(message, payload).remaining() < message.getBytes(StandardCharsets.UTF_8).length
+        WebsocketBinaryCodec.encode(message, payload).remaining() < 2 * singleEventPayload.encoded.length
+    }
+
+    def "Encode the payload in a stringref namespace after the prefix"() {
+
+        given: "a payload with repeated strings of different lengths"
+        def payload = new WebsocketBinaryCodec.Payload('["ab","ab","abc","abc","assetId","assetId"]')
+
+        when: "a message with the payload is encoded"
+        def frame = WebsocketBinaryCodec.encode("EVENT:" + payload.json, payload)
+        def bytes = new byte[frame.remaining()]
+        frame.duplicate().get(bytes)
+
+        then: "the frame is an array of the prefix and the payload in a namespace"
+        bytes.collect { it & 0xff } == [
+            0x82,
+            0x66, *"EVENT:".bytes,
+            0xd9, 0x01, 0x00,
+            0x9f,
+            // Too short to be referenced
+            0x62, *"ab".bytes, 0x62, *"ab".bytes,
+            // The first and second string of the table
+            0x63, *"abc".bytes, 0xd8, 0x19, 0x00,
+            0x67, *"assetId".bytes, 0xd8, 0x19, 0x01,
+            0xff
+        ]
+
+        and: "the frame is decoded"
+        WebsocketBinaryCodec.decode(frame) == "EVENT:" + payload.json
+    }
+
+    def "Apply the length thresholds of the stringref table"() {
+
+        expect: "longer strings to be required as the table grows"
+        WebsocketBinaryCodec.getMinReferenceLength(0) == 3
+        WebsocketBinaryCodec.getMinReferenceLength(23) == 3
+        WebsocketBinaryCodec.getMinReferenceLength(24) == 4
+        WebsocketBinaryCodec.getMinReferenceLength(255) == 4
+        WebsocketBinaryCodec.getMinReferenceLength(256) == 5
+        WebsocketBinaryCodec.getMinReferenceLength(65535) == 5
+        WebsocketBinaryCodec.getMinReferenceLength(65536) == 7
+        WebsocketBinaryCodec.getMinReferenceLength(4294967296L) == 11
+
+        when: "a payload with more strings than fit in the small table sizes is encoded"
+        def strings = (0..299).collect { String.format("s%03d", it) }
+        def payload = new WebsocketBinaryCodec.Payload(Container.JSON.writeValueAsString(strings + strings))
+        def message = "EVENT:" + payload.json
+
+        then: "encoder and decoder agree on the strings in the table"
+        roundTrip(message, payload) == message
+    }
+
+    def "Encode a payload once for all sessions"() {
+
+        given: "a payload sent with the prefixes of different subscriptions"
+        def payload = new WebsocketBinaryCodec.Payload(eventsJson(
+            new AttributeEvent("5M2nvQ4VG5TSMoFSpdS8Kn", "temperature", Values.create(21.5), 1000)
+        ))
+
+        when: "the messages are encoded"
+        def encoded = payload.encoded
+        def message1 = SharedEvent.MESSAGE_PREFIX + "subscription1:" + payload.json
+        def message2 = SharedEvent.MESSAGE_PREFIX + "subscription2:" + payload.json
+        def frame1 = WebsocketBinaryCodec.encode(message1, payload)
+        def frame2 = WebsocketBinaryCodec.encode(message2, payload)
+
+        then: "the payload has been encoded once"
+        payload.encoded.is(encoded)
+
+        and: "each frame is decoded with its own prefix"
+        WebsocketBinaryCodec.decode(frame1) == message1
+        WebsocketBinaryCodec.decode(frame2) == message2
+    }
+
+    def "Send invalid payloads as part of the prefix"() {
+
+        given: "payloads which aren't a single JSON value"
+        def payloads = [
+            new WebsocketBinaryCodec.Payload('{"eventType":"attribute",'),
+            new WebsocketBinaryCodec.Payload('{} {}'),
+            new WebsocketBinaryCodec.Payload('')
+        ]
+
+        expect: "the payloads not to be encoded and the messages to be decoded unchanged"
+        payloads.every { it.encoded == null }
+        payloads.every { roundTrip("EVENT:" + it.json, it) == "EVENT:" + it.json }
+
+        when: "the message doesn't end with the payload"
+        WebsocketBinaryCodec.encode("EVENT:[]", new WebsocketBinaryCodec.Payload("{}"))
+
+        then: "the message is rejected"
+        thrown(IllegalArgumentException)
+    }
+
+    def "Reject invalid frames"() {
+
+        when: "a frame is decoded"
+        WebsocketBinaryCodec.decode(ByteBuffer.wrap(frame as byte[]))
+
+        then: "the frame should be rejected"
+        thrown(IllegalArgumentException)
+
+        where:
+        frame << [
+            // Reference to an unknown string of the namespace
+            [0x82, 0x60, 0xd9, 0x01, 0x00, 0x9f, 0xd8, 0x19, 0x00, 0xff],
+            // Reference outside of a namespace
+            [0x82, 0x60, 0x9f, 0xd8, 0x19, 0x00, 0xff],
+            [0x81, 0xd8, 0x19, 0x00],
+            // Unsupported tag
+            [0x82, 0x60, 0xc1, 0x00],
+            // Truncated and trailing data
+            [0x82, 0x60, 0x9f, 0x01],
+            [0x81, 0x60, 0x00]
+        ]
+    }
+}
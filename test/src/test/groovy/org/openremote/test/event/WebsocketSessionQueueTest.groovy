@@ -0,0 +1,133 @@
+package org.openremote.test.event
+
+import org.openremote.container.web.socket.WebsocketBinaryCodec
+import org.openremote.container.web.socket.WebsocketSessionQueue
+import spock.lang.Specification
+
+import javax.websocket.CloseReason
+import javax.websocket.RemoteEndpoint
+import javax.websocket.SendHandler
+import javax.websocket.SendResult
+import javax.websocket.Session
+import java.nio.ByteBuffer
+
+import static org.openremote.container.web.socket.WebsocketSessionQueue.OverflowPolicy.*
+
+class WebsocketSessionQueueTest extends Specification {
+
+    def sentTexts = []
+    def pendingHandlers = []
+    def asyncRemote = Mock(RemoteEndpoint.Async) {
+        sendText(_ as String, _ as SendHandler) >> { String text, SendHandler handler ->
+            sentTexts << text
+            pendingHandlers << handler
+        }
+        sendBinary(_ as ByteBuffer, _ as SendHandler) >> { ByteBuffer frame, SendHandler handler ->
+            sentTexts << WebsocketBinaryCodec.decode(frame)
+            pendingHandlers << handler
+        }
+    }
+    def session = Mock(Session) {
+        getId() >> "session1"
+        isOpen() >> true
+        getAsyncRemote() >> asyncRemote
+    }
+
+    def completeSends() {
+        while (!pendingHandlers.isEmpty()) {
+            pendingHandlers.remove(0).onResult(new SendResult())
+        }
+    }
+
+    def "Send one message at a time and drop the oldest queued message when full"() {
+
+        given: "a queue of a slow session"
+        def sessionQueue = new WebsocketSessionQueue(session, 2, DROP_OLDEST)
+
+        when: "messages are sent while the first send has not completed"
+        (1..5).each { sessionQueue.send("m" + it, null) }
+
+        then: "only the first message is in flight and the oldest queued messages have been dropped"
+        sentTexts == ["m1"]
+        sessionQueue.depth == 2
+        sessionQueue.droppedCount == 2
+
+        when: "the client catches up"
+        completeSends()
+
+        then: "the latest messages are delivered in order"
+        sentTexts == ["m1", "m4", "m5"]
+        sessionQueue.depth == 0
+        sessionQueue.sentCount == 3
+    }
+
+    def "Replace queued values of the same attribute when full"() {
+
+        given: "a queue of a slow session"
+        def sessionQueue = new WebsocketSessionQueue(session, 2, COALESCE)
+
+        when: "values of two attributes are sent while the first send has not completed"
+        sessionQueue.send("a1", "a")
+        sessionQueue.send("a2", "a")
+        sessionQueue.send("b1", "b")
+        sessionQueue.send("a3", "a")
+        sessionQueue.send("b2", "b")
+
+        then: "the queued values have been replaced with the latest values"
+        sessionQueue.depth == 2
+        sessionQueue.coalescedCount == 2
+        sessionQueue.droppedCount == 0
+
+        when: "the client catches up"
+        completeSends()
+
+        then: "only the latest value of each attribute is delivered"
+        sentTexts == ["a1", "a3", "b2"]
+    }
+
+    def "Close the session of a slow client when full"() {
+
+        given: "a queue of a slow session"
+        def sessionQueue = new WebsocketSessionQueue(session, 1, DISCONNECT)
+
+        when: "more messages are sent than the queue can hold"
+        (1..3).each { sessionQueue.send("m" + it, null) }
+
+        then: "the session is closed"
+        1 * session.close({ CloseReason reason -> reason.closeCode == CloseReason.CloseCodes.TRY_AGAIN_LATER })
+        sessionQueue.depth == 0
+        sessionQueue.droppedCount == 2
+
+        when: "the in flight send completes and another message is sent"
+        completeSends()
+        sessionQueue.send("m4", null)
+
+        then: "nothing else is delivered"
+        sentTexts == ["m1"]
+    }
+
+    def "Send the latest payload of coalesced messages as binary frames"() {
+
+        given: "a queue of a slow session using binary frames"
+        def sessionQueue = new WebsocketSessionQueue(session, 1, COALESCE, true)
+        def send = { String prefix, String json, String coalesceKey ->
+            def payload = new WebsocketBinaryCodec.Payload(json)
+            sessionQueue.send(prefix + json, coalesceKey, payload)
+        }
+
+        when: "values of an attribute are sent while the first send has not completed"
+        send("EVENT:", '[{"value":1}]', "a")
+        send("EVENT:", '[{"value":2}]', "a")
+        send("EVENT:", '[{"value":3}]', "a")
+
+        and: "a message without payload is sent after the client caught up"
+        completeSends()
+        sessionQueue.send("SUBSCRIBED:{}", null)
+        completeSends()
+
+        then: "the frames hold the latest value and the message without payload"
+        sentTexts == ['EVENT:[{"value":1}]', 'EVENT:[{"value":3}]', "SUBSCRIBED:{}"]
+        sessionQueue.coalescedCount == 1
+        0 * asyncRemote.sendText(_, _)
+    }
+}
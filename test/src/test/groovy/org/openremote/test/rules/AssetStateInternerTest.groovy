@@ -0,0 +1,46 @@
+package org.openremote.test.rules
+
+import org.openremote.manager.rules.AssetStateInterner
+import org.openremote.model.rules.AssetState
+import org.openremote.model.value.Values
+import spock.lang.Specification
+
+import static org.openremote.test.rules.AssetStateRegistryTest.createAssetState
+
+class AssetStateInternerTest extends Specification {
+
+    def "Share strings and paths of asset states"() {
+
+        given: "an asset state interner"
+        def interner = new AssetStateInterner()
+
+        when: "states of the same asset, loaded separately, are interned"
+        AssetState state1 = createAssetState(new String("child"), new String("realmA"), [new String("child"), new String("root")], new String("attribute1"), 1)
+        AssetState state2 = createAssetState(new String("child"), new String("realmA"), [new String("child"), new String("root")], new String("attribute2"), 2)
+        AssetState interned1 = interner.intern(state1)
+        AssetState interned2 = interner.intern(state2)
+
+        then: "the interned states should be equal to the original states"
+        assert interned1 == state1
+        assert interned2 == state2
+        assert interned1.value.get() == Values.create(1)
+        assert interned2.value.get() == Values.create(2)
+        assert !state1.realm.is(state2.realm)
+
+        and: "share their strings and path"
+        assert interned1.id.is(interned2.id)
+        assert interned1.name.is(interned2.name)
+        assert interned1.realm.is(interned2.realm)
+        assert interned1.path.is(interned2.path)
+
+        and: "use less heap"
+        assert AssetStateInterner.estimateHeapBytes([interned1, interned2]) < AssetStateInterner.estimateHeapBytes([state1, state2])
+
+        when: "the asset is moved"
+        AssetState moved = interner.intern(createAssetState("child", "realmA", ["child", "other", "root"], "attribute1", 1))
+
+        then: "the state should have the new path"
+        assert moved.path == ["child", "other", "root"] as String[]
+        assert interner.intern(createAssetState("child", "realmA", ["child", "other", "root"], "attribute2", 2)).path.is(moved.path)
+    }
+}
@@ -0,0 +1,71 @@
+package org.openremote.test.rules
+
+import org.openremote.manager.rules.AssetStateRegistry
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.rules.AssetState
+import org.openremote.model.value.Values
+import spock.lang.Specification
+
+import static org.openremote.model.asset.AssetType.THING
+import static org.openremote.model.attribute.AttributeValueType.NUMBER
+
+class AssetStateRegistryTest extends Specification {
+
+    def "Look up asset states by subtree and realm"() {
+
+        given: "an asset state registry"
+        def registry = new AssetStateRegistry()
+
+        when: "asset states of an asset tree in two realms are added"
+        registry.add(createAssetState("root", "realmA", ["root"], "attribute1", 1))
+        registry.add(createAssetState("child", "realmA", ["child", "root"], "attribute1", 2))
+        registry.add(createAssetState("child", "realmA", ["child", "root"], "attribute2", 3))
+        registry.add(createAssetState("grandchild", "realmA", ["grandchild", "child", "root"], "attribute1", 4))
+        registry.add(createAssetState("other", "realmB", ["other"], "attribute1", 5))
+
+        then: "the states should be found by subtree and realm"
+        assert registry.size() == 5
+        assert registry.getInScope("root").size() == 4
+        assert registry.getInScope("child").size() == 3
+        assert registry.getInScope("grandchild").size() == 1
+        assert registry.getInScope("missing").isEmpty()
+        assert registry.getInRealm("realmA").size() == 4
+        assert registry.getInRealm("realmB").size() == 1
+
+        when: "an asset state is replaced"
+        registry.add(createAssetState("child", "realmA", ["child", "root"], "attribute1", 20))
+
+        then: "the new state should replace the old state"
+        assert registry.size() == 5
+        assert registry.getInScope("child").find { it.id == "child" && it.attributeName == "attribute1" }.value.get() == Values.create(20)
+
+        when: "an asset is moved"
+        registry.add(createAssetState("grandchild", "realmA", ["grandchild", "root"], "attribute1", 4))
+
+        then: "the asset should be found in its new subtree only"
+        assert registry.size() == 5
+        assert registry.getInScope("child").size() == 2
+        assert registry.getInScope("root").size() == 4
+
+        when: "all states of an asset are removed"
+        registry.remove(createAssetState("child", "realmA", ["child", "root"], "attribute1", 0))
+        registry.remove(createAssetState("child", "realmA", ["child", "root"], "attribute2", 0))
+
+        then: "the asset should be gone from all indexes"
+        assert registry.size() == 3
+        assert !registry.hasAssetStates("child")
+        assert registry.getInScope("child").isEmpty()
+        assert registry.getInScope("root").size() == 2
+        assert registry.getInRealm("realmA").size() == 2
+    }
+
+    static AssetState createAssetState(String id, String realm, List<String> path, String attributeName, double value) {
+        Asset asset = new Asset("Asset " + id, THING)
+        asset.setId(id)
+        asset.setRealm(realm)
+        asset.path = path as String[]
+        return new AssetState(asset, new AssetAttribute(attributeName, NUMBER, Values.create(value)), AttributeEvent.Source.SENSOR)
+    }
+}
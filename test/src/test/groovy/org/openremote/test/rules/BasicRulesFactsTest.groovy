@@ -8,11 +8,28 @@ import org.openremote.manager.asset.AssetStorageService
 import org.openremote.manager.rules.RulesClock
 import org.openremote.manager.rules.RulesEngine
 import org.openremote.manager.rules.RulesFacts
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.geo.GeoJSONPoint
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.filter.RadialGeofencePredicate
+import org.openremote.model.query.filter.StringPredicate
+import org.openremote.model.rules.AssetState
 import org.openremote.model.rules.Assets
+import org.openremote.model.value.Values
 import spock.lang.Specification
 
 import java.util.stream.Collectors
 
+import static org.openremote.model.asset.AssetType.ROOM
+import static org.openremote.model.asset.AssetType.THING
+import static org.openremote.model.attribute.AttributeValueType.GEO_JSON_POINT
+import static org.openremote.model.attribute.AttributeValueType.NUMBER
+import static org.openremote.model.query.BaseAssetQuery.Match.BEGIN
+import static org.openremote.model.query.BaseAssetQuery.Operator.GREATER_THAN
+
 class BasicRulesFactsTest extends Specification {
 
     @ToString(includeNames = true)
@@ -398,4 +415,114 @@ class BasicRulesFactsTest extends Specification {
         assert !rulesFacts.hasTemporaryFacts()
         assert rulesFacts.match(AnonFact).count() == 0
     }
+
+    def "Expire temporary facts in order of expiration"() {
+
+        when: "asset events and temporary facts are inserted out of expiration order"
+        def assetEvent1 = createAssetEvent("asset1", "attribute1", 1000)
+        def assetEvent2 = createAssetEvent("asset2", "attribute1", 0)
+        rulesFacts.insertAssetEvent(20000, assetEvent1)
+        rulesFacts.insertAssetEvent(5000, assetEvent2)
+        rulesFacts.putTemporary("foo", 10000, "FOO")
+
+        then: "the earliest expiration should be known"
+        assert rulesFacts.getTemporaryFactCount() == 3
+        assert rulesFacts.getNextTemporaryFactExpiration() == 5000
+
+        when: "a temporary named fact is replaced before it expires"
+        rulesFacts.putTemporary("foo", 30000, "FOO2")
+
+        then: "the replaced fact should not be counted"
+        assert rulesFacts.getTemporaryFactCount() == 3
+        assert rulesFacts.getNextTemporaryFactExpiration() == 5000
+
+        when: "the clock is advanced past the first expiration"
+        rulesFacts.setClock(new RulesClock(12000))
+        rulesFacts.removeExpiredTemporaryFacts()
+
+        then: "only the expired asset event should be removed"
+        assert rulesFacts.getTemporaryFactCount() == 2
+        assert rulesFacts.getAssetEvents().size() == 1
+        assert rulesFacts.getAssetEvents().iterator().next().getFact() == assetEvent1
+        assert rulesFacts.get("foo") == "FOO2"
+        assert rulesFacts.getNextTemporaryFactExpiration() == 21000
+
+        when: "the clock is advanced past all expirations"
+        rulesFacts.setClock(new RulesClock(50000))
+        rulesFacts.removeExpiredTemporaryFacts()
+
+        then: "all temporary facts should be gone"
+        assert !rulesFacts.hasTemporaryFacts()
+        assert rulesFacts.getAllFacts().count() == 0
+        assert rulesFacts.getNextTemporaryFactExpiration() == null
+    }
+
+    def "Match asset states with indexes"() {
+
+        when: "asset states of some assets are added"
+        (0..<20).each { i ->
+            def type = i % 2 == 0 ? THING : ROOM
+            rulesFacts.putAssetState(createAssetState("asset" + i, type, "parent" + (i % 4), "temperature", i))
+            rulesFacts.putAssetState(createAssetState("asset" + i, type, "parent" + (i % 4), "humidity", i))
+        }
+
+        then: "queries using indexes should match the asset states"
+        assert rulesFacts.matchAssetState(new AssetQuery().id("asset1")).count() == 2
+        assert rulesFacts.matchAssetState(new AssetQuery().ids(["asset1", "asset2", "unknown"])).count() == 4
+        assert rulesFacts.matchAssetState(new AssetQuery().type(ROOM)).count() == 20
+        assert rulesFacts.matchAssetState(new AssetQuery().attributeName("temperature")).count() == 20
+        assert rulesFacts.matchAssetState(new AssetQuery().parent("parent3").attributeValue("humidity", GREATER_THAN, 10)).count() == 3
+        assert rulesFacts.matchAssetState(new AssetQuery().type(new StringPredicate(BEGIN, "urn")).attributeName("humidity")).count() == 20
+
+        when: "an asset is moved to another parent"
+        rulesFacts.putAssetState(createAssetState("asset3", ROOM, "parent0", "humidity", 3))
+
+        then: "the parent index should be updated"
+        assert rulesFacts.matchAssetState(new AssetQuery().parent("parent3").attributeName("humidity")).count() == 4
+        assert rulesFacts.matchAssetState(new AssetQuery().parent("parent0").attributeName("humidity")).count() == 6
+
+        when: "an asset state is removed"
+        rulesFacts.removeAssetState(createAssetState("asset1", ROOM, "parent1", "temperature", 1))
+
+        then: "it should not be matched"
+        assert rulesFacts.matchAssetState(new AssetQuery().id("asset1")).count() == 1
+        assert rulesFacts.matchAssetState(new AssetQuery().attributeName("temperature")).count() == 19
+        assert rulesFacts.assetStates.size() == 39
+    }
+
+    def "Match asset states with radial geofence predicates"() {
+
+        when: "location asset states around a circle with a radius of 1000m are added"
+        [
+            inside      : new GeoJSONPoint(5.0, 52.0045),
+            insideEdge  : new GeoJSONPoint(4.98576, 52.0),
+            outsideBox  : new GeoJSONPoint(5.0218, 52.0),
+            outsideInBox: new GeoJSONPoint(5.0135, 52.0085)
+        ].each { id, point ->
+            rulesFacts.putAssetState(createAssetState(id, THING, null, new AssetAttribute("location", GEO_JSON_POINT, point.toValue())))
+        }
+
+        then: "only the locations within the radius should match"
+        assert rulesFacts.matchAssetState(new AssetQuery().attributeValue("location", new RadialGeofencePredicate(1000, 52.0, 5.0)))
+            .map({ it.id }).collect(Collectors.toSet()) == ["inside", "insideEdge"] as Set
+
+        and: "only the locations outside the radius should match the negated predicate"
+        assert rulesFacts.matchAssetState(new AssetQuery().attributeValue("location", new RadialGeofencePredicate(1000, 52.0, 5.0, true)))
+            .map({ it.id }).collect(Collectors.toSet()) == ["outsideBox", "outsideInBox"] as Set
+    }
+
+    static AssetState createAssetState(String id, AssetType type, String parentId, String attributeName, double value) {
+        return createAssetState(id, type, parentId, new AssetAttribute(attributeName, NUMBER, Values.create(value)))
+    }
+
+    static AssetState createAssetEvent(String id, String attributeName, long timestamp) {
+        return createAssetState(id, THING, null, new AssetAttribute(attributeName, NUMBER, Values.create(timestamp), timestamp))
+    }
+
+    static AssetState createAssetState(String id, AssetType type, String parentId, AssetAttribute attribute) {
+        Asset asset = new Asset("Asset " + id, type)
+        asset.setId(id)
+        asset.setParentId(parentId)
+        return new AssetState(asset, attribute, AttributeEvent.Source.SENSOR)
+    }
 }
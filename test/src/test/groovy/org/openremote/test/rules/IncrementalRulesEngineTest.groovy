@@ -0,0 +1,201 @@
+package org.openremote.test.rules
+
+import org.jeasy.rules.api.Rules
+import org.jeasy.rules.core.RuleBuilder
+import org.jeasy.rules.core.RulesEngineParameters
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.IncrementalRulesEngine
+import org.openremote.manager.rules.RuleDependencies
+import org.openremote.manager.rules.RulesClock
+import org.openremote.manager.rules.RulesEngine
+import org.openremote.manager.rules.RulesFacts
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.NewAssetQuery
+import org.openremote.model.query.filter.AttributePredicate
+import org.openremote.model.query.filter.DateTimePredicate
+import org.openremote.model.query.filter.StringPredicate
+import org.openremote.model.rules.AssetState
+import org.openremote.model.rules.Assets
+import org.openremote.model.rules.json.RuleCondition
+import org.openremote.model.rules.json.RuleOperator
+import org.openremote.model.value.Values
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+import static org.openremote.model.asset.AssetType.ROOM
+import static org.openremote.model.asset.AssetType.THING
+import static org.openremote.model.query.BaseAssetQuery.Match.BEGIN
+import static org.openremote.test.rules.BasicRulesFactsTest.createAssetState
+
+class IncrementalRulesEngineTest extends Specification {
+
+    def timerService = new TimerService()
+    def assetStorageService = new AssetStorageService()
+
+    def setup() {
+        timerService.clock = TimerService.Clock.PSEUDO
+    }
+
+    def createRulesFacts() {
+        def rulesFacts = new RulesFacts(timerService, assetStorageService, [:] as Assets, this, RulesEngine.RULES_LOG)
+        rulesFacts.setClock(new RulesClock(0))
+        return rulesFacts
+    }
+
+    def "Only evaluate the conditions which depend on changed facts"() {
+
+        given: "facts with asset states of two assets"
+        def rulesFacts = createRulesFacts()
+        rulesFacts.putAssetState(createAssetState("asset1", THING, null, "temperature", 20))
+        rulesFacts.putAssetState(createAssetState("asset2", ROOM, null, "humidity", 50))
+        def engine = new IncrementalRulesEngine(
+            new RulesEngineParameters(false, true, false, RulesEngineParameters.DEFAULT_RULE_PRIORITY_THRESHOLD),
+            rulesFacts
+        )
+
+        and: "rules depending on an asset, a named fact, all asset states and the clock"
+        def evaluations = [:].withDefault { 0 }
+        def rules = new Rules(
+            new RuleBuilder().name("Too warm").priority(1).when({ facts ->
+                evaluations["Too warm"]++
+                !rulesFacts.getOptional("alarm").isPresent() &&
+                    rulesFacts.matchAssetState(new AssetQuery().id("asset1")).anyMatch { Values.getNumber(it.value.orElse(null)).orElse(0d) > 25 }
+            }).then({ facts -> rulesFacts.put("alarm", "Too warm") }).build(),
+            new RuleBuilder().name("Alarm").priority(2).when({ facts ->
+                evaluations["Alarm"]++
+                rulesFacts.getOptional("alarm").isPresent() && !rulesFacts.getOptional("notified").isPresent()
+            }).then({ facts -> rulesFacts.put("notified", true) }).build(),
+            new RuleBuilder().name("Any state").priority(3).when({ facts ->
+                evaluations["Any state"]++
+                rulesFacts.matchAssetState({ AssetState assetState -> false }).count() > 0
+            }).then({ facts -> }).build(),
+            new RuleBuilder().name("Clock").priority(4).when({ facts ->
+                evaluations["Clock"]++
+                rulesFacts.getClock().getTimestamp() < 0
+            }).then({ facts -> }).build()
+        )
+
+        when: "the rules fire for the first time"
+        engine.fire(rules)
+
+        then: "all conditions should have been evaluated"
+        evaluations == ["Too warm": 1, "Alarm": 1, "Any state": 1, "Clock": 1]
+
+        when: "the rules fire without changed facts"
+        evaluations.clear()
+        engine.fire(rules)
+
+        then: "only the condition reading the clock should have been evaluated"
+        evaluations == ["Clock": 1]
+
+        when: "the state of the other asset changes"
+        evaluations.clear()
+        rulesFacts.putAssetState(createAssetState("asset2", ROOM, null, "humidity", 60))
+        engine.fire(rules)
+
+        then: "the condition of the asset should not have been evaluated"
+        evaluations == ["Any state": 1, "Clock": 1]
+
+        when: "the state of the asset changes and satisfies the condition"
+        evaluations.clear()
+        rulesFacts.putAssetState(createAssetState("asset1", THING, null, "temperature", 30))
+        engine.fire(rules)
+
+        then: "the rules depending on the facts changed by the actions should have been evaluated until none fired"
+        rulesFacts.getOptional("alarm").get() == "Too warm"
+        rulesFacts.getOptional("notified").get() == true
+        // A satisfied condition is evaluated again when the rule fires, then once more after its action
+        evaluations == ["Too warm": 3, "Alarm": 3, "Any state": 1, "Clock": 3]
+        engine.skippedCount > 0
+    }
+
+    def "Record the dependencies of asset state queries"() {
+
+        given: "dependencies"
+        def dependencies = new RuleDependencies()
+
+        when: "queries with exact and other restrictions are recorded"
+        def exactQuery = new NewAssetQuery()
+        exactQuery.ids = ["asset1"] as String[]
+        exactQuery.types = [new StringPredicate(THING.value)] as StringPredicate[]
+        exactQuery.attributes = new RuleCondition<>(RuleOperator.OR, [
+            new AttributePredicate(new StringPredicate("temperature"), null),
+            new AttributePredicate(new StringPredicate("humidity"), null)
+        ] as AttributePredicate[], null)
+        dependencies.addAssetStates(exactQuery)
+        def prefixQuery = new NewAssetQuery()
+        prefixQuery.types = [new StringPredicate(BEGIN, "urn:")] as StringPredicate[]
+        dependencies.addAssetStates(prefixQuery)
+
+        then: "only exact restrictions should have been recorded"
+        !dependencies.untracked
+        dependencies.assetStates[0].assetIds == ["asset1"] as Set
+        dependencies.assetStates[0].assetTypes == [THING.value] as Set
+        dependencies.assetStates[0].attributeNames == ["temperature", "humidity"] as Set
+        dependencies.assetStates[1].assetIds == null
+        dependencies.assetStates[1].assetTypes == null
+        dependencies.matches(createAssetState("asset1", THING, null, "humidity", 1))
+        dependencies.matches(createAssetState("asset2", ROOM, null, "humidity", 1))
+
+        when: "a query with a time predicate is recorded"
+        def timeQuery = new NewAssetQuery()
+        timeQuery.attributes = new RuleCondition<>(RuleOperator.AND, [
+            new AttributePredicate(new StringPredicate("temperature"), new DateTimePredicate())
+        ] as AttributePredicate[], null)
+        dependencies.addAssetStates(timeQuery)
+
+        then: "the dependencies should be untracked"
+        dependencies.untracked
+    }
+
+    def "Record the dependencies of conditions reading facts in parallel matches"() {
+
+        given: "more asset states than are matched sequentially"
+        def rulesFacts = createRulesFacts()
+        def assetCount = RulesFacts.PARALLEL_MATCH_THRESHOLD * 4
+        for (int i = 0; i < assetCount; i++) {
+            rulesFacts.putAssetState(createAssetState("asset" + i, THING, null, "temperature", i))
+        }
+        def dependencies = new RuleDependencies()
+
+        when: "a condition reads a named fact for each matched asset state"
+        rulesFacts.startTrackingDependencies(dependencies)
+        def matched
+        try {
+            matched = rulesFacts.matchAssetState(new AssetQuery().attributeName("temperature"))
+                .filter { !rulesFacts.getOptional("reset_" + it.id).isPresent() }
+                .count()
+        } finally {
+            rulesFacts.stopTrackingDependencies()
+        }
+
+        then: "the name of every fact should have been recorded"
+        matched == assetCount
+        dependencies.factNames.size() == assetCount
+        dependencies.assetStates.size() == 1
+
+        when: "dependencies are recorded by many threads at once"
+        def concurrentDependencies = new RuleDependencies()
+        def executor = Executors.newFixedThreadPool(8)
+        def start = new CountDownLatch(1)
+        def futures = (0..<8).collect { thread ->
+            executor.submit {
+                start.await()
+                for (int i = 0; i < 1000; i++) {
+                    concurrentDependencies.addFactName("fact" + thread + "_" + i)
+                    concurrentDependencies.addAllAssetStates()
+                }
+            }
+        }
+        start.countDown()
+        futures.each { it.get() }
+        executor.shutdown()
+
+        then: "no dependency should have been lost"
+        concurrentDependencies.factNames.size() == 8000
+        concurrentDependencies.assetStates.size() == 8000
+    }
+}
@@ -0,0 +1,125 @@
+package org.openremote.test.rules
+
+import org.openremote.container.Container
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.AssetQueryPredicate
+import org.openremote.manager.rules.JsonRulesBuilder
+import org.openremote.manager.rules.RulesFacts
+import org.openremote.model.query.NewAssetQuery
+import org.openremote.model.query.filter.ParentPredicate
+import org.openremote.model.rules.AssetState
+import org.openremote.model.rules.Assets
+import org.openremote.model.rules.json.Rule
+import org.openremote.model.rules.json.RuleCondition
+import org.openremote.model.rules.json.RuleOperator
+import org.openremote.model.rules.json.RuleTrigger
+import org.openremote.test.BenchmarkTrait
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+
+import java.util.function.Predicate
+import java.util.logging.Logger
+import java.util.stream.Collectors
+
+/**
+ * Compares evaluating the conditions of JSON rules compiled by {@link JsonRulesBuilder} with the evaluation done before
+ * rules were compiled, which looked up a named reset fact for every matched asset state. Run with
+ * <code>./gradlew :test:benchmark</code>.
+ */
+@IgnoreIf({ !Boolean.getBoolean("benchmark") })
+class JsonRulesBenchmarkTest extends Specification implements BenchmarkTrait {
+
+    private static final Logger LOG = Logger.getLogger(JsonRulesBenchmarkTest.class.getName())
+
+    static final int ASSET_COUNT = 5000
+    static final int ATTRIBUTE_COUNT = 10
+    static final int RULE_COUNT = 1000
+    static final int WARMUP_ITERATIONS = 5
+    static final int ITERATIONS = 20
+
+    def "Evaluate JSON rule conditions"() {
+
+        given: "facts with many asset states"
+        Container.LOG.info("Running benchmark...")
+        def timerService = createPseudoTimerService()
+        def assetStorageService = new AssetStorageService()
+        def rulesFacts = createRulesFacts(timerService, assetStorageService, this)
+        putAssetStates(rulesFacts, ASSET_COUNT, ATTRIBUTE_COUNT)
+
+        and: "compiled JSON rules that have fired for all their matched asset states"
+        def builder = new JsonRulesBuilder(timerService, assetStorageService, null, [:] as Assets, null, null, null)
+        for (int i = 0; i < RULE_COUNT; i++) {
+            builder.add(createRule(i))
+        }
+        def compiledRules = builder.build()
+        def firedRules = compiledRules.findAll { rule ->
+            if (rule.evaluate(rulesFacts)) {
+                rule.execute(rulesFacts)
+                return true
+            }
+            return false
+        }
+        def compiledNamedFacts = rulesFacts.getNamedFacts().size()
+
+        and: "the same rules evaluated as before compilation, with a named reset fact for every fired asset state"
+        List<Rule> legacyRules = (0..<RULE_COUNT).collect { createRule(it) }
+        List<AssetQueryPredicate> legacyWhen = legacyRules.collect {
+            new AssetQueryPredicate(timerService, assetStorageService, it.when.asset)
+        }
+        List<Predicate<RulesFacts>> legacyAnd = legacyRules.collect {
+            AssetQueryPredicate.asPredicate(timerService, assetStorageService, it.and)
+        }
+        def legacyEvaluate = { int i ->
+            Rule rule = legacyRules[i]
+            List<AssetState> assetStates = rulesFacts.matchAssetState(legacyWhen[i])
+                .filter { assetState -> !rulesFacts.getOptional(rule.name + "_" + assetState.id + "_" + assetState.attributeName).isPresent() }
+                .collect(Collectors.toList())
+            return !assetStates.isEmpty() && legacyAnd[i].test(rulesFacts)
+        }
+        for (int i = 0; i < RULE_COUNT; i++) {
+            legacyRules[i].with { rule ->
+                rulesFacts.matchAssetState(legacyWhen[i]).forEach { assetState ->
+                    rulesFacts.put(rule.name + "_" + assetState.id + "_" + assetState.attributeName, assetState)
+                }
+            }
+        }
+
+        expect: "all rules to have fired once and no rule to fire again"
+        firedRules.size() == RULE_COUNT
+        compiledRules.every { !it.evaluate(rulesFacts) }
+        (0..<RULE_COUNT).every { !legacyEvaluate(it) }
+
+        and: "the compiled rules to have tracked the fired asset states without a named fact for each"
+        compiledNamedFacts == 0
+        rulesFacts.getNamedFacts().size() == RULE_COUNT * ASSET_COUNT.intdiv(100) * ATTRIBUTE_COUNT
+
+        and: "the measurements to be logged"
+        logMeasurements(LOG, "Evaluating " + RULE_COUNT + " JSON rules against " + ASSET_COUNT * ATTRIBUTE_COUNT + " asset states", [
+            compiled          : measureNanos(WARMUP_ITERATIONS, ITERATIONS) { compiledRules.each { it.evaluate(rulesFacts) } },
+            "before compilation": measureNanos(WARMUP_ITERATIONS, ITERATIONS) { (0..<RULE_COUNT).each { legacyEvaluate(it) } }
+        ])
+    }
+
+    /**
+     * @return A rule matching all asset states of a parent, without reset and with a nested condition that can be
+     * flattened.
+     */
+    static Rule createRule(int i) {
+        def assetQuery = new NewAssetQuery()
+        assetQuery.parents = [new ParentPredicate("parent" + (i % 100))] as ParentPredicate[]
+
+        def andQuery = new NewAssetQuery()
+        andQuery.ids = ["asset" + i] as String[]
+        def andCondition = new RuleCondition<NewAssetQuery>(
+            RuleOperator.AND,
+            null,
+            [new RuleCondition<NewAssetQuery>(RuleOperator.AND, [andQuery] as NewAssetQuery[], null)] as RuleCondition<NewAssetQuery>[]
+        )
+
+        return new Rule(
+            name: "Rule " + i,
+            when: new RuleTrigger(asset: assetQuery),
+            and: andCondition
+        )
+    }
+}
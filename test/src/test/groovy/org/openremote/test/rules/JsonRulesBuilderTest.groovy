@@ -0,0 +1,37 @@
+package org.openremote.test.rules
+
+import org.openremote.manager.rules.JsonRulesBuilder
+import org.openremote.model.asset.AssetMeta
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.filter.AttributeMetaPredicate
+import org.openremote.model.query.filter.AttributePredicate
+import org.openremote.model.query.filter.BooleanPredicate
+import org.openremote.model.query.filter.NumberPredicate
+import org.openremote.model.query.filter.StringPredicate
+import spock.lang.Specification
+
+import static org.openremote.model.asset.AssetType.THING
+
+class JsonRulesBuilderTest extends Specification {
+
+    def "Only cache the target assets of queries which depend on asset persistence events"() {
+
+        expect: "queries on the structure of assets to be cacheable"
+        JsonRulesBuilder.isCacheable(new AssetQuery().type(THING))
+        JsonRulesBuilder.isCacheable(new AssetQuery().attributes(new AttributePredicate("temperature")))
+        JsonRulesBuilder.isCacheable(new AssetQuery().attributeMeta(new AttributeMetaPredicate(AssetMeta.RULE_STATE)))
+
+        and: "queries on attribute or meta item values not to be cacheable"
+        !JsonRulesBuilder.isCacheable(new AssetQuery().attributes(
+            new AttributePredicate("temperature"),
+            new AttributePredicate(new StringPredicate("humidity"), new NumberPredicate(50))
+        ))
+        !JsonRulesBuilder.isCacheable(new AssetQuery().attributeMeta(
+            new AttributeMetaPredicate(AssetMeta.RULE_STATE, new BooleanPredicate(true))
+        ))
+
+        and: "queries on linked users or active calendar events not to be cacheable"
+        !JsonRulesBuilder.isCacheable(new AssetQuery().type(THING).userId("user1"))
+        !JsonRulesBuilder.isCacheable(new AssetQuery().type(THING).calendarEventActive(1000))
+    }
+}
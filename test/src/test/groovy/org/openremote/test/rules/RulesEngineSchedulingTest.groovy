@@ -0,0 +1,183 @@
+package org.openremote.test.rules
+
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.RulesEngine
+import org.openremote.manager.rules.RulesEngineId
+import org.openremote.model.rules.TemporaryFact
+import spock.lang.Specification
+
+import java.util.concurrent.Delayed
+import java.util.concurrent.FutureTask
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+import static org.openremote.test.rules.BasicRulesFactsTest.createAssetEvent
+
+class RulesEngineSchedulingTest extends Specification {
+
+    /**
+     * A firing scheduled on the fire executor, only runs when the test runs it.
+     */
+    static class ScheduledFiring extends FutureTask<Object> implements ScheduledFuture<Object> {
+
+        final long delayMillis
+
+        ScheduledFiring(Runnable runnable, long delayMillis) {
+            super(runnable, null)
+            this.delayMillis = delayMillis
+        }
+
+        @Override
+        long getDelay(TimeUnit unit) {
+            return unit.convert(delayMillis, TimeUnit.MILLISECONDS)
+        }
+
+        @Override
+        int compareTo(Delayed o) {
+            return Long.compare(delayMillis, o.getDelay(TimeUnit.MILLISECONDS))
+        }
+    }
+
+    def timerService = new TimerService()
+    def scheduledFirings = []
+    def fireExecutor = [
+        schedule: { Runnable runnable, long delay, TimeUnit unit ->
+            def firing = new ScheduledFiring(runnable, unit.toMillis(delay))
+            scheduledFirings << firing
+            return firing
+        }
+    ] as ScheduledExecutorService
+
+    def setup() {
+        timerService.clock = TimerService.Clock.PSEUDO
+    }
+
+    def createRulesEngine(long fireIntervalMillis) {
+        def rulesEngine = new RulesEngine(
+            timerService, null, null, new AssetStorageService(), new AssetProcessingService(), null, null,
+            new RulesEngineId(), null, fireExecutor, fireIntervalMillis, null, false
+        )
+        rulesEngine.running = true
+        return rulesEngine
+    }
+
+    def pendingFirings() {
+        scheduledFirings.findAll { !it.isDone() }
+    }
+
+    def runPendingFiring() {
+        def pending = pendingFirings()
+        assert pending.size() == 1
+        pending[0].run()
+    }
+
+    def "Fire immediately when idle and coalesce changes when busy"() {
+
+        given: "a rules engine which hasn't fired yet"
+        def rulesEngine = createRulesEngine(1000)
+
+        when: "a firing is requested"
+        rulesEngine.fire()
+
+        then: "the engine fires immediately"
+        scheduledFirings.size() == 1
+        scheduledFirings[0].delayMillis == 0
+
+        when: "the firing runs"
+        runPendingFiring()
+
+        then: "no other firing is scheduled as there are no temporary facts"
+        rulesEngine.fireCount == 1
+        pendingFirings().isEmpty()
+
+        when: "firings are requested right after the engine fired"
+        rulesEngine.fire()
+        rulesEngine.fire()
+        rulesEngine.fire()
+
+        then: "one firing is scheduled after the fire interval"
+        scheduledFirings.size() == 2
+        pendingFirings().size() == 1
+        pendingFirings()[0].delayMillis == 1000
+
+        when: "the scheduled firing runs and the engine is idle for longer than the fire interval"
+        runPendingFiring()
+        timerService.clock.advanceTime(1500, TimeUnit.MILLISECONDS)
+        rulesEngine.fire()
+
+        then: "the engine fires immediately"
+        rulesEngine.fireCount == 2
+        pendingFirings().size() == 1
+        pendingFirings()[0].delayMillis == 0
+    }
+
+    def "Fire when the earliest temporary fact expires"() {
+
+        given: "a rules engine which fired after temporary facts were inserted"
+        def rulesEngine = createRulesEngine(100)
+        def now = timerService.currentTimeMillis
+        rulesEngine.facts.insertAssetEvent(2000, createAssetEvent("asset1", "temperature", now))
+        rulesEngine.facts.insertAssetEvent(2500, createAssetEvent("asset1", "humidity", now))
+        rulesEngine.fire()
+        runPendingFiring()
+
+        expect: "the next firing to be scheduled right after the earliest expiration"
+        pendingFirings().size() == 1
+        pendingFirings()[0].delayMillis == 2001
+
+        when: "the clock passes the earliest expiration and the engine fires"
+        timerService.clock.advanceTime(2001, TimeUnit.MILLISECONDS)
+        runPendingFiring()
+
+        then: "the expired fact is removed and the next firing is scheduled at the next expiration"
+        rulesEngine.facts.temporaryFactCount == 1
+        pendingFirings().size() == 1
+        pendingFirings()[0].delayMillis == 500
+
+        when: "the clock passes the last expiration and the engine fires"
+        timerService.clock.advanceTime(500, TimeUnit.MILLISECONDS)
+        runPendingFiring()
+
+        then: "the removal is processed by a firing after the fire interval"
+        rulesEngine.facts.temporaryFactCount == 0
+        pendingFirings().size() == 1
+        pendingFirings()[0].delayMillis == 100
+
+        when: "that firing runs"
+        runPendingFiring()
+
+        then: "no other firing is scheduled"
+        pendingFirings().isEmpty()
+    }
+
+    def "Don't wait longer than the guaranteed minimum expiration with a pseudo clock"() {
+
+        given: "a rules engine which fired after a long living temporary fact was inserted"
+        def rulesEngine = createRulesEngine(100)
+        rulesEngine.facts.insertAssetEvent(60000, createAssetEvent("asset1", "temperature", timerService.currentTimeMillis))
+        rulesEngine.fire()
+        runPendingFiring()
+
+        expect: "the next firing to be scheduled after the guaranteed minimum expiration"
+        pendingFirings().size() == 1
+        pendingFirings()[0].delayMillis == TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS
+    }
+
+    def "Reduce a fire interval longer than the guaranteed minimum expiration"() {
+
+        given: "a rules engine configured with a long fire interval which has just fired"
+        def rulesEngine = createRulesEngine(10000)
+        rulesEngine.fire()
+        runPendingFiring()
+
+        when: "a firing is requested"
+        rulesEngine.fire()
+
+        then: "the firing is scheduled after the guaranteed minimum expiration"
+        rulesEngine.fireIntervalMillis == TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS
+        pendingFirings()[0].delayMillis == TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS
+    }
+}
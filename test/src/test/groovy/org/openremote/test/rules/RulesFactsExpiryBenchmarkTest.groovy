@@ -0,0 +1,78 @@
+package org.openremote.test.rules
+
+import org.openremote.container.Container
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.RulesClock
+import org.openremote.manager.rules.RulesFacts
+import org.openremote.test.BenchmarkTrait
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+
+import java.util.logging.Logger
+
+import static org.openremote.test.rules.BasicRulesFactsTest.createAssetEvent
+
+/**
+ * Measures expiring asset events held by {@link RulesFacts}, the clock advances in steps and each step removes the
+ * expired events as a firing of the rules engine would. Run with <code>./gradlew :test:benchmark</code>.
+ */
+@IgnoreIf({ !Boolean.getBoolean("benchmark") })
+class RulesFactsExpiryBenchmarkTest extends Specification implements BenchmarkTrait {
+
+    private static final Logger LOG = Logger.getLogger(RulesFactsExpiryBenchmarkTest.class.getName())
+
+    static final int EVENT_COUNT = 1000000
+    static final int ATTRIBUTE_COUNT = 10
+    static final long MAX_EXPIRATION_MILLIS = 60000
+    static final long CLOCK_STEP_MILLIS = 100
+
+    def "Expire one million asset events"() {
+
+        given: "rules facts with one million asset events of random expiration"
+        Container.LOG.info("Running benchmark...")
+        def rulesFacts = createRulesFacts(createPseudoTimerService(), new AssetStorageService(), this)
+        def random = new Random(42)
+        long[] expirations = new long[EVENT_COUNT]
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            expirations[i] = 1 + (long) (random.nextDouble() * MAX_EXPIRATION_MILLIS)
+            rulesFacts.insertAssetEvent(
+                expirations[i],
+                createAssetEvent("asset" + i.intdiv(ATTRIBUTE_COUNT), "attribute" + (i % ATTRIBUTE_COUNT), 0)
+            )
+        }
+        Arrays.sort(expirations)
+
+        expect: "all events to be present"
+        assert rulesFacts.getTemporaryFactCount() == EVENT_COUNT
+        assert rulesFacts.hasTemporaryFacts()
+
+        when: "the clock advances until all events are expired"
+        int steps = 0
+        int expired = 0
+        List<Integer> unexpectedCounts = []
+        long nanos = 0
+        for (long time = CLOCK_STEP_MILLIS; rulesFacts.hasTemporaryFacts(); time += CLOCK_STEP_MILLIS) {
+            rulesFacts.setClock(new RulesClock(time))
+            long start = System.nanoTime()
+            rulesFacts.removeExpiredTemporaryFacts()
+            nanos += System.nanoTime() - start
+            steps++
+            // An event is expired when its expiration is before the current time
+            while (expired < EVENT_COUNT && expirations[expired] < time) {
+                expired++
+            }
+            if (rulesFacts.getTemporaryFactCount() != EVENT_COUNT - expired) {
+                unexpectedCounts << steps
+            }
+        }
+
+        then: "each step should have removed exactly the expired events, until all events are removed"
+        assert unexpectedCounts.isEmpty()
+        assert rulesFacts.getAssetEvents().isEmpty()
+        assert steps <= MAX_EXPIRATION_MILLIS.intdiv(CLOCK_STEP_MILLIS) + 1
+        LOG.info(String.format(
+            "Expired %d asset events in %d steps, total: %.1fms, per step: %.1fus, per event: %.0fns",
+            EVENT_COUNT, steps, nanos / 1000000d, nanos / 1000d / steps, nanos / (double) EVENT_COUNT
+        ))
+    }
+}
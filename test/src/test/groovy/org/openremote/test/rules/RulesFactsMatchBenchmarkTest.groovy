@@ -0,0 +1,78 @@
+package org.openremote.test.rules
+
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.AssetQueryPredicate
+import org.openremote.manager.rules.RulesFacts
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.rules.AssetState
+import org.openremote.test.BenchmarkTrait
+import spock.lang.IgnoreIf
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.function.Predicate
+import java.util.logging.Logger
+
+import static org.openremote.model.asset.AssetType.ROOM
+import static org.openremote.model.query.BaseAssetQuery.Operator.GREATER_THAN
+
+/**
+ * Compares matching asset state facts with the indexes of {@link RulesFacts} and with a parallel scan of all asset
+ * states, as done before the indexes were used. Run with <code>./gradlew :test:benchmark</code>.
+ */
+@IgnoreIf({ !Boolean.getBoolean("benchmark") })
+class RulesFactsMatchBenchmarkTest extends Specification implements BenchmarkTrait {
+
+    private static final Logger LOG = Logger.getLogger(RulesFactsMatchBenchmarkTest.class.getName())
+
+    static final int ASSET_COUNT = 10000
+    static final int ATTRIBUTE_COUNT = 10
+    static final int WARMUP_ITERATIONS = 200
+    static final int ITERATIONS = 1000
+
+    @Shared
+    TimerService timerService
+    @Shared
+    AssetStorageService assetStorageService
+    @Shared
+    RulesFacts rulesFacts
+
+    def setupSpec() {
+    Container.LOG.info("Running benchmark...")
+        timerService = createPseudoTimerService()
+        assetStorageService = new AssetStorageService()
+        rulesFacts = createRulesFacts(timerService, assetStorageService, this)
+        putAssetStates(rulesFacts, ASSET_COUNT, ATTRIBUTE_COUNT)
+    }
+
+    @Unroll
+    def "Match asset states by #description"() {
+
+        expect: "the indexed and scanned matches to be equal"
+        def queryPredicate = new AssetQueryPredicate(timerService, assetStorageService, query)
+        // Not an asset query predicate, so all asset states are scanned
+        Predicate<AssetState> predicate = { AssetState assetState -> queryPredicate.test(assetState) } as Predicate<AssetState>
+        assert rulesFacts.matchAssetState(query).count() == matches
+        assert rulesFacts.matchAssetState(predicate).count() == matches
+
+        and: "the indexed match to only test the asset states of the smallest index entry"
+        assert rulesFacts.getCandidateAssetStates(queryPredicate.query).size() == candidates
+        assert candidates < rulesFacts.assetStates.size()
+
+        and: "the measurements to be logged"
+        logMeasurements(LOG, "Matching " + description + " of " + rulesFacts.assetStates.size() + " asset states", [
+            indexed: measureNanos(WARMUP_ITERATIONS, ITERATIONS) { rulesFacts.matchAssetState(query).count() },
+            scanned: measureNanos(WARMUP_ITERATIONS, ITERATIONS) { rulesFacts.matchAssetState(predicate).count() }
+        ])
+
+        where:
+        description                | query                                                             | candidates                                | matches
+        "asset ID"                 | new AssetQuery().id("asset123")                                   | ATTRIBUTE_COUNT                           | ATTRIBUTE_COUNT
+        "parent ID"                | new AssetQuery().parent("parent12")                               | ASSET_COUNT.intdiv(100) * ATTRIBUTE_COUNT | ASSET_COUNT.intdiv(100) * ATTRIBUTE_COUNT
+        "attribute name and value" | new AssetQuery().attributeValue("attribute3", GREATER_THAN, 9000) | ASSET_COUNT                               | ASSET_COUNT - 9001
+        "asset type and attribute" | new AssetQuery().type(ROOM).attributeName("attribute5")           | ASSET_COUNT                               | ASSET_COUNT.intdiv(2)
+    }
+}
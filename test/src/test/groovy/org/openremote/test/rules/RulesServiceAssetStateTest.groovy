@@ -0,0 +1,119 @@
+package org.openremote.test.rules
+
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.RulesEngine
+import org.openremote.manager.rules.RulesEngineId
+import org.openremote.manager.rules.RulesService
+import org.openremote.model.rules.AssetState
+import org.openremote.model.value.Values
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static org.openremote.model.asset.AssetType.THING
+import static org.openremote.test.rules.BasicRulesFactsTest.createAssetState
+
+class RulesServiceAssetStateTest extends Specification {
+
+    def "Deliver updates of the same attribute to the engines in order"() {
+
+        given: "an engine which blocks while the first update is delivered"
+        def delivered = new CopyOnWriteArrayList<Double>()
+        def firstDelivering = new CountDownLatch(1)
+        def releaseFirst = new CountDownLatch(1)
+        def rulesEngine = new RulesEngine(
+            new TimerService(), null, null, new AssetStorageService(), new AssetProcessingService(), null, null,
+            new RulesEngineId(), null, null, 1000, null, false
+        ) {
+            @Override
+            void updateFact(AssetState assetState, boolean fireImmediately) {
+                double value = Values.getNumber(assetState.value.orElse(null)).orElse(0d)
+                if (value == 1d) {
+                    firstDelivering.countDown()
+                    releaseFirst.await(10, TimeUnit.SECONDS)
+                }
+                delivered << value
+            }
+        }
+
+        and: "a rules service with the engine in scope of all assets"
+        def rulesService = new RulesService() {
+            @Override
+            protected List<RulesEngine> getEnginesInScope(AssetState assetState) {
+                return [rulesEngine]
+            }
+        }
+        def conditions = new PollingConditions(timeout: 5)
+
+        when: "an attribute is updated"
+        def firstUpdate = Thread.start {
+            rulesService.updateAssetState(createAssetState("asset1", THING, null, "temperature", 1), true, false)
+        }
+        firstDelivering.await(10, TimeUnit.SECONDS)
+
+        and: "the attribute is updated again by another thread while the first update is being delivered"
+        def secondUpdate = Thread.start {
+            rulesService.updateAssetState(createAssetState("asset1", THING, null, "temperature", 2), true, false)
+        }
+
+        then: "the second update waits for the first update"
+        conditions.eventually {
+            assert secondUpdate.state == Thread.State.WAITING || secondUpdate.state == Thread.State.TIMED_WAITING
+        }
+        delivered.isEmpty()
+
+        when: "the first update is delivered"
+        releaseFirst.countDown()
+        firstUpdate.join(10000)
+        secondUpdate.join(10000)
+
+        then: "the engine received the updates in order"
+        delivered == [1d, 2d]
+    }
+
+    def "Deliver concurrent updates of an attribute in the order they were applied"() {
+
+        given: "an engine which records the delivered values"
+        def delivered = new CopyOnWriteArrayList<Double>()
+        def rulesEngine = new RulesEngine(
+            new TimerService(), null, null, new AssetStorageService(), new AssetProcessingService(), null, null,
+            new RulesEngineId(), null, null, 1000, null, false
+        ) {
+            @Override
+            void updateFact(AssetState assetState, boolean fireImmediately) {
+                delivered << Values.getNumber(assetState.value.orElse(null)).orElse(0d)
+            }
+        }
+
+        and: "a rules service which records the order of applied updates"
+        def applied = new CopyOnWriteArrayList<Double>()
+        def rulesService = new RulesService() {
+            @Override
+            protected List<RulesEngine> getEnginesInScope(AssetState assetState) {
+                applied << Values.getNumber(assetState.value.orElse(null)).orElse(0d)
+                return [rulesEngine]
+            }
+        }
+
+        when: "many threads update the same attribute"
+        def threads = (1..8).collect { thread ->
+            Thread.start {
+                (1..200).each {
+                    rulesService.updateAssetState(
+                        createAssetState("asset1", THING, null, "temperature", thread * 1000 + it), true, false
+                    )
+                }
+            }
+        }
+        threads.each { it.join(30000) }
+
+        then: "the engine received all updates in the order the service applied them"
+        delivered.size() == 8 * 200
+        delivered == applied
+    }
+}
@@ -0,0 +1,139 @@
+package org.openremote.test.rules
+
+import org.codehaus.groovy.control.CompilationFailedException
+import org.codehaus.groovy.runtime.InvokerHelper
+import org.openremote.manager.rules.RulesetScriptCache
+import org.openremote.model.rules.GlobalRuleset
+import org.openremote.model.rules.Ruleset
+import spock.lang.Specification
+
+import javax.script.ScriptException
+
+import static org.openremote.model.rules.Ruleset.Lang.GROOVY
+import static org.openremote.model.rules.Ruleset.Lang.JAVASCRIPT
+
+class RulesetScriptCacheTest extends Specification {
+
+    static final String COUNTER_SOURCE = """
+        class Counter {
+            static int count = 0
+        }
+        Counter.count++
+        return Counter.count
+        """
+
+    def createRuleset(long id, String rules, Ruleset.Lang lang) {
+        def ruleset = new GlobalRuleset("Ruleset " + id, rules, lang)
+        ruleset.setId(id)
+        return ruleset
+    }
+
+    def runGroovyScript(Class scriptClass) {
+        InvokerHelper.createScript(scriptClass, new Binding()).run()
+    }
+
+    def "Compile the same Groovy source once without sharing static state"() {
+
+        given: "a script cache and two rulesets with the same source"
+        def scriptCache = new RulesetScriptCache(10, false)
+        def ruleset1 = createRuleset(1, COUNTER_SOURCE, GROOVY)
+        def ruleset2 = createRuleset(2, COUNTER_SOURCE, GROOVY)
+
+        when: "the scripts of both rulesets are loaded and the first is loaded again"
+        def scriptClass1 = scriptCache.getGroovyScript(ruleset1)
+        def scriptClass2 = scriptCache.getGroovyScript(ruleset2)
+        def scriptClass3 = scriptCache.getGroovyScript(ruleset1)
+
+        then: "the source has been compiled once"
+        scriptCache.compilationCount == 1
+        scriptCache.groovyScriptCount == 1
+
+        and: "each deployment has its own script class"
+        scriptClass1.name == scriptClass2.name
+        !scriptClass1.is(scriptClass2)
+        !scriptClass1.is(scriptClass3)
+
+        and: "the classes declared in the source don't share static state"
+        runGroovyScript(scriptClass1) == 1
+        runGroovyScript(scriptClass2) == 1
+        runGroovyScript(scriptClass3) == 1
+        runGroovyScript(scriptClass1) == 2
+    }
+
+    def "Report compilation errors without caching the failed source"() {
+
+        given: "a script cache and rulesets with invalid sources"
+        def scriptCache = new RulesetScriptCache(10, false)
+        def groovyRuleset = createRuleset(1, "rules.add() {", GROOVY)
+        def javascriptRuleset = createRuleset(2, "var rules = [", JAVASCRIPT)
+
+        when: "the Groovy script is loaded"
+        scriptCache.getGroovyScript(groovyRuleset)
+
+        then: "the compilation error is thrown"
+        thrown(CompilationFailedException)
+
+        when: "the JavaScript is loaded"
+        scriptCache.getJavascript(javascriptRuleset)
+
+        then: "the compilation error is thrown"
+        thrown(ScriptException)
+        scriptCache.groovyScriptCount == 0
+        scriptCache.javascriptCount == 0
+
+        when: "the rulesets are fixed and compiled in parallel with an invalid ruleset"
+        groovyRuleset.setRules(COUNTER_SOURCE)
+        javascriptRuleset.setRules("var rules = [];")
+        scriptCache.compile([groovyRuleset, javascriptRuleset, createRuleset(3, "rules.add() {", GROOVY)])
+
+        then: "the valid sources have been cached"
+        scriptCache.groovyScriptCount == 1
+        scriptCache.javascriptCount == 1
+        runGroovyScript(scriptCache.getGroovyScript(groovyRuleset)) == 1
+        scriptCache.getJavascript(javascriptRuleset) != null
+    }
+
+    def "Remove compiled sources no longer used by any ruleset"() {
+
+        given: "a script cache with the compiled source of two rulesets"
+        def scriptCache = new RulesetScriptCache(10, false)
+        def ruleset1 = createRuleset(1, COUNTER_SOURCE, GROOVY)
+        def ruleset2 = createRuleset(2, COUNTER_SOURCE, GROOVY)
+        def javascriptRuleset = createRuleset(3, "var rules = [];", JAVASCRIPT)
+        scriptCache.compile([ruleset1, ruleset2, javascriptRuleset])
+
+        expect: "the sources to be cached"
+        scriptCache.groovyScriptCount == 1
+        scriptCache.javascriptCount == 1
+
+        when: "the first ruleset is updated"
+        ruleset1.setRules(COUNTER_SOURCE + "\n// Updated")
+        scriptCache.getGroovyScript(ruleset1)
+
+        then: "the previous source is still cached for the second ruleset"
+        scriptCache.groovyScriptCount == 2
+
+        when: "the second ruleset is deleted"
+        scriptCache.remove(ruleset2)
+
+        then: "the previous source has been removed"
+        scriptCache.groovyScriptCount == 1
+
+        when: "the second ruleset is deployed again"
+        def compilationCount = scriptCache.compilationCount
+        scriptCache.getGroovyScript(ruleset2)
+
+        then: "its source is compiled again"
+        scriptCache.compilationCount == compilationCount + 1
+
+        when: "the JavaScript ruleset is updated and the other rulesets are deleted"
+        javascriptRuleset.setRules("var rules = [{}];")
+        scriptCache.getJavascript(javascriptRuleset)
+        scriptCache.remove(ruleset1)
+        scriptCache.remove(ruleset2)
+
+        then: "only the updated JavaScript is cached"
+        scriptCache.groovyScriptCount == 0
+        scriptCache.javascriptCount == 1
+    }
+}
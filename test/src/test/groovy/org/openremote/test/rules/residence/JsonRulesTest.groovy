@@ -184,9 +184,9 @@ class JsonRulesTest extends Specification implements ManagerContainerTrait {
             assert targetIds[0] == consoleRegistration.id
         }
 
-        and: "the rule reset fact should have been created"
+        and: "the rule should have recorded that it fired for the console location"
         conditions.eventually {
-            assert tenantAEngine.facts.getOptional("Test Rule_" + consoleRegistration.id + "_location").isPresent()
+            assert tenantAEngine.deployments.values().any { it.jsonRulesBuilder?.hasFired("Test Rule", consoleRegistration.id, "location") }
         }
 
         and: "after a few seconds the rule should not have fired again"
@@ -197,9 +197,9 @@ class JsonRulesTest extends Specification implements ManagerContainerTrait {
         when: "the console device moves back inside the home geofence (as defined in the rule)"
         authenticatedAssetResource.writeAttributeValue(null, consoleRegistration.id, LOCATION.name, ManagerDemoSetup.SMART_BUILDING_LOCATION.toValue().toJson())
 
-        then: "the rule reset fact should be removed"
+        then: "the rule should have been reset for the console location"
         conditions.eventually {
-            assert !tenantAEngine.facts.getOptional("Test Rule_" + consoleRegistration.id + "_location").isPresent()
+            assert !tenantAEngine.deployments.values().any { it.jsonRulesBuilder?.hasFired("Test Rule", consoleRegistration.id, "location") }
         }
 
         when: "the console device moves outside the home geofence again (as defined in the rule)"
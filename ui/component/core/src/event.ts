@@ -44,6 +44,235 @@ const RENEW_MESSAGE_PREFIX = "RENEW:";
 const UNAUTHORIZED_MESSAGE_PREFIX = "UNAUTHORIZED:";
 const EVENT_MESSAGE_PREFIX = "EVENT:";
 
+/**
+ * Websocket subprotocol exchanging messages as CBOR frames, see WebsocketBinaryCodec of the manager.
+ */
+export const BINARY_SUBPROTOCOL = "openremote-cbor";
+
+const TAG_STRINGREF = 25;
+const TAG_STRINGREF_NAMESPACE = 256;
+
+/**
+ * Minimum length in UTF-8 bytes of a string added to a stringref table of the given size, see
+ * http://cbor.schmorp.de/stringref
+ */
+function getMinReferenceLength(tableSize: number): number {
+    if (tableSize < 24) {
+        return 3;
+    }
+    if (tableSize < 0x100) {
+        return 4;
+    }
+    if (tableSize < 0x10000) {
+        return 5;
+    }
+    if (tableSize < 0x100000000) {
+        return 7;
+    }
+    return 11;
+}
+
+/**
+ * Reads the items of a binary frame: an array of the message prefix and the optional payload, repeated strings of
+ * the payload are references to the string table of its stringref namespace.
+ */
+class BinaryMessageReader {
+
+    protected static _textDecoder = new TextDecoder("utf-8");
+
+    protected _view: DataView;
+    protected _offset: number = 0;
+    // The table of the innermost stringref namespace, undefined outside of a namespace
+    protected _strings: string[] | undefined = undefined;
+
+    constructor(data: ArrayBuffer) {
+        this._view = new DataView(data);
+    }
+
+    /**
+     * Returns the prefix and the payload of the message, the payload is undefined if the whole message is the prefix.
+     */
+    public readMessage(): [string, any] {
+        const initial = this._readByte();
+        if (initial !== 0x81 && initial !== 0x82) {
+            throw new Error("Frame must be an array of one or two items");
+        }
+        const prefix = this._readValue(this._readByte());
+        if (typeof prefix !== "string") {
+            throw new Error("Message prefix must be a text string");
+        }
+        const payload = initial === 0x82 ? this._readValue(this._readByte()) : undefined;
+        if (this._offset !== this._view.byteLength) {
+            throw new Error("Unexpected data after frame");
+        }
+        return [prefix, payload];
+    }
+
+    protected _readByte(): number {
+        return this._view.getUint8(this._offset++);
+    }
+
+    protected _readLength(info: number): number {
+        if (info < 24) {
+            return info;
+        }
+        let length: number;
+        switch (info) {
+            case 24:
+                length = this._view.getUint8(this._offset);
+                this._offset += 1;
+                break;
+            case 25:
+                length = this._view.getUint16(this._offset);
+                this._offset += 2;
+                break;
+            case 26:
+                length = this._view.getUint32(this._offset);
+                this._offset += 4;
+                break;
+            case 27:
+                length = this._view.getUint32(this._offset) * 0x100000000 + this._view.getUint32(this._offset + 4);
+                this._offset += 8;
+                break;
+            default:
+                throw new Error("Unsupported length encoding: " + info);
+        }
+        return length;
+    }
+
+    protected _readValue(initial: number): any {
+        const majorType = initial >> 5;
+        const info = initial & 0x1f;
+        switch (majorType) {
+            case 0:
+                return this._readLength(info);
+            case 1:
+                return -1 - this._readLength(info);
+            case 3:
+                return this._readText(info);
+            case 4: {
+                const array: any[] = [];
+                if (info === 31) {
+                    let next: number;
+                    while ((next = this._readByte()) !== 0xff) {
+                        array.push(this._readValue(next));
+                    }
+                } else {
+                    for (let i = this._readLength(info); i > 0; i--) {
+                        array.push(this._readValue(this._readByte()));
+                    }
+                }
+                return array;
+            }
+            case 5: {
+                const object: { [key: string]: any } = {};
+                if (info === 31) {
+                    let next: number;
+                    while ((next = this._readByte()) !== 0xff) {
+                        this._readEntry(object, next);
+                    }
+                } else {
+                    for (let i = this._readLength(info); i > 0; i--) {
+                        this._readEntry(object, this._readByte());
+                    }
+                }
+                return object;
+            }
+            case 6: {
+                const tag = this._readLength(info);
+                if (tag === TAG_STRINGREF_NAMESPACE) {
+                    const outerStrings = this._strings;
+                    this._strings = [];
+                    const value = this._readValue(this._readByte());
+                    this._strings = outerStrings;
+                    return value;
+                }
+                if (tag === TAG_STRINGREF) {
+                    return this._readReference();
+                }
+                throw new Error("Unsupported tag: " + tag);
+            }
+            case 7:
+                switch (info) {
+                    case 20:
+                        return false;
+                    case 21:
+                        return true;
+                    case 22:
+                    case 23:
+                        return null;
+                    case 25: {
+                        const half = this._view.getUint16(this._offset);
+                        this._offset += 2;
+                        return BinaryMessageReader._halfToNumber(half);
+                    }
+                    case 26: {
+                        const value = this._view.getFloat32(this._offset);
+                        this._offset += 4;
+                        return value;
+                    }
+                    case 27: {
+                        const value = this._view.getFloat64(this._offset);
+                        this._offset += 8;
+                        return value;
+                    }
+                }
+                throw new Error("Unsupported simple value: " + info);
+        }
+        throw new Error("Unsupported major type: " + majorType);
+    }
+
+    protected _readEntry(object: { [key: string]: any }, initial: number) {
+        const key = this._readValue(initial);
+        if (typeof key !== "string") {
+            throw new Error("Map key must be a text string");
+        }
+        object[key] = this._readValue(this._readByte());
+    }
+
+    protected _readText(info: number): string {
+        const length = this._readLength(info);
+        if (this._offset + length > this._view.byteLength) {
+            throw new Error("Text string exceeds frame: " + length);
+        }
+        const text = BinaryMessageReader._textDecoder.decode(new Uint8Array(this._view.buffer, this._view.byteOffset + this._offset, length));
+        this._offset += length;
+        if (this._strings && length >= getMinReferenceLength(this._strings.length)) {
+            this._strings.push(text);
+        }
+        return text;
+    }
+
+    protected _readReference(): string {
+        if (!this._strings) {
+            throw new Error("String reference outside of a stringref namespace");
+        }
+        const initial = this._readByte();
+        if (initial >> 5 !== 0) {
+            throw new Error("String reference must be an unsigned integer");
+        }
+        const index = this._readLength(initial & 0x1f);
+        if (index >= this._strings.length) {
+            throw new Error("Unknown string reference: " + index);
+        }
+        return this._strings[index];
+    }
+
+    protected static _halfToNumber(half: number): number {
+        const exponent = (half >> 10) & 0x1f;
+        const mantissa = half & 0x3ff;
+        let value: number;
+        if (exponent === 0) {
+            value = mantissa * Math.pow(2, -24);
+        } else if (exponent === 31) {
+            value = mantissa === 0 ? Infinity : NaN;
+        } else {
+            value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+        }
+        return half & 0x8000 ? -value : value;
+    }
+}
+
 abstract class EventProviderImpl implements EventProvider {
 
     protected static MIN_RECONNECT_DELAY: number = 0;
@@ -353,6 +582,7 @@ export class WebSocketEventProvider extends EventProviderImpl {
     protected static _subscriptionRenewalMillis = 150 * 1000;
 
     private readonly _endpointUrl: string;
+    private readonly _binary: boolean;
     protected _webSocket: WebSocket | undefined = undefined;
     protected _connectDeferred: Deferred<boolean> | null = null;
     protected _subscribeDeferred: Deferred<string> | null = null;
@@ -362,9 +592,14 @@ export class WebSocketEventProvider extends EventProviderImpl {
         return this._endpointUrl;
     }
 
-    constructor(managerUrl: string, statusCallback: (connected: EventProviderStatus) => void) {
+    /**
+     * @param binary Receive messages as binary frames of the {@link BINARY_SUBPROTOCOL}, messages are still sent as text.
+     */
+    constructor(managerUrl: string, statusCallback: (connected: EventProviderStatus) => void, binary: boolean = false) {
         super(statusCallback);
 
+        this._binary = binary;
+
         this._endpointUrl = (managerUrl.startsWith("https:") ? "wss" : "ws") + "://" + managerUrl.substr(managerUrl.indexOf("://") + 3) + "/websocket/events";
 
         // Close socket on unload/refresh of page
@@ -380,7 +615,12 @@ export class WebSocketEventProvider extends EventProviderImpl {
             authorisedUrl += "&Authorization=" + openremote.getAuthorizationHeader();
         }
 
-        this._webSocket = new WebSocket(authorisedUrl);
+        if (this._binary) {
+            this._webSocket = new WebSocket(authorisedUrl, BINARY_SUBPROTOCOL);
+            this._webSocket.binaryType = "arraybuffer";
+        } else {
+            this._webSocket = new WebSocket(authorisedUrl);
+        }
         this._connectDeferred = new Deferred();
 
         this._webSocket!.onopen = () => {
@@ -416,55 +656,75 @@ export class WebSocketEventProvider extends EventProviderImpl {
         };
 
         this._webSocket!.onmessage = (e) => {
-            let msg = e.data as string;
-            if (msg && msg.startsWith(SUBSCRIBED_MESSAGE_PREFIX)) {
-                let jsonStr = msg.substring(SUBSCRIBED_MESSAGE_PREFIX.length);
-                let subscription = JSON.parse(jsonStr) as EventSubscription<SharedEvent>;
-
-                // Create a renewal timer if not done so
-                if (!this._renewalTimer) {
-                    setInterval(() => {
-                        this._doRenewal();
-                    }, WebSocketEventProvider._subscriptionRenewalMillis);
-                }
-
-                let deferred = this._subscribeDeferred;
-                this._subscribeDeferred = null;
-                if (deferred) {
-                    deferred.resolve(subscription.subscriptionId);
-                }
-            } else if (msg.startsWith(UNAUTHORIZED_MESSAGE_PREFIX)) {
-                let jsonStr = msg.substring(UNAUTHORIZED_MESSAGE_PREFIX.length);
-                let subscription = JSON.parse(jsonStr) as EventSubscription<SharedEvent>;
-                let deferred = this._subscribeDeferred;
-                this._subscribeDeferred = null;
-                if (deferred) {
-                    console.warn("Unauthorized event subscription: " + subscription);
-                    deferred.reject("Unauthorized");
-                }
-            } else if (msg.startsWith(EVENT_MESSAGE_PREFIX)) {
-                let str = msg.substring(EVENT_MESSAGE_PREFIX.length);
-                let seperatorPos = str.indexOf(":");
-                if (seperatorPos > 0) {
-                    let strArr = [str.substring(0, seperatorPos), str.substring(seperatorPos + 1)];
-                    let subscriptionId = strArr[0];
-                    let jsonStr = strArr[1];
-                    if (jsonStr.startsWith("[")) {
-                        let events = JSON.parse(jsonStr) as SharedEvent[];
-                        events.forEach(event => {
-                            this._onMessageReceived(subscriptionId, event);
-                        });
-                    } else {
-                        let event = JSON.parse(jsonStr) as SharedEvent;
-                        this._onMessageReceived(subscriptionId, event);
-                    }
+            if (e.data instanceof ArrayBuffer) {
+                let message: [string, any];
+                try {
+                    message = new BinaryMessageReader(e.data).readMessage();
+                } catch (ex) {
+                    console.warn("Invalid binary message: " + ex);
+                    return;
                 }
+                this._onMessage(message[0], message[1]);
+            } else {
+                this._onMessage(e.data as string);
             }
         };
 
         return this._connectDeferred.promise;
     }
 
+    /**
+     * @param payload The decoded payload of a binary message, the message text is then only the prefix.
+     */
+    protected _onMessage(msg: string, payload?: any) {
+        const parse = (jsonStr: string) => payload !== undefined ? payload : JSON.parse(jsonStr);
+
+        if (msg && msg.startsWith(SUBSCRIBED_MESSAGE_PREFIX)) {
+            let jsonStr = msg.substring(SUBSCRIBED_MESSAGE_PREFIX.length);
+            let subscription = parse(jsonStr) as EventSubscription<SharedEvent>;
+
+            // Create a renewal timer if not done so
+            if (!this._renewalTimer) {
+                setInterval(() => {
+                    this._doRenewal();
+                }, WebSocketEventProvider._subscriptionRenewalMillis);
+            }
+
+            let deferred = this._subscribeDeferred;
+            this._subscribeDeferred = null;
+            if (deferred) {
+                deferred.resolve(subscription.subscriptionId);
+            }
+        } else if (msg.startsWith(UNAUTHORIZED_MESSAGE_PREFIX)) {
+            let jsonStr = msg.substring(UNAUTHORIZED_MESSAGE_PREFIX.length);
+            let subscription = parse(jsonStr) as EventSubscription<SharedEvent>;
+            let deferred = this._subscribeDeferred;
+            this._subscribeDeferred = null;
+            if (deferred) {
+                console.warn("Unauthorized event subscription: " + subscription);
+                deferred.reject("Unauthorized");
+            }
+        } else if (msg.startsWith(EVENT_MESSAGE_PREFIX)) {
+            let str = msg.substring(EVENT_MESSAGE_PREFIX.length);
+            let seperatorPos = str.indexOf(":");
+            if (seperatorPos > 0) {
+                let strArr = [str.substring(0, seperatorPos), str.substring(seperatorPos + 1)];
+                let subscriptionId = strArr[0];
+                let jsonStr = strArr[1];
+                let parsed = parse(jsonStr);
+                if (Array.isArray(parsed)) {
+                    let events = parsed as SharedEvent[];
+                    events.forEach(event => {
+                        this._onMessageReceived(subscriptionId, event);
+                    });
+                } else {
+                    let event = parsed as SharedEvent;
+                    this._onMessageReceived(subscriptionId, event);
+                }
+            }
+        }
+    }
+
     protected _beforeDisconnect(): void {
         if (this._renewalTimer != null) {
             clearInterval(this._renewalTimer);
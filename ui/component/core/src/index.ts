@@ -57,6 +57,8 @@ export interface ManagerConfig {
     consoleAutoEnable?: boolean;
     eventProviderType?: EventProviderType;
     pollingIntervalMillis?: number;
+    // Receive websocket events as compact binary frames
+    binaryEvents?: boolean;
 }
 
 export type EventCallback = (event: OREvent) => any;
@@ -305,7 +307,7 @@ export class Manager {
 
         switch (this._config.eventProviderType) {
             case EventProviderType.WEBSOCKET:
-                this._events = new WebSocketEventProvider(this._config.managerUrl, (status: EventProviderStatus) => {this.onEventsProviderStatusChanged(status)});
+                this._events = new WebSocketEventProvider(this._config.managerUrl, (status: EventProviderStatus) => {this.onEventsProviderStatusChanged(status)}, this._config.binaryEvents);
                 connected = await this._events.connect();
                 break;
             case EventProviderType.POLLING: